@@ -71,6 +71,7 @@ public static HttpServerText get() {
 	/***/ public String internalServerErrorRequestAttributeWasAlreadySet;
 	/***/ public String invalidBoolean;
 	/***/ public String invalidIndex;
+	/***/ public String invalidInteger;
 	/***/ public String invalidRegexGroup;
 	/***/ public String noResolverAvailable;
 	/***/ public String parameterNotSet;
@@ -78,6 +79,7 @@ public static HttpServerText get() {
 	/***/ public String pathNotSupported;
 	/***/ public String repositoryAccessForbidden;
 	/***/ public String repositoryNotFound;
+	/***/ public String serviceTooBusy;
 	/***/ public String servletAlreadyInitialized;
 	/***/ public String servletMustNotBeNull;
 	/***/ public String servletWasAlreadyBound;
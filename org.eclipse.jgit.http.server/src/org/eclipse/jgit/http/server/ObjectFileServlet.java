@@ -63,7 +63,10 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.ObjectDirectory;
 
-/** Sends any object from {@code GIT_DIR/objects/??/0 38}, or any pack file. */
+/**
+ * Sends any object from {@code GIT_DIR/objects/??/0 38}, any pack file, or any
+ * bundle from {@code GIT_DIR/objects/bundles}.
+ */
 abstract class ObjectFileServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
@@ -101,6 +104,14 @@ static class Pack extends PackData {
 		}
 	}
 
+	static class Bundle extends PackData {
+		private static final long serialVersionUID = 1L;
+
+		Bundle() {
+			super("application/x-git-bundle");
+		}
+	}
+
 	static class PackIdx extends PackData {
 		private static final long serialVersionUID = 1L;
 
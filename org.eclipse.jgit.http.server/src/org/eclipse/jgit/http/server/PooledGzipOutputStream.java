@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.http.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes the gzip format, compressing with a Deflater shared between streams.
+ * <p>
+ * Unlike {@link java.util.zip.GZIPOutputStream}, which allocates a new native
+ * Deflater for every response and holds on to it until garbage collection,
+ * this stream borrows a Deflater from a small pool and returns it when the
+ * stream is closed. Output is written in blocks of 8 KiB rather than 512
+ * bytes, so a streamed response is sent in reasonably sized chunks.
+ */
+class PooledGzipOutputStream extends DeflaterOutputStream {
+	private static final int SZ = 4;
+
+	private static final Deflater[] deflaterCache = new Deflater[SZ];
+
+	private static int openDeflaterCount;
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, // magic
+			Deflater.DEFLATED, 0, // no flags
+			0, 0, 0, 0, // no modification time
+			0, (byte) 0xff // no extra flags, unknown operating system
+	};
+
+	private final CRC32 crc = new CRC32();
+
+	private long size;
+
+	private boolean finished;
+
+	private boolean closed;
+
+	/**
+	 * Create a stream, writing the gzip header immediately.
+	 *
+	 * @param out
+	 *            the stream receiving the compressed data.
+	 * @throws IOException
+	 *             the header cannot be written.
+	 */
+	PooledGzipOutputStream(OutputStream out) throws IOException {
+		super(out, get(), 8192);
+		out.write(HEADER);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		super.write(b, off, len);
+		crc.update(b, off, len);
+		size += len;
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (finished)
+			return;
+		super.finish();
+
+		byte[] trailer = new byte[8];
+		writeInt(trailer, 0, crc.getValue());
+		writeInt(trailer, 4, size);
+		out.write(trailer);
+		finished = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			finish();
+			out.close();
+		} finally {
+			release(def);
+		}
+	}
+
+	private static void writeInt(byte[] buf, int p, long v) {
+		buf[p] = (byte) v;
+		buf[p + 1] = (byte) (v >>> 8);
+		buf[p + 2] = (byte) (v >>> 16);
+		buf[p + 3] = (byte) (v >>> 24);
+	}
+
+	private static Deflater get() {
+		Deflater d = getImpl();
+		return d != null ? d : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	}
+
+	private static synchronized Deflater getImpl() {
+		if (openDeflaterCount > 0) {
+			Deflater d = deflaterCache[--openDeflaterCount];
+			deflaterCache[openDeflaterCount] = null;
+			return d;
+		}
+		return null;
+	}
+
+	private static void release(Deflater d) {
+		d.reset();
+		if (releaseImpl(d))
+			d.end();
+	}
+
+	private static synchronized boolean releaseImpl(Deflater d) {
+		if (openDeflaterCount < SZ) {
+			deflaterCache[openDeflaterCount++] = d;
+			return false;
+		}
+		return true;
+	}
+}
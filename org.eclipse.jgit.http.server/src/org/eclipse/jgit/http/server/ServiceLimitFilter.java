@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.http.server;
+
+import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+import static org.eclipse.jgit.http.server.ServletUtils.ATTRIBUTE_HANDLER;
+import static org.eclipse.jgit.http.server.ServletUtils.getRepository;
+import static org.eclipse.jgit.util.HttpSupport.ENCODING_GZIP;
+import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_ENCODING;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.ReceivePack;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Limits how many Git requests are served at once, queueing the excess.
+ * <p>
+ * Requests are classified as reference advertisements, incremental fetches,
+ * clones or pushes. While requests wait for a free slot, each type is
+ * admitted in proportion to its weight, so a burst of expensive clones
+ * cannot starve cheap incremental fetches. Per repository and per client
+ * caps keep a single repository or client from taking all slots. The time
+ * spent waiting is recorded for each type.
+ * <p>
+ * The filter should be installed with both
+ * {@link GitFilter#addUploadPackFilter(Filter)} and
+ * {@link GitFilter#addReceivePackFilter(Filter)}, or the equivalent methods
+ * of {@link GitServlet}, using the same instance so both services share the
+ * limits. When configured by {@code web.xml}, the init parameters
+ * {@code max-active}, {@code max-per-repository}, {@code max-per-client} and
+ * {@code queue-timeout} (in seconds) are read, if present.
+ */
+public class ServiceLimitFilter implements Filter {
+	/** Classification of a request, in order of increasing cost. */
+	public static enum RequestType {
+		/** Reference advertisement, as used by ls-remote. */
+		ADVERTISEMENT(8),
+
+		/** Fetch of a client already having some objects. */
+		FETCH(4),
+
+		/** Push of new objects. */
+		PUSH(4),
+
+		/** Fetch of a client not having any objects yet. */
+		CLONE(1);
+
+		private final int defaultWeight;
+
+		private RequestType(int weight) {
+			defaultWeight = weight;
+		}
+
+		/** @return the weight of this type unless configured otherwise. */
+		public int getDefaultWeight() {
+			return defaultWeight;
+		}
+	}
+
+	/** Number of bytes of an upload-pack request examined to classify it. */
+	static final int PEEK_LIMIT = 64 * 1024;
+
+	private final ServiceQueue queue = new ServiceQueue();
+
+	private final WaitTimeHistogram[] waitTimes;
+
+	private final AtomicLong[] rejected;
+
+	private volatile long queueTimeout = 30 * 1000;
+
+	/** Create a filter admitting twice as many requests as there are CPUs. */
+	public ServiceLimitFilter() {
+		int n = RequestType.values().length;
+		waitTimes = new WaitTimeHistogram[n];
+		rejected = new AtomicLong[n];
+		for (int i = 0; i < n; i++) {
+			waitTimes[i] = new WaitTimeHistogram();
+			rejected[i] = new AtomicLong();
+		}
+		queue.setMaxActive(2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/** @return maximum number of requests served at once; 0 if unlimited. */
+	public int getMaxActive() {
+		return queue.getMaxActive();
+	}
+
+	/**
+	 * @param n
+	 *            maximum number of requests served at once; 0 for no limit.
+	 */
+	public void setMaxActive(int n) {
+		queue.setMaxActive(n);
+	}
+
+	/** @return maximum requests per repository at once; 0 if unlimited. */
+	public int getMaxPerRepository() {
+		return queue.getMaxPerRepository();
+	}
+
+	/**
+	 * @param n
+	 *            maximum number of requests served at once for the same
+	 *            repository; 0 for no limit.
+	 */
+	public void setMaxPerRepository(int n) {
+		queue.setMaxPerRepository(n);
+	}
+
+	/** @return maximum requests per client at once; 0 if unlimited. */
+	public int getMaxPerClient() {
+		return queue.getMaxPerClient();
+	}
+
+	/**
+	 * @param n
+	 *            maximum number of requests served at once for the same
+	 *            client, as identified by {@link #getClientKey(HttpServletRequest)};
+	 *            0 for no limit.
+	 */
+	public void setMaxPerClient(int n) {
+		queue.setMaxPerClient(n);
+	}
+
+	/**
+	 * @param type
+	 *            the request type.
+	 * @return share of free slots given to the type relative to the others.
+	 */
+	public int getWeight(RequestType type) {
+		return queue.getWeight(type);
+	}
+
+	/**
+	 * @param type
+	 *            the request type.
+	 * @param weight
+	 *            share of free slots given to the type relative to the
+	 *            others, at least 1.
+	 */
+	public void setWeight(RequestType type, int weight) {
+		queue.setWeight(type, weight);
+	}
+
+	/** @return milliseconds a request may wait; 0 if unlimited. */
+	public long getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	/**
+	 * @param millis
+	 *            milliseconds a request may wait for a free slot before it
+	 *            is answered with an error; 0 to wait as long as it takes.
+	 */
+	public void setQueueTimeout(long millis) {
+		queueTimeout = Math.max(0, millis);
+	}
+
+	/** @return number of requests being served right now. */
+	public int getActive() {
+		return queue.getActive();
+	}
+
+	/** @return number of requests waiting for a free slot. */
+	public int getQueued() {
+		return queue.getWaiting();
+	}
+
+	/**
+	 * @param type
+	 *            the request type.
+	 * @return times requests of the type waited before being served.
+	 */
+	public WaitTimeHistogram getWaitTimes(RequestType type) {
+		return waitTimes[type.ordinal()];
+	}
+
+	/**
+	 * @param type
+	 *            the request type.
+	 * @return number of requests of the type that waited too long.
+	 */
+	public long getRejected(RequestType type) {
+		return rejected[type.ordinal()].get();
+	}
+
+	public void init(FilterConfig config) throws ServletException {
+		Integer n = getInt(config, "max-active"); //$NON-NLS-1$
+		if (n != null)
+			setMaxActive(n.intValue());
+		n = getInt(config, "max-per-repository"); //$NON-NLS-1$
+		if (n != null)
+			setMaxPerRepository(n.intValue());
+		n = getInt(config, "max-per-client"); //$NON-NLS-1$
+		if (n != null)
+			setMaxPerClient(n.intValue());
+		n = getInt(config, "queue-timeout"); //$NON-NLS-1$
+		if (n != null)
+			setQueueTimeout(n.intValue() * 1000L);
+	}
+
+	private static Integer getInt(FilterConfig cfg, String param)
+			throws ServletException {
+		String n = cfg.getInitParameter(param);
+		if (n == null)
+			return null;
+		try {
+			return Integer.valueOf(n.trim());
+		} catch (NumberFormatException err) {
+			throw new ServletException(MessageFormat.format(
+					HttpServerText.get().invalidInteger, param, n));
+		}
+	}
+
+	public void destroy() {
+		// Nothing.
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response,
+			FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest req = (HttpServletRequest) request;
+		HttpServletResponse rsp = (HttpServletResponse) response;
+
+		// Classify by the path first: info/refs is served through the same
+		// filters as the service itself, with the handler already created.
+		RequestType type;
+		if (isAdvertisement(req))
+			type = RequestType.ADVERTISEMENT;
+		else if (req.getAttribute(ATTRIBUTE_HANDLER) instanceof ReceivePack)
+			type = RequestType.PUSH;
+		else {
+			PeekedRequest peeked = new PeekedRequest(req);
+			type = peeked.classify();
+			req = peeked;
+		}
+
+		long start = System.currentTimeMillis();
+		ServiceQueue.Ticket ticket;
+		try {
+			ticket = queue.acquire(type, getRepositoryKey(req),
+					getClientKey(req), queueTimeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			ticket = null;
+		}
+		if (ticket == null) {
+			rejected[type.ordinal()].incrementAndGet();
+			GitSmartHttpTools.sendError(req, rsp, SC_SERVICE_UNAVAILABLE,
+					HttpServerText.get().serviceTooBusy);
+			return;
+		}
+
+		waitTimes[type.ordinal()].record(System.currentTimeMillis() - start);
+		try {
+			chain.doFilter(req, rsp);
+		} finally {
+			queue.release(ticket);
+		}
+	}
+
+	/**
+	 * @param req
+	 *            the current request.
+	 * @return true if the request asks for the refs of the repository.
+	 */
+	static boolean isAdvertisement(HttpServletRequest req) {
+		String uri = req.getRequestURI();
+		return "GET".equals(req.getMethod()) //$NON-NLS-1$
+				|| (uri != null && uri.endsWith("/" + Constants.INFO_REFS)); //$NON-NLS-1$
+	}
+
+	/**
+	 * Identify the repository a request accesses.
+	 *
+	 * @param req
+	 *            the current request.
+	 * @return key of the repository, compared to other keys to apply the per
+	 *         repository limit.
+	 */
+	protected String getRepositoryKey(HttpServletRequest req) {
+		Repository db = getRepository(req);
+		if (db.getDirectory() != null)
+			return db.getDirectory().getPath();
+		return db.toString();
+	}
+
+	/**
+	 * Identify the client making a request.
+	 *
+	 * @param req
+	 *            the current request.
+	 * @return key of the client, compared to other keys to apply the per
+	 *         client limit. By default the remote address.
+	 */
+	protected String getClientKey(HttpServletRequest req) {
+		return req.getRemoteAddr();
+	}
+
+	/**
+	 * Classify an upload-pack request from the start of its body.
+	 *
+	 * @param buf
+	 *            uncompressed start of the request body.
+	 * @param len
+	 *            number of valid bytes in {@code buf}.
+	 * @return the request type. Requests not showing any "have" line before
+	 *         the end of {@code buf} are considered clones.
+	 */
+	static RequestType classify(byte[] buf, int len) {
+		int ptr = 0;
+		while (ptr + 4 <= len) {
+			int pktLen;
+			try {
+				pktLen = RawParseUtils.parseHexInt16(buf, ptr);
+			} catch (ArrayIndexOutOfBoundsException notHex) {
+				// Malformed requests fail later, in the servlet.
+				return RequestType.CLONE;
+			}
+			if (pktLen < 4) {
+				// Flush, delimiter or end of response packet.
+				ptr += 4;
+				continue;
+			}
+			int end = Math.min(ptr + pktLen, len);
+			if (startsWith(buf, ptr + 4, end, "have ")) //$NON-NLS-1$
+				return RequestType.FETCH;
+			if (startsWith(buf, ptr + 4, end, "command=ls-refs")) //$NON-NLS-1$
+				return RequestType.ADVERTISEMENT;
+			if (startsWith(buf, ptr + 4, end, "done")) //$NON-NLS-1$
+				return RequestType.CLONE;
+			ptr += pktLen;
+		}
+		return RequestType.CLONE;
+	}
+
+	private static boolean startsWith(byte[] buf, int ptr, int end,
+			String prefix) {
+		if (end - ptr < prefix.length())
+			return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buf[ptr + i] != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/** Request whose body starts with bytes already read to classify it. */
+	private static class PeekedRequest extends HttpServletRequestWrapper {
+		private final byte[] head;
+
+		private final int headLen;
+
+		private ServletInputStream in;
+
+		PeekedRequest(HttpServletRequest req) throws IOException {
+			super(req);
+			InputStream raw = req.getInputStream();
+			int len = req.getContentLength();
+			head = new byte[0 < len ? Math.min(len, PEEK_LIMIT) : PEEK_LIMIT];
+			int n = 0;
+			int r;
+			while (n < head.length
+					&& (r = raw.read(head, n, head.length - n)) > 0)
+				n += r;
+			headLen = n;
+		}
+
+		RequestType classify() {
+			byte[] buf = new byte[PEEK_LIMIT];
+			int n = 0;
+			try {
+				InputStream body = new ByteArrayInputStream(head, 0, headLen);
+				String enc = getHeader(HDR_CONTENT_ENCODING);
+				if (ENCODING_GZIP.equals(enc) || "x-gzip".equals(enc)) //$NON-NLS-1$
+					body = new GZIPInputStream(body);
+				int r;
+				while (n < buf.length
+						&& (r = body.read(buf, n, buf.length - n)) > 0)
+					n += r;
+			} catch (IOException e) {
+				// A truncated compressed prefix ends early, use what was
+				// inflated. Unreadable requests fail later, in the servlet.
+			}
+			return ServiceLimitFilter.classify(buf, n);
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+			if (in == null) {
+				final InputStream rest = super.getInputStream();
+				in = new ServletInputStream() {
+					private int ptr;
+
+					@Override
+					public int read() throws IOException {
+						if (ptr < headLen)
+							return head[ptr++] & 0xff;
+						return rest.read();
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len)
+							throws IOException {
+						if (len == 0)
+							return 0;
+						if (ptr < headLen) {
+							int n = Math.min(len, headLen - ptr);
+							System.arraycopy(head, ptr, b, off, n);
+							ptr += n;
+							return n;
+						}
+						return rest.read(b, off, len);
+					}
+
+					@Override
+					public int available() throws IOException {
+						if (ptr < headLen)
+							return headLen - ptr;
+						return rest.available();
+					}
+				};
+			}
+			return in;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.http.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.http.server.ServiceLimitFilter.RequestType;
+
+/**
+ * Admits requests by weighted fair queueing, within concurrency limits.
+ * <p>
+ * Each request type receives a share of the free slots proportional to its
+ * weight while requests of several types are waiting, using start-time fair
+ * queueing: every request is tagged with the virtual time at which its type
+ * may start another request, and the waiting request with the smallest tag
+ * runs next. Requests that would exceed the limit of their repository or
+ * client are skipped until a request of the same repository or client ends.
+ */
+class ServiceQueue {
+	/** A request admitted, or waiting to be admitted, by the queue. */
+	static final class Ticket {
+		final RequestType type;
+
+		final String repository;
+
+		final String client;
+
+		final double start;
+
+		final double finish;
+
+		boolean running;
+
+		Ticket(RequestType type, String repository, String client,
+				double start, double finish) {
+			this.type = type;
+			this.repository = repository;
+			this.client = client;
+			this.start = start;
+			this.finish = finish;
+		}
+	}
+
+	private final int[] weights = new int[RequestType.values().length];
+
+	private final double[] lastFinish = new double[weights.length];
+
+	private final List<Ticket> waiting = new ArrayList<Ticket>();
+
+	private final Map<String, Integer> perRepository = new HashMap<String, Integer>();
+
+	private final Map<String, Integer> perClient = new HashMap<String, Integer>();
+
+	private double virtualTime;
+
+	private int maxActive;
+
+	private int maxPerRepository;
+
+	private int maxPerClient;
+
+	private int active;
+
+	ServiceQueue() {
+		for (RequestType t : RequestType.values())
+			weights[t.ordinal()] = t.getDefaultWeight();
+	}
+
+	synchronized void setMaxActive(int n) {
+		maxActive = Math.max(0, n);
+		dispatch();
+	}
+
+	synchronized int getMaxActive() {
+		return maxActive;
+	}
+
+	synchronized void setMaxPerRepository(int n) {
+		maxPerRepository = Math.max(0, n);
+		dispatch();
+	}
+
+	synchronized int getMaxPerRepository() {
+		return maxPerRepository;
+	}
+
+	synchronized void setMaxPerClient(int n) {
+		maxPerClient = Math.max(0, n);
+		dispatch();
+	}
+
+	synchronized int getMaxPerClient() {
+		return maxPerClient;
+	}
+
+	synchronized void setWeight(RequestType type, int weight) {
+		weights[type.ordinal()] = Math.max(1, weight);
+	}
+
+	synchronized int getWeight(RequestType type) {
+		return weights[type.ordinal()];
+	}
+
+	synchronized int getActive() {
+		return active;
+	}
+
+	synchronized int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 * Wait until a request may run.
+	 *
+	 * @param type
+	 *            type of the request.
+	 * @param repository
+	 *            key of the repository accessed.
+	 * @param client
+	 *            key of the client making the request.
+	 * @param timeout
+	 *            milliseconds to wait at most; 0 to wait as long as it takes.
+	 * @return the admitted request, which must be passed to
+	 *         {@link #release(Ticket)} when it ends; null if the request
+	 *         waited too long.
+	 * @throws InterruptedException
+	 *             the thread was interrupted while waiting.
+	 */
+	synchronized Ticket acquire(RequestType type, String repository,
+			String client, long timeout) throws InterruptedException {
+		int i = type.ordinal();
+		double start = Math.max(virtualTime, lastFinish[i]);
+		lastFinish[i] = start + 1.0 / weights[i];
+
+		Ticket t = new Ticket(type, repository, client, start, lastFinish[i]);
+		waiting.add(t);
+		dispatch();
+
+		long deadline = 0 < timeout ? System.currentTimeMillis() + timeout : 0;
+		try {
+			while (!t.running) {
+				if (deadline == 0)
+					wait();
+				else {
+					long left = deadline - System.currentTimeMillis();
+					if (left <= 0) {
+						abandon(t);
+						return null;
+					}
+					wait(left);
+				}
+			}
+		} catch (InterruptedException e) {
+			if (t.running) {
+				Thread.currentThread().interrupt();
+				return t;
+			}
+			abandon(t);
+			throw e;
+		}
+		return t;
+	}
+
+	/** Forget a request that gave up waiting, returning its share. */
+	private void abandon(Ticket t) {
+		waiting.remove(t);
+		// Only the last request of a type can be undone; requests queued
+		// behind it were already tagged relative to its finish.
+		int i = t.type.ordinal();
+		if (lastFinish[i] == t.finish)
+			lastFinish[i] = t.start;
+	}
+
+	/**
+	 * End a request admitted by {@link #acquire(RequestType, String, String, long)}.
+	 *
+	 * @param t
+	 *            the request.
+	 */
+	synchronized void release(Ticket t) {
+		active--;
+		decrement(perRepository, t.repository);
+		decrement(perClient, t.client);
+		dispatch();
+	}
+
+	private void dispatch() {
+		boolean started = false;
+		while (maxActive == 0 || active < maxActive) {
+			Ticket next = null;
+			for (Ticket t : waiting) {
+				if ((next == null || t.start < next.start) && mayRun(t))
+					next = t;
+			}
+			if (next == null)
+				break;
+
+			waiting.remove(next);
+			virtualTime = Math.max(virtualTime, next.start);
+			active++;
+			increment(perRepository, next.repository);
+			increment(perClient, next.client);
+			next.running = true;
+			started = true;
+		}
+		if (started)
+			notifyAll();
+	}
+
+	private boolean mayRun(Ticket t) {
+		return (maxPerRepository == 0
+				|| count(perRepository, t.repository) < maxPerRepository)
+				&& (maxPerClient == 0
+				|| count(perClient, t.client) < maxPerClient);
+	}
+
+	private static int count(Map<String, Integer> m, String key) {
+		Integer n = m.get(key);
+		return n != null ? n.intValue() : 0;
+	}
+
+	private static void increment(Map<String, Integer> m, String key) {
+		m.put(key, Integer.valueOf(count(m, key) + 1));
+	}
+
+	private static void decrement(Map<String, Integer> m, String key) {
+		int n = count(m, key) - 1;
+		if (n <= 0)
+			m.remove(key);
+		else
+			m.put(key, Integer.valueOf(n));
+	}
+}
@@ -56,7 +56,6 @@
 import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
@@ -260,10 +259,12 @@ static boolean acceptsGzipEncoding(String accepts) {
 	private static byte[] compress(final byte[] raw) throws IOException {
 		final int maxLen = raw.length + 32;
 		final ByteArrayOutputStream out = new ByteArrayOutputStream(maxLen);
-		final GZIPOutputStream gz = new GZIPOutputStream(out);
-		gz.write(raw);
-		gz.finish();
-		gz.flush();
+		final PooledGzipOutputStream gz = new PooledGzipOutputStream(out);
+		try {
+			gz.write(raw);
+		} finally {
+			gz.close();
+		}
 		return out.toByteArray();
 	}
 
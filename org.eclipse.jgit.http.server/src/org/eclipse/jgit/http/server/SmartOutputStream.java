@@ -49,7 +49,6 @@
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -65,6 +64,12 @@
  * smaller payloads are primarily pure text that compresses well, while much
  * larger payloads are heavily compressed binary data. {@link UploadPackServlet}
  * is one such servlet.
+ * <p>
+ * Only the first 32 KiB are held in memory and nothing is spooled to disk:
+ * once that is exceeded, or the response is flushed with {@link #doFlush()},
+ * the buffered bytes are sent and the rest streams straight to the servlet
+ * container. Streamed output is compressed, if requested, with a pooled
+ * Deflater.
  */
 class SmartOutputStream extends TemporaryBuffer {
 	private static final int LIMIT = 32 * 1024;
@@ -90,7 +95,7 @@ protected OutputStream overflow() throws IOException {
 		OutputStream out = rsp.getOutputStream();
 		if (compressStream && acceptsGzipEncoding(req)) {
 			rsp.setHeader(HDR_CONTENT_ENCODING, ENCODING_GZIP);
-			out = new GZIPOutputStream(out);
+			out = new PooledGzipOutputStream(out);
 		}
 		return out;
 	}
@@ -105,9 +110,12 @@ public void close() throws IOException {
 			TemporaryBuffer out = this;
 
 			if (256 < out.length() && acceptsGzipEncoding(req)) {
-				TemporaryBuffer gzbuf = new TemporaryBuffer.Heap(LIMIT);
+				// Overflowing the original length aborts the compression.
+				TemporaryBuffer gzbuf = new TemporaryBuffer.Heap(
+						(int) out.length());
 				try {
-					GZIPOutputStream gzip = new GZIPOutputStream(gzbuf);
+					PooledGzipOutputStream gzip = new PooledGzipOutputStream(
+							gzbuf);
 					try {
 						out.writeTo(gzip, null);
 					} finally {
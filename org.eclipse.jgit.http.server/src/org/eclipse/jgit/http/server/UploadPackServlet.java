@@ -58,9 +58,11 @@
 import static org.eclipse.jgit.http.server.ServletUtils.consumeRequestBody;
 import static org.eclipse.jgit.http.server.ServletUtils.getInputStream;
 import static org.eclipse.jgit.http.server.ServletUtils.getRepository;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
 import static org.eclipse.jgit.util.HttpSupport.HDR_USER_AGENT;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.servlet.Filter;
@@ -110,6 +112,7 @@ protected void advertise(HttpServletRequest req,
 			UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
 			try {
 				up.setBiDirectionalPipe(false);
+				setExtraParameters(req, up);
 				up.sendAdvertisedRefs(pck);
 			} finally {
 				up.getRevWalk().release();
@@ -182,6 +185,7 @@ public void flush() throws IOException {
 		UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
 		try {
 			up.setBiDirectionalPipe(false);
+			setExtraParameters(req, up);
 			rsp.setContentType(UPLOAD_PACK_RESULT_TYPE);
 
 			up.upload(getInputStream(req), out, null);
@@ -214,4 +218,10 @@ public void flush() throws IOException {
 			return;
 		}
 	}
+
+	static void setExtraParameters(HttpServletRequest req, UploadPack up) {
+		String protocol = req.getHeader(HDR_GIT_PROTOCOL);
+		if (protocol != null)
+			up.setExtraParameters(Arrays.asList(protocol.split(":"))); //$NON-NLS-1$
+	}
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.http.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of the time requests spent waiting to be served.
+ * <p>
+ * Waits are counted in buckets whose bounds grow in powers of two: bucket 0
+ * counts waits shorter than 1 millisecond, bucket {@code i} those of at least
+ * {@code 2^(i-1)} and less than {@code 2^i} milliseconds. The last bucket
+ * also holds all longer waits. Recording is lock free and safe to call from
+ * any thread.
+ */
+public class WaitTimeHistogram {
+	/** Number of buckets, the last one starting at about 12 days. */
+	public static final int BUCKETS = 32;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong totalMillis = new AtomicLong();
+
+	/**
+	 * Record one wait.
+	 *
+	 * @param millis
+	 *            duration of the wait in milliseconds.
+	 */
+	public void record(long millis) {
+		counts.incrementAndGet(bucket(millis));
+		totalMillis.addAndGet(Math.max(0, millis));
+	}
+
+	/** @return number of waits recorded. */
+	public long getCount() {
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			n += counts.get(i);
+		return n;
+	}
+
+	/**
+	 * @param bucket
+	 *            index of the bucket, from 0 to {@link #BUCKETS} - 1.
+	 * @return number of waits recorded in the bucket.
+	 */
+	public long getCount(int bucket) {
+		return counts.get(bucket);
+	}
+
+	/**
+	 * @param bucket
+	 *            index of the bucket, from 0 to {@link #BUCKETS} - 1.
+	 * @return exclusive upper bound of the bucket in milliseconds;
+	 *         {@link Long#MAX_VALUE} for the last bucket.
+	 */
+	public static long getUpperBound(int bucket) {
+		return bucket < BUCKETS - 1 ? 1L << bucket : Long.MAX_VALUE;
+	}
+
+	/** @return sum of all waits recorded, in milliseconds. */
+	public long getTotalMillis() {
+		return totalMillis.get();
+	}
+
+	/**
+	 * Estimate a percentile of the recorded waits.
+	 *
+	 * @param percent
+	 *            the percentile to compute, between 0 and 100.
+	 * @return upper bound in milliseconds of the bucket holding the
+	 *         percentile; 0 if no wait was recorded.
+	 */
+	public long getPercentile(double percent) {
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(n * Math.min(100, Math.max(0, percent))
+				/ 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (rank <= seen && 0 < snapshot[i])
+				return getUpperBound(i);
+		}
+		return getUpperBound(BUCKETS - 1);
+	}
+
+	/** Forget all recorded waits. */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		totalMillis.set(0);
+	}
+
+	static int bucket(long millis) {
+		if (millis < 1)
+			return 0;
+		int b = 64 - Long.numberOfLeadingZeros(millis);
+		return Math.min(b, BUCKETS - 1);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append("WaitTimeHistogram[count=").append(getCount()); //$NON-NLS-1$
+		s.append(", p50=").append(getPercentile(50)); //$NON-NLS-1$
+		s.append("ms, p99=").append(getPercentile(99)); //$NON-NLS-1$
+		s.append("ms]"); //$NON-NLS-1$
+		return s.toString();
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.http.server;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class PooledGzipOutputStreamTest {
+	@Test
+	public void testEmpty() throws IOException {
+		assertArrayEquals(new byte[0], roundTrip(new byte[0]));
+	}
+
+	@Test
+	public void testText() throws IOException {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			s.append("0123456789abcdef refs/heads/branch-").append(i).append('\n');
+		byte[] data = s.toString().getBytes("UTF-8");
+		assertArrayEquals(data, roundTrip(data));
+	}
+
+	@Test
+	public void testReusedDeflaters() throws IOException {
+		Random rng = new Random(42);
+		for (int i = 0; i < 10; i++) {
+			byte[] data = new byte[rng.nextInt(100 * 1024)];
+			rng.nextBytes(data);
+			assertArrayEquals(data, roundTrip(data));
+		}
+	}
+
+	private static byte[] roundTrip(byte[] data) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PooledGzipOutputStream out = new PooledGzipOutputStream(buf);
+		int half = data.length / 2;
+		int single = Math.min(data.length, half + 10);
+		out.write(data, 0, half);
+		for (int i = half; i < single; i++)
+			out.write(data[i]);
+		out.write(data, single, data.length - single);
+		out.close();
+
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+				buf.toByteArray()));
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		byte[] tmp = new byte[1024];
+		int n;
+		while ((n = in.read(tmp)) > 0)
+			res.write(tmp, 0, n);
+		in.close();
+		return res.toByteArray();
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.http.server;
+
+import static org.eclipse.jgit.http.server.ServiceLimitFilter.RequestType.ADVERTISEMENT;
+import static org.eclipse.jgit.http.server.ServiceLimitFilter.RequestType.CLONE;
+import static org.eclipse.jgit.http.server.ServiceLimitFilter.RequestType.FETCH;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.eclipse.jgit.http.server.ServiceLimitFilter.RequestType;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.junit.Test;
+
+public class ServiceLimitFilterTest {
+	private static final String WANT = "want 0123456789012345678901234567890123456789\n";
+
+	private static final String HAVE = "have 1234567890123456789012345678901234567890\n";
+
+	@Test
+	public void testClone() throws IOException {
+		assertEquals(CLONE, classify(WANT, WANT, null, "done\n"));
+	}
+
+	@Test
+	public void testFetch() throws IOException {
+		assertEquals(FETCH, classify(WANT, null, HAVE, HAVE, "done\n"));
+		assertEquals(FETCH, classify(WANT, null, HAVE));
+	}
+
+	@Test
+	public void testProtocolV2() throws IOException {
+		assertEquals(ADVERTISEMENT, classify("command=ls-refs\n", null));
+		assertEquals(CLONE, classify("command=fetch\n", "", WANT, "done\n",
+				null));
+		assertEquals(FETCH, classify("command=fetch\n", "", WANT, HAVE,
+				"done\n", null));
+	}
+
+	@Test
+	public void testTruncatedOrGarbage() throws IOException {
+		byte[] buf = pkt(WANT, null, HAVE);
+		assertEquals(CLONE, ServiceLimitFilter.classify(buf, buf.length
+				- HAVE.length() - 2));
+		buf = "zzzz".getBytes("UTF-8");
+		assertEquals(CLONE, ServiceLimitFilter.classify(buf, buf.length));
+	}
+
+	@Test
+	public void testWaitTimeHistogram() {
+		WaitTimeHistogram h = new WaitTimeHistogram();
+		assertEquals(0, h.getPercentile(50));
+		h.record(0);
+		h.record(3);
+		h.record(3);
+		h.record(100);
+		assertEquals(4, h.getCount());
+		assertEquals(106, h.getTotalMillis());
+		assertEquals(1, h.getCount(0));
+		assertEquals(2, h.getCount(2));
+		assertEquals(4, h.getPercentile(50));
+		assertEquals(128, h.getPercentile(99));
+	}
+
+	/** Lines as packets; null for a flush packet, "" for a delimiter. */
+	private static RequestType classify(String... lines) throws IOException {
+		byte[] buf = pkt(lines);
+		return ServiceLimitFilter.classify(buf, buf.length);
+	}
+
+	private static byte[] pkt(String... lines) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PacketLineOut out = new PacketLineOut(buf);
+		for (String line : lines) {
+			if (line == null)
+				out.end();
+			else if (line.length() == 0)
+				buf.write("0001".getBytes("UTF-8"));
+			else
+				out.writeString(line);
+		}
+		return buf.toByteArray();
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.http.server;
+
+import static org.eclipse.jgit.http.server.ServiceLimitFilter.RequestType.CLONE;
+import static org.eclipse.jgit.http.server.ServiceLimitFilter.RequestType.FETCH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.http.server.ServiceLimitFilter.RequestType;
+import org.junit.Test;
+
+public class ServiceQueueTest {
+	@Test
+	public void testUnlimited() throws InterruptedException {
+		ServiceQueue q = new ServiceQueue();
+		assertNotNull(q.acquire(CLONE, "r", "c", 0));
+		assertNotNull(q.acquire(CLONE, "r", "c", 0));
+		assertEquals(2, q.getActive());
+	}
+
+	@Test
+	public void testTimeout() throws InterruptedException {
+		ServiceQueue q = new ServiceQueue();
+		q.setMaxActive(1);
+		ServiceQueue.Ticket t = q.acquire(CLONE, "r", "c", 0);
+		assertNull(q.acquire(FETCH, "r", "c", 10));
+		assertEquals(0, q.getWaiting());
+
+		q.release(t);
+		assertNotNull(q.acquire(FETCH, "r", "c", 10));
+	}
+
+	@Test
+	public void testPerRepositoryLimit() throws InterruptedException {
+		ServiceQueue q = new ServiceQueue();
+		q.setMaxPerRepository(1);
+		ServiceQueue.Ticket t = q.acquire(CLONE, "a", "c", 0);
+		assertNull(q.acquire(CLONE, "a", "d", 10));
+		assertNotNull(q.acquire(CLONE, "b", "d", 10));
+
+		q.release(t);
+		assertNotNull(q.acquire(CLONE, "a", "d", 10));
+	}
+
+	@Test
+	public void testPerClientLimit() throws InterruptedException {
+		ServiceQueue q = new ServiceQueue();
+		q.setMaxPerClient(1);
+		q.acquire(CLONE, "a", "c", 0);
+		assertNull(q.acquire(FETCH, "b", "c", 10));
+		assertNotNull(q.acquire(FETCH, "b", "d", 10));
+	}
+
+	@Test
+	public void testWeightedOrder() throws Exception {
+		final ServiceQueue q = new ServiceQueue();
+		q.setMaxActive(1);
+		q.setWeight(CLONE, 1);
+		q.setWeight(FETCH, 3);
+		ServiceQueue.Ticket first = q.acquire(CLONE, "r", "c", 0);
+
+		final List<RequestType> order = Collections
+				.synchronizedList(new ArrayList<RequestType>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(waiter(q, CLONE, order));
+			threads.add(waiter(q, FETCH, order));
+		}
+		for (Thread t : threads) {
+			t.start();
+			// Queue in a known order, alternating the types.
+			int n = q.getWaiting() + 1;
+			while (q.getWaiting() < n)
+				Thread.sleep(1);
+		}
+
+		q.release(first);
+		for (Thread t : threads)
+			t.join(10000);
+
+		// The running clone used up the share of its type, so three fetches
+		// are admitted before the next clone.
+		RequestType[] expect = { FETCH, FETCH, FETCH, CLONE, FETCH, CLONE,
+				CLONE, CLONE };
+		assertEquals(expect.length, order.size());
+		for (int i = 0; i < expect.length; i++)
+			assertEquals(expect[i], order.get(i));
+	}
+
+	@Test
+	public void testTimedOutRequestsKeepShare() throws Exception {
+		final ServiceQueue q = new ServiceQueue();
+		q.setMaxActive(1);
+		ServiceQueue.Ticket first = q.acquire(FETCH, "r", "c", 0);
+		for (int i = 0; i < 3; i++)
+			assertNull(q.acquire(CLONE, "r", "c", 10));
+
+		final List<RequestType> order = Collections
+				.synchronizedList(new ArrayList<RequestType>());
+		Thread clone = waiter(q, CLONE, order);
+		Thread fetch = waiter(q, FETCH, order);
+		clone.start();
+		while (q.getWaiting() < 1)
+			Thread.sleep(1);
+		fetch.start();
+		while (q.getWaiting() < 2)
+			Thread.sleep(1);
+
+		q.release(first);
+		clone.join(10000);
+		fetch.join(10000);
+
+		// The abandoned clones never ran, so the next clone is not
+		// ordered behind the fetch.
+		assertEquals(2, order.size());
+		assertEquals(CLONE, order.get(0));
+		assertEquals(FETCH, order.get(1));
+	}
+
+	private static Thread waiter(final ServiceQueue q, final RequestType type,
+			final List<RequestType> order) {
+		return new Thread() {
+			public void run() {
+				try {
+					ServiceQueue.Ticket t = q.acquire(type, "r", "c", 0);
+					order.add(type);
+					q.release(t);
+				} catch (InterruptedException e) {
+					// Test fails on missing entries.
+				}
+			}
+		};
+	}
+}
@@ -75,6 +75,18 @@ class Daemon extends TextBuiltin {
 	@Option(name = "--timeout", metaVar = "metaVar_seconds", usage = "usage_abortConnectionIfNoActivity")
 	int timeout = -1;
 
+	@Option(name = "--max-sessions", metaVar = "metaVar_n", usage = "usage_maxSessions")
+	int maxSessions;
+
+	@Option(name = "--max-queued", metaVar = "metaVar_n", usage = "usage_maxQueuedSessions")
+	int maxQueued;
+
+	@Option(name = "--queue-timeout", metaVar = "metaVar_seconds", usage = "usage_queueTimeout")
+	int queueTimeout;
+
+	@Option(name = "--max-upload-pack-sessions", metaVar = "metaVar_n", usage = "usage_maxUploadPackSessions")
+	int maxUploadPackSessions;
+
 	@Option(name = "--enable", metaVar = "metaVar_service", usage = "usage_enableTheServiceInAllRepositories", multiValued = true)
 	final List<String> enable = new ArrayList<String>();
 
@@ -140,6 +152,10 @@ protected void run() throws Exception {
 		d.setRepositoryResolver(resolver);
 		if (0 <= timeout)
 			d.setTimeout(timeout);
+		d.setMaxSessions(maxSessions);
+		d.setMaxQueuedSessions(maxQueued);
+		d.setQueueTimeout(queueTimeout);
+		service(d, "upload-pack").setMaxSessions(maxUploadPackSessions); //$NON-NLS-1$
 
 		for (final String n : enable)
 			service(d, n).setEnabled(true);
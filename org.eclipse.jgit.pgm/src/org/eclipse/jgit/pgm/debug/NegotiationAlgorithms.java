@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.pgm.debug;
+
+import static java.lang.Integer.valueOf;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.pgm.TextBuiltin;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.transport.FetchNegotiator;
+import org.eclipse.jgit.transport.FetchNegotiator.Algorithm;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Count the round trips and have lines each negotiation algorithm needs.
+ * <p>
+ * A synthetic history is built in memory: the remote has a line of
+ * {@code --common} commits, and the client has {@code --branches} branches
+ * of {@code --local} commits each on top of it. Negotiation is simulated the
+ * way a protocol v2 fetch runs it, with batches starting at 32 haves and
+ * doubling up to 256, the remote acknowledging every commit it has. The
+ * "Overshoot" column counts commits the remote has but would still send
+ * because no acknowledged commit covers them.
+ */
+class NegotiationAlgorithms extends TextBuiltin {
+	private static final int MAX_HAVES = 256;
+
+	@Option(name = "--algorithm", multiValued = true, metaVar = "NAME", usage = "Enable algorithm(s)")
+	List<Algorithm> algorithms = new ArrayList<Algorithm>();
+
+	@Option(name = "--common", metaVar = "COUNT", usage = "Number of commits both sides have")
+	int common = 100;
+
+	@Option(name = "--local", metaVar = "COUNT", usage = "Number of commits only the client has, per branch")
+	int local = 10000;
+
+	@Option(name = "--branches", metaVar = "COUNT", usage = "Number of diverging client branches")
+	int branches = 1;
+
+	private int time;
+
+	@Override
+	protected boolean requiresRepository() {
+		return false;
+	}
+
+	@Override
+	protected void run() throws Exception {
+		if (algorithms.isEmpty()) {
+			algorithms.add(Algorithm.CONSECUTIVE);
+			algorithms.add(Algorithm.SKIPPING);
+		}
+
+		InMemoryRepository repo = new InMemoryRepository(
+				new DfsRepositoryDescription("negotiation")); //$NON-NLS-1$
+		List<ObjectId> remote = new ArrayList<ObjectId>(common);
+		List<ObjectId> tips = new ArrayList<ObjectId>(branches);
+		ObjectInserter ins = repo.newObjectInserter();
+		try {
+			ObjectId tree = ins.insert(new TreeFormatter());
+			ObjectId base = null;
+			for (int i = 0; i < common; i++) {
+				base = commit(ins, tree, base);
+				remote.add(base);
+			}
+			for (int b = 0; b < branches; b++) {
+				ObjectId tip = base;
+				for (int i = 0; i < local; i++)
+					tip = commit(ins, tree, tip);
+				tips.add(tip);
+			}
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+
+		outw.format("%-12s %8s %10s %10s\n", //$NON-NLS-1$
+				"Algorithm", "Rounds", "Haves", "Overshoot"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		outw.println("-------------------------------------------"); //$NON-NLS-1$
+		for (Algorithm alg : algorithms)
+			run(repo, alg, tips, new HashSet<ObjectId>(remote));
+		outw.flush();
+	}
+
+	private void run(InMemoryRepository repo, Algorithm alg,
+			List<ObjectId> tips, Set<ObjectId> remote) throws Exception {
+		RevWalk rw = new RevWalk(repo);
+		try {
+			FetchNegotiator n = FetchNegotiator.create(alg, rw);
+			for (ObjectId tip : tips)
+				n.addTip(rw.parseCommit(tip));
+
+			List<RevCommit> acked = new ArrayList<RevCommit>();
+			int rounds = 0;
+			int haves = 0;
+			int batch = 32;
+			int havesSinceLastAck = 0;
+			boolean done = false;
+			while (!done) {
+				rounds++;
+				haves += acked.size();
+				for (int i = 0; i < batch; i++) {
+					RevCommit c = n.next();
+					if (c == null) {
+						done = true;
+						break;
+					}
+					haves++;
+					havesSinceLastAck++;
+					if (remote.contains(c)) {
+						n.ack(c);
+						acked.add(c);
+						havesSinceLastAck = 0;
+					}
+				}
+				if (!acked.isEmpty() && havesSinceLastAck > MAX_HAVES)
+					done = true;
+				batch = Math.min(2 * batch, MAX_HAVES);
+			}
+
+			outw.format("%-12s %8d %10d %10d\n", //$NON-NLS-1$
+					alg.name().toLowerCase(), valueOf(rounds),
+					valueOf(haves),
+					valueOf(overshoot(rw, acked, remote.size())));
+		} finally {
+			rw.release();
+		}
+	}
+
+	private static int overshoot(RevWalk rw, List<RevCommit> acked,
+			int remote) throws Exception {
+		rw.reset();
+		for (RevCommit c : acked)
+			rw.markStart(rw.parseCommit(c));
+		int covered = 0;
+		while (rw.next() != null)
+			covered++;
+		return remote - covered;
+	}
+
+	private ObjectId commit(ObjectInserter ins, ObjectId tree, ObjectId parent)
+			throws Exception {
+		PersonIdent ident = new PersonIdent("A U Thor", //$NON-NLS-1$
+				"author@example.com", 1250379778000L + 1000L * time++, 0); //$NON-NLS-1$
+		CommitBuilder c = new CommitBuilder();
+		c.setTreeId(tree);
+		if (parent != null)
+			c.setParentId(parent);
+		c.setAuthor(ident);
+		c.setCommitter(ident);
+		c.setMessage(""); //$NON-NLS-1$
+		return ins.insert(Constants.OBJ_COMMIT, c.build());
+	}
+}
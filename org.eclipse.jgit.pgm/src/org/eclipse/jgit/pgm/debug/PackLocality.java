@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.pgm.debug;
+
+import static java.lang.Long.valueOf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.pgm.TextBuiltin;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.WindowCache;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.io.NullOutputStream;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Measure the window cache misses of a checkout after a clone.
+ * <p>
+ * The current repository is packed once with the default object order and
+ * once with {@link PackConfig#setLocalityOrder(boolean)} enabled. Each pack
+ * is indexed into a temporary repository, as a clone would, and then every
+ * file of {@code HEAD} is read back through a deliberately small
+ * {@link WindowCache}. Fewer misses mean the checkout touched fewer distinct
+ * windows of the pack.
+ */
+class PackLocality extends TextBuiltin {
+	@Option(name = "--window-size", metaVar = "BYTES", usage = "Size of each cached pack window")
+	int windowSize = 8 * 1024;
+
+	@Option(name = "--cache-limit", metaVar = "BYTES", usage = "Maximum bytes held by the window cache")
+	int cacheLimit = 1024 * 1024;
+
+	@Override
+	protected void run() throws Exception {
+		ObjectId head = db.resolve(Constants.HEAD);
+		if (head == null)
+			throw die("HEAD does not point to a commit"); //$NON-NLS-1$
+
+		Set<ObjectId> want = new HashSet<ObjectId>();
+		for (Ref ref : db.getAllRefs().values())
+			if (ref.getObjectId() != null)
+				want.add(ref.getObjectId());
+
+		outw.format("%-10s %12s %10s %10s\n", //$NON-NLS-1$
+				"Layout", "Pack bytes", "Hits", "Misses"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		outw.println("-------------------------------------------"); //$NON-NLS-1$
+		WindowCacheStats.setCountStatistics(true);
+		try {
+			run("default", false, head, want); //$NON-NLS-1$
+			run("locality", true, head, want); //$NON-NLS-1$
+			outw.flush();
+		} finally {
+			WindowCacheStats.setCountStatistics(false);
+			WindowCache.reconfigure(new WindowCacheConfig());
+		}
+	}
+
+	private void run(String name, boolean locality, ObjectId head,
+			Set<ObjectId> want) throws Exception {
+		File tmp = File.createTempFile("jgit_locality_", ""); //$NON-NLS-1$ //$NON-NLS-2$
+		FileUtils.delete(tmp);
+		try {
+			File pack = new File(tmp, "clone.pack"); //$NON-NLS-1$
+			FileRepository clone = new FileRepository(new File(tmp, "clone.git")); //$NON-NLS-1$
+			clone.create(true);
+			try {
+				long packSize = writePack(pack, locality, head, want);
+				indexPack(clone, pack);
+
+				WindowCacheConfig wc = new WindowCacheConfig();
+				wc.setPackedGitWindowSize(windowSize);
+				wc.setPackedGitLimit(cacheLimit);
+				wc.setDeltaBaseCacheLimit(windowSize);
+				WindowCache.reconfigure(wc);
+
+				checkout(clone, head);
+				outw.format("%-10s %12d %10d %10d\n", name, //$NON-NLS-1$
+						valueOf(packSize),
+						valueOf(WindowCacheStats.getHitCount()),
+						valueOf(WindowCacheStats.getMissCount()));
+			} finally {
+				clone.close();
+			}
+		} finally {
+			FileUtils.delete(tmp, FileUtils.RECURSIVE | FileUtils.RETRY);
+		}
+	}
+
+	private long writePack(File pack, boolean locality, ObjectId head,
+			Set<ObjectId> want) throws Exception {
+		PackConfig cfg = new PackConfig(db);
+		cfg.setLocalityOrder(locality);
+
+		PackWriter pw = new PackWriter(cfg, db.newObjectReader());
+		try {
+			pw.setDeltaBaseAsOffset(true);
+			pw.setLocalityTip(head);
+			pw.preparePack(NullProgressMonitor.INSTANCE, want,
+					new HashSet<ObjectId>());
+			FileUtils.mkdirs(pack.getParentFile(), true);
+			OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(pack));
+			try {
+				pw.writePack(NullProgressMonitor.INSTANCE,
+						NullProgressMonitor.INSTANCE, out);
+			} finally {
+				out.close();
+			}
+			return pack.length();
+		} finally {
+			pw.release();
+		}
+	}
+
+	private static void indexPack(FileRepository clone, File pack)
+			throws Exception {
+		ObjectInserter ins = clone.newObjectInserter();
+		InputStream in = new BufferedInputStream(new FileInputStream(pack));
+		try {
+			PackParser p = ins.newPackParser(in);
+			p.parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+		} finally {
+			in.close();
+			ins.release();
+		}
+	}
+
+	private static void checkout(FileRepository clone, ObjectId head)
+			throws Exception {
+		ObjectReader or = clone.newObjectReader();
+		try {
+			TreeWalk tw = new TreeWalk(or);
+			tw.reset(new RevWalk(or).parseTree(head));
+			tw.setRecursive(true);
+			while (tw.next()) {
+				if ((tw.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_GITLINK)
+					continue;
+				or.open(tw.getObjectId(0)).copyTo(NullOutputStream.INSTANCE);
+			}
+		} finally {
+			or.release();
+		}
+	}
+}
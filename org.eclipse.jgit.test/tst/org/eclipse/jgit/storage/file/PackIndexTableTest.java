@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.junit.Test;
+
+public class PackIndexTableTest {
+	@Test
+	public void testSortSmall() throws Exception {
+		testWriteMatchesList(1000, 12);
+	}
+
+	@Test
+	public void testSortParallel() throws Exception {
+		testWriteMatchesList(100000, 12);
+	}
+
+	@Test
+	public void testSortWithLargeOffset() throws Exception {
+		testWriteMatchesList(1000, 5L * 1024 * 1024 * 1024);
+	}
+
+	@Test
+	public void testEntriesVisibleToSubclasses() throws Exception {
+		PackIndexTable table = new PackIndexTable(2);
+		ObjectId a = ObjectId
+				.fromString("c59759f143fb1fe21c197981df75a7ee00290799");
+		ObjectId b = ObjectId
+				.fromString("4b825dc642cb6eb9a060e54bf8d69288fbee4904");
+		table.add(a, 12, 1);
+		table.add(b, 100, 2);
+		table.sort(1);
+
+		final List<PackedObjectInfo> seen = new ArrayList<PackedObjectInfo>();
+		PackIndexWriter w = new PackIndexWriter(new ByteArrayOutputStream()) {
+			@Override
+			protected void writeImpl() {
+				seen.addAll(entries);
+			}
+		};
+		w.write(table, new byte[20]);
+
+		assertEquals(2, seen.size());
+		assertEquals(b, seen.get(0));
+		assertEquals(100, seen.get(0).getOffset());
+		assertEquals(2, seen.get(0).getCRC());
+		assertEquals(a, seen.get(1));
+		assertEquals(12, seen.get(1).getOffset());
+	}
+
+	private static void testWriteMatchesList(int cnt, long offset)
+			throws Exception {
+		Random rng = new Random(cnt);
+		byte[] raw = new byte[20];
+		List<PackedObjectInfo> list = new ArrayList<PackedObjectInfo>(cnt);
+		PackIndexTable table = new PackIndexTable(0);
+		for (int i = 0; i < cnt; i++) {
+			rng.nextBytes(raw);
+			PackedObjectInfo oe = new PackedObjectInfo(ObjectId.fromRaw(raw));
+			oe.setOffset(offset + i * 100L);
+			oe.setCRC(rng.nextInt());
+			list.add(oe);
+			table.add(oe, oe.getOffset(), oe.getCRC());
+		}
+		Collections.sort(list);
+		table.sort(4);
+
+		assertEquals(cnt, table.size());
+		byte[] a = new byte[20];
+		byte[] b = new byte[20];
+		for (int i = 1; i < cnt; i++) {
+			table.copyRawTo(i - 1, a, 0);
+			table.copyRawTo(i, b, 0);
+			assertTrue(ObjectId.fromRaw(a).compareTo(ObjectId.fromRaw(b)) < 0);
+		}
+
+		byte[] packHash = new byte[20];
+		ByteArrayOutputStream fromList = new ByteArrayOutputStream();
+		PackIndexWriter.createOldestPossible(fromList, list).write(list,
+				packHash);
+		ByteArrayOutputStream fromTable = new ByteArrayOutputStream();
+		PackIndexWriter.createOldestPossible(fromTable, table).write(table,
+				packHash);
+		assertArrayEquals(fromList.toByteArray(), fromTable.toByteArray());
+	}
+}
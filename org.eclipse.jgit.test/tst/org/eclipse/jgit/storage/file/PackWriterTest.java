@@ -61,8 +61,11 @@
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.junit.JGitTestUtil;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
@@ -70,6 +73,7 @@
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.SampleDataRepositoryTestCase;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -100,6 +104,8 @@ public class PackWriterTest extends SampleDataRepositoryTestCase {
 
 	private PackFile pack;
 
+	private boolean pipelineWrite;
+
 	private ObjectInserter inserter;
 
 	private FileRepository dst;
@@ -249,6 +255,37 @@ public void testWritePack1NoObjectReuse() throws IOException {
 		writeVerifyPack1();
 	}
 
+	/**
+	 * Test writing pack with whole objects deflated by background threads.
+	 * Pack content/preparation as in {@link #testWritePack1()}.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testWritePack1ParallelDeflate() throws IOException {
+		config.setReuseDeltas(false);
+		config.setReuseObjects(false);
+		config.setParallelDeflate(true);
+		config.setThreads(2);
+		writeVerifyPack1();
+	}
+
+	/**
+	 * Test parallel deflate with an in-flight limit too small to hold more
+	 * than one object ahead of the writer.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testWritePack1ParallelDeflateSmallBuffer() throws IOException {
+		config.setReuseDeltas(false);
+		config.setReuseObjects(false);
+		config.setParallelDeflate(true);
+		config.setDeflateBufferLimit(64);
+		config.setThreads(4);
+		writeVerifyPack1();
+	}
+
 	/**
 	 * Create pack basing on both interesting and uninteresting objects, then
 	 * precisely verify content. No delta reuse here.
@@ -283,6 +320,74 @@ public void testWritePack2DeltasReuseOffsets() throws IOException {
 		writeVerifyPack2(true);
 	}
 
+	/**
+	 * Test writing commits while the delta search runs in the background.
+	 * Pack content as in {@link #testWritePack2()}.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testWritePack2Pipelined() throws IOException {
+		pipelineWrite = true;
+		writeVerifyPack2(false);
+	}
+
+	/**
+	 * Test pipelined writing with a multi-threaded delta search.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testWritePack2PipelinedThreads() throws IOException {
+		pipelineWrite = true;
+		config.setThreads(2);
+		config.setDeltaSearchWindowSize(1);
+		writeVerifyPack2(false);
+	}
+
+	/**
+	 * Test pipelined writing with the search run on the configured executor.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testWritePack2PipelinedExecutor() throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			pipelineWrite = true;
+			config.setExecutor(pool);
+			writeVerifyPack2(false);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Test that a cancelled monitor stops the background delta search.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testWritePackPipelinedCancelled() throws IOException {
+		config.setReuseDeltas(false);
+		config.setReuseObjects(false);
+		writer = new PackWriter(config, db.newObjectReader());
+		writer.setPipelineWrite(true);
+		NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		writer.preparePack(m, Collections.singleton(ObjectId
+				.fromString("82c6b885ff600be425b4ea96dee75dca255b69e7")),
+				Collections.<ObjectId> emptySet());
+		try {
+			writer.writePack(new CancelledMonitor(), m,
+					new ByteArrayOutputStream());
+			fail("expected the delta search to be cancelled");
+		} catch (IOException e) {
+			assertEquals(
+					JGitText.get().packingCancelledDuringObjectsWriting,
+					e.getMessage());
+		}
+	}
+
 	/**
 	 * Test pack writing with delta reuse. Raw-data copy (reuse) is made on a
 	 * pack with CRC32 index. Pack configuration as in
@@ -481,6 +586,40 @@ public void testExclude() throws Exception {
 						contentB.getId()));
 	}
 
+	@Test
+	public void testWritePackLocalityOrder() throws Exception {
+		FileRepository repo = createBareRepository();
+		TestRepository<FileRepository> testRepo = new TestRepository<FileRepository>(
+				repo);
+		BranchBuilder bb = testRepo.branch("refs/heads/master");
+		RevBlob a1 = testRepo.blob("a1");
+		RevBlob b = testRepo.blob("b");
+		RevCommit c1 = bb.commit().add("a", a1).add("d/b", b).create();
+		RevBlob a2 = testRepo.blob("a2");
+		RevCommit c2 = bb.commit().add("a", a2).create();
+		RevWalk rw = testRepo.getRevWalk();
+		rw.parseHeaders(c1);
+		rw.parseHeaders(c2);
+		RevObject dir = testRepo.get(c2.getTree(), "d");
+
+		config.setDeltaCompress(false);
+		config.setLocalityOrder(true);
+		NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		writer = new PackWriter(config, repo.newObjectReader());
+		writer.setLocalityTip(c2);
+		writer.preparePack(m, Collections.singleton(c2.copy()),
+				EMPTY_SET_OBJECT);
+		writer.writePack(m, m, os);
+		writer.release();
+		verifyOpenPack(false);
+
+		// The tip's trees close the tree section, depth-first, and are
+		// directly followed by the tip's blobs in path order.
+		verifyObjectsOrder(new ObjectId[] { c2.copy(), c1.copy(),
+				c1.getTree().copy(), c2.getTree().copy(), dir.copy(),
+				a2.copy(), b.copy(), a1.copy() });
+	}
+
 	private static void assertContent(PackIndex pi, List<ObjectId> expected) {
 		assertEquals("Pack index has wrong size.", expected.size(),
 				pi.getObjectCount());
@@ -607,6 +746,7 @@ private void createVerifyOpenPack(final Set<ObjectId> interestings,
 		NullProgressMonitor m = NullProgressMonitor.INSTANCE;
 		writer = new PackWriter(config, db.newObjectReader());
 		writer.setThin(thin);
+		writer.setPipelineWrite(pipelineWrite);
 		writer.setIgnoreMissingUninteresting(ignoreMissingUninteresting);
 		writer.preparePack(m, interestings, uninterestings);
 		writer.writePack(m, m, os);
@@ -678,4 +818,26 @@ public boolean contains(AnyObjectId objectId) {
 			}
 		};
 	}
+
+	private static class CancelledMonitor implements ProgressMonitor {
+		public void start(int totalTasks) {
+			// Not reported.
+		}
+
+		public void beginTask(String title, int totalWork) {
+			// Not reported.
+		}
+
+		public void update(int completed) {
+			// Not reported.
+		}
+
+		public void endTask() {
+			// Not reported.
+		}
+
+		public boolean isCancelled() {
+			return true;
+		}
+	}
 }
@@ -44,6 +44,7 @@
 package org.eclipse.jgit.storage.file;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -126,6 +127,28 @@ public void testCache_TooSmallLimit() throws IOException {
 		checkLimits(cfg);
 	}
 
+	@Test
+	public void testCache_StatisticsOffByDefault() throws IOException {
+		assertFalse(WindowCacheStats.isCountStatistics());
+		WindowCache.reconfigure(new WindowCacheConfig());
+		doCacheTests();
+		assertEquals(0, WindowCacheStats.getHitCount());
+		assertEquals(0, WindowCacheStats.getMissCount());
+	}
+
+	@Test
+	public void testCache_Statistics() throws IOException {
+		WindowCacheStats.setCountStatistics(true);
+		try {
+			WindowCache.reconfigure(new WindowCacheConfig());
+			doCacheTests();
+			assertTrue(0 < WindowCacheStats.getMissCount());
+			assertTrue(0 < WindowCacheStats.getHitCount());
+		} finally {
+			WindowCacheStats.setCountStatistics(false);
+		}
+	}
+
 	private static void checkLimits(final WindowCacheConfig cfg) {
 		final WindowCache cache = WindowCache.getInstance();
 		assertTrue(cache.getOpenFiles() <= cfg.getPackedGitOpenFiles());
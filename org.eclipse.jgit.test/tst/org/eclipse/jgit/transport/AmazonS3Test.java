@@ -0,0 +1,521 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AmazonS3Test extends LocalDiskRepositoryTestCase {
+	private FakeS3 server;
+
+	private Properties props;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = new FakeS3();
+		props = new Properties();
+		props.setProperty("accesskey", "public");
+		props.setProperty("secretkey", "secret");
+		props.setProperty("s3service.s3-endpoint", "127.0.0.1");
+		props.setProperty("s3service.s3-endpoint-http-port",
+				String.valueOf(server.getPort()));
+		props.setProperty("s3service.disable-dns-buckets", "true");
+		props.setProperty("multipart.part-size", "1024");
+		props.setProperty("multipart.threads", "3");
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+		super.tearDown();
+	}
+
+	@Test
+	public void testSmallObjectIsSinglePut() throws IOException {
+		byte[] data = data(100);
+		put("small", data);
+		assertEquals(0, server.initiated.get());
+		assertArrayEquals(data, get(new AmazonS3(props), "small"));
+	}
+
+	@Test
+	public void testLargeObjectIsMultipart() throws IOException {
+		byte[] data = data(3500);
+		put("large", data);
+		assertEquals(1, server.initiated.get());
+		assertEquals(4, server.partPuts.get());
+		assertEquals(1, server.completed.get());
+		assertArrayEquals(data, get(new AmazonS3(props), "large"));
+	}
+
+	@Test
+	public void testFailedPartIsRetried() throws IOException {
+		server.failPart = 2;
+		server.failures.set(1);
+		byte[] data = data(3500);
+		put("retried", data);
+		assertEquals(5, server.partPuts.get());
+		assertArrayEquals(data, get(new AmazonS3(props), "retried"));
+	}
+
+	@Test
+	public void testFailedUploadIsAborted() throws IOException {
+		server.failPart = 2;
+		server.failures.set(100);
+		try {
+			put("failed", data(3500));
+			fail("upload should have failed");
+		} catch (IOException expected) {
+			// Expected.
+		}
+		assertEquals(1, server.aborted.get());
+		assertEquals(0, server.completed.get());
+		assertFalse(server.objects.containsKey("bucket/failed"));
+	}
+
+	@Test
+	public void testEncryptedMultipart() throws IOException {
+		props.setProperty("password", "secret phrase");
+		byte[] data = data(5000);
+		put("encrypted", data);
+		assertEquals(1, server.initiated.get());
+		assertFalse(Arrays.equals(data, server.objects.get("bucket/encrypted")));
+		assertArrayEquals(data, get(new AmazonS3(props), "encrypted"));
+	}
+
+	@Test
+	public void testPartSizeBelowAmazonMinimum() {
+		props.setProperty("s3service.s3-endpoint", "s3.amazonaws.com");
+		try {
+			new AmazonS3(props);
+			fail("part size should have been rejected");
+		} catch (IllegalArgumentException expected) {
+			// Expected.
+		}
+		props.setProperty("multipart.part-size",
+				String.valueOf(5 * 1024 * 1024));
+		new AmazonS3(props);
+	}
+
+	@Test
+	public void testPartSizeMustBePositive() {
+		props.setProperty("multipart.part-size", "0");
+		try {
+			new AmazonS3(props);
+			fail("part size should have been rejected");
+		} catch (IllegalArgumentException expected) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testPushAndFetch() throws Exception {
+		FileRepository src = createBareRepository();
+		TestRepository<FileRepository> s = new TestRepository<FileRepository>(
+				src);
+		RevCommit a = s.commit().add("big", new String(data(4000), "ISO-8859-1"))
+				.create();
+		RevCommit b = s.commit().parent(a).add("file", "b").create();
+		s.update("refs/heads/master", b);
+		s.update("refs/heads/side", a);
+		s.update("refs/heads/other", a);
+		writeProperties(src);
+
+		Transport t = Transport.open(src, new URIish(
+				"amazon-s3://s3.properties@bucket/repo.git"));
+		try {
+			PushResult r = t.push(NullProgressMonitor.INSTANCE, Arrays.asList(
+					new RemoteRefUpdate(src, "refs/heads/master",
+							"refs/heads/master", false, null, null),
+					new RemoteRefUpdate(src, "refs/heads/side",
+							"refs/heads/side", false, null, null),
+					new RemoteRefUpdate(src, "refs/heads/other",
+							"refs/heads/other", false, null, null)));
+			for (RemoteRefUpdate u : r.getRemoteUpdates())
+				assertEquals(RemoteRefUpdate.Status.OK, u.getStatus());
+		} finally {
+			t.close();
+		}
+		assertTrue(server.initiated.get() > 0);
+
+		FileRepository dst = createBareRepository();
+		writeProperties(dst);
+		t = Transport.open(dst, new URIish(
+				"amazon-s3://s3.properties@bucket/repo.git"));
+		try {
+			t.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singletonList(new RefSpec("refs/heads/*:refs/heads/*")));
+		} finally {
+			t.close();
+		}
+		assertEquals(b, dst.resolve("refs/heads/master"));
+		assertEquals(a, dst.resolve("refs/heads/side"));
+		assertEquals(a, dst.resolve("refs/heads/other"));
+		new TestRepository<FileRepository>(dst).fsck(b);
+	}
+
+	private void writeProperties(FileRepository repo) throws IOException {
+		OutputStream out = new FileOutputStream(new File(repo.getDirectory(),
+				"s3.properties"));
+		try {
+			props.store(out, null);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void put(String key, byte[] data) throws IOException {
+		OutputStream out = new AmazonS3(props).beginPut("bucket", key, null,
+				null);
+		for (int i = 0; i < data.length; i += 100)
+			out.write(data, i, Math.min(100, data.length - i));
+		out.close();
+	}
+
+	private static byte[] get(AmazonS3 s3, String key) throws IOException {
+		URLConnection c = s3.get("bucket", key);
+		return read(s3.decrypt(c));
+	}
+
+	private static byte[] data(int len) {
+		byte[] data = new byte[len];
+		for (int i = 0; i < len; i++)
+			data[i] = (byte) (i * 31 + i / 7);
+		return data;
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Minimal stand-in for the parts of the S3 REST API used by JGit. */
+	private static class FakeS3 implements Runnable {
+		private static final Pattern PART_NUMBER = Pattern
+				.compile("<PartNumber>(\\d+)</PartNumber>");
+
+		private final ServerSocket socket;
+
+		final Map<String, byte[]> objects = Collections
+				.synchronizedMap(new TreeMap<String, byte[]>());
+
+		private final Map<String, Map<String, String>> meta = Collections
+				.synchronizedMap(new HashMap<String, Map<String, String>>());
+
+		private final Map<String, SortedMap<Integer, byte[]>> uploads = Collections
+				.synchronizedMap(new HashMap<String, SortedMap<Integer, byte[]>>());
+
+		final AtomicInteger initiated = new AtomicInteger();
+
+		final AtomicInteger partPuts = new AtomicInteger();
+
+		final AtomicInteger completed = new AtomicInteger();
+
+		final AtomicInteger aborted = new AtomicInteger();
+
+		final AtomicInteger failures = new AtomicInteger();
+
+		volatile int failPart;
+
+		FakeS3() throws IOException {
+			socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+			Thread t = new Thread(this, "FakeS3");
+			t.setDaemon(true);
+			t.start();
+		}
+
+		int getPort() {
+			return socket.getLocalPort();
+		}
+
+		void stop() throws IOException {
+			socket.close();
+		}
+
+		public void run() {
+			for (;;) {
+				final Socket s;
+				try {
+					s = socket.accept();
+				} catch (IOException closed) {
+					return;
+				}
+				Thread t = new Thread() {
+					public void run() {
+						try {
+							try {
+								serve(s.getInputStream(), s.getOutputStream());
+							} finally {
+								s.close();
+							}
+						} catch (IOException e) {
+							// Client went away.
+						}
+					}
+				};
+				t.setDaemon(true);
+				t.start();
+			}
+		}
+
+		private void serve(InputStream in, OutputStream out)
+				throws IOException {
+			String[] request = readLine(in).split(" ");
+			String method = request[0];
+			Map<String, String> headers = new HashMap<String, String>();
+			for (String line; (line = readLine(in)).length() > 0;) {
+				int colon = line.indexOf(':');
+				headers.put(line.substring(0, colon).trim().toLowerCase(),
+						line.substring(colon + 1).trim());
+			}
+			byte[] body = new byte[0];
+			if (headers.containsKey("content-length")) {
+				body = new byte[Integer.parseInt(headers.get("content-length"))];
+				for (int p = 0; p < body.length;) {
+					int n = in.read(body, p, body.length - p);
+					if (n < 0)
+						throw new IOException("short body");
+					p += n;
+				}
+			}
+
+			String target = request[1];
+			Map<String, String> query = new HashMap<String, String>();
+			int q = target.indexOf('?');
+			if (q >= 0) {
+				for (String p : target.substring(q + 1).split("&")) {
+					int eq = p.indexOf('=');
+					if (eq < 0)
+						query.put(p, null);
+					else
+						query.put(p.substring(0, eq), URLDecoder.decode(
+								p.substring(eq + 1), "UTF-8"));
+				}
+				target = target.substring(0, q);
+			}
+			int slash = target.indexOf('/', 1);
+			String bucket = target.substring(1, slash);
+			String name = bucket + "/"
+					+ URLDecoder.decode(target.substring(slash + 1), "UTF-8");
+
+			Map<String, String> amzMeta = new TreeMap<String, String>();
+			for (Map.Entry<String, String> e : headers.entrySet()) {
+				if (e.getKey().startsWith("x-amz-meta-"))
+					amzMeta.put(e.getKey(), e.getValue());
+			}
+
+			if ("GET".equals(method) && query.containsKey("prefix")
+					|| "GET".equals(method) && name.endsWith("/")) {
+				String prefix = bucket + "/"
+						+ (query.containsKey("prefix") ? query.get("prefix") : "");
+				StringBuilder xml = new StringBuilder();
+				xml.append("<ListBucketResult><IsTruncated>false</IsTruncated>");
+				synchronized (objects) {
+					for (String k : objects.keySet()) {
+						if (k.startsWith(prefix)) {
+							xml.append("<Contents><Key>");
+							xml.append(k.substring(bucket.length() + 1));
+							xml.append("</Key></Contents>");
+						}
+					}
+				}
+				xml.append("</ListBucketResult>");
+				respond(out, 200, null, Constants.encode(xml.toString()));
+
+			} else if ("GET".equals(method)) {
+				byte[] data = objects.get(name);
+				if (data == null)
+					respond(out, 404, null, new byte[0]);
+				else
+					respond(out, 200, meta.get(name), data);
+
+			} else if ("PUT".equals(method) && query.containsKey("partNumber")) {
+				partPuts.incrementAndGet();
+				int part = Integer.parseInt(query.get("partNumber"));
+				if (part == failPart && failures.getAndDecrement() > 0) {
+					respond(out, 500, null, new byte[0]);
+					return;
+				}
+				SortedMap<Integer, byte[]> parts = uploads.get(query
+						.get("uploadId"));
+				parts.put(Integer.valueOf(part), body);
+				Map<String, String> etag = new HashMap<String, String>();
+				etag.put("ETag", "\"" + md5(body) + "\"");
+				respond(out, 200, etag, new byte[0]);
+
+			} else if ("PUT".equals(method)) {
+				objects.put(name, body);
+				meta.put(name, amzMeta);
+				respond(out, 200, null, new byte[0]);
+
+			} else if ("POST".equals(method) && query.containsKey("uploads")) {
+				String id = "upload" + initiated.incrementAndGet();
+				uploads.put(id, Collections
+						.synchronizedSortedMap(new TreeMap<Integer, byte[]>()));
+				meta.put(id, amzMeta);
+				respond(out, 200, null, Constants.encode(
+						"<InitiateMultipartUploadResult><UploadId>" + id
+						+ "</UploadId></InitiateMultipartUploadResult>"));
+
+			} else if ("POST".equals(method)) {
+				String id = query.get("uploadId");
+				SortedMap<Integer, byte[]> parts = uploads.remove(id);
+				ByteArrayOutputStream all = new ByteArrayOutputStream();
+				Matcher m = PART_NUMBER.matcher(RawParseUtils.decode(body));
+				while (m.find())
+					all.write(parts.get(Integer.valueOf(m.group(1))));
+				objects.put(name, all.toByteArray());
+				meta.put(name, meta.remove(id));
+				completed.incrementAndGet();
+				respond(out, 200, null, Constants.encode(
+						"<CompleteMultipartUploadResult><Key>" + name
+						+ "</Key></CompleteMultipartUploadResult>"));
+
+			} else if ("DELETE".equals(method) && query.containsKey("uploadId")) {
+				uploads.remove(query.get("uploadId"));
+				aborted.incrementAndGet();
+				respond(out, 204, null, null);
+
+			} else if ("DELETE".equals(method)) {
+				objects.remove(name);
+				respond(out, 204, null, null);
+
+			} else {
+				respond(out, 400, null, new byte[0]);
+			}
+		}
+
+		private static void respond(OutputStream out, int status,
+				Map<String, String> headers, byte[] body) throws IOException {
+			StringBuilder r = new StringBuilder();
+			r.append("HTTP/1.1 ").append(status).append(" Status\r\n");
+			r.append("Connection: close\r\n");
+			if (headers != null) {
+				for (Map.Entry<String, String> e : headers.entrySet())
+					r.append(e.getKey()).append(": ").append(e.getValue())
+							.append("\r\n");
+			}
+			r.append("Content-Length: ").append(body != null ? body.length : 0)
+					.append("\r\n\r\n");
+			out.write(Constants.encode(r.toString()));
+			if (body != null)
+				out.write(body);
+			out.flush();
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			StringBuilder s = new StringBuilder();
+			for (;;) {
+				int c = in.read();
+				if (c < 0 || c == '\n')
+					break;
+				if (c != '\r')
+					s.append((char) c);
+			}
+			return s.toString();
+		}
+
+		private static String md5(byte[] data) throws IOException {
+			try {
+				byte[] d = MessageDigest.getInstance("MD5").digest(data);
+				StringBuilder s = new StringBuilder();
+				for (byte b : d)
+					s.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+				return s.toString();
+			} catch (Exception e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+	}
+}
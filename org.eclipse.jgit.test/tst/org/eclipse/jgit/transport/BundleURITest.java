@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class BundleURITest extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private TestRepository<FileRepository> remote;
+
+	private RevCommit base;
+
+	private RevCommit unadvertised;
+
+	private Daemon daemon;
+
+	private HttpServer http;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		remote = new TestRepository<FileRepository>(server);
+		base = remote.commit().add("a", "a").create();
+		remote.update("refs/heads/master", base);
+		unadvertised = remote.commit().add("x", "x").create();
+
+		File bundle = new File(server.getDirectory(), "base.bundle");
+		BundleWriter bw = new BundleWriter(server);
+		bw.include("refs/heads/master", base);
+		bw.include("refs/heads/old", unadvertised);
+		OutputStream out = new FileOutputStream(bundle);
+		try {
+			bw.writeBundle(NullProgressMonitor.INSTANCE, out);
+		} finally {
+			out.close();
+		}
+
+		// Serve the repository directory as static files.
+		http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		http.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				File f = new File(server.getDirectory(), exchange
+						.getRequestURI().getPath());
+				try {
+					if (!f.isFile()) {
+						exchange.sendResponseHeaders(404, -1);
+						return;
+					}
+					byte[] body = IO.readFully(f);
+					exchange.sendResponseHeaders(200, body.length);
+					exchange.getResponseBody().write(body);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		http.start();
+
+		StoredConfig cfg = server.getConfig();
+		cfg.setBoolean("uploadpack", null, "advertisebundleuris", true);
+		cfg.setString("bundle", "base", "uri", httpURI("base.bundle"));
+		cfg.save();
+
+		daemon = new Daemon(new InetSocketAddress("127.0.0.1", 0));
+		daemon.setRepositoryResolver(new RepositoryResolver<DaemonClient>() {
+			public Repository open(DaemonClient req, String name) {
+				server.incrementOpen();
+				return server;
+			}
+		});
+		daemon.start();
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		daemon.stop();
+		http.stop(0);
+		super.tearDown();
+	}
+
+	@Test
+	public void testCloneFromBundle() throws Exception {
+		FileRepository client = fetch();
+		assertTrue(client.hasObject(base));
+		assertEquals(base, client.resolve("refs/remotes/origin/master"));
+		// Only the bundle could have supplied this commit, and the
+		// server had nothing to add to it.
+		assertTrue(client.hasObject(unadvertised));
+		assertEquals(1, packCount(client));
+	}
+
+	@Test
+	public void testFetchRemainderAfterBundle() throws Exception {
+		RevCommit tip = remote.commit().parent(base).add("b", "b").create();
+		remote.update("refs/heads/master", tip);
+
+		FileRepository client = fetch();
+		assertTrue(client.hasObject(base));
+		assertTrue(client.hasObject(tip));
+		assertEquals(tip, client.resolve("refs/remotes/origin/master"));
+		assertEquals(2, packCount(client));
+	}
+
+	@Test
+	public void testBrokenBundleIsSkipped() throws Exception {
+		StoredConfig cfg = server.getConfig();
+		cfg.setString("bundle", "base", "uri", httpURI("missing.bundle"));
+		cfg.save();
+
+		FileRepository client = fetch();
+		assertEquals(base, client.resolve("refs/remotes/origin/master"));
+		assertFalse(client.hasObject(unadvertised));
+		assertEquals(1, packCount(client));
+	}
+
+	@Test
+	public void testOnlyHttpBundlesAreAccepted() throws Exception {
+		StoredConfig cfg = server.getConfig();
+		cfg.setString("bundle", "base", "uri", new File(
+				server.getDirectory(), "base.bundle").toURI().toString());
+		cfg.setString("bundle", "repo", "uri", httpURI(""));
+		cfg.save();
+
+		FileRepository client = fetch();
+		assertEquals(base, client.resolve("refs/remotes/origin/master"));
+		assertFalse(client.hasObject(unadvertised));
+		assertEquals(1, packCount(client));
+	}
+
+	private String httpURI(String name) {
+		return "http://127.0.0.1:" + http.getAddress().getPort() + "/" + name;
+	}
+
+	private FileRepository fetch() throws Exception {
+		FileRepository client = createBareRepository();
+		StoredConfig cfg = client.getConfig();
+		cfg.setInt("protocol", null, "version", 2);
+		cfg.setBoolean("transfer", null, "bundleuri", true);
+		cfg.save();
+
+		Transport t = Transport.open(client, new URIish("git://127.0.0.1:"
+				+ daemon.getAddress().getPort() + "/server.git"));
+		try {
+			t.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec(
+							"refs/heads/*:refs/remotes/origin/*")));
+		} finally {
+			t.close();
+		}
+		return client;
+	}
+
+	private static int packCount(FileRepository repo) {
+		File pack = new File(repo.getObjectDatabase().getDirectory(), "pack");
+		int n = 0;
+		for (String name : pack.list()) {
+			if (name.endsWith(".pack"))
+				n++;
+		}
+		return n;
+	}
+}
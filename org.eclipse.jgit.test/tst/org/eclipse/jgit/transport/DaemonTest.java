@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.errors.RemoteRepositoryException;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DaemonTest extends LocalDiskRepositoryTestCase {
+	private FileRepository src;
+
+	private ObjectId master;
+
+	private Daemon daemon;
+
+	private CountDownLatch entered;
+
+	private CountDownLatch proceed;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		src = createBareRepository();
+		TestRepository<FileRepository> d = new TestRepository<FileRepository>(
+				src);
+		master = d.commit().create();
+		d.update("refs/heads/master", master);
+
+		entered = new CountDownLatch(1);
+		proceed = new CountDownLatch(0);
+		daemon = new Daemon(new InetSocketAddress("127.0.0.1", 0));
+		daemon.setRepositoryResolver(new RepositoryResolver<DaemonClient>() {
+			public Repository open(DaemonClient req, String name) {
+				entered.countDown();
+				try {
+					proceed.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				src.incrementOpen();
+				return src;
+			}
+		});
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		proceed.countDown();
+		daemon.stop();
+		super.tearDown();
+	}
+
+	@Test
+	public void testUnlimited() throws Exception {
+		daemon.start();
+		assertEquals(master, lsRemote());
+		assertEquals(0, daemon.getRejectedConnections());
+	}
+
+	@Test
+	public void testBusyDaemonRejects() throws Exception {
+		daemon.setMaxSessions(1);
+		daemon.setQueueTimeout(1);
+		daemon.start();
+		Thread blocked = holdSession();
+		try {
+			lsRemote();
+			fail("expected the daemon to be busy");
+		} catch (RemoteRepositoryException busy) {
+			assertTrue(busy.getMessage().contains("Too many"));
+		}
+		assertEquals(1, daemon.getRejectedConnections());
+		assertEquals(1, daemon.getActiveSessions());
+
+		proceed.countDown();
+		blocked.join(10000);
+		assertEquals(master, lsRemote());
+		assertEquals(0, daemon.getQueuedSessions());
+	}
+
+	@Test
+	public void testServiceLimitRejects() throws Exception {
+		daemon.getService("upload-pack").setMaxSessions(1);
+		daemon.setQueueTimeout(1);
+		daemon.start();
+		Thread blocked = holdSession();
+		try {
+			lsRemote();
+			fail("expected upload-pack to be busy");
+		} catch (RemoteRepositoryException busy) {
+			assertTrue(busy.getMessage().contains("Too many"));
+		}
+		assertEquals(1, daemon.getService("upload-pack").getRejectedSessions());
+
+		proceed.countDown();
+		blocked.join(10000);
+		assertEquals(master, lsRemote());
+	}
+
+	@Test
+	public void testQueuedClientIsServedLater() throws Exception {
+		daemon.setMaxSessions(1);
+		daemon.start();
+		Thread blocked = holdSession();
+
+		final ObjectId[] result = new ObjectId[1];
+		Thread waiting = new Thread() {
+			public void run() {
+				try {
+					result[0] = lsRemote();
+				} catch (Exception e) {
+					// Leaves the result unset.
+				}
+			}
+		};
+		waiting.start();
+		while (daemon.getQueuedSessions() == 0)
+			Thread.sleep(1);
+
+		proceed.countDown();
+		blocked.join(10000);
+		waiting.join(10000);
+		assertEquals(master, result[0]);
+		assertEquals(0, daemon.getRejectedConnections());
+	}
+
+	@Test
+	public void testQueuedClientsDoNotTakeTasks() throws Exception {
+		final AtomicInteger tasks = new AtomicInteger();
+		final ExecutorService pool = Executors.newCachedThreadPool();
+		try {
+			daemon.setExecutor(new Executor() {
+				public void execute(Runnable command) {
+					tasks.incrementAndGet();
+					pool.execute(command);
+				}
+			});
+			daemon.setMaxSessions(1);
+			daemon.start();
+			Thread blocked = holdSession();
+
+			Thread[] waiting = new Thread[3];
+			for (int i = 0; i < waiting.length; i++) {
+				waiting[i] = new Thread() {
+					public void run() {
+						try {
+							lsRemote();
+						} catch (Exception e) {
+							// Checked through the counters.
+						}
+					}
+				};
+				waiting[i].start();
+			}
+			while (daemon.getQueuedSessions() < waiting.length)
+				Thread.sleep(1);
+			assertEquals(1, tasks.get());
+
+			proceed.countDown();
+			blocked.join(10000);
+			for (Thread t : waiting)
+				t.join(10000);
+			assertEquals(1 + waiting.length, tasks.get());
+			assertEquals(0, daemon.getRejectedConnections());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testFullQueueRejects() throws Exception {
+		daemon.setMaxSessions(1);
+		daemon.setMaxQueuedSessions(1);
+		daemon.start();
+		Thread blocked = holdSession();
+
+		Thread waiting = new Thread() {
+			public void run() {
+				try {
+					lsRemote();
+				} catch (Exception e) {
+					// Checked through the counters.
+				}
+			}
+		};
+		waiting.start();
+		while (daemon.getQueuedSessions() == 0)
+			Thread.sleep(1);
+		try {
+			lsRemote();
+			fail("expected the queue to be full");
+		} catch (RemoteRepositoryException busy) {
+			assertTrue(busy.getMessage().contains("Too many"));
+		}
+		assertEquals(1, daemon.getRejectedConnections());
+
+		proceed.countDown();
+		blocked.join(10000);
+		waiting.join(10000);
+	}
+
+	private Thread holdSession() throws Exception {
+		proceed = new CountDownLatch(1);
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					lsRemote();
+				} catch (Exception e) {
+					// Only holds the session.
+				}
+			}
+		};
+		t.start();
+		assertTrue(entered.await(10, TimeUnit.SECONDS));
+		return t;
+	}
+
+	private ObjectId lsRemote() throws Exception {
+		Transport t = Transport.open(src, new URIish("git://127.0.0.1:"
+				+ daemon.getAddress().getPort() + "/src.git"));
+		try {
+			FetchConnection c = t.openFetch();
+			try {
+				return c.getRef("refs/heads/master").getObjectId(); //$NON-NLS-1$
+			} finally {
+				c.close();
+			}
+		} finally {
+			t.close();
+		}
+	}
+}
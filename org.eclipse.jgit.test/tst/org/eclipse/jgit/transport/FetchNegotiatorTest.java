@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.FetchNegotiator.Algorithm;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FetchNegotiatorTest extends LocalDiskRepositoryTestCase {
+	private TestRepository<FileRepository> util;
+
+	private RevWalk rw;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		util = new TestRepository<FileRepository>(createBareRepository());
+		rw = util.getRevWalk();
+	}
+
+	@Test
+	public void testConsecutiveOffersEveryCommit() throws Exception {
+		List<RevCommit> chain = chain(null, 10);
+		List<RevCommit> sent = negotiate(Algorithm.CONSECUTIVE, last(chain),
+				null, Collections.<RevCommit> emptySet());
+
+		List<RevCommit> expect = new ArrayList<RevCommit>(chain);
+		Collections.reverse(expect);
+		assertEquals(expect, sent);
+	}
+
+	@Test
+	public void testSkippingOffersFewCommits() throws Exception {
+		List<RevCommit> chain = chain(null, 1000);
+		List<RevCommit> sent = negotiate(Algorithm.SKIPPING, last(chain),
+				null, Collections.<RevCommit> emptySet());
+
+		assertEquals(last(chain), sent.get(0));
+		assertEquals(chain.get(0), last(sent));
+		assertTrue(sent.size() < 30);
+		for (int i = 1; i < sent.size(); i++)
+			assertTrue(sent.get(i).getCommitTime() < sent.get(i - 1)
+					.getCommitTime());
+	}
+
+	@Test
+	public void testNoopOffersNothing() throws Exception {
+		List<RevCommit> chain = chain(null, 3);
+		assertNull(negotiator(Algorithm.NOOP, last(chain)).next());
+	}
+
+	@Test
+	public void testAckStopsAncestors() throws Exception {
+		for (Algorithm alg : new Algorithm[] { Algorithm.CONSECUTIVE,
+				Algorithm.SKIPPING }) {
+			List<RevCommit> base = chain(null, 50);
+			List<RevCommit> local = chain(last(base), 50);
+			Set<RevCommit> server = new HashSet<RevCommit>(base);
+
+			List<RevCommit> sent = negotiate(alg, last(local), null, server);
+			RevCommit acked = null;
+			for (RevCommit c : sent) {
+				if (acked != null)
+					assertFalse(alg.name(), server.contains(c));
+				else if (server.contains(c))
+					acked = c;
+			}
+			assertTrue(alg.name(), acked != null);
+		}
+	}
+
+	@Test
+	public void testKnownCommonIsOfferedOnce() throws Exception {
+		for (Algorithm alg : new Algorithm[] { Algorithm.CONSECUTIVE,
+				Algorithm.SKIPPING }) {
+			List<RevCommit> base = chain(null, 20);
+			List<RevCommit> local = chain(last(base), 3);
+
+			List<RevCommit> sent = negotiate(alg, last(local), last(base),
+					Collections.<RevCommit> emptySet());
+			assertEquals(alg.name(), last(base), last(sent));
+			for (RevCommit c : sent)
+				assertFalse(alg.name(), base.indexOf(c) >= 0
+						&& c != last(base));
+		}
+	}
+
+	@Test
+	public void testSkippingFindsCommonWithFewerHaves() throws Exception {
+		List<RevCommit> base = chain(null, 10);
+		List<RevCommit> local = chain(last(base), 2000);
+		Set<RevCommit> server = new HashSet<RevCommit>(base);
+
+		int consecutive = negotiate(Algorithm.CONSECUTIVE, last(local), null,
+				server).size();
+		int skipping = negotiate(Algorithm.SKIPPING, last(local), null,
+				server).size();
+		assertTrue(consecutive > 2000);
+		assertTrue(skipping < consecutive / 10);
+	}
+
+	private List<RevCommit> negotiate(Algorithm alg, RevCommit tip,
+			RevCommit advertised, Set<RevCommit> server) throws Exception {
+		FetchNegotiator n = negotiator(alg, tip);
+		if (advertised != null)
+			n.knownCommon(advertised);
+
+		List<RevCommit> sent = new ArrayList<RevCommit>();
+		RevCommit c;
+		while ((c = n.next()) != null) {
+			sent.add(c);
+			if (server.contains(c))
+				n.ack(c);
+		}
+		return sent;
+	}
+
+	private FetchNegotiator negotiator(Algorithm alg, RevCommit tip)
+			throws Exception {
+		rw.reset();
+		FetchNegotiator n = FetchNegotiator.create(alg, rw);
+		n.addTip(tip);
+		return n;
+	}
+
+	private List<RevCommit> chain(RevCommit parent, int n) throws Exception {
+		List<RevCommit> r = new ArrayList<RevCommit>(n);
+		for (int i = 0; i < n; i++) {
+			parent = parent != null ? util.commit(parent) : util.commit()
+					.create();
+			r.add(rw.parseCommit(parent));
+		}
+		return r;
+	}
+
+	private static RevCommit last(List<RevCommit> list) {
+		return list.get(list.size() - 1);
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.util.FS;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+public class JschConfigSessionFactoryTest extends LocalDiskRepositoryTestCase {
+	private FS fs;
+
+	private StubFactory factory;
+
+	private URIish uri;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		File home = createTempDirectory("home");
+		fs = FS.DETECTED.newInstance().setUserHome(home);
+		factory = new StubFactory();
+		uri = new URIish("ssh://git@example.com/repo.git");
+	}
+
+	@Test
+	public void testNoReuseByDefault() throws Exception {
+		assertEquals(0, factory.getSessionIdleTimeout());
+		RemoteSession a = factory.getSession(uri, null, fs, 0);
+		a.disconnect();
+		RemoteSession b = factory.getSession(uri, null, fs, 0);
+		b.disconnect();
+
+		assertEquals(2, factory.getSessionsOpened());
+		assertEquals(0, factory.getSessionsReused());
+		assertEquals(0, factory.getCachedSessions());
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		factory.setSessionIdleTimeout(60);
+		RemoteSession a = factory.getSession(uri, null, fs, 0);
+		a.disconnect();
+		assertEquals(1, factory.getCachedSessions());
+		assertEquals(1, factory.connected.size());
+
+		RemoteSession b = factory.getSession(uri, null, fs, 0);
+		assertEquals(1, factory.getSessionsOpened());
+		assertEquals(1, factory.getSessionsReused());
+		b.disconnect();
+
+		factory.closeIdleSessions();
+		assertEquals(0, factory.getCachedSessions());
+		assertTrue(factory.connected.isEmpty());
+	}
+
+	@Test
+	public void testReleaseKeepsSessionUntilLastUser() throws Exception {
+		factory.setSessionIdleTimeout(60);
+		RemoteSession a = factory.getSession(uri, null, fs, 0);
+		RemoteSession b = factory.getSession(uri, null, fs, 0);
+		assertEquals(1, factory.getSessionsOpened());
+
+		a.disconnect();
+		a.disconnect(); // A second release must not free b's lease.
+		factory.closeIdleSessions();
+		assertEquals(1, factory.connected.size());
+
+		b.disconnect();
+		factory.closeIdleSessions();
+		assertTrue(factory.connected.isEmpty());
+		assertEquals(1, factory.getSessionsClosed());
+	}
+
+	@Test
+	public void testMaxChannels() throws Exception {
+		factory.setSessionIdleTimeout(60);
+		factory.setMaxChannelsPerSession(2);
+		RemoteSession a = factory.getSession(uri, null, fs, 0);
+		RemoteSession b = factory.getSession(uri, null, fs, 0);
+		RemoteSession c = factory.getSession(uri, null, fs, 0);
+		assertEquals(2, factory.getSessionsOpened());
+		assertEquals(1, factory.getSessionsReused());
+		assertEquals(2, factory.getCachedSessions());
+
+		a.disconnect();
+		RemoteSession d = factory.getSession(uri, null, fs, 0);
+		assertEquals(2, factory.getSessionsOpened());
+
+		b.disconnect();
+		c.disconnect();
+		d.disconnect();
+		factory.closeIdleSessions();
+		assertTrue(factory.connected.isEmpty());
+	}
+
+	@Test
+	public void testCredentialsAreKey() throws Exception {
+		factory.setSessionIdleTimeout(60);
+		CredentialsProvider alice = new UsernamePasswordCredentialsProvider(
+				"alice", "secret");
+		CredentialsProvider bob = new UsernamePasswordCredentialsProvider(
+				"bob", "secret");
+		factory.getSession(uri, alice, fs, 0).disconnect();
+		factory.getSession(uri, bob, fs, 0).disconnect();
+		factory.getSession(uri.setPass("pw"), alice, fs, 0).disconnect();
+		assertEquals(3, factory.getSessionsOpened());
+		assertEquals(0, factory.getSessionsReused());
+
+		factory.getSession(uri, alice, fs, 0).disconnect();
+		assertEquals(1, factory.getSessionsReused());
+		factory.closeIdleSessions();
+	}
+
+	@Test
+	public void testLostSessionIsNotReused() throws Exception {
+		factory.setSessionIdleTimeout(60);
+		factory.getSession(uri, null, fs, 0).disconnect();
+		factory.connected.clear();
+
+		RemoteSession s = factory.getSession(uri, null, fs, 0);
+		assertEquals(2, factory.getSessionsOpened());
+		assertFalse(factory.getSessionsReused() > 0);
+		s.disconnect();
+		factory.closeIdleSessions();
+	}
+
+	/** Creates sessions without connecting them to a server. */
+	private static class StubFactory extends JschConfigSessionFactory {
+		final Set<Session> connected = new HashSet<Session>();
+
+		private final JSch jsch = new JSch();
+
+		@Override
+		protected Session createSession(OpenSshConfig.Host hc, String user,
+				String host, int port, FS fs) throws JSchException {
+			return jsch.getSession(user, host, port);
+		}
+
+		@Override
+		protected void configure(OpenSshConfig.Host hc, Session session) {
+			// No user interaction.
+		}
+
+		@Override
+		void connect(Session session, int tms) {
+			connected.add(session);
+		}
+
+		@Override
+		boolean isConnected(Session session) {
+			return connected.contains(session);
+		}
+
+		@Override
+		void disconnect(Session session) {
+			connected.remove(session);
+		}
+	}
+}
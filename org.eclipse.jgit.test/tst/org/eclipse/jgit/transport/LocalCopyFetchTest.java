@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.PackFile;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalCopyFetchTest extends LocalDiskRepositoryTestCase {
+	private FileRepository src;
+
+	private TestRepository<FileRepository> remote;
+
+	private RevCommit base;
+
+	private String basePack;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		src = createBareRepository();
+		remote = new TestRepository<FileRepository>(src);
+		base = remote.commit().add("a", "a").create();
+		remote.update("refs/heads/master", base);
+		remote.packAndPrune();
+		basePack = src.getObjectDatabase().getPacks().iterator().next()
+				.getPackFile().getName();
+	}
+
+	@Test
+	public void testCopiesWholePacks() throws Exception {
+		RevCommit tip = remote.commit().parent(base).add("b", "b").create();
+		remote.update("refs/heads/master", tip);
+
+		FileRepository dst = createBareRepository();
+		assertTrue(copiesLocally(dst));
+		fetch(dst);
+
+		assertEquals(tip, dst.resolve("refs/remotes/origin/master"));
+		assertTrue(dst.hasObject(base));
+		Set<String> packs = packNames(dst);
+		assertTrue(packs.contains(basePack));
+		// The loose commit on top was written into a second pack.
+		assertEquals(2, packs.size());
+	}
+
+	@Test
+	public void testWritesOnlyMissingObjects() throws Exception {
+		FileRepository dst = createBareRepository();
+		fetch(dst);
+		assertEquals(Collections.singleton(basePack), packNames(dst));
+
+		RevCommit tip = remote.commit().parent(base).add("b", "b").create();
+		remote.update("refs/heads/master", tip);
+		fetch(dst);
+
+		assertEquals(tip, dst.resolve("refs/remotes/origin/master"));
+		Set<String> packs = packNames(dst);
+		assertEquals(2, packs.size());
+		for (PackFile p : dst.getObjectDatabase().getPacks()) {
+			if (!p.getPackFile().getName().equals(basePack)) {
+				// Only the new commit, its tree and blob were written.
+				assertEquals(3, p.getIndex().getObjectCount());
+				assertFalse(p.hasObject(base));
+			}
+		}
+	}
+
+	@Test
+	public void testSkipsPacksWithUnwantedObjects() throws Exception {
+		src = createBareRepository();
+		remote = new TestRepository<FileRepository>(src);
+		base = remote.commit().add("a", "a").create();
+		RevCommit hidden = remote.commit().add("secret", "secret").create();
+		remote.update("refs/heads/master", base);
+		remote.update("refs/hidden/side", hidden);
+		remote.packAndPrune();
+
+		FileRepository dst = createBareRepository();
+		fetch(dst);
+
+		assertEquals(base, dst.resolve("refs/remotes/origin/master"));
+		assertFalse(dst.hasObject(hidden));
+		assertEquals(1, dst.getObjectDatabase().getPacks().size());
+		PackFile p = dst.getObjectDatabase().getPacks().iterator().next();
+		assertEquals(3, p.getIndex().getObjectCount());
+	}
+
+	@Test
+	public void testDisabledUsesUploadPack() throws Exception {
+		FileRepository dst = createBareRepository();
+		dst.getConfig().setBoolean("transfer", null, "localcopy", false);
+		assertFalse(copiesLocally(dst));
+
+		fetch(dst);
+		assertEquals(base, dst.resolve("refs/remotes/origin/master"));
+	}
+
+	@Test
+	public void testCheckedFetchUsesUploadPack() throws Exception {
+		FileRepository dst = createBareRepository();
+		Transport t = open(dst);
+		try {
+			t.setCheckFetchedObjects(true);
+			FetchConnection c = t.openFetch();
+			try {
+				assertFalse(c instanceof LocalCopyFetchConnection);
+			} finally {
+				c.close();
+			}
+		} finally {
+			t.close();
+		}
+	}
+
+	private boolean copiesLocally(FileRepository dst) throws Exception {
+		Transport t = open(dst);
+		try {
+			FetchConnection c = t.openFetch();
+			try {
+				return c instanceof LocalCopyFetchConnection;
+			} finally {
+				c.close();
+			}
+		} finally {
+			t.close();
+		}
+	}
+
+	private Transport open(FileRepository dst) throws Exception {
+		return Transport.open(dst, new URIish(src.getDirectory().toURI()
+				.toString()));
+	}
+
+	private void fetch(FileRepository dst) throws Exception {
+		Transport t = open(dst);
+		try {
+			t.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec(
+							"refs/heads/*:refs/remotes/origin/*")));
+		} finally {
+			t.close();
+		}
+	}
+
+	private static Set<String> packNames(FileRepository repo) {
+		Set<String> names = new HashSet<String>();
+		File dir = new File(repo.getObjectDatabase().getDirectory(), "pack");
+		for (String name : dir.list()) {
+			if (name.endsWith(".pack"))
+				names.add(name);
+		}
+		return names;
+	}
+}
@@ -46,8 +46,10 @@
 
 package org.eclipse.jgit.transport;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -58,6 +60,8 @@
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.Deflater;
 
 import org.eclipse.jgit.errors.TooLargeObjectInPackException;
@@ -113,6 +117,92 @@ public void test1() throws  IOException {
 		}
 	}
 
+	@Test
+	public void testPipelinedParse() throws IOException {
+		File packFile = JGitTestUtil.getTestResourceFile("pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f.pack");
+		final InputStream is = new FileInputStream(packFile);
+		try {
+			ObjectDirectoryPackParser p = (ObjectDirectoryPackParser) index(is);
+			p.setPipelineDepth(2);
+			p.setCheckEofAfterPackFooter(true);
+			p.parse(NullProgressMonitor.INSTANCE);
+			PackFile file = p.getPackFile();
+
+			assertEquals("34be9032ac282b11fa9babdc2b2a93ca996c9c2f",
+					file.getPackName());
+			assertTrue(file.hasObject(ObjectId.fromString("4b825dc642cb6eb9a060e54bf8d69288fbee4904")));
+			assertTrue(file.hasObject(ObjectId.fromString("c59759f143fb1fe21c197981df75a7ee00290799")));
+
+			PackParser.PipelineStatistics stats = p.getPipelineStatistics();
+			assertEquals(packFile.length(), stats.getReadBytes());
+			assertEquals(packFile.length() - 20, stats.getStoreBytes());
+		} finally {
+			is.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testPipelineReadFailure() throws IOException {
+		File packFile = JGitTestUtil.getTestResourceFile("pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f.pack");
+		final InputStream is = new FileInputStream(packFile) {
+			private int reads;
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (++reads == 2)
+					throw new IllegalStateException("broken");
+				return super.read(b, off, Math.min(len, 64));
+			}
+		};
+		try {
+			ObjectDirectoryPackParser p = (ObjectDirectoryPackParser) index(is);
+			p.setPipelineDepth(2);
+			p.setCheckEofAfterPackFooter(true);
+			p.parse(NullProgressMonitor.INSTANCE);
+			fail("expected the read failure to reach the parser");
+		} catch (IllegalStateException e) {
+			assertEquals("broken", e.getMessage());
+		} finally {
+			is.close();
+		}
+	}
+
+	@Test
+	public void testObjectListKeptAfterIndex() throws IOException {
+		File packFile = JGitTestUtil.getTestResourceFile("pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f.pack");
+		final InputStream is = new FileInputStream(packFile);
+		try {
+			ObjectDirectoryPackParser p = (ObjectDirectoryPackParser) index(is);
+			p.parse(NullProgressMonitor.INSTANCE);
+
+			assertEquals(8, p.getObjectCount());
+			for (int i = 0; i < p.getObjectCount(); i++)
+				assertNotNull(p.getObject(i));
+			List<PackedObjectInfo> list = p.getSortedObjectList(null);
+			assertEquals(8, list.size());
+			for (int i = 1; i < list.size(); i++)
+				assertTrue(list.get(i - 1).compareTo(list.get(i)) < 0);
+		} finally {
+			is.close();
+		}
+	}
+
+	@Test
+	public void testObjectListReleasedWhenAllowed() throws IOException {
+		File packFile = JGitTestUtil.getTestResourceFile("pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f.pack");
+		final InputStream is = new FileInputStream(packFile);
+		try {
+			ObjectDirectoryPackParser p = (ObjectDirectoryPackParser) index(is);
+			p.setReleaseObjects(true);
+			p.parse(NullProgressMonitor.INSTANCE);
+
+			assertEquals(8, p.getObjectCount());
+			assertEquals(8, p.getPackFile().getIndex().getObjectCount());
+		} finally {
+			is.close();
+		}
+	}
+
 	/**
 	 * This is just another pack. It so happens that we have two convenient pack to
 	 * test with in the repository.
@@ -452,6 +542,76 @@ public void testDataAfterPackFooterSplitHeaderRead() throws Exception {
 		assertEquals(0x7e, in.read());
 	}
 
+	@Test
+	public void testParallelResolveDeltas() throws Exception {
+		ObjectInserter.Formatter fmt = new ObjectInserter.Formatter();
+		List<ObjectId> ids = new ArrayList<ObjectId>();
+		List<byte[]> contents = new ArrayList<byte[]>();
+
+		int bases = 8;
+		int chain = 4;
+		TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(64 * 1024);
+		packHeader(pack, bases * (1 + chain));
+		for (int i = 0; i < bases; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int n = 0; n < 1000 * (i + 1); n++)
+				sb.append((char) ('a' + (n * 7 + i) % 26));
+			byte[] data = Constants.encode(sb.toString());
+			objectHeader(pack, Constants.OBJ_BLOB, data.length);
+			deflate(pack, data);
+			ObjectId base = fmt.idFor(Constants.OBJ_BLOB, data);
+			ids.add(base);
+			contents.add(data);
+
+			for (int d = 0; d < chain; d++) {
+				byte[] next = Constants.encode("delta " + i + " " + d);
+				TemporaryBuffer.Heap delta = new TemporaryBuffer.Heap(64);
+				deltaSize(delta, data.length);
+				deltaSize(delta, next.length);
+				delta.write(next.length);
+				delta.write(next);
+				byte[] raw = delta.toByteArray();
+
+				objectHeader(pack, Constants.OBJ_REF_DELTA, raw.length);
+				base.copyRawTo(pack);
+				deflate(pack, raw);
+				base = fmt.idFor(Constants.OBJ_BLOB, next);
+				ids.add(base);
+				contents.add(next);
+				data = next;
+			}
+		}
+		digest(pack);
+
+		PackParser p = index(new ByteArrayInputStream(pack.toByteArray()));
+		p.setResolveThreads(4);
+		p.parse(NullProgressMonitor.INSTANCE);
+
+		for (int i = 0; i < ids.size(); i++)
+			assertArrayEquals(contents.get(i), db.open(ids.get(i)).getBytes());
+	}
+
+	private static void objectHeader(TemporaryBuffer.Heap pack, int type,
+			int size) throws IOException {
+		int c = (type << 4) | (size & 15);
+		size >>>= 4;
+		while (size > 0) {
+			pack.write(c | 0x80);
+			c = size & 0x7f;
+			size >>>= 7;
+		}
+		pack.write(c);
+	}
+
+	private static void deltaSize(TemporaryBuffer.Heap delta, int size)
+			throws IOException {
+		while (size > 0x7f) {
+			delta.write((size & 0x7f) | 0x80);
+			size >>>= 7;
+		}
+		delta.write(size);
+	}
+
 	private static void packHeader(TemporaryBuffer.Heap tinyPack, int cnt)
 			throws IOException {
 		final byte[] hdr = new byte[8];
@@ -44,8 +44,10 @@
 package org.eclipse.jgit.transport;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
@@ -164,6 +166,28 @@ public void testReadString_End() throws IOException {
 		assertEOF();
 	}
 
+	// readStringOrDelim
+
+	@Test
+	public void testReadStringOrDelim() throws IOException {
+		init("0006a\n00010000");
+		assertEquals("a", in.readStringOrDelim());
+		assertSame(PacketLineIn.DELIM, in.readStringOrDelim());
+		assertSame(PacketLineIn.END, in.readStringOrDelim());
+		assertEOF();
+	}
+
+	@Test
+	public void testReadStringOrDelim_Len0002() {
+		init("0002");
+		try {
+			in.readStringOrDelim();
+			fail("incorrectly accepted invalid packet header");
+		} catch (IOException e) {
+			assertEquals("Invalid packet line header: 0002", e.getMessage());
+		}
+	}
+
 	// readStringNoLF
 
 	@Test
@@ -209,6 +233,45 @@ public void testReadStringRaw4() {
 		}
 	}
 
+	// readLine
+
+	@Test
+	public void testReadLine() throws IOException {
+		init("0032have fcfcfb1fd94829c1a1704f894fc111d14770d34e\n0008done0000");
+		assertEquals(45, in.readLine());
+		assertTrue(in.lineStartsWith(Constants.encodeASCII("have ")));
+		assertFalse(in.lineStartsWith(Constants.encodeASCII("want ")));
+		assertEquals(ObjectId
+				.fromString("fcfcfb1fd94829c1a1704f894fc111d14770d34e"),
+				ObjectId.fromString(in.getLineBuffer(), 5));
+
+		assertEquals(4, in.readLine());
+		assertTrue(in.lineEquals(Constants.encodeASCII("done")));
+		assertFalse(in.lineStartsWith(Constants.encodeASCII("done!")));
+		assertEquals("done", in.getLineString());
+
+		assertEquals(-1, in.readLine());
+		assertEOF();
+	}
+
+	@Test
+	public void testReadLine_ReusesBuffer() throws IOException {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			s.append('x');
+		String pkt = "03ec" + s;
+		init(pkt + pkt + "0005a");
+
+		assertEquals(1000, in.readLine());
+		byte[] buf = in.getLineBuffer();
+		assertEquals(1000, in.readLine());
+		assertSame(buf, in.getLineBuffer());
+		assertEquals(1, in.readLine());
+		assertSame(buf, in.getLineBuffer());
+		assertTrue(in.lineEquals(new byte[] { 'a' }));
+		assertEOF();
+	}
+
 	// readACK
 
 	@Test
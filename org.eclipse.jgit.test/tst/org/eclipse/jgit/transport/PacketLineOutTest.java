@@ -51,6 +51,7 @@
 import java.io.OutputStream;
 
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -113,6 +114,26 @@ public void flush() throws IOException {
 		assertEquals(1, flushCnt[0]);
 	}
 
+	@Test
+	public void testWriteDelim() throws IOException {
+		final int[] flushCnt = new int[1];
+		final OutputStream mockout = new OutputStream() {
+			@Override
+			public void write(int arg0) throws IOException {
+				rawOut.write(arg0);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				flushCnt[0]++;
+			}
+		};
+
+		new PacketLineOut(mockout).writeDelim();
+		assertBuffer("0001");
+		assertEquals(0, flushCnt[0]);
+	}
+
 	// writePacket
 
 	@Test
@@ -146,6 +167,26 @@ public void testWritePacket3() throws IOException {
 		}
 	}
 
+	@Test
+	public void testWritePacketRegion() throws IOException {
+		out.writePacket(new byte[] { 'a', 'b', 'c', 'd' }, 1, 2);
+		assertBuffer("0006bc");
+	}
+
+	// writeId
+
+	@Test
+	public void testWriteId() throws IOException {
+		ObjectId id = ObjectId
+				.fromString("fcfcfb1fd94829c1a1704f894fc111d14770d34e");
+		out.writeId(Constants.encodeASCII("ACK "), id,
+				Constants.encodeASCII(" common\n"));
+		out.writeId(Constants.encodeASCII("have "), id,
+				Constants.encodeASCII("\n"));
+		assertBuffer("0038ACK fcfcfb1fd94829c1a1704f894fc111d14770d34e common\n"
+				+ "0032have fcfcfb1fd94829c1a1704f894fc111d14770d34e\n");
+	}
+
 	// flush
 
 	@Test
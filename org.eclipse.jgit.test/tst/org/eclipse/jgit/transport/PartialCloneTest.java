@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartialCloneTest extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private RevBlob small;
+
+	private RevBlob big;
+
+	private RevTree sub;
+
+	private RevCommit tip;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		StoredConfig cfg = server.getConfig();
+		cfg.setBoolean("uploadpack", null, "allowfilter", true);
+		cfg.setBoolean("uploadpack", null, "allowanysha1inwant", true);
+		cfg.save();
+
+		TestRepository<FileRepository> d = new TestRepository<FileRepository>(
+				server);
+		small = d.blob("small");
+		big = d.blob("a much larger blob than the other one");
+		sub = d.tree(d.file("big", big));
+		tip = d.commit()
+				.add("small", small)
+				.add("d/big", big)
+				.create();
+		d.update("refs/heads/master", tip);
+		d.parseBody(tip);
+		assertEquals(sub, d.get(tip.getTree(), "d"));
+	}
+
+	@Test
+	public void testParseFilter() {
+		assertEquals(0, FilterSpec.fromString("blob:none").getBlobLimit());
+		assertEquals(-1, FilterSpec.fromString("blob:none")
+				.getTreeDepthLimit());
+		assertEquals(10, FilterSpec.fromString("blob:limit=10")
+				.getBlobLimit());
+		assertEquals(2048, FilterSpec.fromString("blob:limit=2k")
+				.getBlobLimit());
+		assertEquals(1, FilterSpec.fromString("tree:1").getTreeDepthLimit());
+		assertEquals("blob:limit=2k", FilterSpec.fromString("blob:limit=2k")
+				.toString());
+		try {
+			FilterSpec.fromString("sparse:oid=master");
+			fail("expected unsupported filter to be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testCloneWithoutBlobs() throws Exception {
+		Repository client = partialClone("blob:none");
+		ObjectDatabase odb = client.getObjectDatabase();
+		assertTrue(odb.has(tip));
+		assertTrue(odb.has(sub));
+		assertFalse(odb.has(small));
+		assertFalse(odb.has(big));
+
+		assertEquals("origin", client.getConfig().getString(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PARTIALCLONE));
+		assertEquals("small", read(client, small));
+		assertTrue(odb.has(small));
+		assertFalse(odb.has(big));
+	}
+
+	@Test
+	public void testCloneWithBlobLimit() throws Exception {
+		Repository client = partialClone("blob:limit=10");
+		assertTrue(client.hasObject(small));
+		assertFalse(client.hasObject(big));
+		assertEquals("a much larger blob than the other one",
+				read(client, big));
+	}
+
+	@Test
+	public void testCloneWithTreeDepth() throws Exception {
+		Repository client = partialClone("tree:1");
+		assertTrue(client.hasObject(tip.getTree()));
+		assertFalse(client.hasObject(small));
+		assertFalse(client.hasObject(sub));
+		assertFalse(client.hasObject(big));
+	}
+
+	@Test
+	public void testTreeDepthUsesShallowestPath() throws Exception {
+		TestRepository<FileRepository> d = new TestRepository<FileRepository>(
+				server);
+		RevTree t = d.tree(d.file("f", small));
+		RevCommit c = d.commit(d.tree(d.file("a/t/f", small),
+				d.file("z/f", small)));
+		d.update("refs/heads/master", c);
+		d.parseBody(c);
+		RevTree a = (RevTree) d.get(c.getTree(), "a");
+		assertEquals(t, d.get(c.getTree(), "z"));
+
+		// t is two levels down below "a", but only one below "z".
+		Repository client = partialClone("tree:2");
+		assertTrue(client.hasObject(a));
+		assertTrue(client.hasObject(t));
+		assertFalse(client.hasObject(small));
+	}
+
+	@Test
+	public void testCheckoutFetchesBlobs() throws Exception {
+		File dir = createTempDirectory("client");
+		Git git = Git.cloneRepository()
+				.setURI(server.getDirectory().toURI().toString())
+				.setDirectory(dir)
+				.setFilterSpec(FilterSpec.fromString("blob:none"))
+				.call();
+		try {
+			assertEquals("small", read(new File(dir, "small")));
+			assertEquals("a much larger blob than the other one", read(new File(
+					new File(dir, "d"), "big")));
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
+	@Test
+	public void testServerRejectsFilterUnlessAllowed() throws Exception {
+		StoredConfig cfg = server.getConfig();
+		cfg.setBoolean("uploadpack", null, "allowfilter", false);
+		cfg.save();
+
+		// The filter is not negotiated, so the full pack is sent.
+		Repository client = partialClone("blob:none");
+		assertTrue(client.hasObject(small));
+		assertTrue(client.hasObject(big));
+	}
+
+	private Repository partialClone(String filter) throws Exception {
+		File dir = createTempDirectory("client");
+		Git git = Git.cloneRepository()
+				.setURI(server.getDirectory().toURI().toString())
+				.setDirectory(dir)
+				.setBare(true)
+				.setNoCheckout(true)
+				.setFilterSpec(FilterSpec.fromString(filter))
+				.call();
+		Repository client = git.getRepository();
+		addRepoToClose(client);
+		return client;
+	}
+
+	private static String read(Repository repo, RevBlob blob)
+			throws Exception {
+		return RawParseUtils.decode(repo.open(blob, Constants.OBJ_BLOB)
+				.getCachedBytes());
+	}
+}
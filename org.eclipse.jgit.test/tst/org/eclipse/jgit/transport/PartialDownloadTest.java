@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartialDownloadTest extends LocalDiskRepositoryTestCase {
+	private static final String URL = "http://example.com/a.bundle";
+
+	private Repository db;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+	}
+
+	@Test
+	public void testNoCheckpoint() {
+		PartialDownload p = PartialDownload.open(db, URL);
+		assertEquals(0, p.load());
+		assertNull(p.getValidator());
+		p.release();
+		assertNoCheckpoint();
+	}
+
+	@Test
+	public void testResumeAfterInterruption() throws Exception {
+		PartialDownload p = PartialDownload.open(db, URL);
+		OutputStream out = p.begin("\"etag\"", 10);
+		out.write(Constants.encode("abcd"));
+		out.close();
+		p.release();
+
+		p = PartialDownload.open(db, URL);
+		assertEquals(4, p.load());
+		assertEquals("\"etag\"", p.getValidator());
+		assertEquals(10, p.getLength());
+
+		out = p.append();
+		out.write(Constants.encode("ef"));
+		out.close();
+		assertEquals("abcdef", read(p));
+		p.release();
+	}
+
+	@Test
+	public void testOtherUrlIsIgnored() throws Exception {
+		PartialDownload p = PartialDownload.open(db, URL);
+		OutputStream out = p.begin("v", 10);
+		out.write(1);
+		out.close();
+		p.release();
+
+		p = PartialDownload.open(db, URL + "2");
+		assertEquals(0, p.load());
+		p.release();
+		p = PartialDownload.open(db, URL);
+		assertEquals(1, p.load());
+		p.release();
+	}
+
+	@Test
+	public void testCompleteCheckpointIsDiscarded() throws Exception {
+		PartialDownload p = PartialDownload.open(db, URL);
+		OutputStream out = p.begin("v", 2);
+		out.write(Constants.encode("ab"));
+		out.close();
+		p.release();
+
+		p = PartialDownload.open(db, URL);
+		assertEquals(0, p.load());
+		p.release();
+		assertNoCheckpoint();
+	}
+
+	@Test
+	public void testLockedCheckpointIsSkipped() throws Exception {
+		PartialDownload p = PartialDownload.open(db, URL);
+		OutputStream out = p.begin("v", 10);
+		out.write(1);
+		out.close();
+		assertNull(PartialDownload.open(db, URL));
+
+		p.release();
+		p = PartialDownload.open(db, URL);
+		assertNotNull(p);
+		assertEquals(1, p.load());
+		p.release();
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		PartialDownload p = PartialDownload.open(db, URL);
+		OutputStream out = p.begin("v", 10);
+		out.write(1);
+		out.close();
+		assertTrue(new File(db.getDirectory(), "partial").isDirectory());
+		p.delete();
+		p.release();
+		assertNoCheckpoint();
+	}
+
+	private void assertNoCheckpoint() {
+		assertFalse(new File(db.getDirectory(), "partial").exists());
+	}
+
+	private static String read(PartialDownload p) throws Exception {
+		InputStream in = p.replay();
+		try {
+			byte[] buf = new byte[16];
+			int n = IO.readFully(in, buf, 0);
+			return RawParseUtils.decode(buf, 0, n);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReachabilityIndexTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private TestRepository<FileRepository> util;
+
+	private ObjectReader reader;
+
+	private ReachabilityIndex index;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+		util = new TestRepository<FileRepository>(db);
+		reader = db.newObjectReader();
+		index = new ReachabilityIndex();
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		reader.release();
+		super.tearDown();
+	}
+
+	@Test
+	public void testContainsAncestors() throws Exception {
+		RevCommit a = util.commit().create();
+		RevCommit b = util.commit().parent(a).create();
+		RevCommit c = util.commit().parent(a).create();
+
+		assertTrue(contains(tips(b), a, b));
+		assertFalse(contains(tips(b), c));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void testTreesAndBlobsAreNotIndexed() throws Exception {
+		RevBlob blob = util.blob("a");
+		RevTree tree = util.tree(util.file("a", blob));
+		RevCommit a = util.commit(tree);
+
+		assertFalse(contains(tips(a), blob));
+		assertFalse(contains(tips(a), tree));
+	}
+
+	@Test
+	public void testTagsArePeeled() throws Exception {
+		RevCommit a = util.commit().create();
+		RevCommit b = util.commit().parent(a).create();
+		RevTag t = util.tag("v1", b);
+
+		assertTrue(contains(tips(t), t, b, a));
+	}
+
+	@Test
+	public void testFastForwardOnlyVisitsNewCommits() throws Exception {
+		RevCommit a = util.commit().create();
+		RevCommit b = util.commit().parent(a).create();
+		assertTrue(contains(tips(b), a));
+
+		RevCommit c = util.commit().parent(b).create();
+		RevCommit d = util.commit().parent(c).create();
+		assertTrue(contains(tips(d), a, b, c, d));
+		assertEquals(4, index.size());
+	}
+
+	@Test
+	public void testRewindForgetsUnreachable() throws Exception {
+		RevCommit a = util.commit().create();
+		RevCommit b = util.commit().parent(a).create();
+		RevCommit side = util.commit().parent(a).create();
+		assertTrue(contains(tips(b, side), a, b, side));
+
+		assertFalse(contains(tips(b), side));
+		assertTrue(contains(tips(b), a, b));
+		assertEquals(2, index.size());
+
+		assertFalse(contains(tips(a), b));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testMissingTipIsIgnored() throws Exception {
+		RevCommit a = util.commit().create();
+		ObjectId missing = ObjectId
+				.fromString("0123456789012345678901234567890123456789");
+		assertTrue(contains(tips(a, missing), a));
+		assertFalse(contains(tips(a, missing), missing));
+	}
+
+	@Test
+	public void testGetRequiresConfiguration() throws Exception {
+		assertNull(ReachabilityIndex.get(db));
+
+		db.getConfig().setBoolean("receive", null, "reachabilityIndex", true);
+		ReachabilityIndex idx = ReachabilityIndex.get(db);
+		assertNotNull(idx);
+		assertSame(idx, ReachabilityIndex.get(db));
+	}
+
+	private boolean contains(Set<ObjectId> tips, ObjectId... ids)
+			throws IOException {
+		return index.containsAll(reader, tips, Arrays.asList(ids));
+	}
+
+	private static Set<ObjectId> tips(ObjectId... ids) {
+		Set<ObjectId> r = new HashSet<ObjectId>();
+		for (ObjectId id : ids)
+			r.add(id.copy());
+		return r;
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.RemoteRefUpdate.Status;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReceivePackQuarantineTest extends LocalDiskRepositoryTestCase {
+	private FileRepository client;
+
+	private FileRepository server;
+
+	private TestRepository<FileRepository> local;
+
+	private RevCommit base;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		client = createBareRepository();
+		server = createBareRepository();
+		server.getConfig().setBoolean("receive", null, "quarantine", true);
+		server.getConfig().save();
+		local = new TestRepository<FileRepository>(client);
+		base = local.commit().add("a", "a").create();
+		local.update("refs/heads/master", base);
+
+		List<RemoteRefUpdate> u = new ArrayList<RemoteRefUpdate>();
+		u.add(update("refs/heads/master", "refs/heads/master"));
+		assertEquals(Status.OK, push(false, u).get(0).getStatus());
+	}
+
+	@Test
+	public void testAcceptedPackIsMigrated() throws Exception {
+		assertEquals(base, server.resolve("refs/heads/master"));
+		assertTrue(server.hasObject(base));
+		assertEquals(1, server.getObjectDatabase().getPacks().size());
+		assertNoQuarantine();
+
+		File pack = new File(server.getObjectDatabase().getDirectory(), "pack");
+		for (String name : pack.list())
+			assertFalse(name, name.endsWith(".keep"));
+	}
+
+	@Test
+	public void testRejectedPackIsDiscarded() throws Exception {
+		server.getConfig().setBoolean("receive", null, "denynonfastforwards",
+				true);
+		server.getConfig().save();
+		RevCommit other = local.commit().add("b", "b").create();
+		local.update("refs/heads/other", other);
+
+		List<RemoteRefUpdate> u = new ArrayList<RemoteRefUpdate>();
+		u.add(update("refs/heads/other", "refs/heads/master"));
+		assertEquals(Status.REJECTED_OTHER_REASON, push(false, u).get(0)
+				.getStatus());
+
+		assertFalse(server.hasObject(other));
+		assertEquals(1, server.getObjectDatabase().getPacks().size());
+		assertNoQuarantine();
+	}
+
+	@Test
+	public void testAtomicNotAdvertisedByDefault() throws Exception {
+		RevCommit tip = local.commit().parent(base).add("c", "c").create();
+		local.update("refs/heads/next", tip);
+
+		List<RemoteRefUpdate> u = new ArrayList<RemoteRefUpdate>();
+		u.add(update("refs/heads/next", "refs/heads/next"));
+		try {
+			push(true, u);
+			fail("expected the atomic push to be refused");
+		} catch (TransportException e) {
+			assertTrue(e.getMessage().endsWith(
+					JGitText.get().atomicPushNotSupported));
+		}
+		assertNull(server.getRef("refs/heads/next"));
+	}
+
+	@Test
+	public void testAtomicPushRejectsAll() throws Exception {
+		server.getConfig().setBoolean("receive", null, "denynonfastforwards",
+				true);
+		server.getConfig().setBoolean("receive", null, "advertiseatomic",
+				true);
+		server.getConfig().save();
+		RevCommit other = local.commit().add("b", "b").create();
+		local.update("refs/heads/other", other);
+		RevCommit tip = local.commit().parent(base).add("c", "c").create();
+		local.update("refs/heads/next", tip);
+
+		List<RemoteRefUpdate> u = new ArrayList<RemoteRefUpdate>();
+		u.add(update("refs/heads/next", "refs/heads/next"));
+		u.add(update("refs/heads/other", "refs/heads/master"));
+		List<RemoteRefUpdate> r = push(true, u);
+
+		for (RemoteRefUpdate rru : r)
+			assertEquals(Status.REJECTED_OTHER_REASON, rru.getStatus());
+		assertEquals(JGitText.get().transactionAborted, r.get(0).getMessage());
+		assertNull(server.getRef("refs/heads/next"));
+		assertEquals(base, server.resolve("refs/heads/master"));
+		assertFalse(server.hasObject(tip));
+		assertNoQuarantine();
+	}
+
+	@Test
+	public void testHookExecutingCommandsMigratesPack() throws Exception {
+		RevCommit tip = local.commit().parent(base).add("c", "c").create();
+		local.update("refs/heads/next", tip);
+
+		List<RemoteRefUpdate> u = new ArrayList<RemoteRefUpdate>();
+		u.add(update("refs/heads/next", "refs/heads/next"));
+		Transport t = new TransportLocal(client, new URIish(server
+				.getDirectory().toURI().toString()), server.getDirectory()) {
+			@Override
+			ReceivePack createReceivePack(Repository dst) {
+				ReceivePack rp = super.createReceivePack(dst);
+				rp.setPreReceiveHook(new PreReceiveHook() {
+					public void onPreReceive(ReceivePack p,
+							Collection<ReceiveCommand> cmds) {
+						for (ReceiveCommand cmd : cmds)
+							cmd.execute(p);
+					}
+				});
+				return rp;
+			}
+		};
+		try {
+			PushResult r = t.push(NullProgressMonitor.INSTANCE, u);
+			assertEquals(Status.OK, r.getRemoteUpdate("refs/heads/next")
+					.getStatus());
+		} finally {
+			t.close();
+		}
+
+		assertEquals(tip, server.resolve("refs/heads/next"));
+		assertTrue(server.hasObject(tip));
+		assertNoQuarantine();
+	}
+
+	@Test
+	public void testAtomicBatchRefUpdate() throws Exception {
+		ReceiveCommand create = new ReceiveCommand(ObjectId.zeroId(), base,
+				"refs/heads/created");
+		ReceiveCommand stale = new ReceiveCommand(ObjectId.zeroId(), base,
+				"refs/heads/master");
+		BatchRefUpdate batch = server.getRefDatabase().newBatchUpdate();
+		batch.setAtomic(true);
+		batch.addCommand(create, stale);
+		RevWalk rw = new RevWalk(server);
+		try {
+			batch.execute(rw, NullProgressMonitor.INSTANCE);
+		} finally {
+			rw.release();
+		}
+
+		assertEquals(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+				create.getResult());
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, stale.getResult());
+		assertNull(server.getRef("refs/heads/created"));
+	}
+
+	private RemoteRefUpdate update(String src, String dst) throws Exception {
+		return new RemoteRefUpdate(client, src, dst, true, null, null);
+	}
+
+	private List<RemoteRefUpdate> push(boolean atomic,
+			List<RemoteRefUpdate> updates) throws Exception {
+		Transport t = Transport.open(client, new URIish(server.getDirectory()
+				.toURI().toString()));
+		try {
+			t.setPushAtomic(atomic);
+			PushResult r = t.push(NullProgressMonitor.INSTANCE, updates);
+			List<RemoteRefUpdate> result = new ArrayList<RemoteRefUpdate>();
+			for (RemoteRefUpdate u : updates)
+				result.add(r.getRemoteUpdate(u.getRemoteName()));
+			return result;
+		} finally {
+			t.close();
+		}
+	}
+
+	private void assertNoQuarantine() {
+		for (String name : server.getObjectDatabase().getDirectory().list())
+			assertFalse(name, name.startsWith("incoming"));
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RefAdvertisementCacheTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private TestRepository<FileRepository> src;
+
+	private RevCommit a;
+
+	private RevCommit b;
+
+	private RevTag tag;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+		src = new TestRepository<FileRepository>(db);
+		a = src.commit().create();
+		b = src.commit().parent(a).create();
+		tag = src.tag("v1", a);
+		src.update("refs/heads/master", b);
+		src.update("refs/heads/side", a);
+		src.update("refs/tags/v1", tag);
+	}
+
+	@Test
+	public void testSameAsFormatted() throws IOException {
+		RefAdvertisementCache cache = new RefAdvertisementCache();
+		assertArrayEquals(uploadAdvertisement(null),
+				uploadAdvertisement(cache));
+		assertArrayEquals(uploadAdvertisement(null),
+				uploadAdvertisement(cache));
+		assertArrayEquals(receiveAdvertisement(null),
+				receiveAdvertisement(cache));
+	}
+
+	@Test
+	public void testReusedWhileRefsAreUnchanged() {
+		RefAdvertisementCache cache = new RefAdvertisementCache();
+		RefAdvertisementCache.Advertisement first = get(cache);
+		assertSame(first, get(cache));
+		assertTrue(first.ids.contains(tag));
+		assertTrue(first.ids.contains(a));
+	}
+
+	@Test
+	public void testOnlyChangedRefsAreEncoded() throws Exception {
+		RefAdvertisementCache cache = new RefAdvertisementCache();
+		RefAdvertisementCache.Advertisement first = get(cache);
+
+		RevCommit c = src.commit().parent(b).create();
+		src.update("refs/heads/master", c);
+		src.update("refs/heads/new", c);
+		RefAdvertisementCache.Advertisement second = get(cache);
+		assertNotSame(first, second);
+		assertEquals(first.lines.length + 1, second.lines.length);
+		assertNotSame(line(first, "refs/heads/master"),
+				line(second, "refs/heads/master"));
+		assertSame(line(first, "refs/heads/side"),
+				line(second, "refs/heads/side"));
+		assertSame(line(first, "refs/tags/v1"), line(second, "refs/tags/v1"));
+		assertArrayEquals(uploadAdvertisement(null),
+				uploadAdvertisement(cache));
+
+		db.updateRef("refs/heads/side").delete();
+		assertArrayEquals(uploadAdvertisement(null),
+				uploadAdvertisement(cache));
+	}
+
+	@Test
+	public void testCheckedOnlyAfterRefsChange() throws Exception {
+		db.getConfig().setBoolean("transfer", null, "advertisementcache",
+				true);
+		RefAdvertisementCache cache = RefAdvertisementCache.get(db);
+		List<String> caps = new ArrayList<String>();
+		caps.add("ofs-delta");
+
+		long v = RefAdvertisementCache.version(cache);
+		Map<String, Ref> refs = db.getAllRefs();
+		assertNull(cache.lookup(db, refs, v, true, caps));
+		RefAdvertisementCache.Advertisement first = cache.get(db, refs,
+				refs.values(), v, true, caps);
+		assertSame(first, cache.lookup(db, db.getAllRefs(), v, true, caps));
+
+		Map<String, Ref> filtered = new HashMap<String, Ref>(refs);
+		filtered.remove("refs/heads/side");
+		assertNull(cache.lookup(db, filtered, v, true, caps));
+
+		src.update("refs/heads/side", b);
+		assertTrue(v < RefAdvertisementCache.version(cache));
+		assertNull(cache.lookup(db, db.getAllRefs(), v, true, caps));
+		v = RefAdvertisementCache.version(cache);
+		refs = db.getAllRefs();
+		assertNull(cache.lookup(db, refs, v, true, caps));
+		RefAdvertisementCache.Advertisement second = cache.get(db, refs,
+				refs.values(), v, true, caps);
+		assertNotSame(first, second);
+		assertSame(second, cache.lookup(db, db.getAllRefs(), v, true, caps));
+	}
+
+	@Test
+	public void testTrackedSameAsFormatted() throws Exception {
+		db.getConfig().setBoolean("transfer", null, "advertisementcache",
+				true);
+		RefAdvertisementCache cache = RefAdvertisementCache.get(db);
+		assertArrayEquals(uploadAdvertisement(null),
+				uploadAdvertisement(cache));
+		assertArrayEquals(uploadAdvertisement(null),
+				uploadAdvertisement(cache));
+
+		src.update("refs/heads/side", b);
+		assertArrayEquals(uploadAdvertisement(null),
+				uploadAdvertisement(cache));
+		assertArrayEquals(receiveAdvertisement(null),
+				receiveAdvertisement(cache));
+	}
+
+	@Test
+	public void testNotTrustedAcrossRepositoryInstances() throws Exception {
+		db.getConfig().setBoolean("transfer", null, "advertisementcache",
+				true);
+		RefAdvertisementCache cache = RefAdvertisementCache.get(db);
+		List<String> caps = new ArrayList<String>();
+		long v = RefAdvertisementCache.version(cache);
+		Map<String, Ref> refs = db.getAllRefs();
+		cache.get(db, refs, refs.values(), v, true, caps);
+
+		FileRepository other = new FileRepository(db.getDirectory());
+		try {
+			assertNull(cache.lookup(other, other.getAllRefs(), v, true, caps));
+		} finally {
+			other.close();
+		}
+	}
+
+	@Test
+	public void testUntrackedCacheAlwaysCompares() {
+		RefAdvertisementCache cache = new RefAdvertisementCache();
+		assertEquals(-1, RefAdvertisementCache.version(cache));
+		assertEquals(-1, RefAdvertisementCache.version(null));
+		Map<String, Ref> refs = db.getAllRefs();
+		cache.get(db, refs, refs.values(), -1, true,
+				new ArrayList<String>());
+		assertNull(cache.lookup(db, refs, -1, true, new ArrayList<String>()));
+	}
+
+	@Test
+	public void testDecodedForOtherAdvertisers() throws IOException {
+		RefAdvertisementCache cache = new RefAdvertisementCache();
+		assertEquals(lines(null), lines(cache));
+		assertEquals(lines(null), lines(cache));
+	}
+
+	@Test
+	public void testHaveNotRepeated() throws Exception {
+		RecordingAdvertiser adv = new RecordingAdvertiser();
+		adv.init(db);
+		adv.setCache(new RefAdvertisementCache());
+		Set<ObjectId> sent = adv.send(db.getAllRefs());
+		assertTrue(sent.contains(b));
+		int n = adv.lines.size();
+		adv.advertiseHave(b);
+		assertEquals(n, adv.lines.size());
+		adv.advertiseHave(src.blob("x"));
+		assertEquals(n + 1, adv.lines.size());
+	}
+
+	private RefAdvertisementCache.Advertisement get(
+			RefAdvertisementCache cache) {
+		List<String> caps = new ArrayList<String>();
+		caps.add("ofs-delta");
+		return cache.get(db, db.getAllRefs().values(), true, caps);
+	}
+
+	private static RefAdvertisementCache.Line line(
+			RefAdvertisementCache.Advertisement adv, String name) {
+		for (RefAdvertisementCache.Line l : adv.lines) {
+			if (l.name.equals(name))
+				return l;
+		}
+		return null;
+	}
+
+	private byte[] uploadAdvertisement(RefAdvertisementCache cache)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		UploadPack up = new UploadPack(db);
+		up.setAdvertisementCache(cache);
+		up.sendAdvertisedRefs(new RefAdvertiser.PacketLineOutRefAdvertiser(
+				new PacketLineOut(out)));
+		return out.toByteArray();
+	}
+
+	private byte[] receiveAdvertisement(RefAdvertisementCache cache)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReceivePack rp = new ReceivePack(db);
+		rp.setAdvertisementCache(cache);
+		rp.sendAdvertisedRefs(new RefAdvertiser.PacketLineOutRefAdvertiser(
+				new PacketLineOut(out)));
+		return out.toByteArray();
+	}
+
+	private List<String> lines(RefAdvertisementCache cache)
+			throws IOException {
+		RecordingAdvertiser adv = new RecordingAdvertiser();
+		UploadPack up = new UploadPack(db);
+		up.setAdvertisementCache(cache);
+		up.sendAdvertisedRefs(adv);
+		return adv.lines;
+	}
+
+	private static class RecordingAdvertiser extends RefAdvertiser {
+		final List<String> lines = new ArrayList<String>();
+
+		@Override
+		protected void writeOne(CharSequence line) {
+			lines.add(line.toString());
+		}
+
+		@Override
+		protected void end() {
+			lines.add("end");
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.junit.Test;
+
+public class RepositoryCacheMapTest extends LocalDiskRepositoryTestCase {
+	@Test
+	public void testSharedByDirectory() throws Exception {
+		RepositoryCacheMap<Object> map = newMap(2);
+		FileRepository a = createBareRepository();
+		FileRepository again = new FileRepository(a.getDirectory());
+		try {
+			assertSame(map.get(a), map.get(again));
+		} finally {
+			again.close();
+		}
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		RepositoryCacheMap<Object> map = newMap(2);
+		FileRepository a = createBareRepository();
+		FileRepository b = createBareRepository();
+		FileRepository c = createBareRepository();
+
+		Object cacheA = map.get(a);
+		Object cacheB = map.get(b);
+		assertSame(cacheA, map.get(a));
+		map.get(c);
+		assertEquals(2, map.size());
+
+		assertSame(cacheA, map.get(a));
+		assertNotSame(cacheB, map.get(b));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	public void testPeekDoesNotCreate() throws Exception {
+		RepositoryCacheMap<Object> map = newMap(2);
+		FileRepository a = createBareRepository();
+		assertNull(map.peek(a));
+		assertEquals(0, map.size());
+
+		Object cache = map.get(a);
+		assertSame(cache, map.peek(a));
+	}
+
+	private static RepositoryCacheMap<Object> newMap(int max) {
+		return new RepositoryCacheMap<Object>(max) {
+			@Override
+			Object create(Repository db) {
+				return new Object();
+			}
+		};
+	}
+}
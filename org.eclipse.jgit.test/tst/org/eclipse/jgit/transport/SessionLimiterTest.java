@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class SessionLimiterTest {
+	@Test
+	public void testUnlimited() {
+		SessionLimiter l = new SessionLimiter();
+		for (int i = 0; i < 100; i++)
+			assertTrue(l.acquire(0));
+		assertEquals(100, l.getActive());
+		l.release();
+		assertEquals(99, l.getActive());
+	}
+
+	@Test
+	public void testTimeoutRejects() {
+		SessionLimiter l = new SessionLimiter();
+		l.setMax(1);
+		assertTrue(l.acquire(0));
+		assertFalse(l.acquire(System.currentTimeMillis() + 50));
+		assertEquals(1, l.getRejected());
+		assertEquals(0, l.getWaiting());
+
+		l.release();
+		assertTrue(l.acquire(System.currentTimeMillis() - 1));
+	}
+
+	@Test
+	public void testReleaseWakesWaiter() throws Exception {
+		final SessionLimiter l = new SessionLimiter();
+		l.setMax(1);
+		assertTrue(l.acquire(0));
+
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicBoolean admitted = new AtomicBoolean();
+		Thread t = new Thread() {
+			public void run() {
+				admitted.set(l.acquire(System.currentTimeMillis() + 10000));
+				done.countDown();
+			}
+		};
+		t.start();
+		while (l.getWaiting() == 0)
+			Thread.sleep(1);
+		assertFalse(done.await(10, TimeUnit.MILLISECONDS));
+
+		l.release();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(admitted.get());
+		assertEquals(1, l.getActive());
+	}
+
+	@Test
+	public void testRaisingLimitWakesWaiter() throws Exception {
+		final SessionLimiter l = new SessionLimiter();
+		l.setMax(1);
+		assertTrue(l.acquire(0));
+
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread t = new Thread() {
+			public void run() {
+				if (l.acquire(0))
+					done.countDown();
+			}
+		};
+		t.start();
+		while (l.getWaiting() == 0)
+			Thread.sleep(1);
+
+		l.setMax(2);
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(2, l.getActive());
+	}
+}
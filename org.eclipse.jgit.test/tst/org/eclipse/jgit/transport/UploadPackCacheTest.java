@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.Test;
+
+public class UploadPackCacheTest extends LocalDiskRepositoryTestCase {
+	private static final ObjectId A = ObjectId
+			.fromString("0123456789012345678901234567890123456789");
+
+	private static final ObjectId B = ObjectId
+			.fromString("1234567890123456789012345678901234567890");
+
+	@Test
+	public void testKeyIgnoresOrder() {
+		Map<String, Ref> refs = refs(A);
+		assertEquals(
+				UploadPackCache.key(Arrays.asList(A, B),
+						Arrays.asList("ofs-delta", "thin-pack"), refs),
+				UploadPackCache.key(Arrays.asList(B, A),
+						Arrays.asList("thin-pack", "ofs-delta"), refs));
+	}
+
+	@Test
+	public void testKeyDependsOnRefs() {
+		assertFalse(UploadPackCache.key(Arrays.asList(A),
+				Collections.<String> emptyList(), refs(A)).equals(
+				UploadPackCache.key(Arrays.asList(A),
+						Collections.<String> emptyList(), refs(B))));
+	}
+
+	@Test
+	public void testInsertAndOpen() throws IOException {
+		UploadPackCache cache = new UploadPackCache(dir(), 1024);
+		byte[] data = new byte[100];
+		Arrays.fill(data, (byte) 'x');
+
+		assertNull(cache.open("k"));
+		ByteArrayOutputStream client = new ByteArrayOutputStream();
+		UploadPackCache.Insertion ins = cache.insert("k", client);
+		ins.write(data);
+		ins.commit();
+		assertArrayEquals(data, client.toByteArray());
+		assertEquals(100, cache.getTotalBytes());
+		assertArrayEquals(data, read(cache.open("k")));
+
+		cache = new UploadPackCache(dir(), 1024);
+		assertArrayEquals(data, read(cache.open("k")));
+	}
+
+	@Test
+	public void testAbortedInsertIsNotCached() throws IOException {
+		UploadPackCache cache = new UploadPackCache(dir(), 1024);
+		UploadPackCache.Insertion ins = cache.insert("k",
+				new ByteArrayOutputStream());
+		ins.write(new byte[10]);
+		ins.abort();
+		assertNull(cache.open("k"));
+		assertEquals(0, dir().list().length);
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws IOException {
+		UploadPackCache cache = new UploadPackCache(dir(), 250);
+		put(cache, "a", 100);
+		put(cache, "b", 100);
+		read(cache.open("a"));
+		put(cache, "c", 100);
+
+		assertNotNull(read(cache.open("a")));
+		assertNull(cache.open("b"));
+		assertNotNull(read(cache.open("c")));
+		assertEquals(200, cache.getTotalBytes());
+
+		put(cache, "huge", 300);
+		assertNull(cache.open("huge"));
+	}
+
+	@Test
+	public void testInvalidate() throws IOException {
+		UploadPackCache cache = new UploadPackCache(dir(), 1024);
+		put(cache, "a", 10);
+		cache.invalidate();
+		assertNull(cache.open("a"));
+		assertEquals(0, cache.getTotalBytes());
+	}
+
+	private File dir;
+
+	private File dir() throws IOException {
+		if (dir == null)
+			dir = createTempDirectory("packcache");
+		return dir;
+	}
+
+	private static Map<String, Ref> refs(ObjectId master) {
+		Map<String, Ref> refs = new HashMap<String, Ref>();
+		refs.put("refs/heads/master", new ObjectIdRef.PeeledNonTag(
+				Ref.Storage.LOOSE, "refs/heads/master", master));
+		return refs;
+	}
+
+	private static void put(UploadPackCache cache, String key, int size)
+			throws IOException {
+		UploadPackCache.Insertion ins = cache.insert(key,
+				new ByteArrayOutputStream());
+		ins.write(new byte[size]);
+		ins.commit();
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[256];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
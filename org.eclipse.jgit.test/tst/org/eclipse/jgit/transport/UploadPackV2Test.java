@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UploadPackV2Test extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private TestRepository<FileRepository> remote;
+
+	private RevBlob blob;
+
+	private RevCommit parent;
+
+	private RevCommit master;
+
+	private RevTag tag;
+
+	private InputStream rsp;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		remote = new TestRepository<FileRepository>(server);
+
+		blob = remote.blob("content");
+		parent = remote.commit(remote.tree(remote.file("a", blob)));
+		master = remote.commit(parent);
+		tag = remote.tag("v1", master);
+		remote.update("refs/heads/master", master);
+		remote.update("refs/heads/other", parent);
+		remote.update("refs/tags/v1", tag);
+	}
+
+	@Test
+	public void testCapabilityAdvertisement() throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		UploadPack up = newUploadPack();
+		up.sendAdvertisedRefs(new PacketLineOutRefAdvertiser(
+				new PacketLineOut(buf)));
+
+		PacketLineIn in = new PacketLineIn(
+				new ByteArrayInputStream(buf.toByteArray()));
+		assertEquals("version 2", in.readString());
+		assertEquals("ls-refs", in.readString());
+		assertEquals("fetch=shallow", in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+	}
+
+	@Test
+	public void testBundleUri() throws Exception {
+		StoredConfig cfg = server.getConfig();
+		cfg.setBoolean("uploadpack", null, "advertisebundleuris", true);
+		cfg.setString("bundle", "all", "uri", "https://cdn.example.com/all.bundle");
+		cfg.save();
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		newUploadPack().sendAdvertisedRefs(new PacketLineOutRefAdvertiser(
+				new PacketLineOut(buf)));
+		PacketLineIn in = new PacketLineIn(
+				new ByteArrayInputStream(buf.toByteArray()));
+		assertEquals("version 2", in.readString());
+		assertEquals("ls-refs", in.readString());
+		assertEquals("fetch=shallow", in.readString());
+		assertEquals("bundle-uri", in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+
+		in = request("command=bundle-uri");
+		assertEquals("bundle.version=1", in.readString());
+		assertEquals("bundle.mode=all", in.readString());
+		assertEquals("bundle.all.uri=https://cdn.example.com/all.bundle",
+				in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+	}
+
+	@Test
+	public void testLsRefsByPrefix() throws Exception {
+		PacketLineIn in = request("command=ls-refs", null, "peel",
+				"ref-prefix refs/heads/ma", "ref-prefix refs/tags/");
+
+		assertEquals(master.name() + " refs/heads/master", in.readString());
+		assertEquals(tag.name() + " refs/tags/v1 peeled:" + master.name(),
+				in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+	}
+
+	@Test
+	public void testLsRefsSymrefs() throws Exception {
+		server.updateRef("HEAD").link("refs/heads/master");
+		PacketLineIn in = request("command=ls-refs", null, "symrefs",
+				"ref-prefix HEAD");
+
+		assertEquals(master.name()
+				+ " HEAD symref-target:refs/heads/master", in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+	}
+
+	@Test
+	public void testFetchWithoutHaves() throws Exception {
+		PacketLineIn in = request("command=fetch", null, "ofs-delta",
+				"want " + master.name(), "done");
+
+		assertEquals("packfile", in.readString());
+		FileRepository client = receive();
+		assertTrue(client.hasObject(master));
+		assertTrue(client.hasObject(parent));
+		assertTrue(client.hasObject(blob));
+	}
+
+	@Test
+	public void testFetchWithFilter() throws Exception {
+		StoredConfig cfg = server.getConfig();
+		cfg.setBoolean("uploadpack", null, "allowfilter", true);
+		cfg.save();
+
+		PacketLineIn in = request("command=fetch", null,
+				"want " + master.name(), "filter blob:none", "done");
+
+		assertEquals("packfile", in.readString());
+		FileRepository client = receive();
+		assertTrue(client.hasObject(master));
+		assertTrue(client.hasObject(remote.parseBody(master).getTree()));
+		assertFalse(client.hasObject(blob));
+	}
+
+	@Test
+	public void testFetchNegotiation() throws Exception {
+		PacketLineIn in = request("command=fetch", null,
+				"want " + master.name(), "have " + parent.name());
+
+		assertEquals("acknowledgments", in.readString());
+		assertEquals("ACK " + parent.name(), in.readString());
+		assertEquals("ready", in.readString());
+		assertSame(PacketLineIn.DELIM, in.readStringOrDelim());
+		assertEquals("packfile", in.readString());
+		FileRepository client = receive();
+		assertTrue(client.hasObject(master));
+	}
+
+	@Test
+	public void testPackCacheKeyedByWants() throws Exception {
+		StoredConfig cfg = server.getConfig();
+		cfg.setLong("uploadpack", null, "packcachesize", 1 << 20);
+		cfg.save();
+		RevCommit side = remote.commit().add("b", "b").create();
+		remote.update("refs/heads/side", side);
+
+		PacketLineIn in = request("command=fetch", null,
+				"want " + master.name(), "done");
+		assertEquals("packfile", in.readString());
+		FileRepository client = receive();
+		assertTrue(client.hasObject(master));
+		assertFalse(client.hasObject(side));
+
+		// Same refs, other wants: must not be served the pack above.
+		in = request("command=fetch", null, "want " + side.name(), "done");
+		assertEquals("packfile", in.readString());
+		client = receive();
+		assertTrue(client.hasObject(side));
+		assertFalse(client.hasObject(master));
+	}
+
+	@Test
+	public void testPackCacheDroppedOnRefUpdate() throws Exception {
+		StoredConfig cfg = server.getConfig();
+		cfg.setLong("uploadpack", null, "packcachesize", 1 << 20);
+		cfg.save();
+
+		PacketLineIn in = request("command=fetch", null,
+				"want " + master.name(), "done");
+		assertEquals("packfile", in.readString());
+		receive();
+		UploadPackCache cache = UploadPackCache.get(server);
+		assertTrue(0 < cache.getTotalBytes());
+
+		remote.update("refs/heads/other", master);
+		assertEquals(0, cache.getTotalBytes());
+	}
+
+	@Test
+	public void testFetchUnknownHave() throws Exception {
+		PacketLineIn in = request("command=fetch", null,
+				"want " + master.name(),
+				"have 0123456789012345678901234567890123456789");
+
+		assertEquals("acknowledgments", in.readString());
+		assertEquals("NAK", in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+	}
+
+	@Test
+	public void testFetchDepthIsCached() throws Exception {
+		StoredConfig cfg = server.getConfig();
+		cfg.setInt("uploadpack", null, "depthcachesize", 1024);
+		cfg.save();
+
+		PacketLineIn in = request("command=fetch", null,
+				"want " + master.name(), "deepen 1", "done");
+
+		assertEquals("shallow-info", in.readString());
+		assertEquals("shallow " + parent.name(), in.readString());
+		assertSame(PacketLineIn.DELIM, in.readStringOrDelim());
+		assertEquals("packfile", in.readString());
+		receive();
+
+		DepthBoundaryCache.Boundary b = DepthBoundaryCache.get(server)
+				.lookup(master, 1);
+		assertEquals(Collections.singletonList(master), b.interior);
+		assertEquals(Collections.singletonList(parent), b.shallow);
+
+		// The client now asks for the unshallow commit to be extended.
+		in = request("command=fetch", null, "want " + master.name(),
+				"shallow " + parent.name(), "deepen 2", "done");
+		assertEquals("shallow-info", in.readString());
+		assertEquals("unshallow " + parent.name(), in.readString());
+		assertSame(PacketLineIn.DELIM, in.readStringOrDelim());
+	}
+
+	@Test
+	public void testDepthCacheIsOffByDefault() throws Exception {
+		assertNull(DepthBoundaryCache.get(server));
+	}
+
+	@Test
+	public void testFetchDeepenSince() throws Exception {
+		master = remote.parseBody(master);
+		PacketLineIn in = request("command=fetch", null,
+				"want " + master.name(),
+				"deepen-since " + master.getCommitTime(), "done");
+
+		assertEquals("shallow-info", in.readString());
+		assertEquals("shallow " + master.name(), in.readString());
+		assertSame(PacketLineIn.DELIM, in.readStringOrDelim());
+		assertEquals("packfile", in.readString());
+		FileRepository client = receive();
+		assertTrue(client.hasObject(master));
+		assertFalse(client.hasObject(parent));
+	}
+
+	@Test
+	public void testFetchDeepenNot() throws Exception {
+		PacketLineIn in = request("command=fetch", null,
+				"want " + master.name(), "deepen-not refs/heads/other",
+				"done");
+
+		assertEquals("shallow-info", in.readString());
+		assertEquals("shallow " + master.name(), in.readString());
+		assertSame(PacketLineIn.DELIM, in.readStringOrDelim());
+		assertEquals("packfile", in.readString());
+		FileRepository client = receive();
+		assertTrue(client.hasObject(master));
+		assertFalse(client.hasObject(parent));
+	}
+
+	@Test
+	public void testFetchStateIsResetPerCommand() throws Exception {
+		ByteArrayOutputStream req = new ByteArrayOutputStream();
+		PacketLineOut out = new PacketLineOut(req);
+		out.writeString("command=fetch\n");
+		out.writeDelim();
+		out.writeString("want " + master.name() + "\n");
+		out.writeString("deepen 1\n");
+		out.writeString("done\n");
+		out.end();
+		out.writeString("command=fetch\n");
+		out.writeDelim();
+		out.writeString("want " + parent.name() + "\n");
+		out.writeString("done\n");
+		out.end();
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		UploadPack up = newUploadPack();
+		up.setBiDirectionalPipe(true);
+		up.upload(new ByteArrayInputStream(req.toByteArray()), buf, null);
+		rsp = new ByteArrayInputStream(buf.toByteArray());
+		PacketLineIn in = new PacketLineIn(rsp);
+		while (in.readString() != PacketLineIn.END)
+			continue;
+
+		assertEquals("shallow-info", in.readString());
+		assertEquals("shallow " + parent.name(), in.readString());
+		assertSame(PacketLineIn.DELIM, in.readStringOrDelim());
+		assertEquals("packfile", in.readString());
+		FileRepository client = receive();
+		assertTrue(client.hasObject(master));
+
+		// The second command is neither shallow nor wants master again.
+		assertEquals("packfile", in.readString());
+		client = receive();
+		assertTrue(client.hasObject(parent));
+		assertTrue(client.hasObject(blob));
+		assertFalse(client.hasObject(master));
+	}
+
+	@Test
+	public void testFetchDeepenWithDeepenNot() throws Exception {
+		try {
+			request("command=fetch", null, "want " + master.name(),
+					"deepen 1", "deepen-not refs/heads/other", "done");
+			fail("expected deepen and deepen-not to be rejected");
+		} catch (PackProtocolException err) {
+			assertEquals(JGitText.get().cannotCombineDeepenWithDeepenSince,
+					err.getMessage());
+		}
+	}
+
+	private UploadPack newUploadPack() {
+		UploadPack up = new UploadPack(server);
+		up.setBiDirectionalPipe(false);
+		up.setExtraParameters(Collections.singleton("version=2"));
+		return up;
+	}
+
+	/**
+	 * Run one stateless request; a null line stands for the delimiter.
+	 */
+	private PacketLineIn request(String... lines) throws IOException {
+		ByteArrayOutputStream req = new ByteArrayOutputStream();
+		PacketLineOut out = new PacketLineOut(req);
+		for (String line : lines) {
+			if (line == null)
+				out.writeDelim();
+			else
+				out.writeString(line + "\n");
+		}
+		out.end();
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		newUploadPack().upload(new ByteArrayInputStream(req.toByteArray()),
+				buf, null);
+		rsp = new ByteArrayInputStream(buf.toByteArray());
+		return new PacketLineIn(rsp);
+	}
+
+	private FileRepository receive() throws IOException {
+		FileRepository client = createBareRepository();
+		InputStream pack = new SideBandInputStream(rsp,
+				NullProgressMonitor.INSTANCE, new StringWriter());
+		ObjectInserter ins = client.newObjectInserter();
+		try {
+			ins.newPackParser(pack).parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+		return client;
+	}
+}
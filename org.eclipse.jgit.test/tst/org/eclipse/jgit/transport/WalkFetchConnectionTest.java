@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.errors.NotSupportedException;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WalkFetchConnectionTest extends LocalDiskRepositoryTestCase {
+	private FileRepository src;
+
+	private FileRepository dst;
+
+	private TestRepository<FileRepository> s;
+
+	private RevCommit tip;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		src = createBareRepository();
+		dst = createBareRepository();
+
+		s = new TestRepository<FileRepository>(src);
+		tip = null;
+		commits(10);
+	}
+
+	private void commits(int n) throws Exception {
+		for (int i = 0; i < n; i++) {
+			TestRepository<FileRepository>.CommitBuilder b = s.commit();
+			if (tip != null)
+				b.parent(tip);
+			tip = b.add("file" + i, "content " + i + tip).create();
+		}
+	}
+
+	@Test
+	public void testFetchSerially() throws Exception {
+		LooseObjectDB db = new LooseObjectDB(1);
+		fetch(db);
+		assertEquals(1, db.maxActive.get());
+	}
+
+	@Test
+	public void testFetchInParallel() throws Exception {
+		LooseObjectDB db = new LooseObjectDB(4);
+		db.delay = 20;
+		fetch(db);
+		assertTrue(1 < db.maxActive.get());
+		assertTrue(db.maxActive.get() <= 4);
+	}
+
+	@Test
+	public void testFailedPrefetchIsRetried() throws Exception {
+		final Thread fetcher = Thread.currentThread();
+		LooseObjectDB db = new LooseObjectDB(4) {
+			@Override
+			FileStream open(String path) throws IOException {
+				if (Thread.currentThread() != fetcher)
+					throw new IOException("transient failure");
+				return super.open(path);
+			}
+		};
+		fetch(db);
+	}
+
+	@Test
+	public void testPackIndexDownloadedInBackground() throws Exception {
+		s.update("refs/heads/master", tip);
+		s.packAndPrune();
+		commits(3);
+
+		final Thread fetcher = Thread.currentThread();
+		final List<Thread> idxReaders = new ArrayList<Thread>();
+		LooseObjectDB db = new LooseObjectDB(4) {
+			@Override
+			FileStream open(String path) throws IOException {
+				if (path.endsWith(".idx")) {
+					synchronized (idxReaders) {
+						idxReaders.add(Thread.currentThread());
+					}
+				}
+				return super.open(path);
+			}
+		};
+		fetch(db);
+		assertEquals(1, idxReaders.size());
+		assertFalse(idxReaders.contains(fetcher));
+	}
+
+	private void fetch(LooseObjectDB db) throws Exception {
+		Map<String, Ref> refs = new HashMap<String, Ref>();
+		refs.put("refs/heads/master", new ObjectIdRef.PeeledNonTag(
+				Ref.Storage.NETWORK, "refs/heads/master", tip));
+
+		WalkFetchConnection c = new WalkFetchConnection(new LocalWalkTransport(
+				dst), db);
+		try {
+			c.available(refs);
+			c.fetch(NullProgressMonitor.INSTANCE, refs.values(),
+					Collections.<ObjectId> emptySet());
+		} finally {
+			c.close();
+		}
+
+		TestRepository<FileRepository> d = new TestRepository<FileRepository>(
+				dst);
+		d.fsck(d.getRevWalk().parseCommit(tip));
+	}
+
+	private static class LocalWalkTransport extends Transport implements
+			WalkTransport {
+		LocalWalkTransport(FileRepository local) {
+			super(local, new URIish().setPath("/remote"));
+		}
+
+		@Override
+		public FetchConnection openFetch() throws NotSupportedException {
+			throw new NotSupportedException("openFetch");
+		}
+
+		@Override
+		public PushConnection openPush() throws NotSupportedException {
+			throw new NotSupportedException("openPush");
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close.
+		}
+	}
+
+	private class LooseObjectDB extends WalkRemoteObjectDatabase {
+		final int threads;
+
+		final AtomicInteger active = new AtomicInteger();
+
+		final AtomicInteger maxActive = new AtomicInteger();
+
+		volatile long delay;
+
+		LooseObjectDB(int threads) {
+			this.threads = threads;
+		}
+
+		@Override
+		URIish getURI() {
+			return new URIish().setPath(src.getDirectory().getPath());
+		}
+
+		@Override
+		Collection<String> getPackNames() {
+			List<String> packs = new ArrayList<String>();
+			String[] names = new File(src.getObjectDatabase().getDirectory(),
+					"pack").list();
+			if (names != null) {
+				for (String n : names) {
+					if (n.endsWith(".pack"))
+						packs.add(n);
+				}
+			}
+			return packs;
+		}
+
+		@Override
+		Collection<WalkRemoteObjectDatabase> getAlternates() {
+			return null;
+		}
+
+		@Override
+		WalkRemoteObjectDatabase openAlternate(String location)
+				throws IOException {
+			throw new IOException(location);
+		}
+
+		@Override
+		int getMaxParallelDownloads() {
+			return threads;
+		}
+
+		@Override
+		FileStream open(String path) throws IOException {
+			int n = active.incrementAndGet();
+			try {
+				for (;;) {
+					int max = maxActive.get();
+					if (n <= max || maxActive.compareAndSet(max, n))
+						break;
+				}
+				if (0 < delay)
+					Thread.sleep(delay);
+				File f = new File(src.getObjectDatabase().getDirectory(), path);
+				return new FileStream(new FileInputStream(f), f.length());
+			} catch (InterruptedException e) {
+				throw new TransportException(path, e);
+			} finally {
+				active.decrementAndGet();
+			}
+		}
+
+		@Override
+		void close() {
+			// Nothing to close.
+		}
+	}
+}
@@ -65,10 +65,12 @@
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.submodule.SubmoduleWalk;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.FilterSpec;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.TagOpt;
@@ -102,6 +104,8 @@ public class CloneCommand extends TransportCommand<CloneCommand, Git> {
 
 	private Collection<String> branchesToClone;
 
+	private FilterSpec filterSpec;
+
 	/**
 	 * Create clone command with no repository set
 	 */
@@ -164,6 +168,18 @@ private FetchResult fetch(Repository clonedRepo, URIish u)
 		config.addFetchRefSpec(refSpec);
 		config.update(clonedRepo.getConfig());
 
+		if (filterSpec != null) {
+			// Record the remote that can supply the filtered objects later.
+			StoredConfig cfg = clonedRepo.getConfig();
+			cfg.setBoolean(ConfigConstants.CONFIG_REMOTE_SECTION, remote,
+					ConfigConstants.CONFIG_KEY_PROMISOR, true);
+			cfg.setString(ConfigConstants.CONFIG_REMOTE_SECTION, remote,
+					ConfigConstants.CONFIG_KEY_PARTIALCLONEFILTER,
+					filterSpec.toString());
+			cfg.setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+					ConfigConstants.CONFIG_KEY_PARTIALCLONE, remote);
+		}
+
 		clonedRepo.getConfig().save();
 
 		// run the fetch command
@@ -171,6 +187,7 @@ private FetchResult fetch(Repository clonedRepo, URIish u)
 		command.setRemote(remote);
 		command.setProgressMonitor(monitor);
 		command.setTagOpt(TagOpt.FETCH_TAGS);
+		command.setFilterSpec(filterSpec);
 		configure(command);
 
 		List<RefSpec> specs = calculateRefSpecs(dst);
@@ -429,4 +446,16 @@ public CloneCommand setNoCheckout(boolean noCheckout) {
 		this.noCheckout = noCheckout;
 		return this;
 	}
+
+	/**
+	 * @param filterSpec
+	 *            if set, only objects passing the filter are cloned; the rest
+	 *            are fetched from the remote when first read. The remote must
+	 *            allow filtering and wanting any object.
+	 * @return {@code this}
+	 */
+	public CloneCommand setFilterSpec(FilterSpec filterSpec) {
+		this.filterSpec = filterSpec;
+		return this;
+	}
 }
@@ -59,6 +59,7 @@
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.FilterSpec;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.TagOpt;
 import org.eclipse.jgit.transport.Transport;
@@ -89,6 +90,8 @@ public class FetchCommand extends TransportCommand<FetchCommand, FetchResult> {
 
 	private TagOpt tagOption;
 
+	private FilterSpec filterSpec;
+
 	/**
 	 * @param repo
 	 */
@@ -123,6 +126,8 @@ public FetchResult call() throws GitAPIException, InvalidRemoteException,
 				if (tagOption != null)
 					transport.setTagOpt(tagOption);
 				transport.setFetchThin(thin);
+				if (filterSpec != null)
+					transport.setFilterSpec(filterSpec);
 				configure(transport);
 
 				FetchResult result = transport.fetch(monitor, refSpecs);
@@ -321,4 +326,21 @@ public FetchCommand setTagOpt(TagOpt tagOpt) {
 		this.tagOption = tagOpt;
 		return this;
 	}
+
+	/**
+	 * Sets the filter limiting which objects the remote sends.
+	 *
+	 * Objects left out are fetched on demand if the repository was cloned
+	 * with the same filter; see {@link CloneCommand#setFilterSpec(FilterSpec)}.
+	 *
+	 * @param filterSpec
+	 *            the filter, or null to use the remote's configured
+	 *            {@code partialclonefilter}
+	 * @return {@code this}
+	 */
+	public FetchCommand setFilterSpec(FilterSpec filterSpec) {
+		checkCallable();
+		this.filterSpec = filterSpec;
+		return this;
+	}
 }
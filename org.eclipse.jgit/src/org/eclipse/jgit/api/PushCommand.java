@@ -92,6 +92,8 @@ public class PushCommand extends
 
 	private boolean thin = Transport.DEFAULT_PUSH_THIN;
 
+	private boolean atomic;
+
 	/**
 	 * @param repo
 	 */
@@ -141,6 +143,7 @@ public Iterable<PushResult> call() throws GitAPIException,
 			transports = Transport.openAll(repo, remote, Transport.Operation.PUSH);
 			for (final Transport transport : transports) {
 				transport.setPushThin(thin);
+				transport.setPushAtomic(atomic);
 				if (receivePack != null)
 					transport.setOptionReceivePack(receivePack);
 				transport.setDryRun(dryRun);
@@ -386,6 +389,26 @@ public PushCommand setThin(boolean thin) {
 		return this;
 	}
 
+	/**
+	 * @return true if all ref updates must be applied, or none of them
+	 */
+	public boolean isAtomic() {
+		return atomic;
+	}
+
+	/**
+	 * Requires the remote repository to apply all ref updates of the push or
+	 * none of them.
+	 *
+	 * @param atomic
+	 * @return {@code this}
+	 */
+	public PushCommand setAtomic(boolean atomic) {
+		checkCallable();
+		this.atomic = atomic;
+		return this;
+	}
+
 	/**
 	 * @return the force preference for push operation
 	 */
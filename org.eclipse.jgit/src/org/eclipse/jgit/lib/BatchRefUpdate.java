@@ -44,7 +44,10 @@
 
 package org.eclipse.jgit.lib;
 
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.LOCK_FAILURE;
 import static org.eclipse.jgit.transport.ReceiveCommand.Result.NOT_ATTEMPTED;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.OK;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_NONFASTFORWARD;
 import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_OTHER_REASON;
 
 import java.io.IOException;
@@ -53,7 +56,9 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -83,6 +88,9 @@ public class BatchRefUpdate {
 	/** Should the result value be appended to {@link #refLogMessage}. */
 	private boolean refLogIncludeResult;
 
+	/** Should all commands fail if any of them fails? */
+	private boolean atomic;
+
 	/**
 	 * Initialize a new batch update.
 	 *
@@ -193,6 +201,28 @@ public boolean isRefLogDisabled() {
 		return refLogMessage == null;
 	}
 
+	/** @return true if the commands are applied all together or not at all. */
+	public boolean isAtomic() {
+		return atomic;
+	}
+
+	/**
+	 * Request the commands to be applied all together or not at all.
+	 * <p>
+	 * When one command fails, the commands already applied are reverted and
+	 * all others are rejected. References are still updated one at a time, so
+	 * concurrent readers may see some of them updated before the batch
+	 * completes or is reverted.
+	 *
+	 * @param atomic
+	 *            true to make all commands fail if any of them fails.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate setAtomic(boolean atomic) {
+		this.atomic = atomic;
+		return this;
+	}
+
 	/** @return commands this update will process. */
 	public List<ReceiveCommand> getCommands() {
 		return Collections.unmodifiableList(commands);
@@ -237,7 +267,8 @@ public BatchRefUpdate addCommand(Collection<ReceiveCommand> cmd) {
 	 * Execute this batch update.
 	 * <p>
 	 * The default implementation of this method performs a sequential reference
-	 * update over each reference.
+	 * update over each reference. If the batch is atomic and one update fails,
+	 * the references already updated are restored.
 	 *
 	 * @param walk
 	 *            a RevWalk to parse tags in case the storage system wants to
@@ -252,31 +283,129 @@ public BatchRefUpdate addCommand(Collection<ReceiveCommand> cmd) {
 	public void execute(RevWalk walk, ProgressMonitor update)
 			throws IOException {
 		update.beginTask(JGitText.get().updatingReferences, commands.size());
-		for (ReceiveCommand cmd : commands) {
-			try {
+		if (atomic)
+			executeAtomically(walk, update);
+		else {
+			for (ReceiveCommand cmd : commands) {
 				update.update(1);
+				if (cmd.getResult() == NOT_ATTEMPTED)
+					apply(walk, cmd);
+			}
+		}
+		update.endTask();
+	}
+
+	private void apply(RevWalk walk, ReceiveCommand cmd) {
+		try {
+			cmd.updateType(walk);
+			RefUpdate ru = newUpdate(cmd);
+			switch (cmd.getType()) {
+			case DELETE:
+				cmd.setResult(ru.delete(walk));
+				return;
+
+			case CREATE:
+			case UPDATE:
+			case UPDATE_NONFASTFORWARD:
+				cmd.setResult(ru.update(walk));
+				return;
+			}
+		} catch (IOException err) {
+			cmd.setResult(REJECTED_OTHER_REASON, MessageFormat.format(
+					JGitText.get().lockError, err.getMessage()));
+		}
+	}
 
-				if (cmd.getResult() == NOT_ATTEMPTED) {
-					cmd.updateType(walk);
-					RefUpdate ru = newUpdate(cmd);
-					switch (cmd.getType()) {
-					case DELETE:
-						cmd.setResult(ru.delete(walk));
-						continue;
-
-					case CREATE:
-					case UPDATE:
-					case UPDATE_NONFASTFORWARD:
-						cmd.setResult(ru.update(walk));
-						continue;
-					}
+	private void executeAtomically(RevWalk walk, ProgressMonitor update)
+			throws IOException {
+		for (ReceiveCommand cmd : commands) {
+			if (cmd.getResult() != NOT_ATTEMPTED) {
+				abort(Collections.<ReceiveCommand> emptyList());
+				return;
+			}
+		}
+
+		// Check every command before touching any reference, so that most
+		// failures do not need to be reverted.
+		Map<String, ObjectId> oldIds = new HashMap<String, ObjectId>();
+		for (ReceiveCommand cmd : commands) {
+			cmd.updateType(walk);
+			if (cmd.getType() == ReceiveCommand.Type.UPDATE_NONFASTFORWARD
+					&& !isAllowNonFastForwards()) {
+				cmd.setResult(REJECTED_NONFASTFORWARD);
+				abort(Collections.<ReceiveCommand> emptyList());
+				return;
+			}
+
+			Ref ref = refdb.getRef(cmd.getRefName());
+			ObjectId cur = ObjectId.zeroId();
+			if (ref != null && ref.getName().equals(cmd.getRefName())
+					&& ref.getObjectId() != null)
+				cur = ref.getObjectId();
+			boolean anyOld = cmd.getType() == ReceiveCommand.Type.DELETE
+					&& ObjectId.zeroId().equals(cmd.getOldId());
+			if (!anyOld && !cur.equals(cmd.getOldId())) {
+				cmd.setResult(LOCK_FAILURE);
+				abort(Collections.<ReceiveCommand> emptyList());
+				return;
+			}
+			oldIds.put(cmd.getRefName(), cur);
+		}
+
+		List<ReceiveCommand> done = new ArrayList<ReceiveCommand>(
+				commands.size());
+		for (ReceiveCommand cmd : commands) {
+			update.update(1);
+			apply(walk, cmd);
+			if (cmd.getResult() != OK) {
+				abort(revert(walk, done, oldIds));
+				return;
+			}
+			done.add(cmd);
+		}
+	}
+
+	private List<ReceiveCommand> revert(RevWalk walk,
+			List<ReceiveCommand> done, Map<String, ObjectId> oldIds) {
+		List<ReceiveCommand> reverted = new ArrayList<ReceiveCommand>(
+				done.size());
+		for (ReceiveCommand cmd : done) {
+			ObjectId oldId = oldIds.get(cmd.getRefName());
+			try {
+				RefUpdate ru = refdb.newUpdate(cmd.getRefName(), false);
+				if (isRefLogDisabled())
+					ru.disableRefLog();
+				else {
+					ru.setRefLogIdent(refLogIdent);
+					ru.setRefLogMessage(JGitText.get().transactionAborted,
+							false);
+				}
+				ru.setForceUpdate(true);
+				ru.setExpectedOldObjectId(cmd.getNewId());
+				RefUpdate.Result r;
+				if (ObjectId.zeroId().equals(oldId))
+					r = ru.delete(walk);
+				else {
+					ru.setNewObjectId(oldId);
+					r = ru.update(walk);
 				}
+				if (r == RefUpdate.Result.FORCED || r == RefUpdate.Result.NEW
+						|| r == RefUpdate.Result.FAST_FORWARD
+						|| r == RefUpdate.Result.NO_CHANGE)
+					reverted.add(cmd);
 			} catch (IOException err) {
-				cmd.setResult(REJECTED_OTHER_REASON, MessageFormat.format(
-						JGitText.get().lockError, err.getMessage()));
+				// The command stays successful, it could not be undone.
 			}
 		}
-		update.endTask();
+		return reverted;
+	}
+
+	private void abort(List<ReceiveCommand> reverted) {
+		for (ReceiveCommand cmd : commands) {
+			if (cmd.getResult() == NOT_ATTEMPTED || reverted.contains(cmd))
+				cmd.setResult(REJECTED_OTHER_REASON,
+						JGitText.get().transactionAborted);
+		}
 	}
 
 	/**
@@ -79,6 +79,9 @@ public class ConfigConstants {
 	/** The "gc" section */
 	public static final String CONFIG_GC_SECTION = "gc";
 
+	/** The "extensions" section */
+	public static final String CONFIG_EXTENSIONS_SECTION = "extensions";
+
 	/** The "pack" section */
 	public static final String CONFIG_PACK_SECTION = "pack";
 
@@ -194,4 +197,13 @@ public class ConfigConstants {
 
 	/** The "ff" key */
 	public static final String CONFIG_KEY_FF = "ff";
+
+	/** The "partialclone" key */
+	public static final String CONFIG_KEY_PARTIALCLONE = "partialclone";
+
+	/** The "partialclonefilter" key */
+	public static final String CONFIG_KEY_PARTIALCLONEFILTER = "partialclonefilter";
+
+	/** The "promisor" key */
+	public static final String CONFIG_KEY_PROMISOR = "promisor";
 }
@@ -134,7 +134,10 @@ RevCommit next() throws MissingObjectException,
 
 			int newDepth = c.depth + 1;
 
-			for (final RevCommit p : c.parents) {
+			// Parents of a shallow commit are not sent to the client.
+			final RevCommit[] parents = c.shallow ? RevCommit.NO_PARENTS
+					: c.parents;
+			for (final RevCommit p : parents) {
 				DepthWalk.Commit dp = (DepthWalk.Commit) p;
 
 				// If no depth has been assigned to this commit, assign
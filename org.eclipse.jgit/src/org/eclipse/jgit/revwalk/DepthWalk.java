@@ -68,6 +68,9 @@ public static class Commit extends RevCommit {
 		/** Depth of this commit in the graph, via shortest path. */
 		int depth;
 
+		/** True if the walk must not descend to the parents of this commit. */
+		boolean shallow;
+
 		/** @return depth of this commit, as found by the shortest path. */
 		public int getDepth() {
 			return depth;
@@ -223,6 +226,19 @@ public void markUnshallow(RevObject c) throws MissingObjectException,
 			super.markStart(c);
 		}
 
+		/**
+		 * Mark a commit the client will record as shallow. The commit itself
+		 * is produced if it is within the depth, but none of its parents are
+		 * reached through it.
+		 *
+		 * @param c
+		 *            Commit to mark
+		 */
+		public void markShallow(RevObject c) {
+			if (c instanceof Commit)
+				((Commit) c).shallow = true;
+		}
+
 		@Override
 		protected RevCommit createCommit(AnyObjectId id) {
 			return new Commit(id);
@@ -197,6 +197,11 @@ ObjectLoader openObject(final WindowCursor curs,
 		return openObjectImpl1(curs, objectId);
 	}
 
+	@Override
+	boolean fetchMissing(AnyObjectId objectId) throws IOException {
+		return wrapped.fetchMissing(objectId);
+	}
+
 	@Override
 	ObjectLoader openObject1(WindowCursor curs, AnyObjectId objectId)
 			throws IOException {
@@ -167,6 +167,19 @@ ObjectLoader openObject(final WindowCursor curs, final AnyObjectId objectId)
 		return null;
 	}
 
+	/**
+	 * Fetch an object this database is missing from its promisor remote.
+	 *
+	 * @param objectId
+	 *            identity of the missing object.
+	 * @return true if the object was fetched and should be looked up again.
+	 * @throws IOException
+	 *             the promisor remote could not supply the object.
+	 */
+	boolean fetchMissing(AnyObjectId objectId) throws IOException {
+		return false;
+	}
+
 	final ObjectLoader openObjectImpl1(final WindowCursor curs,
 			final AnyObjectId objectId) throws IOException {
 		ObjectLoader ldr;
@@ -67,6 +67,7 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.FileObjectDatabase.AlternateHandle;
 import org.eclipse.jgit.storage.file.FileObjectDatabase.AlternateRepository;
+import org.eclipse.jgit.transport.PromisorRemote;
 import org.eclipse.jgit.util.FileUtils;
 import org.eclipse.jgit.util.SystemReader;
 
@@ -180,6 +181,7 @@ public void onConfigChanged(ConfigChangedEvent event) {
 				options.getAlternateObjectDirectories(), //
 				getFS(), //
 				new File(getDirectory(), Constants.SHALLOW));
+		objectDatabase.setPromisor(new PromisorRemote(this));
 
 		if (objectDatabase.exists()) {
 			final long repositoryFormatVersion = getConfig().getLong(
@@ -642,6 +642,7 @@ private PackFile writePack(Set<? extends ObjectId> want,
 			// prepare the PackWriter
 			pw.setDeltaBaseAsOffset(true);
 			pw.setReuseDeltaCommits(false);
+			pw.setLocalityTip(repo.resolve(Constants.HEAD));
 			if (tagTargets != null)
 				pw.setTagTargets(tagTargets);
 			if (excludeObjects != null)
@@ -75,6 +75,7 @@
 import org.eclipse.jgit.storage.pack.CachedPack;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.transport.PromisorRemote;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.FileUtils;
 import org.eclipse.jgit.util.IO;
@@ -133,6 +134,8 @@ public class ObjectDirectory extends FileObjectDatabase {
 
 	private Set<ObjectId> shallowCommitsIds;
 
+	private PromisorRemote promisor;
+
 	/**
 	 * Initialize a reference to an on-disk object directory.
 	 *
@@ -176,6 +179,21 @@ public ObjectDirectory(final Config cfg, final File dir,
 		}
 	}
 
+	/**
+	 * Set the remote that supplies objects a partial clone left out.
+	 *
+	 * @param promisor
+	 *            the promisor, or null to report missing objects immediately.
+	 */
+	void setPromisor(PromisorRemote promisor) {
+		this.promisor = promisor;
+	}
+
+	@Override
+	boolean fetchMissing(AnyObjectId objectId) throws IOException {
+		return promisor != null && promisor.fetch(objectId);
+	}
+
 	/**
 	 * @return the location of the <code>objects</code> directory.
 	 */
@@ -200,6 +218,44 @@ public ObjectDirectoryInserter newInserter() {
 		return new ObjectDirectoryInserter(this, config);
 	}
 
+	/**
+	 * Create a quarantine to receive objects into.
+	 * <p>
+	 * The quarantine is a directory below this one. Objects written to it can
+	 * be read through the quarantine, together with all objects of this
+	 * directory, but are not visible to readers of this directory until
+	 * {@link ObjectQuarantine#migrate()} moves them in.
+	 *
+	 * @return the new, empty quarantine.
+	 * @throws IOException
+	 *             the quarantine directory could not be created.
+	 */
+	public ObjectQuarantine newQuarantine() throws IOException {
+		File dir = File.createTempFile("incoming-", "", objects); //$NON-NLS-1$ //$NON-NLS-2$
+		FileUtils.delete(dir);
+		ObjectQuarantine q = new ObjectQuarantine(this, dir);
+		q.create();
+		return q;
+	}
+
+	/**
+	 * Read the objects of another database through this one.
+	 * <p>
+	 * Unlike alternates listed in {@code info/alternates} the database is not
+	 * closed when this one is.
+	 *
+	 * @param db
+	 *            the database to read through.
+	 */
+	void borrowAlternate(final FileObjectDatabase db) {
+		alternates.set(new AlternateHandle[] { new AlternateHandle(db) {
+			@Override
+			void close() {
+				// Owned by its repository.
+			}
+		} });
+	}
+
 	@Override
 	public void close() {
 		unpackedObjectCache.clear();
@@ -49,11 +49,11 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.Arrays;
-import java.util.List;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 
@@ -100,6 +100,9 @@ public class ObjectDirectoryPackParser extends PackParser {
 	 */
 	private File tmpIdx;
 
+	/** Objects of the pack sorted by name, once the index is written. */
+	private PackIndexTable indexTable;
+
 	/** Read/write handle to {@link #tmpPack} while it is being parsed. */
 	private RandomAccessFile out;
 
@@ -295,6 +298,24 @@ protected boolean checkCRC(int oldCRC) {
 		return oldCRC == (int) crc.getValue();
 	}
 
+	@Override
+	protected DatabaseReader openDatabaseReader() throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(tmpPack, "r"); //$NON-NLS-1$
+		return new DatabaseReader() {
+			@Override
+			public int read(long position, byte[] dst, int pos, int cnt)
+					throws IOException {
+				in.seek(position);
+				return in.read(dst, pos, cnt);
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+	}
+
 	private static String baseName(File tmpPack) {
 		String name = tmpPack.getName();
 		return name.substring(0, name.lastIndexOf('.'));
@@ -394,15 +415,27 @@ protected void onEndThinPack() throws IOException {
 	}
 
 	private void writeIdx() throws IOException {
-		List<PackedObjectInfo> list = getSortedObjectList(null /* by ObjectId */);
+		final int cnt = getObjectCount();
+		indexTable = new PackIndexTable(cnt);
+		for (int i = 0; i < cnt; i++) {
+			// The table replaces the parser's list, drop entries as we go.
+			PackedObjectInfo oe = releaseObject(i);
+			indexTable.add(oe, oe.getOffset(), oe.getCRC());
+		}
+		try {
+			indexTable.sort(getResolveThreads());
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+
 		final FileOutputStream os = new FileOutputStream(tmpIdx);
 		try {
 			final PackIndexWriter iw;
 			if (indexVersion <= 0)
-				iw = PackIndexWriter.createOldestPossible(os, list);
+				iw = PackIndexWriter.createOldestPossible(os, indexTable);
 			else
 				iw = PackIndexWriter.createVersion(os, indexVersion);
-			iw.write(list, packHash);
+			iw.write(indexTable, packHash);
 			os.getChannel().force(true);
 		} finally {
 			os.close();
@@ -418,9 +451,8 @@ private PackLock renameAndOpenPack(final String lockMessage)
 
 		final MessageDigest d = Constants.newMessageDigest();
 		final byte[] oeBytes = new byte[Constants.OBJECT_ID_LENGTH];
-		for (int i = 0; i < getObjectCount(); i++) {
-			final PackedObjectInfo oe = getObject(i);
-			oe.copyRawTo(oeBytes, 0);
+		for (int i = 0; i < indexTable.size(); i++) {
+			indexTable.copyRawTo(i, oeBytes, 0);
 			d.update(oeBytes);
 		}
 
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Objects received from a peer that have not been accepted yet.
+ * <p>
+ * A quarantine is created by {@link ObjectDirectory#newQuarantine()}. Packs
+ * and loose objects are written below it as they would be in any other
+ * object directory, and it can be read like the repository it belongs to.
+ * Once the objects are accepted {@link #migrate()} moves them into that
+ * repository; otherwise {@link #discard()} deletes them without the
+ * repository ever having seen them.
+ */
+public class ObjectQuarantine extends ObjectDirectory {
+	private final ObjectDirectory parent;
+
+	ObjectQuarantine(ObjectDirectory parent, File dir) throws IOException {
+		super(parent.getConfig(), dir, null, parent.getFS(), null);
+		this.parent = parent;
+		borrowAlternate(parent);
+	}
+
+	/**
+	 * Move the quarantined objects into the repository.
+	 * <p>
+	 * Packs are moved with their index and their {@code .keep} file, if they
+	 * have one. The quarantine is deleted afterwards and must not be used
+	 * anymore.
+	 *
+	 * @return locks of the moved packs that had a {@code .keep} file; the
+	 *         caller is responsible for unlocking them.
+	 * @throws IOException
+	 *             an object could not be moved.
+	 */
+	public List<PackLock> migrate() throws IOException {
+		List<PackLock> locks = new ArrayList<PackLock>();
+		Collection<PackFile> packs = getPacks();
+		close();
+
+		File dstDir = new File(parent.getDirectory(), "pack"); //$NON-NLS-1$
+		for (PackFile p : packs) {
+			File src = p.getPackFile();
+			File dst = new File(dstDir, src.getName());
+			if (dst.exists())
+				continue;
+
+			// Readers find packs by their index, move it last.
+			File keep = sibling(src, ".keep"); //$NON-NLS-1$
+			boolean locked = keep.exists();
+			if (locked)
+				rename(keep, sibling(dst, ".keep")); //$NON-NLS-1$
+			rename(src, dst);
+			rename(sibling(src, ".idx"), sibling(dst, ".idx")); //$NON-NLS-1$ //$NON-NLS-2$
+			parent.openPack(dst);
+			if (locked)
+				locks.add(new PackLock(dst, getFS()));
+		}
+
+		File[] dirs = getDirectory().listFiles();
+		if (dirs != null) {
+			for (File d : dirs) {
+				String n = d.getName();
+				if (n.length() != 2 || !d.isDirectory())
+					continue;
+				File[] entries = d.listFiles();
+				if (entries == null)
+					continue;
+				for (File f : entries) {
+					if (ObjectId.isId(n + f.getName()))
+						parent.insertUnpackedObject(f,
+								ObjectId.fromString(n + f.getName()), false);
+				}
+			}
+		}
+
+		discard();
+		return locks;
+	}
+
+	/**
+	 * Delete the quarantine and all objects in it.
+	 *
+	 * @throws IOException
+	 *             the quarantine could not be deleted.
+	 */
+	public void discard() throws IOException {
+		close();
+		FileUtils.delete(getDirectory(), FileUtils.RECURSIVE
+				| FileUtils.SKIP_MISSING | FileUtils.RETRY);
+	}
+
+	private static File sibling(File pack, String ext) {
+		String n = pack.getName();
+		return new File(pack.getParentFile(), n.substring(0, n.length() - 5)
+				+ ext);
+	}
+
+	private static void rename(File src, File dst) throws IOException {
+		if (!src.renameTo(dst))
+			throw new IOException(MessageFormat.format(
+					JGitText.get().renameFileFailed, src.getAbsolutePath(),
+					dst.getAbsolutePath()));
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Compact table of the objects to describe in a pack index.
+ * <p>
+ * Object names, offsets and CRCs are held in primitive arrays rather than as
+ * one {@link org.eclipse.jgit.transport.PackedObjectInfo} per object, costing
+ * about 36 bytes per object once sorted. The table can be sorted on several
+ * threads and written by {@link PackIndexWriter#write(PackIndexTable, byte[])}
+ * without creating any per-object instances.
+ */
+public class PackIndexTable {
+	private static final int WORDS = Constants.OBJECT_ID_LENGTH / 4;
+
+	/** Objects with fewer entries are sorted on the calling thread. */
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	private int[] names;
+
+	private long[] offsets;
+
+	private int[] crcs;
+
+	private int size;
+
+	private long maxOffset;
+
+	/** Positions of the entries in ObjectId order; null until sorted. */
+	private int[] order;
+
+	/**
+	 * Create an empty table.
+	 *
+	 * @param expectedObjects
+	 *            number of objects the caller expects to add.
+	 */
+	public PackIndexTable(int expectedObjects) {
+		int cap = Math.max(expectedObjects, 16);
+		names = new int[cap * WORDS];
+		offsets = new long[cap];
+		crcs = new int[cap];
+	}
+
+	/**
+	 * Add an object to the table.
+	 *
+	 * @param id
+	 *            name of the object.
+	 * @param offset
+	 *            position of the object's header within the pack.
+	 * @param crc
+	 *            CRC-32 of the object's data within the pack.
+	 */
+	public void add(AnyObjectId id, long offset, int crc) {
+		if (size == offsets.length)
+			grow();
+		id.copyRawTo(names, size * WORDS);
+		offsets[size] = offset;
+		crcs[size] = crc;
+		maxOffset = Math.max(maxOffset, offset);
+		size++;
+		order = null;
+	}
+
+	private void grow() {
+		int cap = offsets.length * 2;
+		int[] n = new int[cap * WORDS];
+		System.arraycopy(names, 0, n, 0, size * WORDS);
+		names = n;
+
+		long[] o = new long[cap];
+		System.arraycopy(offsets, 0, o, 0, size);
+		offsets = o;
+
+		int[] c = new int[cap];
+		System.arraycopy(crcs, 0, c, 0, size);
+		crcs = c;
+	}
+
+	/** @return number of objects in the table. */
+	public int size() {
+		return size;
+	}
+
+	/** @return largest offset of any object in the table. */
+	public long getMaxOffset() {
+		return maxOffset;
+	}
+
+	/**
+	 * Sort the table by ObjectId.
+	 * <p>
+	 * Entries are first distributed by their leading byte, the same buckets
+	 * used by the index fan-out table, and the buckets are then sorted
+	 * independently. Large tables use up to {@code threads} threads.
+	 *
+	 * @param threads
+	 *            maximum number of threads to use. If &lt;= 0 the number of
+	 *            available processors for this JVM is used.
+	 * @throws InterruptedException
+	 *             the sort was interrupted.
+	 */
+	public void sort(int threads) throws InterruptedException {
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+
+		final int[] start = new int[257];
+		for (int i = 0; i < size; i++)
+			start[(names[i * WORDS] >>> 24) + 1]++;
+		for (int b = 1; b <= 256; b++)
+			start[b] += start[b - 1];
+
+		final int[] o = new int[size];
+		int[] next = new int[256];
+		System.arraycopy(start, 0, next, 0, 256);
+		for (int i = 0; i < size; i++)
+			o[next[names[i * WORDS] >>> 24]++] = i;
+		next = null;
+
+		if (threads == 1 || size < PARALLEL_THRESHOLD) {
+			for (int b = 0; b < 256; b++)
+				sort(o, start[b], start[b + 1]);
+			order = o;
+			return;
+		}
+
+		final AtomicInteger nextBucket = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>(
+					threads);
+			Callable<Object> task = new Callable<Object>() {
+				public Object call() {
+					int b;
+					while ((b = nextBucket.getAndIncrement()) < 256)
+						sort(o, start[b], start[b + 1]);
+					return null;
+				}
+			};
+			for (int t = 0; t < threads; t++)
+				futures.add(pool.submit(task));
+			for (Future<Object> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					Throwable err = e.getCause();
+					if (err instanceof RuntimeException)
+						throw (RuntimeException) err;
+					throw (Error) err;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		order = o;
+	}
+
+	private void sort(int[] o, int lo, int hi) {
+		while (16 < hi - lo) {
+			int mid = (lo + hi) >>> 1;
+			int a = o[lo], b = o[mid], c = o[hi - 1];
+			int pivot;
+			if (compare(a, b) < 0)
+				pivot = compare(b, c) < 0 ? b : (compare(a, c) < 0 ? c : a);
+			else
+				pivot = compare(a, c) < 0 ? a : (compare(b, c) < 0 ? c : b);
+
+			int i = lo, j = hi - 1;
+			while (i <= j) {
+				while (compare(o[i], pivot) < 0)
+					i++;
+				while (compare(pivot, o[j]) < 0)
+					j--;
+				if (i <= j) {
+					int t = o[i];
+					o[i++] = o[j];
+					o[j--] = t;
+				}
+			}
+
+			// Recurse into the smaller half to bound stack depth.
+			if (j - lo < hi - i) {
+				sort(o, lo, j + 1);
+				lo = i;
+			} else {
+				sort(o, i, hi);
+				hi = j + 1;
+			}
+		}
+
+		for (int i = lo + 1; i < hi; i++) {
+			int v = o[i];
+			int j = i - 1;
+			for (; lo <= j && compare(v, o[j]) < 0; j--)
+				o[j + 1] = o[j];
+			o[j + 1] = v;
+		}
+	}
+
+	private int compare(int a, int b) {
+		int pa = a * WORDS, pb = b * WORDS;
+		for (int k = 0; k < WORDS; k++) {
+			int x = names[pa + k], y = names[pb + k];
+			if (x != y)
+				return (x ^ 0x80000000) < (y ^ 0x80000000) ? -1 : 1;
+		}
+		return 0;
+	}
+
+	private int entry(int i) {
+		if (order == null)
+			throw new IllegalStateException();
+		return order[i];
+	}
+
+	/**
+	 * @param i
+	 *            position in ObjectId order, after {@link #sort(int)}.
+	 * @return the first byte of the object's name.
+	 */
+	public int getFirstByte(int i) {
+		return names[entry(i) * WORDS] >>> 24;
+	}
+
+	/**
+	 * Copy the raw name of an object.
+	 *
+	 * @param i
+	 *            position in ObjectId order, after {@link #sort(int)}.
+	 * @param b
+	 *            buffer to receive the 20 byte name.
+	 * @param o
+	 *            offset within {@code b} to start writing at.
+	 */
+	public void copyRawTo(int i, byte[] b, int o) {
+		int p = entry(i) * WORDS;
+		for (int k = 0; k < WORDS; k++, o += 4)
+			NB.encodeInt32(b, o, names[p + k]);
+	}
+
+	/**
+	 * @param i
+	 *            position in ObjectId order, after {@link #sort(int)}.
+	 * @return offset of the object within the pack.
+	 */
+	public long getOffset(int i) {
+		return offsets[entry(i)];
+	}
+
+	/**
+	 * @param i
+	 *            position in ObjectId order, after {@link #sort(int)}.
+	 * @return CRC-32 of the object's data within the pack.
+	 */
+	public int getCRC(int i) {
+		return crcs[entry(i)];
+	}
+}
@@ -49,7 +49,10 @@
 import java.io.OutputStream;
 import java.security.DigestOutputStream;
 import java.text.MessageFormat;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.Constants;
@@ -112,6 +115,25 @@ public static PackIndexWriter createOldestPossible(final OutputStream dst,
 		return createVersion(dst, version);
 	}
 
+	/**
+	 * Create a new writer for the oldest (most widely understood) format.
+	 *
+	 * @param dst
+	 *            the stream the index data will be written to. If not already
+	 *            buffered it will be automatically wrapped in a buffered
+	 *            stream. Callers are always responsible for closing the stream.
+	 * @param objs
+	 *            the objects the caller needs to store in the index.
+	 * @return a new writer to output an index file of the requested format to
+	 *         the supplied stream.
+	 * @see #createOldestPossible(OutputStream, List)
+	 */
+	public static PackIndexWriter createOldestPossible(final OutputStream dst,
+			final PackIndexTable objs) {
+		int version = PackIndexWriterV1.canStore(objs.getMaxOffset()) ? 1 : 2;
+		return createVersion(dst, version);
+	}
+
 	/**
 	 * Create a new writer instance for a specific index format version.
 	 *
@@ -148,9 +170,18 @@ public static PackIndexWriter createVersion(final OutputStream dst,
 	/** A temporary buffer for use during IO to {link #out}. */
 	protected final byte[] tmp;
 
-	/** The entries this writer must pack. */
+	/**
+	 * The entries this writer must pack.
+	 * <p>
+	 * When writing from a {@link PackIndexTable} this is a view creating an
+	 * entry on each access; implementations should prefer
+	 * {@link #getEntryCount()} and its companions.
+	 */
 	protected List<? extends PackedObjectInfo> entries;
 
+	/** The entries this writer must pack, if supplied as a table. */
+	private PackIndexTable table;
+
 	/** SHA-1 checksum for the entire pack data. */
 	protected byte[] packChecksum;
 
@@ -187,12 +218,91 @@ protected PackIndexWriter(final OutputStream dst) {
 	 */
 	public void write(final List<? extends PackedObjectInfo> toStore,
 			final byte[] packDataChecksum) throws IOException {
-		entries = toStore;
+		if (toStore instanceof RandomAccess)
+			entries = toStore;
+		else
+			entries = new ArrayList<PackedObjectInfo>(toStore);
+		table = null;
+		packChecksum = packDataChecksum;
+		writeImpl();
+		out.flush();
+	}
+
+	/**
+	 * Write all object entries to the index stream.
+	 * <p>
+	 * After writing the stream passed to the factory is flushed but remains
+	 * open. Callers are always responsible for closing the output stream.
+	 *
+	 * @param toStore
+	 *            objects to store in the index. The caller must have sorted
+	 *            the table with {@link PackIndexTable#sort(int)}.
+	 * @param packDataChecksum
+	 *            checksum signature of the entire pack data content. This is
+	 *            traditionally the last 20 bytes of the pack file's own stream.
+	 * @throws IOException
+	 *             an error occurred while writing to the output stream, or this
+	 *             index format cannot store the object data supplied.
+	 */
+	public void write(final PackIndexTable toStore,
+			final byte[] packDataChecksum) throws IOException {
+		entries = new TableList(toStore);
+		table = toStore;
 		packChecksum = packDataChecksum;
 		writeImpl();
 		out.flush();
 	}
 
+	/** @return number of entries to be written. */
+	protected int getEntryCount() {
+		return table != null ? table.size() : entries.size();
+	}
+
+	/**
+	 * @param i
+	 *            position of the entry, in sorted order.
+	 * @return the first byte of the entry's name.
+	 */
+	protected int getFirstByte(int i) {
+		return table != null ? table.getFirstByte(i) : entries.get(i)
+				.getFirstByte();
+	}
+
+	/**
+	 * Copy the raw name of an entry.
+	 *
+	 * @param i
+	 *            position of the entry, in sorted order.
+	 * @param b
+	 *            buffer to receive the 20 byte name.
+	 * @param o
+	 *            offset within {@code b} to start writing at.
+	 */
+	protected void copyRawTo(int i, byte[] b, int o) {
+		if (table != null)
+			table.copyRawTo(i, b, o);
+		else
+			entries.get(i).copyRawTo(b, o);
+	}
+
+	/**
+	 * @param i
+	 *            position of the entry, in sorted order.
+	 * @return offset of the entry within the pack.
+	 */
+	protected long getOffset(int i) {
+		return table != null ? table.getOffset(i) : entries.get(i).getOffset();
+	}
+
+	/**
+	 * @param i
+	 *            position of the entry, in sorted order.
+	 * @return CRC-32 of the entry's data within the pack.
+	 */
+	protected int getCRC(int i) {
+		return table != null ? table.getCRC(i) : entries.get(i).getCRC();
+	}
+
 	/**
 	 * Writes the index file to {@link #out}.
 	 * <p>
@@ -249,8 +359,9 @@ protected void writeTOC(final int version) throws IOException {
 	 */
 	protected void writeFanOutTable() throws IOException {
 		final int[] fanout = new int[256];
-		for (final PackedObjectInfo po : entries)
-			fanout[po.getFirstByte() & 0xff]++;
+		final int cnt = getEntryCount();
+		for (int i = 0; i < cnt; i++)
+			fanout[getFirstByte(i) & 0xff]++;
 		for (int i = 1; i < 256; i++)
 			fanout[i] += fanout[i - 1];
 		for (final int n : fanout) {
@@ -277,4 +388,29 @@ protected void writeChecksumFooter() throws IOException {
 		out.on(false);
 		out.write(out.getMessageDigest().digest());
 	}
+
+	/** Entries of a {@link PackIndexTable}, in sorted order. */
+	private static class TableList extends AbstractList<PackedObjectInfo>
+			implements RandomAccess {
+		private final PackIndexTable table;
+
+		TableList(PackIndexTable table) {
+			this.table = table;
+		}
+
+		@Override
+		public PackedObjectInfo get(int i) {
+			byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+			table.copyRawTo(i, raw, 0);
+			PackedObjectInfo oe = new PackedObjectInfo(ObjectId.fromRaw(raw));
+			oe.setOffset(table.getOffset(i));
+			oe.setCRC(table.getCRC(i));
+			return oe;
+		}
+
+		@Override
+		public int size() {
+			return table.size();
+		}
+	}
 }
@@ -61,7 +61,11 @@ class PackIndexWriterV1 extends PackIndexWriter {
 	static boolean canStore(final PackedObjectInfo oe) {
 		// We are limited to 4 GB per pack as offset is 32 bit unsigned int.
 		//
-		return oe.getOffset() >>> 1 < Integer.MAX_VALUE;
+		return canStore(oe.getOffset());
+	}
+
+	static boolean canStore(final long offset) {
+		return offset >>> 1 < Integer.MAX_VALUE;
 	}
 
 	PackIndexWriterV1(final OutputStream dst) {
@@ -72,11 +76,13 @@ static boolean canStore(final PackedObjectInfo oe) {
 	protected void writeImpl() throws IOException {
 		writeFanOutTable();
 
-		for (final PackedObjectInfo oe : entries) {
-			if (!canStore(oe))
+		final int cnt = getEntryCount();
+		for (int i = 0; i < cnt; i++) {
+			final long offset = getOffset(i);
+			if (!canStore(offset))
 				throw new IOException(JGitText.get().packTooLargeForIndexVersion1);
-			NB.encodeInt32(tmp, 0, (int) oe.getOffset());
-			oe.copyRawTo(tmp, 4);
+			NB.encodeInt32(tmp, 0, (int) offset);
+			copyRawTo(i, tmp, 4);
 			out.write(tmp);
 		}
 
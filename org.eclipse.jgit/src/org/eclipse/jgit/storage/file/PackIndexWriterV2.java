@@ -46,7 +46,7 @@
 import java.io.IOException;
 import java.io.OutputStream;
 
-import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.util.NB;
 
 /**
@@ -75,21 +75,26 @@ protected void writeImpl() throws IOException {
 	}
 
 	private void writeObjectNames() throws IOException {
-		for (final PackedObjectInfo oe : entries)
-			oe.copyRawTo(out);
+		final int cnt = getEntryCount();
+		for (int i = 0; i < cnt; i++) {
+			copyRawTo(i, tmp, 0);
+			out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+		}
 	}
 
 	private void writeCRCs() throws IOException {
-		for (final PackedObjectInfo oe : entries) {
-			NB.encodeInt32(tmp, 0, oe.getCRC());
+		final int cnt = getEntryCount();
+		for (int i = 0; i < cnt; i++) {
+			NB.encodeInt32(tmp, 0, getCRC(i));
 			out.write(tmp, 0, 4);
 		}
 	}
 
 	private void writeOffset32() throws IOException {
 		int o64 = 0;
-		for (final PackedObjectInfo oe : entries) {
-			final long o = oe.getOffset();
+		final int cnt = getEntryCount();
+		for (int i = 0; i < cnt; i++) {
+			final long o = getOffset(i);
 			if (o <= MAX_OFFSET_32)
 				NB.encodeInt32(tmp, 0, (int) o);
 			else
@@ -99,8 +104,9 @@ private void writeOffset32() throws IOException {
 	}
 
 	private void writeOffset64() throws IOException {
-		for (final PackedObjectInfo oe : entries) {
-			final long o = oe.getOffset();
+		final int cnt = getEntryCount();
+		for (int i = 0; i < cnt; i++) {
+			final long o = getOffset(i);
 			if (MAX_OFFSET_32 < o) {
 				NB.encodeInt64(tmp, 0, o);
 				out.write(tmp, 0, 8);
@@ -135,6 +135,9 @@ private static final int bits(int newSize) {
 
 	private static volatile int streamFileThreshold;
 
+	/** Whether window lookups update the hit and miss counters. */
+	static volatile boolean countStatistics;
+
 	static {
 		reconfigure(new WindowCacheConfig());
 	}
@@ -252,6 +255,10 @@ static final void purge(final PackFile pack) {
 
 	private final AtomicLong openBytes;
 
+	private final AtomicLong hitCount;
+
+	private final AtomicLong missCount;
+
 	private WindowCache(final WindowCacheConfig cfg) {
 		tableSize = tableSize(cfg);
 		final int lockCount = lockCount(cfg);
@@ -285,6 +292,8 @@ else if (eb < 4)
 
 		openFiles = new AtomicInteger();
 		openBytes = new AtomicLong();
+		hitCount = new AtomicLong();
+		missCount = new AtomicLong();
 
 		if (maxFiles < 1)
 			throw new IllegalArgumentException(JGitText.get().openFilesMustBeAtLeast1);
@@ -300,6 +309,14 @@ long getOpenBytes() {
 		return openBytes.get();
 	}
 
+	long getHitCount() {
+		return hitCount.get();
+	}
+
+	long getMissCount() {
+		return missCount.get();
+	}
+
 	private int hash(final int packHash, final long off) {
 		return packHash + (int) (off >>> windowSizeShift);
 	}
@@ -379,17 +396,25 @@ private ByteWindow getOrLoad(final PackFile pack, final long position)
 		final int slot = slot(pack, position);
 		final Entry e1 = table.get(slot);
 		ByteWindow v = scan(e1, pack, position);
-		if (v != null)
+		if (v != null) {
+			if (countStatistics)
+				hitCount.incrementAndGet();
 			return v;
+		}
 
 		synchronized (lock(pack, position)) {
 			Entry e2 = table.get(slot);
 			if (e2 != e1) {
 				v = scan(e2, pack, position);
-				if (v != null)
+				if (v != null) {
+					if (countStatistics)
+						hitCount.incrementAndGet();
 					return v;
+				}
 			}
 
+			if (countStatistics)
+				missCount.incrementAndGet();
 			v = load(pack, position);
 			final Ref ref = createRef(pack, position, v);
 			hit(ref);
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+/** Accessor for the current {@link WindowCache} counters. */
+public class WindowCacheStats {
+	/** @return the number of open files. */
+	public static int getOpenFiles() {
+		return WindowCache.getInstance().getOpenFiles();
+	}
+
+	/** @return the number of open bytes. */
+	public static long getOpenBytes() {
+		return WindowCache.getInstance().getOpenBytes();
+	}
+
+	/**
+	 * Enable or disable counting of window cache hits and misses.
+	 * <p>
+	 * Counting is off by default, as every pack read would otherwise update
+	 * the shared counters.
+	 *
+	 * @param enabled
+	 *            true to count hits and misses.
+	 */
+	public static void setCountStatistics(boolean enabled) {
+		WindowCache.countStatistics = enabled;
+	}
+
+	/** @return true if hits and misses are counted. */
+	public static boolean isCountStatistics() {
+		return WindowCache.countStatistics;
+	}
+
+	/**
+	 * @return the number of window lookups satisfied by the cache since it
+	 *         was last configured; 0 unless counting is enabled.
+	 */
+	public static long getHitCount() {
+		return WindowCache.getInstance().getHitCount();
+	}
+
+	/**
+	 * @return the number of windows read from a pack file since the cache
+	 *         was last configured; 0 unless counting is enabled.
+	 */
+	public static long getMissCount() {
+		return WindowCache.getInstance().getMissCount();
+	}
+
+	private WindowCacheStats() {
+		// Static accessors only.
+	}
+}
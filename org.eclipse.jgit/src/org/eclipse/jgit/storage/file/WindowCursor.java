@@ -120,7 +120,9 @@ public boolean has(AnyObjectId objectId) throws IOException {
 	public ObjectLoader open(AnyObjectId objectId, int typeHint)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
-		final ObjectLoader ldr = db.openObject(this, objectId);
+		ObjectLoader ldr = db.openObject(this, objectId);
+		if (ldr == null && db.fetchMissing(objectId))
+			ldr = db.openObject(this, objectId);
 		if (ldr == null) {
 			if (typeHint == OBJ_ANY)
 				throw new MissingObjectException(objectId.copy(), "unknown");
@@ -140,6 +142,8 @@ public long getObjectSize(AnyObjectId objectId, int typeHint)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
 		long sz = db.getObjectSize(this, objectId);
+		if (sz < 0 && db.fetchMissing(objectId))
+			sz = db.getObjectSize(this, objectId);
 		if (sz < 0) {
 			if (typeHint == OBJ_ANY)
 				throw new MissingObjectException(objectId.copy(), "unknown");
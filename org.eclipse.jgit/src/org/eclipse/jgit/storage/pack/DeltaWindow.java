@@ -51,6 +51,7 @@
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.util.TemporaryBuffer;
@@ -129,6 +130,10 @@ void search(ProgressMonitor monitor, ObjectToPack[] toSearch, int off,
 			int cnt) throws IOException {
 		try {
 			for (int end = off + cnt; off < end; off++) {
+				if (monitor.isCancelled())
+					throw new IOException(
+							JGitText.get().packingCancelledDuringObjectsWriting);
+
 				res = window[resSlot];
 				if (0 < maxMemory) {
 					clear(res);
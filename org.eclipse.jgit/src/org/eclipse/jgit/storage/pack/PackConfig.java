@@ -130,6 +130,27 @@ public class PackConfig {
 	 */
 	public static final int DEFAULT_INDEX_VERSION = 2;
 
+	/**
+	 * Default value of the parallel deflate option: {@value}
+	 *
+	 * @see #setParallelDeflate(boolean)
+	 */
+	public static final boolean DEFAULT_PARALLEL_DEFLATE = false;
+
+	/**
+	 * Default limit of inflated bytes being compressed ahead of the writer:
+	 * {@value}
+	 *
+	 * @see #setDeflateBufferLimit(long)
+	 */
+	public static final long DEFAULT_DEFLATE_BUFFER_LIMIT = 32 * 1024 * 1024;
+
+	/**
+	 * Default value of the locality order option: {@value}
+	 *
+	 * @see #setLocalityOrder(boolean)
+	 */
+	public static final boolean DEFAULT_LOCALITY_ORDER = false;
 
 	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
 
@@ -159,6 +180,12 @@ public class PackConfig {
 
 	private int indexVersion = DEFAULT_INDEX_VERSION;
 
+	private boolean parallelDeflate = DEFAULT_PARALLEL_DEFLATE;
+
+	private long deflateBufferLimit = DEFAULT_DEFLATE_BUFFER_LIMIT;
+
+	private boolean localityOrder = DEFAULT_LOCALITY_ORDER;
+
 
 	/** Create a default configuration. */
 	public PackConfig() {
@@ -210,6 +237,9 @@ public PackConfig(PackConfig cfg) {
 		this.threads = cfg.threads;
 		this.executor = cfg.executor;
 		this.indexVersion = cfg.indexVersion;
+		this.parallelDeflate = cfg.parallelDeflate;
+		this.deflateBufferLimit = cfg.deflateBufferLimit;
+		this.localityOrder = cfg.localityOrder;
 	}
 
 	/**
@@ -614,6 +644,95 @@ public void setIndexVersion(final int version) {
 		indexVersion = version;
 	}
 
+	/**
+	 * Check whether whole objects are compressed by background threads.
+	 *
+	 * Default setting: {@value #DEFAULT_PARALLEL_DEFLATE}
+	 *
+	 * @return true if the writer deflates whole objects on a thread pool
+	 *         ahead of the output stream.
+	 */
+	public boolean isParallelDeflate() {
+		return parallelDeflate;
+	}
+
+	/**
+	 * Set whether whole objects are compressed by background threads.
+	 *
+	 * When enabled, objects that cannot be reused from an existing pack and
+	 * are not stored as a delta are deflated by up to {@link #getThreads()}
+	 * workers before the writer reaches them. The writer still outputs the
+	 * objects in their usual order. This is most useful when packing a
+	 * repository whose objects are all loose, such as the first push to a
+	 * new repository.
+	 *
+	 * Default setting: {@value #DEFAULT_PARALLEL_DEFLATE}
+	 *
+	 * @param parallel
+	 *            true to deflate on background threads.
+	 */
+	public void setParallelDeflate(boolean parallel) {
+		parallelDeflate = parallel;
+	}
+
+	/**
+	 * Get the limit on object data being compressed ahead of the writer.
+	 *
+	 * Default setting: {@value #DEFAULT_DEFLATE_BUFFER_LIMIT}
+	 *
+	 * @return maximum number of inflated bytes that may be claimed by
+	 *         background compression but not yet written to the pack.
+	 */
+	public long getDeflateBufferLimit() {
+		return deflateBufferLimit;
+	}
+
+	/**
+	 * Set the limit on object data being compressed ahead of the writer.
+	 *
+	 * Objects larger than this limit are always compressed by the writing
+	 * thread. Only used if {@link #isParallelDeflate()} is true.
+	 *
+	 * Default setting: {@value #DEFAULT_DEFLATE_BUFFER_LIMIT}
+	 *
+	 * @param limit
+	 *            number of inflated bytes to allow in flight.
+	 */
+	public void setDeflateBufferLimit(long limit) {
+		deflateBufferLimit = limit;
+	}
+
+	/**
+	 * Check whether the writer clusters the objects of a checkout.
+	 *
+	 * Default setting: {@value #DEFAULT_LOCALITY_ORDER}
+	 *
+	 * @return true if the trees and blobs of the writer's locality tip are
+	 *         laid out contiguously in the pack.
+	 */
+	public boolean isLocalityOrder() {
+		return localityOrder;
+	}
+
+	/**
+	 * Set whether the writer clusters the objects of a checkout.
+	 *
+	 * When enabled, the trees reachable from the locality tip given to
+	 * {@link PackWriter#setLocalityTip(org.eclipse.jgit.lib.AnyObjectId)}
+	 * are written last among the trees, in depth-first path order, and are
+	 * immediately followed by the blobs they reference in the same order.
+	 * Checking out the tip, usually the default branch, then reads one
+	 * contiguous region of the pack instead of windows scattered across it.
+	 *
+	 * Default setting: {@value #DEFAULT_LOCALITY_ORDER}
+	 *
+	 * @param order
+	 *            true to cluster the tip's trees and blobs.
+	 */
+	public void setLocalityOrder(boolean order) {
+		localityOrder = order;
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 *
@@ -646,5 +765,11 @@ public void fromConfig(final Config rc) {
 		setReuseObjects(rc.getBoolean("pack", "reuseobjects", isReuseObjects())); //$NON-NLS-1$ //$NON-NLS-2$
 		setDeltaCompress(rc.getBoolean(
 				"pack", "deltacompression", isDeltaCompress())); //$NON-NLS-1$ //$NON-NLS-2$
+		setParallelDeflate(rc.getBoolean(
+				"pack", "paralleldeflate", isParallelDeflate())); //$NON-NLS-1$ //$NON-NLS-2$
+		setDeflateBufferLimit(rc.getLong(
+				"pack", "deflatebufferlimit", getDeflateBufferLimit())); //$NON-NLS-1$ //$NON-NLS-2$
+		setLocalityOrder(rc.getBoolean(
+				"pack", "localityorder", isLocalityOrder())); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 }
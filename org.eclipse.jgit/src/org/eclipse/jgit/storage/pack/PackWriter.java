@@ -65,12 +65,14 @@
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
@@ -85,6 +87,7 @@
 import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
 import org.eclipse.jgit.lib.BatchingProgressMonitor;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdOwnerMap;
@@ -103,7 +106,11 @@
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.PackIndexWriter;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.util.BlockList;
 import org.eclipse.jgit.util.TemporaryBuffer;
 
@@ -217,12 +224,16 @@ public static Iterable<PackWriter> getInstances() {
 
 	private Set<ObjectId> tagTargets = Collections.emptySet();
 
+	private ObjectId localityTip;
+
 	private ObjectIdSet[] excludeInPacks;
 
 	private ObjectIdSet excludeInPackLast;
 
 	private Deflater myDeflater;
 
+	private ParallelDeflater parallelDeflater;
+
 	private final ObjectReader reader;
 
 	/** {@link #reader} recast to the reuse interface, if it supports it. */
@@ -254,6 +265,13 @@ public static Iterable<PackWriter> getInstances() {
 
 	private boolean useCachedPacks;
 
+	private boolean pipelineWrite;
+
+	private FilterSpec filterSpec;
+
+	/** Trees and blobs within the filter's depth limit, if it has one. */
+	private Set<ObjectId> withinDepth;
+
 	private boolean ignoreMissingUninteresting = true;
 
 	private boolean pruneCurrentObjectList;
@@ -264,6 +282,8 @@ public static Iterable<PackWriter> getInstances() {
 
 	private Collection<? extends ObjectId> unshallowObjects;
 
+	private Collection<? extends ObjectId> shallowObjects;
+
 	/**
 	 * Create writer for specified repository.
 	 * <p>
@@ -441,6 +461,45 @@ public void setUseCachedPacks(boolean useCached) {
 		useCachedPacks = useCached;
 	}
 
+	/** @return true if writing may start before delta search completes. */
+	public boolean isPipelineWrite() {
+		return pipelineWrite;
+	}
+
+	/**
+	 * Overlap delta compression with writing of the pack stream.
+	 * <p>
+	 * Commits and annotated tags are never delta compressed by the writer, so
+	 * they can be sent while the delta search for trees and blobs runs on a
+	 * background thread. This shortens the time to the first byte when the
+	 * stream is sent to a network peer. Progress for the objects written
+	 * early is reported once the writing phase begins.
+	 * <p>
+	 * The search runs on the executor of the {@link PackConfig}, if one was
+	 * set. A multi-threaded search schedules its workers on that same
+	 * executor, so it must be able to run more than one task at a time.
+	 *
+	 * @param pipeline
+	 *            true to start writing before delta search completes.
+	 */
+	public void setPipelineWrite(boolean pipeline) {
+		pipelineWrite = pipeline;
+	}
+
+	/**
+	 * Set the filter of a partial clone.
+	 * <p>
+	 * Trees and blobs rejected by the filter are left out of the pack, unless
+	 * they are directly wanted. Cached packs are not used while a filter is
+	 * set, as they hold every object.
+	 *
+	 * @param filter
+	 *            the filter; null to include all objects.
+	 */
+	public void setFilterSpec(FilterSpec filter) {
+		filterSpec = filter;
+	}
+
 	/**
 	 * @return true to ignore objects that are uninteresting and also not found
 	 *         on local disk; false to throw a {@link MissingObjectException}
@@ -479,6 +538,20 @@ public void setTagTargets(Set<ObjectId> objects) {
 		tagTargets = objects;
 	}
 
+	/**
+	 * Set the commit whose checkout should read a contiguous pack region.
+	 * <p>
+	 * Only used if {@link PackConfig#isLocalityOrder()} is enabled. Callers
+	 * typically supply the commit the remote's {@code HEAD} points at. If the
+	 * commit is not part of the pack, the default order is used.
+	 *
+	 * @param tip
+	 *            the commit to cluster trees and blobs for; null to disable.
+	 */
+	public void setLocalityTip(AnyObjectId tip) {
+		localityTip = tip != null ? tip.copy() : null;
+	}
+
 	/**
 	 * Configure this pack for a shallow clone.
 	 *
@@ -495,6 +568,25 @@ public void setShallowPack(int depth,
 		this.unshallowObjects = unshallow;
 	}
 
+	/**
+	 * Configure this pack for a shallow clone cut at a set of commits.
+	 * <p>
+	 * Used when the client limits history by time or by refs it does not want,
+	 * rather than by depth.
+	 *
+	 * @param shallow
+	 *            commits the client will record as shallow; none of their
+	 *            parents are sent through them
+	 * @param unshallow
+	 *            objects which used to be shallow on the client, but are being
+	 *            extended as part of this fetch
+	 */
+	public void setShallowPack(Collection<? extends ObjectId> shallow,
+			Collection<? extends ObjectId> unshallow) {
+		setShallowPack(Integer.MAX_VALUE, unshallow);
+		this.shallowObjects = shallow;
+	}
+
 	/**
 	 * Returns objects number in a pack file that was created by this writer.
 	 *
@@ -875,7 +967,8 @@ private void endPhase(ProgressMonitor monitor) {
 	 * <p>
 	 * At first, this method collects and sorts objects to pack, then deltas
 	 * search is performed if set up accordingly, finally pack stream is
-	 * written.
+	 * written. With {@link #setPipelineWrite(boolean)} the delta search runs
+	 * concurrently with writing the commits and tags.
 	 * </p>
 	 * <p>
 	 * All reused objects data checksum (Adler32/CRC32) is computed and
@@ -921,21 +1014,63 @@ public void writePack(ProgressMonitor compressMonitor,
 
 		if (needSearchForReuse)
 			searchForReuse(compressMonitor);
-		if (config.isDeltaCompress())
-			searchForDeltas(compressMonitor);
 
-		final PackOutputStream out = new PackOutputStream(writeMonitor,
-				packStream, this);
-
-		long objCnt = getObjectCount();
-		stats.totalObjects = objCnt;
-		beginPhase(PackingPhase.WRITING, writeMonitor, objCnt);
-		long writeStart = System.currentTimeMillis();
+		Future<?> search = null;
+		CancelProgressMonitor searchMonitor = null;
+		if (config.isDeltaCompress()) {
+			if (pipelineWrite
+					&& (!objectsLists[Constants.OBJ_COMMIT].isEmpty()
+					|| !objectsLists[Constants.OBJ_TAG].isEmpty())) {
+				searchMonitor = new CancelProgressMonitor(compressMonitor);
+				search = startDeltaSearch(searchMonitor);
+			} else
+				searchForDeltas(compressMonitor, reader);
+		}
 
-		out.writeFileHeader(PACK_VERSION_GENERATED, objCnt);
-		out.flush();
+		try {
+			PendingProgressMonitor pending = null;
+			if (search != null)
+				pending = new PendingProgressMonitor(writeMonitor);
+			else if (config.isLocalityOrder() && localityTip != null)
+				orderForLocality();
+
+			final PackOutputStream out = new PackOutputStream(
+					pending != null ? pending : writeMonitor, packStream, this);
+
+			long objCnt = getObjectCount();
+			stats.totalObjects = objCnt;
+			if (search == null)
+				beginPhase(PackingPhase.WRITING, writeMonitor, objCnt);
+			long writeStart = System.currentTimeMillis();
+
+			out.writeFileHeader(PACK_VERSION_GENERATED, objCnt);
+			out.flush();
+
+			writeObjects(out, objectsLists[Constants.OBJ_COMMIT]);
+			writeObjects(out, objectsLists[Constants.OBJ_TAG]);
+			if (search != null) {
+				out.flush();
+				awaitDeltaSearch(search);
+				search = null;
+				if (config.isLocalityOrder() && localityTip != null)
+					orderForLocality();
+				beginPhase(PackingPhase.WRITING, writeMonitor, objCnt);
+				pending.beginWriting();
+			}
+			writeObjects(out, objectsLists[Constants.OBJ_TREE]);
+			writeObjects(out, objectsLists[Constants.OBJ_BLOB]);
+			finishPack(out, writeStart);
+		} finally {
+			if (search != null) {
+				searchMonitor.cancel();
+				search.cancel(true);
+			}
+		}
+		endPhase(writeMonitor);
+	}
 
-		writeObjects(out);
+	private void finishPack(PackOutputStream out, long writeStart)
+			throws IOException {
 		if (!edgeObjects.isEmpty() || !cachedPacks.isEmpty()) {
 			for (Statistics.ObjectType typeStat : stats.objectTypes) {
 				if (typeStat == null)
@@ -969,7 +1104,57 @@ public void writePack(ProgressMonitor compressMonitor,
 		}
 
 		reader.release();
-		endPhase(writeMonitor);
+	}
+
+	private Future<?> startDeltaSearch(final ProgressMonitor monitor) {
+		// The writer keeps using this.reader for commits and tags, so the
+		// search needs its own reader. The search only modifies trees,
+		// blobs and edges, which are not written until it completes.
+		//
+		final ObjectReader or = reader.newReader();
+		FutureTask<Object> task = new FutureTask<Object>(
+				new Callable<Object>() {
+					public Object call() throws IOException {
+						try {
+							searchForDeltas(monitor, or);
+						} finally {
+							or.release();
+						}
+						return null;
+					}
+				});
+
+		Executor executor = config.getExecutor();
+		if (executor != null)
+			executor.execute(task);
+		else {
+			Thread t = new Thread(task, "JGit-DeltaSearch"); //$NON-NLS-1$
+			t.setDaemon(true);
+			t.start();
+		}
+		return task;
+	}
+
+	private static void awaitDeltaSearch(Future<?> search) throws IOException {
+		try {
+			search.get();
+		} catch (InterruptedException e) {
+			search.cancel(true);
+			throw new IOException(
+					JGitText.get().packingCancelledDuringObjectsWriting);
+		} catch (ExecutionException failed) {
+			Throwable err = failed.getCause();
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			if (err instanceof IOException)
+				throw (IOException) err;
+
+			IOException fail = new IOException(err.getMessage());
+			fail.initCause(err);
+			throw fail;
+		}
 	}
 
 	/**
@@ -1041,7 +1226,7 @@ private void searchForReuse(ProgressMonitor monitor, List<ObjectToPack> list)
 			pruneEdgesFromObjectList(list);
 	}
 
-	private void searchForDeltas(ProgressMonitor monitor)
+	private void searchForDeltas(ProgressMonitor monitor, ObjectReader or)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
 		// Commits and annotated tags tend to have too many differences to
@@ -1077,7 +1262,7 @@ private void searchForDeltas(ProgressMonitor monitor)
 		//
 		final long sizingStart = System.currentTimeMillis();
 		beginPhase(PackingPhase.GETTING_SIZES, monitor, cnt);
-		AsyncObjectSizeQueue<ObjectToPack> sizeQueue = reader.getObjectSize(
+		AsyncObjectSizeQueue<ObjectToPack> sizeQueue = or.getObjectSize(
 				Arrays.<ObjectToPack> asList(list).subList(0, cnt), false);
 		try {
 			final long limit = config.getBigFileThreshold();
@@ -1168,7 +1353,7 @@ public int compare(ObjectToPack a, ObjectToPack b) {
 
 		final long searchStart = System.currentTimeMillis();
 		beginPhase(PackingPhase.COMPRESSING, monitor, nonEdgeCnt);
-		searchForDeltas(monitor, list, cnt);
+		searchForDeltas(monitor, or, list, cnt);
 		endPhase(monitor);
 		stats.deltaSearchNonEdgeObjects = nonEdgeCnt;
 		stats.timeCompressing = System.currentTimeMillis() - searchStart;
@@ -1191,7 +1376,7 @@ private int findObjectsNeedingDelta(ObjectToPack[] list, int cnt, int type) {
 	}
 
 	private void searchForDeltas(final ProgressMonitor monitor,
-			final ObjectToPack[] list, final int cnt)
+			final ObjectReader or, final ObjectToPack[] list, final int cnt)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			LargeObjectException, IOException {
 		int threads = config.getThreads();
@@ -1200,7 +1385,7 @@ private void searchForDeltas(final ProgressMonitor monitor,
 
 		if (threads <= 1 || cnt <= 2 * config.getDeltaSearchWindowSize()) {
 			DeltaCache dc = new DeltaCache(config);
-			DeltaWindow dw = new DeltaWindow(config, dc, reader);
+			DeltaWindow dw = new DeltaWindow(config, dc, or);
 			dw.search(monitor, list, 0, cnt);
 			return;
 		}
@@ -1242,7 +1427,7 @@ private void searchForDeltas(final ProgressMonitor monitor,
 				batchSize = end - start;
 			}
 			i += batchSize;
-			myTasks.add(new DeltaTask(config, reader, dc, pm, batchSize, start, list));
+			myTasks.add(new DeltaTask(config, or, dc, pm, batchSize, start, list));
 		}
 		pm.startWorkers(myTasks.size());
 
@@ -1341,11 +1526,65 @@ private void runTasks(ExecutorService pool, ThreadSafeProgressMonitor pm,
 		}
 	}
 
-	private void writeObjects(PackOutputStream out) throws IOException {
-		writeObjects(out, objectsLists[Constants.OBJ_COMMIT]);
-		writeObjects(out, objectsLists[Constants.OBJ_TAG]);
-		writeObjects(out, objectsLists[Constants.OBJ_TREE]);
-		writeObjects(out, objectsLists[Constants.OBJ_BLOB]);
+	private void orderForLocality() throws IOException {
+		ObjectToPack tip = objectsMap.get(localityTip);
+		if (tip == null || tip.getType() != Constants.OBJ_COMMIT)
+			return;
+
+		RevTree root = new RevWalk(reader).parseCommit(tip).getTree();
+		List<ObjectToPack> trees = new ArrayList<ObjectToPack>();
+		List<ObjectToPack> blobs = new ArrayList<ObjectToPack>();
+		Set<ObjectToPack> seen = new HashSet<ObjectToPack>();
+		addForLocality(root, trees, seen);
+
+		TreeWalk tw = new TreeWalk(reader);
+		try {
+			tw.reset(root);
+			while (tw.next()) {
+				switch (tw.getRawMode(0) & FileMode.TYPE_MASK) {
+				case FileMode.TYPE_TREE:
+					addForLocality(tw.getObjectId(0), trees, seen);
+					tw.enterSubtree();
+					break;
+				case FileMode.TYPE_FILE:
+				case FileMode.TYPE_SYMLINK:
+					addForLocality(tw.getObjectId(0), blobs, seen);
+					break;
+				default:
+					break;
+				}
+			}
+		} finally {
+			tw.release();
+		}
+
+		// Trees are written before blobs, so putting the tip's trees at
+		// the end of their list and its blobs at the start of theirs makes
+		// the whole checkout one contiguous region of the pack.
+		BlockList<ObjectToPack> list = objectsLists[Constants.OBJ_TREE];
+		BlockList<ObjectToPack> r = new BlockList<ObjectToPack>(list.size());
+		for (ObjectToPack otp : list)
+			if (!seen.contains(otp))
+				r.add(otp);
+		r.addAll(trees);
+		list.clear();
+		list.addAll(r);
+
+		list = objectsLists[Constants.OBJ_BLOB];
+		r = new BlockList<ObjectToPack>(list.size());
+		r.addAll(blobs);
+		for (ObjectToPack otp : list)
+			if (!seen.contains(otp))
+				r.add(otp);
+		list.clear();
+		list.addAll(r);
+	}
+
+	private void addForLocality(AnyObjectId id, List<ObjectToPack> list,
+			Set<ObjectToPack> seen) {
+		ObjectToPack otp = objectsMap.get(id);
+		if (otp != null && !otp.isEdge() && seen.add(otp))
+			list.add(otp);
 	}
 
 	private void writeObjects(PackOutputStream out, List<ObjectToPack> list)
@@ -1356,17 +1595,38 @@ private void writeObjects(PackOutputStream out, List<ObjectToPack> list)
 		typeStats = stats.objectTypes[list.get(0).getType()];
 		long beginOffset = out.length();
 
-		if (reuseSupport != null) {
-			reuseSupport.writeObjects(out, list);
-		} else {
-			for (ObjectToPack otp : list)
-				out.writeObject(otp);
+		if (config.isParallelDeflate())
+			startParallelDeflate(list);
+		try {
+			if (reuseSupport != null) {
+				reuseSupport.writeObjects(out, list);
+			} else {
+				for (ObjectToPack otp : list)
+					out.writeObject(otp);
+			}
+		} finally {
+			if (parallelDeflater != null) {
+				parallelDeflater.stop();
+				parallelDeflater = null;
+			}
 		}
 
 		typeStats.bytes += out.length() - beginOffset;
 		typeStats.cntObjects = list.size();
 	}
 
+	private void startParallelDeflate(List<ObjectToPack> list) {
+		ParallelDeflater pd = new ParallelDeflater(config, reader, list);
+		if (!pd.hasWork())
+			return;
+
+		int threads = config.getThreads();
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		pd.start(threads);
+		parallelDeflater = pd;
+	}
+
 	void writeObject(PackOutputStream out, ObjectToPack otp) throws IOException {
 		if (!otp.isWritten())
 			writeObjectImpl(out, otp);
@@ -1445,6 +1705,17 @@ private void writeBase(PackOutputStream out, ObjectToPack base)
 
 	private void writeWholeObjectDeflate(PackOutputStream out,
 			final ObjectToPack otp) throws IOException {
+		if (parallelDeflater != null) {
+			ParallelDeflater.Result r = parallelDeflater.take(otp);
+			if (r != null) {
+				out.resetCRC32();
+				otp.setOffset(out.length());
+				out.writeHeader(otp, r.inflatedSize);
+				out.write(r.data);
+				return;
+			}
+		}
+
 		final Deflater deflater = deflater();
 		final ObjectLoader ldr = reader.open(otp, otp.getType());
 
@@ -1558,7 +1829,7 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 		int haveEst = have.size();
 		if (have.isEmpty()) {
 			walker.sort(RevSort.COMMIT_TIME_DESC);
-			if (useCachedPacks && reuseSupport != null) {
+			if (useCachedPacks && reuseSupport != null && filterSpec == null) {
 				Set<ObjectId> need = new HashSet<ObjectId>(want);
 				List<CachedPack> shortCircuit = new LinkedList<CachedPack>();
 
@@ -1647,6 +1918,10 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 				for (ObjectId id : unshallowObjects)
 					depthWalk.markUnshallow(walker.parseAny(id));
 			}
+			if (shallowObjects != null) {
+				for (ObjectId id : shallowObjects)
+					depthWalk.markShallow(walker.parseAny(id));
+			}
 		} else {
 			for (RevObject obj : wantObjs)
 				walker.markStart(obj);
@@ -1724,6 +1999,9 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 				}
 			}
 		}
+		if (filterSpec != null && 0 <= filterSpec.getTreeDepthLimit())
+			withinDepth = findWithinDepth(commits, wantObjs,
+					filterSpec.getTreeDepthLimit());
 		commits = null;
 
 		if (thin && !baseTrees.isEmpty()) {
@@ -1733,7 +2011,7 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 			while ((o = walker.nextObject()) != null) {
 				if (o.has(RevFlag.UNINTERESTING))
 					continue;
-				if (exclude(o))
+				if (exclude(o) || omit(o, want))
 					continue;
 
 				int pathHash = walker.getPathHashCode();
@@ -1748,7 +2026,7 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 			while ((o = walker.nextObject()) != null) {
 				if (o.has(RevFlag.UNINTERESTING))
 					continue;
-				if (exclude(o))
+				if (exclude(o) || omit(o, want))
 					continue;
 				addObject(o, walker.getPathHashCode());
 				countingMonitor.update(1);
@@ -1836,6 +2114,61 @@ private void addObject(final RevObject object, final int pathHashCode) {
 		objectsMap.add(otp);
 	}
 
+	private boolean omit(RevObject o, Set<? extends ObjectId> want)
+			throws IOException {
+		if (filterSpec == null || want.contains(o))
+			return false;
+
+		if (withinDepth != null && !withinDepth.contains(o))
+			return true;
+
+		long blobLimit = filterSpec.getBlobLimit();
+		if (o.getType() == Constants.OBJ_BLOB && 0 <= blobLimit)
+			return blobLimit == 0
+					|| blobLimit <= reader.getObjectSize(o, Constants.OBJ_BLOB);
+		return false;
+	}
+
+	private Set<ObjectId> findWithinDepth(List<RevCommit> commits,
+			List<RevObject> wantObjs, long maxDepth) throws IOException {
+		// The walk reports a tree only for the first path it is found
+		// at, which need not be its shallowest. Visiting level by level
+		// finds every object first at its smallest depth instead.
+		Set<ObjectId> kept = new HashSet<ObjectId>();
+		List<ObjectId> level = new ArrayList<ObjectId>();
+		for (RevCommit c : commits)
+			level.add(c.getTree());
+		for (RevObject o : wantObjs) {
+			if (o.getType() == Constants.OBJ_TREE)
+				level.add(o);
+		}
+
+		CanonicalTreeParser p = new CanonicalTreeParser();
+		for (long depth = 0; depth < maxDepth && !level.isEmpty(); depth++) {
+			List<ObjectId> next = new ArrayList<ObjectId>();
+			for (ObjectId tree : level) {
+				if (!kept.add(tree) || maxDepth <= depth + 1)
+					continue;
+				p.reset(reader, tree);
+				for (; !p.eof(); p.next()) {
+					switch (p.getEntryRawMode() & FileMode.TYPE_MASK) {
+					case FileMode.TYPE_TREE:
+						next.add(p.getEntryObjectId());
+						break;
+					case FileMode.TYPE_FILE:
+					case FileMode.TYPE_SYMLINK:
+						kept.add(p.getEntryObjectId());
+						break;
+					default:
+						break;
+					}
+				}
+			}
+			level = next;
+		}
+		return kept;
+	}
+
 	private boolean exclude(AnyObjectId objectId) {
 		if (excludeInPacks == null)
 			return false;
@@ -1930,6 +2263,84 @@ private boolean reuseDeltaFor(ObjectToPack otp) {
 		}
 	}
 
+	/** Lets the writer stop a delta search running in the background. */
+	private static class CancelProgressMonitor implements ProgressMonitor {
+		private final ProgressMonitor monitor;
+
+		private volatile boolean cancelled;
+
+		CancelProgressMonitor(ProgressMonitor monitor) {
+			this.monitor = monitor;
+		}
+
+		void cancel() {
+			cancelled = true;
+		}
+
+		public void start(int totalTasks) {
+			monitor.start(totalTasks);
+		}
+
+		public void beginTask(String title, int totalWork) {
+			monitor.beginTask(title, totalWork);
+		}
+
+		public void update(int completed) {
+			monitor.update(completed);
+		}
+
+		public void endTask() {
+			monitor.endTask();
+		}
+
+		public boolean isCancelled() {
+			return cancelled || monitor.isCancelled();
+		}
+	}
+
+	/** Holds back write progress until the writing phase has begun. */
+	private static class PendingProgressMonitor implements ProgressMonitor {
+		private final ProgressMonitor monitor;
+
+		private boolean writing;
+
+		private int pending;
+
+		PendingProgressMonitor(ProgressMonitor monitor) {
+			this.monitor = monitor;
+		}
+
+		void beginWriting() {
+			writing = true;
+			if (0 < pending)
+				monitor.update(pending);
+			pending = 0;
+		}
+
+		public void start(int totalTasks) {
+			monitor.start(totalTasks);
+		}
+
+		public void beginTask(String title, int totalWork) {
+			monitor.beginTask(title, totalWork);
+		}
+
+		public void update(int completed) {
+			if (writing)
+				monitor.update(completed);
+			else
+				pending += completed;
+		}
+
+		public void endTask() {
+			monitor.endTask();
+		}
+
+		public boolean isCancelled() {
+			return monitor.isCancelled();
+		}
+	}
+
 	/** Summary of how PackWriter created the pack. */
 	public static class Statistics {
 		/** Statistics about a single class of object. */
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.pack;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.util.TemporaryBuffer;
+
+/**
+ * Compresses whole objects on background threads ahead of the pack writer.
+ * <p>
+ * Worker threads claim objects from the list in the order the writer will
+ * output them, deflate each into a private buffer, and hold the result until
+ * the writer thread asks for it with {@link #take(ObjectToPack)}. The total
+ * number of inflated bytes claimed but not yet taken by the writer is kept
+ * below {@link PackConfig#getDeflateBufferLimit()}, bounding the memory used
+ * by compressed data waiting for its turn to be written.
+ * <p>
+ * Only the compressed payload is prepared in the background. The object
+ * header, including any {@code OFS_DELTA} base offset, is still produced by
+ * the writer thread once the object's final position in the stream is known.
+ */
+final class ParallelDeflater {
+	private static final int PENDING = 0;
+
+	private static final int RUNNING = 1;
+
+	private static final int DONE = 2;
+
+	/** Deflated form of one object, ready to be copied into the pack. */
+	static final class Result {
+		final long inflatedSize;
+
+		final byte[] data;
+
+		Result(long inflatedSize, byte[] data) {
+			this.inflatedSize = inflatedSize;
+			this.data = data;
+		}
+	}
+
+	private static final class Slot {
+		int state;
+
+		long reserved;
+
+		Result result;
+	}
+
+	private final PackConfig config;
+
+	private final ObjectReader templateReader;
+
+	private final List<ObjectToPack> list;
+
+	private final Map<ObjectToPack, Slot> slots;
+
+	private final long bufferLimit;
+
+	private int next;
+
+	private long inFlight;
+
+	private Slot writerWaitingFor;
+
+	private boolean stopped;
+
+	private int runningWorkers;
+
+	private ExecutorService ownPool;
+
+	ParallelDeflater(PackConfig config, ObjectReader reader,
+			List<ObjectToPack> list) {
+		this.config = config;
+		this.templateReader = reader;
+		this.list = list;
+		this.slots = new HashMap<ObjectToPack, Slot>(list.size() * 2);
+		this.bufferLimit = config.getDeflateBufferLimit();
+
+		for (ObjectToPack otp : list)
+			if (isCandidate(otp))
+				slots.put(otp, new Slot());
+	}
+
+	/** @return true if any object in the list can be compressed early. */
+	boolean hasWork() {
+		return !slots.isEmpty();
+	}
+
+	/**
+	 * Start the worker threads.
+	 *
+	 * @param threads
+	 *            number of workers to run.
+	 */
+	void start(int threads) {
+		Executor executor = config.getExecutor();
+		if (!(executor instanceof ExecutorService)) {
+			// Workers block on the writer, so they must run asynchronously.
+			ownPool = Executors.newFixedThreadPool(threads);
+			executor = ownPool;
+		}
+
+		synchronized (this) {
+			runningWorkers = threads;
+		}
+		for (int i = 0; i < threads; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					runWorker();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Obtain the compressed form of an object, waiting for it if a worker is
+	 * still deflating it.
+	 *
+	 * @param otp
+	 *            the object the writer is about to output.
+	 * @return the deflated object; null if the writer must compress the
+	 *         object itself.
+	 * @throws IOException
+	 *             the writer was interrupted while waiting.
+	 */
+	synchronized Result take(ObjectToPack otp) throws IOException {
+		Slot s = slots.remove(otp);
+		if (s == null)
+			return null;
+
+		if (s.state == PENDING) {
+			// No worker has reached this object yet, the writer is
+			// ahead of the pipeline and will compress it inline.
+			return null;
+		}
+
+		writerWaitingFor = s;
+		notifyAll();
+		try {
+			while (s.state == RUNNING)
+				wait();
+		} catch (InterruptedException e) {
+			throw new IOException(
+					JGitText.get().packingCancelledDuringObjectsWriting);
+		} finally {
+			writerWaitingFor = null;
+		}
+
+		inFlight -= s.reserved;
+		notifyAll();
+		return s.result;
+	}
+
+	/** Stop all workers and discard any compressed data not yet written. */
+	void stop() {
+		synchronized (this) {
+			stopped = true;
+			slots.clear();
+			notifyAll();
+			while (0 < runningWorkers) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+		if (ownPool != null) {
+			ownPool.shutdown();
+			ownPool = null;
+		}
+	}
+
+	private static boolean isCandidate(ObjectToPack otp) {
+		return !otp.isWritten() && !otp.isReuseAsIs()
+				&& !otp.isDeltaRepresentation() && !otp.isEdge();
+	}
+
+	private void runWorker() {
+		ObjectReader or = templateReader.newReader();
+		Deflater deflater = new Deflater(config.getCompressionLevel());
+		try {
+			for (;;) {
+				ObjectToPack otp;
+				Slot s;
+				synchronized (this) {
+					otp = null;
+					s = null;
+					while (!stopped && next < list.size()) {
+						ObjectToPack c = list.get(next++);
+						Slot cs = slots.get(c);
+						if (cs != null && cs.state == PENDING) {
+							cs.state = RUNNING;
+							otp = c;
+							s = cs;
+							break;
+						}
+					}
+					if (s == null)
+						return;
+				}
+
+				Result r;
+				try {
+					r = deflate(or, deflater, otp, s);
+				} catch (IOException err) {
+					// Let the writer thread retry and report the error.
+					r = null;
+				} catch (RuntimeException err) {
+					r = null;
+				}
+
+				synchronized (this) {
+					if (r == null) {
+						inFlight -= s.reserved;
+						s.reserved = 0;
+					}
+					s.result = r;
+					s.state = DONE;
+					notifyAll();
+				}
+			}
+		} finally {
+			deflater.end();
+			or.release();
+			synchronized (this) {
+				runningWorkers--;
+				notifyAll();
+			}
+		}
+	}
+
+	private Result deflate(ObjectReader or, Deflater deflater,
+			ObjectToPack otp, Slot s) throws IOException {
+		ObjectLoader ldr = or.open(otp, otp.getType());
+		long sz = ldr.getSize();
+		if (ldr.isLarge() || config.getBigFileThreshold() <= sz
+				|| bufferLimit < sz)
+			return null;
+
+		if (!reserve(s, sz))
+			return null;
+
+		TemporaryBuffer.Heap buf = new TemporaryBuffer.Heap(
+				Integer.MAX_VALUE);
+		deflater.reset();
+		DeflaterOutputStream dst = new DeflaterOutputStream(buf, deflater);
+		ldr.copyTo(dst);
+		dst.finish();
+		return new Result(sz, buf.toByteArray());
+	}
+
+	private synchronized boolean reserve(Slot s, long sz) {
+		// The writer may wait for this object; let it exceed the limit
+		// rather than deadlock behind objects claimed later in the list.
+		while (!stopped && bufferLimit < inFlight + sz
+				&& writerWaitingFor != s) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		if (stopped)
+			return false;
+		s.reserved = sz;
+		inFlight += sz;
+		return true;
+	}
+}
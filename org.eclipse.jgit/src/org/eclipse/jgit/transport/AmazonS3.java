@@ -49,13 +49,13 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.URL;
 import java.net.URLConnection;
-import java.security.DigestOutputStream;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -75,6 +75,13 @@
 import java.util.SortedMap;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -109,6 +116,10 @@
  * compatible with <a href="http://jets3t.s3.amazonaws.com/index.html">jets3t</a>,
  * a popular Java based Amazon S3 client library. Enabling encryption can hide
  * sensitive data from the operators of the S3 service.
+ * <p>
+ * Large objects are written with the S3 multipart upload API. Parts are
+ * uploaded by several threads at once, and each part is retried on its own
+ * after a transient failure.
  */
 public class AmazonS3 {
 	private static final Set<String> SIGNED_HEADERS;
@@ -117,6 +128,12 @@ public class AmazonS3 {
 
 	private static final String DOMAIN = "s3.amazonaws.com"; //$NON-NLS-1$
 
+	/** Smallest part, but the last, that Amazon S3 accepts. */
+	private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+	/** Query parameters which are part of the signed resource. */
+	private static final Set<String> SIGNED_SUBRESOURCES;
+
 	private static final String X_AMZ_ACL = "x-amz-acl"; //$NON-NLS-1$
 
 	private static final String X_AMZ_META = "x-amz-meta-"; //$NON-NLS-1$
@@ -126,6 +143,11 @@ public class AmazonS3 {
 		SIGNED_HEADERS.add("content-type"); //$NON-NLS-1$
 		SIGNED_HEADERS.add("content-md5"); //$NON-NLS-1$
 		SIGNED_HEADERS.add("date"); //$NON-NLS-1$
+
+		SIGNED_SUBRESOURCES = new HashSet<String>();
+		SIGNED_SUBRESOURCES.add("partNumber"); //$NON-NLS-1$
+		SIGNED_SUBRESOURCES.add("uploadId"); //$NON-NLS-1$
+		SIGNED_SUBRESOURCES.add("uploads"); //$NON-NLS-1$
 	}
 
 	private static boolean isSignedHeader(final String name) {
@@ -182,6 +204,21 @@ private static MessageDigest newMD5() {
 	/** Encryption algorithm, may be a null instance that provides pass-through. */
 	private final WalkEncryption encryption;
 
+	/** Host name of the S3 service. */
+	private final String domain;
+
+	/** Port of the S3 service. */
+	private final int port;
+
+	/** Whether the bucket is addressed by host name, or else by path. */
+	private final boolean dnsBuckets;
+
+	/** Size of each part of a multipart upload, but the last. */
+	private final int partSize;
+
+	/** Number of parts of a single object uploaded at once. */
+	private final int uploadThreads;
+
 	/**
 	 * Create a new S3 client for the supplied user information.
 	 * <p>
@@ -204,6 +241,26 @@ private static MessageDigest newMD5() {
 	 * # End-to-end encryption (hides content from S3 owners)
 	 * password: &lt;encryption pass-phrase&gt;
 	 * crypto.algorithm: PBEWithMD5AndDES
+	 *
+	 * # Objects larger than this are uploaded in parts of this many bytes.
+	 * # Amazon S3 requires at least 5 MiB, compatible services may accept
+	 * # less. Defaults to 8 MiB.
+	 * multipart.part-size: 8388608
+	 *
+	 * # Number of parts of one object uploaded at once.
+	 * multipart.threads: 4
+	 *
+	 * # Number of objects fetched, and files pushed, at once by
+	 * # TransportAmazonS3.
+	 * fetch.threads: 8
+	 * push.threads: 4
+	 *
+	 * # Service location, for S3 compatible services.
+	 * s3service.s3-endpoint: s3.amazonaws.com
+	 * s3service.s3-endpoint-http-port: 80
+	 *
+	 * # Address buckets by path instead of by host name.
+	 * s3service.disable-dns-buckets: false
 	 * </pre>
 	 *
 	 * @param props
@@ -250,9 +307,26 @@ else if (StringUtils.equalsIgnoreCase("PUBLIC_READ", pacl)) //$NON-NLS-1$
 
 		maxAttempts = Integer.parseInt(props.getProperty(
 				"httpclient.retry-max", "3")); //$NON-NLS-1$ //$NON-NLS-2$
+		partSize = Integer.parseInt(props.getProperty(
+				"multipart.part-size", String.valueOf(8 * 1024 * 1024))); //$NON-NLS-1$
+		uploadThreads = Integer.parseInt(props.getProperty(
+				"multipart.threads", "4")); //$NON-NLS-1$ //$NON-NLS-2$
+		domain = props.getProperty("s3service.s3-endpoint", DOMAIN); //$NON-NLS-1$
+		if (partSize <= 0 || (partSize < MIN_PART_SIZE && isAmazon(domain)))
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().amazonS3PartSizeTooSmall,
+					Integer.valueOf(partSize), Integer.valueOf(MIN_PART_SIZE)));
+		port = Integer.parseInt(props.getProperty(
+				"s3service.s3-endpoint-http-port", "80")); //$NON-NLS-1$ //$NON-NLS-2$
+		dnsBuckets = !Boolean.valueOf(props.getProperty(
+				"s3service.disable-dns-buckets")).booleanValue(); //$NON-NLS-1$
 		proxySelector = ProxySelector.getDefault();
 	}
 
+	private static boolean isAmazon(String host) {
+		return DOMAIN.equals(host) || host.endsWith(".amazonaws.com"); //$NON-NLS-1$
+	}
+
 	/**
 	 * Get the content of a bucket object.
 	 *
@@ -423,48 +497,34 @@ public void put(final String bucket, final String key, final byte[] data)
 	/**
 	 * Atomically create or replace a single large object.
 	 * <p>
-	 * Initially the returned output stream buffers data into memory, but if the
-	 * total number of written bytes starts to exceed an internal limit the data
-	 * is spooled to a temporary file on the local drive.
-	 * <p>
-	 * Network transmission is attempted only when <code>close()</code> gets
-	 * called at the end of output. Closing the returned stream can therefore
-	 * take significant time, especially if the written content is very large.
+	 * The returned output stream buffers one part of the object in memory.
+	 * If the content fits in a single part it is transmitted when
+	 * <code>close()</code> gets called. Larger content is transmitted as a
+	 * multipart upload while it is being written, with up to
+	 * <code>multipart.threads</code> parts in flight at once. The object only
+	 * becomes visible once <code>close()</code> completes the upload.
 	 * <p>
 	 * End-to-end data integrity is assured by internally computing the MD5
-	 * checksum of the supplied data and transmitting the checksum along with
-	 * the data itself.
+	 * checksum of the supplied data, or of each part, and transmitting the
+	 * checksum along with the data itself.
 	 *
 	 * @param bucket
 	 *            name of the bucket storing the object.
 	 * @param key
 	 *            key of the object within its bucket.
 	 * @param monitor
-	 *            (optional) progress monitor to post upload completion to
-	 *            during the stream's close method.
+	 *            (optional) progress monitor to post upload completion to.
 	 * @param monitorTask
-	 *            (optional) task name to display during the close method.
-	 * @return a stream which accepts the new data, and transmits once closed.
+	 *            (optional) task name to display during the upload.
+	 * @return a stream which accepts the new data, and transmits it.
 	 * @throws IOException
 	 *             if encryption was enabled it could not be configured.
 	 */
 	public OutputStream beginPut(final String bucket, final String key,
 			final ProgressMonitor monitor, final String monitorTask)
 			throws IOException {
-		final MessageDigest md5 = newMD5();
-		final TemporaryBuffer buffer = new TemporaryBuffer.LocalFile() {
-			@Override
-			public void close() throws IOException {
-				super.close();
-				try {
-					putImpl(bucket, key, md5.digest(), this, monitor,
-							monitorTask);
-				} finally {
-					destroy();
-				}
-			}
-		};
-		return encryption.encrypt(new DigestOutputStream(buffer, md5));
+		return encryption.encrypt(new MultipartOutputStream(bucket, key,
+				monitor, monitorTask));
 	}
 
 	private void putImpl(final String bucket, final String key,
@@ -508,6 +568,150 @@ private void putImpl(final String bucket, final String key,
 		throw maxAttempts("Writing", key);
 	}
 
+	private String initiateMultipart(final String bucket, final String key)
+			throws IOException {
+		final Map<String, String> args = new TreeMap<String, String>();
+		args.put("uploads", null); //$NON-NLS-1$
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("POST", bucket, key, args); //$NON-NLS-1$
+			c.setRequestProperty(X_AMZ_ACL, acl);
+			encryption.request(c, X_AMZ_META);
+			authorize(c);
+			send(c, new byte[0], 0);
+
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_OK:
+				final ElementReader r = new ElementReader("UploadId"); //$NON-NLS-1$
+				r.parse(c, "Writing", key); //$NON-NLS-1$
+				final String id = r.value;
+				if (id == null)
+					throw error("Writing", key, c); //$NON-NLS-1$
+				return id;
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error("Writing", key, c); //$NON-NLS-1$
+			}
+		}
+		throw maxAttempts("Writing", key); //$NON-NLS-1$
+	}
+
+	private String putPart(final String bucket, final String key,
+			final String uploadId, final int partNumber, final byte[] data,
+			final int len) throws IOException {
+		final MessageDigest md5 = newMD5();
+		md5.update(data, 0, len);
+		final String md5str = Base64.encodeBytes(md5.digest());
+		final String lenstr = String.valueOf(len);
+
+		final Map<String, String> args = new TreeMap<String, String>();
+		args.put("partNumber", String.valueOf(partNumber)); //$NON-NLS-1$
+		args.put("uploadId", uploadId); //$NON-NLS-1$
+		IOException lastError = null;
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("PUT", bucket, key, args); //$NON-NLS-1$
+			c.setRequestProperty("Content-Length", lenstr); //$NON-NLS-1$
+			c.setRequestProperty("Content-MD5", md5str); //$NON-NLS-1$
+			authorize(c);
+
+			final int status;
+			try {
+				send(c, data, len);
+				status = HttpSupport.response(c);
+			} catch (IOException err) {
+				// Only this part is sent again.
+				lastError = err;
+				continue;
+			}
+
+			switch (status) {
+			case HttpURLConnection.HTTP_OK:
+				return c.getHeaderField("ETag"); //$NON-NLS-1$
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error("Writing", key, c); //$NON-NLS-1$
+			}
+		}
+		final IOException err = maxAttempts("Writing", key); //$NON-NLS-1$
+		if (lastError != null)
+			err.initCause(lastError);
+		throw err;
+	}
+
+	private void completeMultipart(final String bucket, final String key,
+			final String uploadId, final List<String> etags)
+			throws IOException {
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<CompleteMultipartUpload>"); //$NON-NLS-1$
+		for (int i = 0; i < etags.size(); i++) {
+			xml.append("<Part><PartNumber>"); //$NON-NLS-1$
+			xml.append(i + 1);
+			xml.append("</PartNumber><ETag>"); //$NON-NLS-1$
+			xml.append(etags.get(i));
+			xml.append("</ETag></Part>"); //$NON-NLS-1$
+		}
+		xml.append("</CompleteMultipartUpload>"); //$NON-NLS-1$
+		final byte[] body = xml.toString().getBytes("UTF-8"); //$NON-NLS-1$
+
+		final Map<String, String> args = new TreeMap<String, String>();
+		args.put("uploadId", uploadId); //$NON-NLS-1$
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("POST", bucket, key, args); //$NON-NLS-1$
+			c.setRequestProperty("Content-Type", "application/xml"); //$NON-NLS-1$ //$NON-NLS-2$
+			authorize(c);
+			send(c, body, body.length);
+
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_OK:
+				// A failure to assemble the parts is reported by an Error
+				// document, even though the status is 200.
+				final ElementReader r = new ElementReader("Code"); //$NON-NLS-1$
+				r.parse(c, "Writing", key); //$NON-NLS-1$
+				if ("Error".equals(r.root)) { //$NON-NLS-1$
+					if ("InternalError".equals(r.value)) //$NON-NLS-1$
+						continue;
+					throw new IOException(MessageFormat.format(
+							JGitText.get().amazonS3ActionFailed, "Writing", //$NON-NLS-1$
+							key, Integer.valueOf(HttpURLConnection.HTTP_OK),
+							r.value));
+				}
+				return;
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error("Writing", key, c); //$NON-NLS-1$
+			}
+		}
+		throw maxAttempts("Writing", key); //$NON-NLS-1$
+	}
+
+	private void abortMultipart(final String bucket, final String key,
+			final String uploadId) {
+		final Map<String, String> args = new TreeMap<String, String>();
+		args.put("uploadId", uploadId); //$NON-NLS-1$
+		try {
+			final HttpURLConnection c = open("DELETE", bucket, key, args); //$NON-NLS-1$
+			authorize(c);
+			HttpSupport.response(c);
+		} catch (IOException err) {
+			// Ignore the failure, the upload already failed. The service
+			// discards the parts of abandoned uploads eventually.
+		}
+	}
+
+	private static void send(final HttpURLConnection c, final byte[] data,
+			final int len) throws IOException {
+		c.setDoOutput(true);
+		c.setFixedLengthStreamingMode(len);
+		final OutputStream os = c.getOutputStream();
+		try {
+			os.write(data, 0, len);
+		} finally {
+			os.close();
+		}
+	}
+
 	private IOException error(final String action, final String key,
 			final HttpURLConnection c) throws IOException {
 		final IOException err = new IOException(MessageFormat.format(
@@ -550,10 +754,20 @@ private HttpURLConnection open(final String method, final String bucket,
 			throws IOException {
 		final StringBuilder urlstr = new StringBuilder();
 		urlstr.append("http://"); //$NON-NLS-1$
-		urlstr.append(bucket);
-		urlstr.append('.');
-		urlstr.append(DOMAIN);
+		if (dnsBuckets) {
+			urlstr.append(bucket);
+			urlstr.append('.');
+		}
+		urlstr.append(domain);
+		if (port != 80) {
+			urlstr.append(':');
+			urlstr.append(port);
+		}
 		urlstr.append('/');
+		if (!dnsBuckets) {
+			urlstr.append(bucket);
+			urlstr.append('/');
+		}
 		if (key.length() > 0)
 			HttpSupport.encode(urlstr, key);
 		if (!args.isEmpty()) {
@@ -564,8 +778,10 @@ private HttpURLConnection open(final String method, final String bucket,
 			while (i.hasNext()) {
 				final Map.Entry<String, String> e = i.next();
 				urlstr.append(e.getKey());
-				urlstr.append('=');
-				HttpSupport.encode(urlstr, e.getValue());
+				if (e.getValue() != null) {
+					urlstr.append('=');
+					HttpSupport.encode(urlstr, e.getValue());
+				}
 				if (i.hasNext())
 					urlstr.append('&');
 			}
@@ -611,10 +827,13 @@ private void authorize(final HttpURLConnection c) throws IOException {
 			s.append('\n');
 		}
 
-		final String host = c.getURL().getHost();
-		s.append('/');
-		s.append(host.substring(0, host.length() - DOMAIN.length() - 1));
+		if (dnsBuckets) {
+			final String host = c.getURL().getHost();
+			s.append('/');
+			s.append(host.substring(0, host.length() - domain.length() - 1));
+		}
 		s.append(c.getURL().getPath());
+		appendSubresources(s, c.getURL().getQuery());
 
 		final String sec;
 		try {
@@ -629,6 +848,29 @@ private void authorize(final HttpURLConnection c) throws IOException {
 		c.setRequestProperty("Authorization", "AWS " + publicKey + ":" + sec); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
+	private static void appendSubresources(final StringBuilder s,
+			final String query) {
+		if (query == null)
+			return;
+		final SortedMap<String, String> sub = new TreeMap<String, String>();
+		for (final String p : query.split("&")) { //$NON-NLS-1$
+			final int eq = p.indexOf('=');
+			final String name = eq < 0 ? p : p.substring(0, eq);
+			if (SIGNED_SUBRESOURCES.contains(name))
+				sub.put(name, eq < 0 ? null : p.substring(eq + 1));
+		}
+		char sep = '?';
+		for (final Map.Entry<String, String> e : sub.entrySet()) {
+			s.append(sep);
+			s.append(e.getKey());
+			if (e.getValue() != null) {
+				s.append('=');
+				s.append(e.getValue());
+			}
+			sep = '&';
+		}
+	}
+
 	static Properties properties(final File authFile)
 			throws FileNotFoundException, IOException {
 		final Properties p = new Properties();
@@ -734,4 +976,241 @@ else if ("IsTruncated".equals(name)) //$NON-NLS-1$
 			data = null;
 		}
 	}
+
+	/**
+	 * Output stream sending an object as the parts of a multipart upload.
+	 * <p>
+	 * Content which fits into one part is sent by a single PUT instead.
+	 */
+	private final class MultipartOutputStream extends OutputStream {
+		private final String bucket;
+
+		private final String key;
+
+		private final ProgressMonitor monitor;
+
+		private final String monitorTask;
+
+		private final List<Future<String>> parts = new ArrayList<Future<String>>();
+
+		/** Number of {@link #parts} known to be complete. */
+		private int partsDone;
+
+		private ExecutorService pool;
+
+		private String uploadId;
+
+		private byte[] buf;
+
+		private int cnt;
+
+		private boolean closed;
+
+		MultipartOutputStream(final String bucket, final String key,
+				final ProgressMonitor monitor, final String monitorTask) {
+			this.bucket = bucket;
+			this.key = key;
+			this.monitor = monitor != null ? monitor
+					: NullProgressMonitor.INSTANCE;
+			this.monitorTask = monitorTask != null ? monitorTask
+					: MessageFormat.format(
+							JGitText.get().progressMonUploading, key);
+			this.buf = new byte[partSize];
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException {
+			while (0 < len) {
+				final int n = Math.min(len, buf.length - cnt);
+				System.arraycopy(b, off, buf, cnt, n);
+				cnt += n;
+				off += n;
+				len -= n;
+				if (cnt == buf.length)
+					sendPart();
+			}
+		}
+
+		private void sendPart() throws IOException {
+			if (uploadId == null) {
+				uploadId = initiateMultipart(bucket, key);
+				pool = newUploadPool(uploadThreads);
+				monitor.beginTask(monitorTask, ProgressMonitor.UNKNOWN);
+			}
+
+			// Bound the memory held by parts waiting for a thread.
+			while (uploadThreads <= parts.size() - partsDone)
+				awaitPart();
+
+			final byte[] data = buf;
+			final int len = cnt;
+			final int partNumber = parts.size() + 1;
+			final String id = uploadId;
+			parts.add(pool.submit(new Callable<String>() {
+				public String call() throws IOException {
+					return putPart(bucket, key, id, partNumber, data, len);
+				}
+			}));
+			buf = new byte[partSize];
+			cnt = 0;
+		}
+
+		private String awaitPart() throws IOException {
+			final Future<String> f = parts.get(partsDone);
+			final String etag;
+			try {
+				etag = f.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException(key);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				final IOException err = new IOException(key);
+				err.initCause(e.getCause());
+				throw err;
+			}
+			if (etag == null)
+				throw maxAttempts("Writing", key); //$NON-NLS-1$
+			partsDone++;
+			monitor.update(partSize / 1024);
+			return etag;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+
+			if (uploadId == null) {
+				final TemporaryBuffer.Heap data = new TemporaryBuffer.Heap(cnt);
+				data.write(buf, 0, cnt);
+				data.close();
+				final MessageDigest md5 = newMD5();
+				md5.update(buf, 0, cnt);
+				buf = null;
+				putImpl(bucket, key, md5.digest(), data, monitor, monitorTask);
+				return;
+			}
+
+			try {
+				if (0 < cnt)
+					sendPart();
+				buf = null;
+				final List<String> etags = new ArrayList<String>(parts.size());
+				for (final Future<String> f : parts) {
+					if (etags.size() < partsDone)
+						etags.add(f.get());
+					else
+						etags.add(awaitPart());
+				}
+				completeMultipart(bucket, key, uploadId, etags);
+			} catch (IOException err) {
+				abort();
+				throw err;
+			} catch (InterruptedException e) {
+				abort();
+				throw new InterruptedIOException(key);
+			} catch (ExecutionException e) {
+				// Unreachable, completed parts were already checked.
+				abort();
+				throw new IOException(key);
+			} catch (RuntimeException err) {
+				abort();
+				throw err;
+			} finally {
+				pool.shutdownNow();
+				monitor.endTask();
+			}
+		}
+
+		private void abort() {
+			for (final Future<String> f : parts)
+				f.cancel(true);
+			abortMultipart(bucket, key, uploadId);
+		}
+	}
+
+	private static ExecutorService newUploadPool(final int threads) {
+		return Executors.newFixedThreadPool(Math.max(1, threads),
+				new ThreadFactory() {
+					private final AtomicInteger cnt = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						final Thread t = new Thread(r, "JGit-S3-Upload-" //$NON-NLS-1$
+								+ cnt.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/** Reads the root element and the text of one element of a response. */
+	private static final class ElementReader extends DefaultHandler {
+		private final String element;
+
+		String root;
+
+		String value;
+
+		private StringBuilder data;
+
+		ElementReader(final String element) {
+			this.element = element;
+		}
+
+		void parse(final HttpURLConnection c, final String action,
+				final String key) throws IOException {
+			final XMLReader xr;
+			try {
+				xr = XMLReaderFactory.createXMLReader();
+			} catch (SAXException e) {
+				throw new IOException(JGitText.get().noXMLParserAvailable);
+			}
+			xr.setContentHandler(this);
+			final InputStream in = c.getInputStream();
+			try {
+				xr.parse(new InputSource(in));
+			} catch (SAXException parsingError) {
+				final IOException p;
+				p = new IOException(MessageFormat.format(
+						JGitText.get().amazonS3InvalidResponse, action, key));
+				p.initCause(parsingError);
+				throw p;
+			} finally {
+				in.close();
+			}
+		}
+
+		@Override
+		public void startElement(final String uri, final String name,
+				final String qName, final Attributes attributes)
+				throws SAXException {
+			if (root == null)
+				root = name;
+			if (element.equals(name))
+				data = new StringBuilder();
+		}
+
+		@Override
+		public void characters(final char[] ch, final int s, final int n)
+				throws SAXException {
+			if (data != null)
+				data.append(ch, s, n);
+		}
+
+		@Override
+		public void endElement(final String uri, final String name,
+				final String qName) throws SAXException {
+			if (element.equals(name) && data != null) {
+				value = data.toString();
+				data = null;
+			}
+		}
+	}
 }
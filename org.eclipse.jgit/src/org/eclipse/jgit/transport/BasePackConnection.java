@@ -51,8 +51,12 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
 
 import org.eclipse.jgit.errors.NoRemoteRepositoryException;
@@ -60,6 +64,7 @@
 import org.eclipse.jgit.errors.RemoteRepositoryException;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.Ref;
@@ -120,6 +125,12 @@ abstract class BasePackConnection extends BaseConnection {
 	/** Extra objects the remote has, but which aren't offered as refs. */
 	protected final Set<ObjectId> additionalHaves = new HashSet<ObjectId>();
 
+	/** True if the remote answered with a protocol v2 advertisement. */
+	private boolean protocolV2;
+
+	/** Prefixes listed by the protocol v2 ls-refs; empty for all refs. */
+	private List<String> refPrefixes = Collections.emptyList();
+
 	BasePackConnection(final PackTransport packTransport) {
 		transport = (Transport) packTransport;
 		local = transport.local;
@@ -158,6 +169,40 @@ protected final void init(InputStream myIn, OutputStream myOut) {
 		outNeedsEnd = true;
 	}
 
+	/**
+	 * Limit the references requested from a protocol v2 peer.
+	 * <p>
+	 * Must be called before {@link #readAdvertisedRefs()}. Peers speaking the
+	 * original protocol always advertise every reference, so this only reduces
+	 * the advertisement when both sides speak protocol v2.
+	 *
+	 * @param specs
+	 *            specifications of the references the caller intends to fetch;
+	 *            empty to list all references.
+	 */
+	protected void setRefSpecs(Collection<RefSpec> specs) {
+		List<String> prefixes = new ArrayList<String>();
+		for (RefSpec spec : specs) {
+			String src = spec.getSource();
+			if (src == null)
+				continue;
+			if (spec.isWildcard())
+				src = src.substring(0, src.indexOf('*'));
+			prefixes.add(src);
+		}
+		if (!prefixes.isEmpty()) {
+			prefixes.add(Constants.HEAD);
+			if (transport.getTagOpt() != TagOpt.NO_TAGS)
+				prefixes.add(Constants.R_TAGS);
+		}
+		refPrefixes = prefixes;
+	}
+
+	/** @return true if the remote speaks protocol v2 on this connection. */
+	protected boolean isProtocolV2() {
+		return protocolV2;
+	}
+
 	/**
 	 * Reads the advertised references through the initialized stream.
 	 * <p>
@@ -207,6 +252,13 @@ private void readAdvertisedRefsImpl() throws IOException {
 				throw new RemoteRepositoryException(uri, line.substring(4));
 			}
 
+			if (avail.isEmpty()
+					&& line.equals(BasePackFetchConnection.VERSION_2)) {
+				readCapabilitiesV2();
+				lsRefsV2();
+				return;
+			}
+
 			if (avail.isEmpty()) {
 				final int nul = line.indexOf('\0');
 				if (nul >= 0) {
@@ -250,6 +302,69 @@ private void readAdvertisedRefsImpl() throws IOException {
 		available(avail);
 	}
 
+	private void readCapabilitiesV2() throws IOException {
+		protocolV2 = true;
+		String line;
+		while ((line = pckIn.readString()) != PacketLineIn.END)
+			remoteCapablities.add(line);
+	}
+
+	private void lsRefsV2() throws IOException {
+		beginCommand();
+		pckOut.writeString("command=" //$NON-NLS-1$
+				+ BasePackFetchConnection.COMMAND_LS_REFS + '\n');
+		pckOut.writeDelim();
+		pckOut.writeString("peel\n"); //$NON-NLS-1$
+		for (String prefix : refPrefixes)
+			pckOut.writeString("ref-prefix " + prefix + '\n'); //$NON-NLS-1$
+		pckOut.end();
+
+		final LinkedHashMap<String, Ref> avail = new LinkedHashMap<String, Ref>();
+		String line;
+		while ((line = pckIn.readString()) != PacketLineIn.END) {
+			if (line.startsWith("ERR ")) //$NON-NLS-1$
+				throw new RemoteRepositoryException(uri, line.substring(4));
+
+			// Each line is "<id> <name>" followed by optional attributes.
+			String[] fields = line.split(" "); //$NON-NLS-1$
+			if (fields.length < 2 || fields[0].length() != 40)
+				throw new PackProtocolException(uri, MessageFormat.format(
+						JGitText.get().expectedGot, "<id> <name>", line)); //$NON-NLS-1$
+			final ObjectId id = ObjectId.fromString(fields[0]);
+			final String name = fields[1];
+			ObjectId peeled = null;
+			for (int i = 2; i < fields.length; i++) {
+				if (fields[i].startsWith("peeled:")) //$NON-NLS-1$
+					peeled = ObjectId.fromString(fields[i].substring(7));
+			}
+
+			final Ref ref;
+			if (peeled != null)
+				ref = new ObjectIdRef.PeeledTag(Ref.Storage.NETWORK, name, id,
+						peeled);
+			else
+				ref = new ObjectIdRef.PeeledNonTag(Ref.Storage.NETWORK, name,
+						id);
+			if (avail.put(name, ref) != null)
+				throw duplicateAdvertisement(name);
+		}
+		available(avail);
+	}
+
+	/**
+	 * Invoked before a protocol v2 command other than fetch is sent.
+	 * <p>
+	 * Stateless transports override this to start a new request; the default
+	 * reuses the bidirectional streams set up by
+	 * {@link #init(InputStream, OutputStream)}.
+	 *
+	 * @throws IOException
+	 *             the request could not be started.
+	 */
+	protected void beginCommand() throws IOException {
+		// By default the connection carries further commands.
+	}
+
 	/**
 	 * Create an exception to indicate problems finding a remote repository. The
 	 * caller is expected to throw the returned exception.
@@ -267,6 +382,28 @@ protected boolean isCapableOf(final String option) {
 		return remoteCapablities.contains(option);
 	}
 
+	/**
+	 * Check a protocol v2 command for a feature.
+	 *
+	 * @param command
+	 *            name of the command, e.g. "fetch".
+	 * @param feature
+	 *            feature the command should support.
+	 * @return true if the server advertised {@code command=... feature ...}.
+	 */
+	protected boolean isCommandCapableOf(final String command,
+			final String feature) {
+		final String prefix = command + '=';
+		for (String c : remoteCapablities) {
+			if (!c.startsWith(prefix))
+				continue;
+			for (String f : c.substring(prefix.length()).split(" ")) //$NON-NLS-1$
+				if (f.equals(feature))
+					return true;
+		}
+		return false;
+	}
+
 	protected boolean wantCapability(final StringBuilder b, final String option) {
 		if (!isCapableOf(option))
 			return false;
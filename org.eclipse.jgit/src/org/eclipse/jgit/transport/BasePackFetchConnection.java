@@ -47,10 +47,13 @@
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import org.eclipse.jgit.errors.PackProtocolException;
@@ -72,7 +75,6 @@
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
-import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.storage.file.PackLock;
 import org.eclipse.jgit.transport.PacketLineIn.AckNackResult;
 import org.eclipse.jgit.util.TemporaryBuffer;
@@ -168,6 +170,16 @@ public abstract class BasePackFetchConnection extends BasePackConnection
 	 */
 	public static final String OPTION_SHALLOW = "shallow"; //$NON-NLS-1$
 
+	/**
+	 * The client may cut a shallow fetch at the commits older than a time.
+	 */
+	public static final String OPTION_DEEPEN_SINCE = "deepen-since"; //$NON-NLS-1$
+
+	/**
+	 * The client may cut a shallow fetch at the history of refs it excludes.
+	 */
+	public static final String OPTION_DEEPEN_NOT = "deepen-not"; //$NON-NLS-1$
+
 	/**
 	 * The client does not want progress messages and will ignore them.
 	 * @since 2.0
@@ -180,6 +192,37 @@ public abstract class BasePackFetchConnection extends BasePackConnection
 	 */
 	public static final String OPTION_NO_DONE = "no-done"; //$NON-NLS-1$
 
+	/**
+	 * The client may ask for objects to be omitted with a {@link FilterSpec}.
+	 */
+	public static final String OPTION_FILTER = "filter"; //$NON-NLS-1$
+
+	/**
+	 * Extra request parameter asking the server to speak protocol v2.
+	 * <p>
+	 * Sent after the host on a git:// request line, or in the
+	 * {@code Git-Protocol} header of a smart HTTP request.
+	 */
+	public static final String VERSION_2_REQUEST = "version=2"; //$NON-NLS-1$
+
+	/** First line of a protocol v2 capability advertisement. */
+	public static final String VERSION_2 = "version 2"; //$NON-NLS-1$
+
+	/** Protocol v2 command listing references matching a set of prefixes. */
+	public static final String COMMAND_LS_REFS = "ls-refs"; //$NON-NLS-1$
+
+	/** Protocol v2 command negotiating and sending a pack. */
+	public static final String COMMAND_FETCH = "fetch"; //$NON-NLS-1$
+
+	/** Protocol v2 command listing pre-generated bundles. */
+	public static final String COMMAND_BUNDLE_URI = "bundle-uri"; //$NON-NLS-1$
+
+	private static final byte[] WANT_ = Constants.encodeASCII("want "); //$NON-NLS-1$
+
+	private static final byte[] HAVE_ = Constants.encodeASCII("have "); //$NON-NLS-1$
+
+	private static final byte[] LF = Constants.encodeASCII("\n"); //$NON-NLS-1$
+
 	static enum MultiAck {
 		OFF, CONTINUE, DETAILED;
 	}
@@ -211,8 +254,22 @@ static enum MultiAck {
 
 	private boolean allowOfsDelta;
 
+	private final FetchNegotiator.Algorithm negotiationAlgorithm;
+
+	/** Selects the haves, created by {@link #negotiateBegin()}. */
+	private FetchNegotiator negotiator;
+
 	private boolean noDone;
 
+	/** Filter requested by the transport, or null to fetch everything. */
+	private final FilterSpec filterSpec;
+
+	/** True if the server agreed to filter the pack. */
+	private boolean filter;
+
+	/** False to request objects without offering any haves. */
+	private boolean sendHaves = true;
+
 	private String lockMessage;
 
 	private PackLock packLock;
@@ -235,6 +292,12 @@ public BasePackFetchConnection(final PackTransport packTransport) {
 		includeTags = transport.getTagOpt() != TagOpt.NO_TAGS;
 		thinPack = transport.isFetchThin();
 		allowOfsDelta = cfg.allowOfsDelta;
+		negotiationAlgorithm = cfg.negotiationAlgorithm;
+		filterSpec = transport.getFilterSpec();
+		if (filterSpec != null) {
+			// A thin pack may delta against objects we never received.
+			thinPack = false;
+		}
 
 		walk = new RevWalk(local);
 		reachableCommits = new RevCommitList<RevCommit>();
@@ -257,8 +320,18 @@ public FetchConfig parse(final Config cfg) {
 
 		final boolean allowOfsDelta;
 
+		final FetchNegotiator.Algorithm negotiationAlgorithm;
+
 		FetchConfig(final Config c) {
 			allowOfsDelta = c.getBoolean("repack", "usedeltabaseoffset", true); //$NON-NLS-1$ //$NON-NLS-2$
+
+			String alg = c.getString("fetch", null, "negotiationAlgorithm"); //$NON-NLS-1$ //$NON-NLS-2$
+			if (alg == null || "default".equalsIgnoreCase(alg)) //$NON-NLS-1$
+				negotiationAlgorithm = FetchNegotiator.Algorithm.CONSECUTIVE;
+			else
+				negotiationAlgorithm = c.getEnum("fetch", null, //$NON-NLS-1$
+						"negotiationAlgorithm", //$NON-NLS-1$
+						FetchNegotiator.Algorithm.CONSECUTIVE);
 		}
 	}
 
@@ -266,13 +339,32 @@ public final void fetch(final ProgressMonitor monitor,
 			final Collection<Ref> want, final Set<ObjectId> have)
 			throws TransportException {
 		markStartedOperation();
-		doFetch(monitor, want, have);
+		final boolean suspended = PromisorRemote.begin();
+		try {
+			doFetch(monitor, want, have);
+		} finally {
+			if (suspended)
+				PromisorRemote.end();
+		}
 	}
 
 	public boolean didFetchIncludeTags() {
 		return false;
 	}
 
+	/**
+	 * Ask for the wanted objects without negotiating a common base.
+	 * <p>
+	 * Without haves the server cannot send deltas against objects the client
+	 * is assumed to hold, which a partial clone may not actually have.
+	 *
+	 * @param send
+	 *            false to send no haves.
+	 */
+	void setSendHaves(boolean send) {
+		sendHaves = send;
+	}
+
 	public boolean didFetchTestConnectivity() {
 		return false;
 	}
@@ -306,7 +398,13 @@ protected void doFetch(final ProgressMonitor monitor,
 			throws TransportException {
 		try {
 			markRefsAdvertised();
-			markReachable(have, maxTimeWanted(want));
+			if (sendHaves)
+				markReachable(have, maxTimeWanted(want));
+
+			if (isProtocolV2()) {
+				fetchV2(monitor, want);
+				return;
+			}
 
 			if (statelessRPC) {
 				state = new TemporaryBuffer.Heap(Integer.MAX_VALUE);
@@ -412,20 +510,62 @@ private void parseReachable(ObjectId id) {
 		}
 	}
 
+	/**
+	 * Ask a protocol v2 server for the bundles it offers.
+	 * <p>
+	 * Must be called before {@link #fetch(ProgressMonitor, Collection, Set)}.
+	 *
+	 * @return URIs of the offered bundles; empty if there are none.
+	 * @throws TransportException
+	 *             the server could not be asked.
+	 */
+	public List<URIish> getBundleURIs() throws TransportException {
+		if (!isProtocolV2() || !isCapableOf(COMMAND_BUNDLE_URI))
+			return Collections.emptyList();
+		try {
+			beginCommand();
+			pckOut.writeString("command=" + COMMAND_BUNDLE_URI + '\n'); //$NON-NLS-1$
+			pckOut.end();
+
+			List<URIish> uris = new ArrayList<URIish>();
+			String line;
+			while ((line = pckIn.readString()) != PacketLineIn.END) {
+				int eq = line.indexOf('=');
+				if (!line.startsWith("bundle.") //$NON-NLS-1$
+						|| eq < 0 || !line.substring(0, eq).endsWith(".uri")) //$NON-NLS-1$
+					continue;
+				try {
+					uris.add(new URIish(line.substring(eq + 1)));
+				} catch (URISyntaxException notURI) {
+					// Skip bundles we cannot locate.
+				}
+			}
+			return uris;
+		} catch (IOException err) {
+			close();
+			throw new TransportException(uri, err.getMessage(), err);
+		}
+	}
+
+	private boolean isReachable(final ObjectId id) {
+		try {
+			return walk.parseAny(id).has(REACHABLE);
+		} catch (IOException err) {
+			// Its OK, we don't have it, but we want to fix that
+			// by fetching the object from the other side.
+			return false;
+		}
+	}
+
 	private boolean sendWants(final Collection<Ref> want) throws IOException {
 		final PacketLineOut p = statelessRPC ? pckState : pckOut;
 		boolean first = true;
 		for (final Ref r : want) {
-			try {
-				if (walk.parseAny(r.getObjectId()).has(REACHABLE)) {
-					// We already have this object. Asking for it is
-					// not a very good idea.
-					//
-					continue;
-				}
-			} catch (IOException err) {
-				// Its OK, we don't have it, but we want to fix that
-				// by fetching the object from the other side.
+			if (isReachable(r.getObjectId())) {
+				// We already have this object. Asking for it is
+				// not a very good idea.
+				//
+				continue;
 			}
 
 			final StringBuilder line = new StringBuilder(46);
@@ -440,6 +580,8 @@ private boolean sendWants(final Collection<Ref> want) throws IOException {
 		}
 		if (first)
 			return false;
+		if (filter)
+			p.writeString("filter " + filterSpec + '\n'); //$NON-NLS-1$
 		p.end();
 		outNeedsEnd = false;
 		return true;
@@ -467,6 +609,8 @@ private String enableCapabilities() throws TransportException {
 			sideband = true;
 		else if (wantCapability(line, OPTION_SIDE_BAND))
 			sideband = true;
+		if (filterSpec != null)
+			filter = wantCapability(line, OPTION_FILTER);
 
 		if (statelessRPC && multiAck != MultiAck.DETAILED) {
 			// Our stateless RPC implementation relies upon the detailed
@@ -496,11 +640,11 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 
 		negotiateBegin();
 		SEND_HAVES: for (;;) {
-			final RevCommit c = walk.next();
+			final RevCommit c = negotiator.next();
 			if (c == null)
 				break SEND_HAVES;
 
-			pckOut.writeString("have " + c.getId().name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			pckOut.writeId(HAVE_, c, LF);
 			havesSent++;
 			havesSinceLastContinue++;
 
@@ -638,35 +782,156 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 		}
 	}
 
-	private void negotiateBegin() throws IOException {
-		walk.resetRetain(REACHABLE, ADVERTISED);
-		walk.markStart(reachableCommits);
-		walk.sort(RevSort.COMMIT_TIME_DESC);
-		walk.setRevFilter(new RevFilter() {
-			@Override
-			public RevFilter clone() {
-				return this;
-			}
+	/**
+	 * Negotiate and fetch with the protocol v2 fetch command.
+	 * <p>
+	 * Every round is a complete request carrying the wants, all haves the
+	 * server acknowledged so far and a batch of new haves, so the same code
+	 * serves bidirectional and stateless transports. The server answers with
+	 * its acknowledgments until it is ready to send, or until we run out of
+	 * haves and send "done".
+	 */
+	private void fetchV2(final ProgressMonitor monitor,
+			final Collection<Ref> want) throws IOException, CancelledException {
+		final List<ObjectId> wants = new ArrayList<ObjectId>(want.size());
+		for (final Ref r : want) {
+			if (!isReachable(r.getObjectId()))
+				wants.add(r.getObjectId());
+		}
+		if (wants.isEmpty())
+			return;
 
-			@Override
-			public boolean include(final RevWalk walker, final RevCommit c) {
-				final boolean remoteKnowsIsCommon = c.has(COMMON);
-				if (c.has(ADVERTISED)) {
-					// Remote advertised this, and we have it, hence common.
-					// Whether or not the remote knows that fact is tested
-					// before we added the flag. If the remote doesn't know
-					// we have to still send them this object.
-					//
-					c.add(COMMON);
+		if (statelessRPC)
+			outNeedsEnd = false;
+		sideband = true;
+		filter = filterSpec != null
+				&& isCommandCapableOf(COMMAND_FETCH, OPTION_FILTER);
+		negotiateBegin();
+
+		final List<RevObject> common = new ArrayList<RevObject>();
+		int batch = 32;
+		int havesSinceLastAck = 0;
+		boolean receivedAck = false;
+		boolean done = false;
+		String line;
+		for (;;) {
+			pckOut.writeString("command=" + COMMAND_FETCH + '\n'); //$NON-NLS-1$
+			pckOut.writeDelim();
+			if (thinPack)
+				pckOut.writeString(OPTION_THIN_PACK + '\n');
+			if (allowOfsDelta)
+				pckOut.writeString(OPTION_OFS_DELTA + '\n');
+			if (includeTags)
+				pckOut.writeString(OPTION_INCLUDE_TAG + '\n');
+			for (ObjectId id : wants)
+				pckOut.writeId(WANT_, id, LF);
+			if (filter)
+				pckOut.writeString("filter " + filterSpec + '\n'); //$NON-NLS-1$
+			for (RevObject obj : common)
+				pckOut.writeId(HAVE_, obj, LF);
+			for (int n = 0; n < batch; n++) {
+				final RevCommit c = negotiator.next();
+				if (c == null) {
+					done = true;
+					break;
 				}
-				return !remoteKnowsIsCommon;
+				pckOut.writeId(HAVE_, c, LF);
+				havesSinceLastAck++;
+			}
+			if (receivedAck && havesSinceLastAck > MAX_HAVES) {
+				// Our history must be really different from the
+				// remote's. Avoid sending all of it and give up.
+				done = true;
 			}
+			if (done)
+				pckOut.writeString("done\n"); //$NON-NLS-1$
+			pckOut.end();
 
-			@Override
-			public boolean requiresCommitBody() {
-				return false;
+			if (monitor.isCancelled())
+				throw new CancelledException();
+
+			line = pckIn.readString();
+			if (!line.equals("acknowledgments")) //$NON-NLS-1$
+				break;
+
+			boolean ready = false;
+			while ((line = pckIn.readStringOrDelim()) != PacketLineIn.END
+					&& line != PacketLineIn.DELIM) {
+				if (line.startsWith("ACK ") && line.length() == 44) { //$NON-NLS-1$
+					final RevObject obj = walk.parseAny(ObjectId
+							.fromString(line.substring(4)));
+					if (!obj.has(STATE)) {
+						obj.add(STATE);
+						common.add(obj);
+					}
+					markCommon(obj, AckNackResult.ACK);
+					receivedAck = true;
+					havesSinceLastAck = 0;
+				} else if (line.equals("ready")) //$NON-NLS-1$
+					ready = true;
+				else if (!line.equals("NAK")) //$NON-NLS-1$
+					throw new PackProtocolException(uri, MessageFormat.format(
+							JGitText.get().expectedACKNAKGot, line));
 			}
-		});
+			if (ready) {
+				line = pckIn.readString();
+				break;
+			}
+			if (done)
+				throw new PackProtocolException(uri, MessageFormat.format(
+						JGitText.get().expectedGot, "packfile", line)); //$NON-NLS-1$
+			batch = Math.min(2 * batch, MAX_HAVES);
+		}
+
+		if (line.equals("shallow-info")) { //$NON-NLS-1$
+			// We never ask for a shallow pack, skip what the server
+			// thinks our boundary is.
+			while ((line = pckIn.readStringOrDelim()) != PacketLineIn.DELIM
+					&& line != PacketLineIn.END)
+				continue;
+			line = pckIn.readString();
+		}
+		if (line.startsWith("ERR ")) //$NON-NLS-1$
+			throw new PackProtocolException(uri, line.substring(4));
+		if (!line.equals("packfile")) //$NON-NLS-1$
+			throw new PackProtocolException(uri, MessageFormat.format(
+					JGitText.get().expectedGot, "packfile", line)); //$NON-NLS-1$
+
+		walk.dispose();
+		reachableCommits = null;
+		receivePack(monitor);
+	}
+
+	private void negotiateBegin() throws IOException {
+		walk.resetRetain(REACHABLE, ADVERTISED);
+		negotiator = newNegotiator(walk);
+		for (final Ref r : getRefs()) {
+			knownCommon(r.getObjectId());
+			if (r.getPeeledObjectId() != null)
+				knownCommon(r.getPeeledObjectId());
+		}
+		for (final RevCommit c : reachableCommits)
+			negotiator.addTip(c);
+	}
+
+	private void knownCommon(final AnyObjectId id) throws IOException {
+		final RevObject obj = walk.lookupOrNull(id);
+		if (obj instanceof RevCommit && obj.has(ADVERTISED))
+			negotiator.knownCommon((RevCommit) obj);
+	}
+
+	/**
+	 * Create the negotiator choosing the haves of this fetch.
+	 * <p>
+	 * The default implementation uses the algorithm configured by
+	 * {@code fetch.negotiationAlgorithm}.
+	 *
+	 * @param rw
+	 *            the walk all commits passed to the negotiator come from.
+	 * @return the negotiator.
+	 */
+	protected FetchNegotiator newNegotiator(RevWalk rw) {
+		return FetchNegotiator.create(negotiationAlgorithm, rw);
 	}
 
 	private void markRefsAdvertised() {
@@ -698,8 +963,10 @@ private void markCommon(final RevObject obj, final AckNackResult anr)
 			obj.add(STATE);
 		}
 		obj.add(COMMON);
-		if (obj instanceof RevCommit)
+		if (obj instanceof RevCommit) {
 			((RevCommit) obj).carry(COMMON);
+			negotiator.ack((RevCommit) obj);
+		}
 	}
 
 	private void receivePack(final ProgressMonitor monitor) throws IOException {
@@ -714,6 +981,10 @@ private void receivePack(final ProgressMonitor monitor) throws IOException {
 			parser.setAllowThin(thinPack);
 			parser.setObjectChecking(transport.isCheckFetchedObjects());
 			parser.setLockMessage(lockMessage);
+			TransferConfig tc = local.getConfig().get(TransferConfig.KEY);
+			parser.setResolveThreads(tc.getResolveThreads());
+			parser.setPipelineDepth(tc.getPipelineDepth());
+			parser.setReleaseObjects(true);
 			packLock = parser.parse(monitor);
 			ins.flush();
 		} finally {
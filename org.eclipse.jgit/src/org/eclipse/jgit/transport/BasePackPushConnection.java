@@ -107,8 +107,15 @@ public abstract class BasePackPushConnection extends BasePackConnection implemen
 	 */
 	public static final String CAPABILITY_SIDE_BAND_64K = "side-band-64k"; //$NON-NLS-1$
 
+	/**
+	 * The server applies all commands, or none of them.
+	 */
+	public static final String CAPABILITY_ATOMIC = "atomic"; //$NON-NLS-1$
+
 	private final boolean thinPack;
 
+	private final boolean atomic;
+
 	private boolean capableDeleteRefs;
 
 	private boolean capableReport;
@@ -133,6 +140,7 @@ public abstract class BasePackPushConnection extends BasePackConnection implemen
 	public BasePackPushConnection(final PackTransport packTransport) {
 		super(packTransport);
 		thinPack = transport.isPushThin();
+		atomic = transport.isPushAtomic();
 	}
 
 	public void push(final ProgressMonitor monitor,
@@ -242,8 +250,12 @@ private void writeCommands(final Collection<RemoteRefUpdate> refUpdates,
 		outNeedsEnd = false;
 	}
 
-	private String enableCapabilities(final ProgressMonitor monitor) {
+	private String enableCapabilities(final ProgressMonitor monitor)
+			throws TransportException {
 		final StringBuilder line = new StringBuilder();
+		if (atomic && !wantCapability(line, CAPABILITY_ATOMIC))
+			throw new TransportException(uri,
+					JGitText.get().atomicPushNotSupported);
 		capableReport = wantCapability(line, CAPABILITY_REPORT_STATUS);
 		capableDeleteRefs = wantCapability(line, CAPABILITY_DELETE_REFS);
 		capableOfsDelta = wantCapability(line, CAPABILITY_OFS_DELTA);
@@ -280,6 +292,7 @@ private void writePack(final Map<String, RemoteRefUpdate> refUpdates,
 			writer.setThin(thinPack);
 			writer.setReuseValidatingObjects(false);
 			writer.setDeltaBaseAsOffset(capableOfsDelta);
+			writer.setPipelineWrite(true);
 			writer.preparePack(monitor, newObjects, remoteObjects);
 			writer.writePack(monitor, monitor, out);
 		} finally {
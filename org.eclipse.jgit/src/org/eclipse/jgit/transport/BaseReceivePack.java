@@ -43,6 +43,7 @@
 
 package org.eclipse.jgit.transport;
 
+import static org.eclipse.jgit.transport.BasePackPushConnection.CAPABILITY_ATOMIC;
 import static org.eclipse.jgit.transport.BasePackPushConnection.CAPABILITY_DELETE_REFS;
 import static org.eclipse.jgit.transport.BasePackPushConnection.CAPABILITY_OFS_DELTA;
 import static org.eclipse.jgit.transport.BasePackPushConnection.CAPABILITY_REPORT_STATUS;
@@ -84,10 +85,14 @@
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.ObjectDirectory;
+import org.eclipse.jgit.storage.file.ObjectQuarantine;
 import org.eclipse.jgit.storage.file.PackLock;
 import org.eclipse.jgit.transport.ReceiveCommand.Result;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.eclipse.jgit.util.io.InterruptTimer;
 import org.eclipse.jgit.util.io.TimeoutInputStream;
 import org.eclipse.jgit.util.io.TimeoutOutputStream;
@@ -137,8 +142,11 @@ public Set<String> getCapabilities() {
 	/** Database we write the stored objects into. */
 	private final Repository db;
 
-	/** Revision traversal support over {@link #db}. */
-	private final RevWalk walk;
+	/**
+	 * Revision traversal support over {@link #db}, or over {@link #quarantine}
+	 * while the received objects have not been accepted.
+	 */
+	private RevWalk walk;
 
 	/**
 	 * Is the client connection a bi-directional socket or pipe?
@@ -156,6 +164,18 @@ public Set<String> getCapabilities() {
 	/** Expecting data after the pack footer */
 	private boolean expectDataAfterPackFooter;
 
+	/** Should received packs be held apart until the commands are accepted? */
+	private boolean quarantineEnabled;
+
+	/** Objects received in this connection that were not accepted yet. */
+	private ObjectQuarantine quarantine;
+
+	/** Should the client be allowed to ask for atomic updates? */
+	private boolean allowAtomic;
+
+	/** If {@link BasePackPushConnection#CAPABILITY_ATOMIC} is enabled. */
+	private boolean atomic;
+
 	/** Should an incoming transfer validate objects? */
 	private boolean checkReceivedObjects;
 
@@ -231,6 +251,15 @@ public Set<String> getCapabilities() {
 
 	private boolean checkReferencedIsReachable;
 
+	/** Speeds up the connectivity check, if not null. */
+	private ReachabilityIndex reachabilityIndex;
+
+	/** Cache of encoded ref advertisements, if enabled. */
+	private RefAdvertisementCache advertisementCache;
+
+	/** Version of {@link #advertisementCache} before refs were read. */
+	private long advertisementVersion;
+
 	/** Git object size limit */
 	private long maxObjectSizeLimit;
 
@@ -250,9 +279,15 @@ protected BaseReceivePack(final Repository into) {
 		allowDeletes = cfg.allowDeletes;
 		allowNonFastForwards = cfg.allowNonFastForwards;
 		allowOfsDelta = cfg.allowOfsDelta;
+		allowAtomic = cfg.allowAtomic;
+		quarantineEnabled = cfg.quarantine;
 		advertiseRefsHook = AdvertiseRefsHook.DEFAULT;
 		refFilter = RefFilter.DEFAULT;
 		advertisedHaves = new HashSet<ObjectId>();
+		reachabilityIndex = ReachabilityIndex.get(db);
+		advertisementCache = RefAdvertisementCache.get(db);
+		advertisementVersion = RefAdvertisementCache
+				.version(advertisementCache);
 	}
 
 	/** Configuration for receive operations. */
@@ -273,6 +308,10 @@ public ReceiveConfig parse(final Config cfg) {
 
 		final boolean allowOfsDelta;
 
+		final boolean allowAtomic;
+
+		final boolean quarantine;
+
 		ReceiveConfig(final Config config) {
 			checkReceivedObjects = config.getBoolean("receive", "fsckobjects", //$NON-NLS-1$ //$NON-NLS-2$
 					false);
@@ -282,6 +321,9 @@ public ReceiveConfig parse(final Config cfg) {
 					"denynonfastforwards", false); //$NON-NLS-1$
 			allowOfsDelta = config.getBoolean("repack", "usedeltabaseoffset", //$NON-NLS-1$ //$NON-NLS-2$
 					true);
+			allowAtomic = config.getBoolean("receive", "advertiseatomic", //$NON-NLS-1$ //$NON-NLS-2$
+					false);
+			quarantine = config.getBoolean("receive", "quarantine", false); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 	}
 
@@ -339,7 +381,15 @@ public final Repository getRepository() {
 		return db;
 	}
 
-	/** @return the RevWalk instance used by this connection. */
+	/**
+	 * Get the RevWalk instance used by this connection.
+	 * <p>
+	 * Until the commands are executed the objects received from the client
+	 * may be held in a quarantine. They can be read through this RevWalk, but
+	 * not yet through the repository.
+	 *
+	 * @return the RevWalk instance used by this connection.
+	 */
 	public final RevWalk getRevWalk() {
 		return walk;
 	}
@@ -432,6 +482,52 @@ public void setCheckReferencedObjectsAreReachable(boolean b) {
 		this.checkReferencedIsReachable = b;
 	}
 
+	/** @return the index used to speed up the connectivity check, or null. */
+	public ReachabilityIndex getReachabilityIndex() {
+		return reachabilityIndex;
+	}
+
+	/**
+	 * Set the index used to speed up the connectivity check.
+	 * <p>
+	 * With an index only the objects of the received pack are walked, down to
+	 * the commits they build upon. Those must be known to the index as
+	 * reachable from the advertised objects, so the cost of the check no
+	 * longer grows with the number of advertised refs. Should this quick check
+	 * fail to prove the pack connected, the complete check is run to decide.
+	 * <p>
+	 * By default the index configured by {@code receive.reachabilityIndex} is
+	 * used, see {@link ReachabilityIndex#get(Repository)}.
+	 *
+	 * @param index
+	 *            the index; null to always walk from every advertised object.
+	 */
+	public void setReachabilityIndex(ReachabilityIndex index) {
+		reachabilityIndex = index;
+	}
+
+	/** @return the cache of encoded ref advertisements; null if disabled. */
+	public RefAdvertisementCache getAdvertisementCache() {
+		return advertisementCache;
+	}
+
+	/**
+	 * Set the cache to reuse encoded ref advertisements from.
+	 * <p>
+	 * By default the cache configured for the repository by
+	 * {@code transfer.advertisementCache} is used, see
+	 * {@link RefAdvertisementCache#get(Repository)}.
+	 *
+	 * @param cache
+	 *            the cache; null to always format the advertisement.
+	 */
+	public void setAdvertisementCache(RefAdvertisementCache cache) {
+		advertisementCache = cache;
+		// Refs already read may predate the version of the new cache.
+		advertisementVersion = refs == null ? RefAdvertisementCache
+				.version(cache) : -1;
+	}
+
 	/**
 	 * @return true if this class expects a bi-directional pipe opened between
 	 *         the client and itself. The default is true.
@@ -527,6 +623,62 @@ public void setAllowNonFastForwards(final boolean canRewind) {
 		allowNonFastForwards = canRewind;
 	}
 
+	/**
+	 * @return true if the client may ask for all commands to succeed or fail
+	 *         together.
+	 */
+	public boolean isAllowAtomic() {
+		return allowAtomic;
+	}
+
+	/**
+	 * Allow the client to ask for all commands to succeed or fail together.
+	 * <p>
+	 * This is best effort: references are updated one at a time, and those
+	 * already updated are reverted if a later command fails. Concurrent
+	 * readers may see a partially applied push, and if reverting fails the
+	 * references stay partially updated. Off by default; enabled by setting
+	 * {@code receive.advertiseAtomic}.
+	 *
+	 * @param allow
+	 *            true to let the client ask for all commands to succeed or
+	 *            fail together.
+	 */
+	public void setAllowAtomic(boolean allow) {
+		allowAtomic = allow;
+	}
+
+	/**
+	 * @return true if received packs are held apart from the repository until
+	 *         the commands are accepted.
+	 */
+	public boolean isQuarantine() {
+		return quarantineEnabled;
+	}
+
+	/**
+	 * Hold received packs apart from the repository until the commands are
+	 * accepted.
+	 * <p>
+	 * A quarantined pack is moved into the repository only after the
+	 * commands were validated and the {@link PreReceiveHook} ran, and only if
+	 * at least one command remains to be executed or was executed by the hook.
+	 * Otherwise it is deleted without ever having been visible in the
+	 * repository. Quarantine is only available for repositories stored in an
+	 * {@link ObjectDirectory}.
+	 * <p>
+	 * While the pack is quarantined its objects cannot be read through
+	 * {@link #getRepository()}; hooks must use {@link #getRevWalk()} instead.
+	 * For this reason quarantine is off unless {@code receive.quarantine} is
+	 * set.
+	 *
+	 * @param enabled
+	 *            true to quarantine received packs.
+	 */
+	public void setQuarantine(boolean enabled) {
+		quarantineEnabled = enabled;
+	}
+
 	/** @return identity of the user making the changes in the reflog. */
 	public PersonIdent getRefLogIdent() {
 		return refLogIdent;
@@ -780,6 +932,26 @@ protected void unlockPack() throws IOException {
 			packLock.unlock();
 			packLock = null;
 		}
+		if (quarantine != null) {
+			quarantine.discard();
+			quarantine = null;
+		}
+	}
+
+	/** Move the received objects out of the quarantine, if they are in one. */
+	private void acceptQuarantine() throws IOException {
+		if (quarantine == null)
+			return;
+
+		// The keep file moves along with the pack.
+		packLock = null;
+		List<PackLock> locks = quarantine.migrate();
+		quarantine = null;
+		if (!locks.isEmpty())
+			packLock = locks.get(0);
+
+		walk.release();
+		walk = new RevWalk(db);
 	}
 
 	/**
@@ -813,8 +985,11 @@ public void sendAdvertisedRefs(final RefAdvertiser adv)
 		adv.advertiseCapability(CAPABILITY_SIDE_BAND_64K);
 		adv.advertiseCapability(CAPABILITY_DELETE_REFS);
 		adv.advertiseCapability(CAPABILITY_REPORT_STATUS);
+		if (allowAtomic)
+			adv.advertiseCapability(CAPABILITY_ATOMIC);
 		if (allowOfsDelta)
 			adv.advertiseCapability(CAPABILITY_OFS_DELTA);
+		adv.setCache(advertisementCache, advertisementVersion);
 		adv.send(getAdvertisedOrDefaultRefs());
 		for (ObjectId obj : advertisedHaves)
 			adv.advertiseHave(obj);
@@ -830,32 +1005,39 @@ public void sendAdvertisedRefs(final RefAdvertiser adv)
 	 */
 	protected void recvCommands() throws IOException {
 		for (;;) {
-			String line;
+			int len;
 			try {
-				line = pckIn.readStringRaw();
+				len = pckIn.readLine();
 			} catch (EOFException eof) {
 				if (commands.isEmpty())
 					return;
 				throw eof;
 			}
-			if (line == PacketLineIn.END)
+			if (len < 0)
 				break;
 
 			if (commands.isEmpty()) {
-				final FirstLine firstLine = new FirstLine(line);
+				final FirstLine firstLine = new FirstLine(pckIn.getLineString());
 				enabledCapabilities = firstLine.getCapabilities();
-				line = firstLine.getLine();
+				for (int i = 0; i < len; i++) {
+					if (pckIn.getLineBuffer()[i] == '\0') {
+						len = i;
+						break;
+					}
+				}
 			}
 
-			if (line.length() < 83) {
+			if (len < 83) {
 				final String m = JGitText.get().errorInvalidProtocolWantedOldNewRef;
 				sendError(m);
 				throw new PackProtocolException(m);
 			}
 
-			final ObjectId oldId = ObjectId.fromString(line.substring(0, 40));
-			final ObjectId newId = ObjectId.fromString(line.substring(41, 81));
-			final String name = line.substring(82);
+			final byte[] line = pckIn.getLineBuffer();
+			final ObjectId oldId = ObjectId.fromString(line, 0);
+			final ObjectId newId = ObjectId.fromString(line, 41);
+			final String name = RawParseUtils.decode(Constants.CHARSET, line,
+					82, len);
 			final ReceiveCommand cmd = new ReceiveCommand(oldId, newId, name);
 			if (name.equals(Constants.HEAD)) {
 				cmd.setResult(Result.REJECTED_CURRENT_BRANCH);
@@ -869,6 +1051,7 @@ protected void recvCommands() throws IOException {
 	/** Enable capabilities based on a previously read capabilities line. */
 	protected void enableCapabilities() {
 		sideBand = isCapabilityEnabled(CAPABILITY_SIDE_BAND_64K);
+		atomic = allowAtomic && isCapabilityEnabled(CAPABILITY_ATOMIC);
 		if (sideBand) {
 			OutputStream out = rawOut;
 
@@ -919,7 +1102,16 @@ private void receivePack() throws IOException {
 		if (sideBand)
 			resolving = new SideBandProgressMonitor(msgOut);
 
-		ObjectInserter ins = db.newObjectInserter();
+		ObjectInserter ins;
+		if (quarantineEnabled
+				&& db.getObjectDatabase() instanceof ObjectDirectory) {
+			quarantine = ((ObjectDirectory) db.getObjectDatabase())
+					.newQuarantine();
+			ins = quarantine.newInserter();
+			walk.release();
+			walk = new RevWalk(quarantine.newReader());
+		} else
+			ins = db.newObjectInserter();
 		try {
 			String lockMsg = "jgit receive-pack"; //$NON-NLS-1$
 			if (getRefLogIdent() != null)
@@ -927,14 +1119,20 @@ private void receivePack() throws IOException {
 
 			parser = ins.newPackParser(rawIn);
 			parser.setAllowThin(true);
-			parser.setNeedNewObjectIds(checkReferencedIsReachable);
-			parser.setNeedBaseObjectIds(checkReferencedIsReachable);
+			parser.setNeedNewObjectIds(checkReferencedIsReachable
+					|| reachabilityIndex != null);
+			parser.setNeedBaseObjectIds(checkReferencedIsReachable
+					|| reachabilityIndex != null);
 			parser.setCheckEofAfterPackFooter(!biDirectionalPipe
 					&& !isExpectDataAfterPackFooter());
 			parser.setExpectDataAfterPackFooter(isExpectDataAfterPackFooter());
 			parser.setObjectChecking(isCheckReceivedObjects());
 			parser.setLockMessage(lockMsg);
 			parser.setMaxObjectSizeLimit(maxObjectSizeLimit);
+			TransferConfig tc = db.getConfig().get(TransferConfig.KEY);
+			parser.setResolveThreads(tc.getResolveThreads());
+			parser.setPipelineDepth(tc.getPipelineDepth());
+			parser.setReleaseObjects(true);
 			packLock = parser.parse(receiving, resolving);
 			ins.flush();
 		} finally {
@@ -954,13 +1152,21 @@ private void checkConnectivity() throws IOException {
 		ObjectIdSubclassMap<ObjectId> baseObjects = null;
 		ObjectIdSubclassMap<ObjectId> providedObjects = null;
 
-		if (checkReferencedIsReachable) {
+		if (checkReferencedIsReachable || reachabilityIndex != null) {
 			baseObjects = parser.getBaseObjectIds();
 			providedObjects = parser.getNewObjectIds();
 		}
 		parser = null;
 
-		final ObjectWalk ow = new ObjectWalk(db);
+		if (reachabilityIndex != null
+				&& checkConnectivityQuickly(baseObjects, providedObjects))
+			return;
+		if (!checkReferencedIsReachable) {
+			baseObjects = null;
+			providedObjects = null;
+		}
+
+		final ObjectWalk ow = newObjectWalk();
 		ow.setRetainBody(false);
 		if (baseObjects != null) {
 			ow.sort(RevSort.TOPO);
@@ -1008,7 +1214,7 @@ private void checkConnectivity() throws IOException {
 					throw new MissingObjectException(o, o.getType());
 			}
 
-			if (o instanceof RevBlob && !db.hasObject(o))
+			if (o instanceof RevBlob && !ow.getObjectReader().has(o))
 				throw new MissingObjectException(o, Constants.TYPE_BLOB);
 		}
 
@@ -1021,6 +1227,103 @@ private void checkConnectivity() throws IOException {
 		}
 	}
 
+	/**
+	 * Check connectivity with the help of {@link #reachabilityIndex}.
+	 * <p>
+	 * The commits of the pack are walked from the new ref values until
+	 * commits outside of the pack are reached. These edges must be known to
+	 * the index, and are then used instead of all advertised objects as the
+	 * uninteresting side of the same object walk the complete check does.
+	 *
+	 * @return true if the pack is connected; false if that could not be
+	 *         shown and the complete check must decide.
+	 */
+	private boolean checkConnectivityQuickly(
+			ObjectIdSubclassMap<ObjectId> baseObjects,
+			ObjectIdSubclassMap<ObjectId> providedObjects) throws IOException {
+		final ObjectWalk ow = newObjectWalk();
+		try {
+			ow.setRetainBody(false);
+			final RevFlag SEEN = ow.newFlag("SEEN"); //$NON-NLS-1$
+			final List<RevObject> tips = new ArrayList<RevObject>();
+			final List<RevObject> edges = new ArrayList<RevObject>();
+			final List<RevObject> todo = new ArrayList<RevObject>();
+
+			for (final ReceiveCommand cmd : commands) {
+				if (cmd.getResult() != Result.NOT_ATTEMPTED)
+					continue;
+				if (cmd.getType() == ReceiveCommand.Type.DELETE)
+					continue;
+				RevObject o = ow.parseAny(cmd.getNewId());
+				tips.add(o);
+				todo.add(o);
+			}
+			while (!todo.isEmpty()) {
+				RevObject o = todo.remove(todo.size() - 1);
+				if (o.has(SEEN))
+					continue;
+				o.add(SEEN);
+				if (!providedObjects.contains(o)) {
+					if (!(o instanceof RevCommit) && !(o instanceof RevTag))
+						return false;
+					edges.add(o);
+				} else if (o instanceof RevTag) {
+					todo.add(ow.parseAny(((RevTag) o).getObject()));
+				} else if (o instanceof RevCommit) {
+					RevCommit c = (RevCommit) o;
+					ow.parseHeaders(c);
+					for (RevCommit p : c.getParents())
+						todo.add(p);
+				}
+			}
+			if (!reachabilityIndex.containsAll(ow.getObjectReader(),
+					advertisedHaves, edges))
+				return false;
+
+			ow.sort(RevSort.TOPO);
+			if (!baseObjects.isEmpty())
+				ow.sort(RevSort.BOUNDARY, true);
+			for (RevObject o : tips)
+				ow.markStart(o);
+			for (RevObject o : edges) {
+				o = ow.peel(o);
+				ow.markUninteresting(o);
+				if (o instanceof RevCommit) {
+					ow.parseHeaders((RevCommit) o);
+					ow.markUninteresting(((RevCommit) o).getTree());
+				}
+			}
+
+			RevCommit c;
+			while ((c = ow.next()) != null) {
+				if (!c.has(RevFlag.UNINTERESTING)
+						&& !providedObjects.contains(c))
+					return false;
+			}
+			RevObject o;
+			while ((o = ow.nextObject()) != null) {
+				if (!o.has(RevFlag.UNINTERESTING)
+						&& !providedObjects.contains(o))
+					return false;
+			}
+			for (ObjectId id : baseObjects) {
+				if (!ow.parseAny(id).has(RevFlag.UNINTERESTING))
+					return false;
+			}
+			return true;
+		} catch (MissingObjectException notConnected) {
+			return false;
+		} finally {
+			ow.release();
+		}
+	}
+
+	private ObjectWalk newObjectWalk() {
+		if (quarantine != null)
+			return new ObjectWalk(quarantine.newReader());
+		return new ObjectWalk(db);
+	}
+
 	/** Validate the command list. */
 	protected void validateCommands() {
 		for (final ReceiveCommand cmd : commands) {
@@ -1154,6 +1457,28 @@ protected List<ReceiveCommand> filterCommands(final Result want) {
 	/** Execute commands to update references. */
 	protected void executeCommands() {
 		List<ReceiveCommand> toApply = filterCommands(Result.NOT_ATTEMPTED);
+		// A PreReceiveHook may have executed commands itself; the objects
+		// those refs now point at must leave the quarantine as well.
+		int applied = filterCommands(Result.OK).size();
+		if (toApply.isEmpty() && applied == 0)
+			return;
+
+		if (atomic && toApply.size() + applied < commands.size()) {
+			for (ReceiveCommand cmd : toApply)
+				cmd.setResult(Result.REJECTED_OTHER_REASON,
+						JGitText.get().transactionAborted);
+			if (applied == 0)
+				return;
+			toApply = Collections.emptyList();
+		}
+
+		try {
+			acceptQuarantine();
+		} catch (IOException err) {
+			for (ReceiveCommand cmd : toApply)
+				cmd.reject(err);
+			return;
+		}
 		if (toApply.isEmpty())
 			return;
 
@@ -1168,6 +1493,7 @@ protected void executeCommands() {
 		batch.setAllowNonFastForwards(isAllowNonFastForwards());
 		batch.setRefLogIdent(getRefLogIdent());
 		batch.setRefLogMessage("push", true); //$NON-NLS-1$
+		batch.setAtomic(atomic);
 		batch.addCommand(toApply);
 		try {
 			batch.execute(walk, updating);
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+/**
+ * Offers every local commit, newest first, until the remote knows about it.
+ * <p>
+ * This is the classic negotiation: commits are popped from the walk in
+ * commit time order and a line of history is only abandoned once one of its
+ * commits is known to be common.
+ */
+class ConsecutiveFetchNegotiator extends FetchNegotiator {
+	/** Marks a commit known to both sides of the connection. */
+	private final RevFlag COMMON;
+
+	/** Marks a commit the remote advertised. */
+	private final RevFlag ADVERTISED;
+
+	ConsecutiveFetchNegotiator(RevWalk walk) {
+		super(walk);
+		COMMON = walk.newFlag("NEGOTIATION_COMMON"); //$NON-NLS-1$
+		ADVERTISED = walk.newFlag("NEGOTIATION_ADVERTISED"); //$NON-NLS-1$
+		walk.carry(COMMON);
+		walk.sort(RevSort.COMMIT_TIME_DESC);
+		walk.setRevFilter(new RevFilter() {
+			@Override
+			public RevFilter clone() {
+				return this;
+			}
+
+			@Override
+			public boolean include(final RevWalk walker, final RevCommit c) {
+				final boolean remoteKnowsIsCommon = c.has(COMMON);
+				if (c.has(ADVERTISED)) {
+					// Remote advertised this, and we have it, hence common.
+					// Whether or not the remote knows that fact is tested
+					// before we added the flag. If the remote doesn't know
+					// we have to still send them this object.
+					//
+					c.add(COMMON);
+				}
+				return !remoteKnowsIsCommon;
+			}
+
+			@Override
+			public boolean requiresCommitBody() {
+				return false;
+			}
+		});
+	}
+
+	@Override
+	public void addTip(RevCommit c) throws IOException {
+		walk.markStart(c);
+	}
+
+	@Override
+	public void knownCommon(RevCommit c) {
+		c.add(ADVERTISED);
+	}
+
+	@Override
+	public RevCommit next() throws IOException {
+		return walk.next();
+	}
+
+	@Override
+	public boolean ack(RevCommit c) {
+		final boolean known = c.has(COMMON);
+		c.add(COMMON);
+		c.carry(COMMON);
+		return !known;
+	}
+}
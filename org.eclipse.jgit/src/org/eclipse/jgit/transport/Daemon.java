@@ -52,6 +52,19 @@
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.internal.JGitText;
@@ -64,13 +77,30 @@
 import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
 
-/** Basic daemon for the anonymous <code>git://</code> transport protocol. */
+/**
+ * Basic daemon for the anonymous <code>git://</code> transport protocol.
+ * <p>
+ * Each connection is served by a task run on an {@link Executor}. The number
+ * of sessions served at once can be limited for the daemon as a whole with
+ * {@link #setMaxSessions(int)} and for each service with
+ * {@link DaemonService#setMaxSessions(int)}. Connections beyond the daemon's
+ * limit are held, without a task, in a queue bounded by
+ * {@link #setMaxQueuedSessions(int)} until a session ends, for at most
+ * {@link #setQueueTimeout(int)} seconds. Clients that cannot be served are
+ * sent an error message instead.
+ */
 public class Daemon {
 	/** 9418: IANA assigned port number for Git. */
 	public static final int DEFAULT_PORT = 9418;
 
+	/** Default maximum number of connections waiting to be served. */
+	public static final int DEFAULT_MAX_QUEUED = 100;
+
 	private static final int BACKLOG = 5;
 
+	/** Milliseconds between checks for queued connections waiting too long. */
+	private static final int EXPIRE_INTERVAL = 250;
+
 	private InetSocketAddress myAddress;
 
 	private final DaemonService[] services;
@@ -81,10 +111,34 @@ public class Daemon {
 
 	private Thread acceptThread;
 
+	private ServerSocket listenSocket;
+
 	private int timeout;
 
 	private PackConfig packConfig;
 
+	private volatile Executor executor;
+
+	/** Executor in use while running, if none was supplied. */
+	private ExecutorService defaultExecutor;
+
+	private volatile Executor activeExecutor;
+
+	private final SessionLimiter sessions = new SessionLimiter();
+
+	/** Connections waiting for a session, oldest first. */
+	private final LinkedList<QueuedClient> queue = new LinkedList<QueuedClient>();
+
+	/** Connections handed to the executor that did not start yet. */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/** Connections refused without being handed to the executor. */
+	private final AtomicLong refused = new AtomicLong();
+
+	private volatile int maxQueued = DEFAULT_MAX_QUEUED;
+
+	private volatile int queueTimeout;
+
 	private volatile RepositoryResolver<DaemonClient> repositoryResolver;
 
 	private volatile UploadPackFactory<DaemonClient> uploadPackFactory;
@@ -151,6 +205,7 @@ protected void execute(final DaemonClient dc,
 							ServiceNotEnabledException,
 							ServiceNotAuthorizedException {
 						UploadPack up = uploadPackFactory.create(dc, db);
+						up.setExtraParameters(dc.getExtraParameters());
 						InputStream in = dc.getInputStream();
 						OutputStream out = dc.getOutputStream();
 						up.upload(in, out, null);
@@ -230,6 +285,111 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/** @return the executor running client sessions; null for the default. */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Set the executor running client sessions.
+	 * <p>
+	 * Each accepted connection becomes one task, which blocks on network IO
+	 * for as long as the session lasts. On a JVM offering them, an executor
+	 * starting a virtual thread per task serves many clients cheaply. The
+	 * change takes effect the next time the daemon is started.
+	 *
+	 * @param e
+	 *            the executor. If null, a pool creating threads on demand is
+	 *            used. An executor queueing tasks itself delays sessions
+	 *            without regard to {@link #setQueueTimeout(int)}.
+	 */
+	public void setExecutor(Executor e) {
+		executor = e;
+	}
+
+	/** @return maximum number of concurrent sessions; 0 if unlimited. */
+	public int getMaxSessions() {
+		return sessions.getMax();
+	}
+
+	/**
+	 * Set the maximum number of sessions served at the same time.
+	 *
+	 * @param n
+	 *            maximum number of concurrent sessions; 0 for no limit.
+	 */
+	public void setMaxSessions(int n) {
+		sessions.setMax(n);
+		startQueued();
+	}
+
+	/**
+	 * @return maximum number of waiting connections; 0 if unlimited. Defaults
+	 *         to {@link #DEFAULT_MAX_QUEUED}.
+	 */
+	public int getMaxQueuedSessions() {
+		return maxQueued;
+	}
+
+	/**
+	 * Set the maximum number of connections waiting to be served.
+	 * <p>
+	 * Connections accepted while the queue is full are refused immediately.
+	 * Each waiting connection keeps its socket open.
+	 *
+	 * @param n
+	 *            maximum number of waiting connections; 0 for no limit.
+	 */
+	public void setMaxQueuedSessions(int n) {
+		maxQueued = Math.max(0, n);
+	}
+
+	/** @return seconds a connection may wait to be served; 0 if unlimited. */
+	public int getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	/**
+	 * Set how long a connection may wait to be served.
+	 *
+	 * @param seconds
+	 *            number of seconds after accepting a connection to give up
+	 *            waiting for a free session; 0 to wait as long as it takes.
+	 */
+	public void setQueueTimeout(int seconds) {
+		queueTimeout = Math.max(0, seconds);
+	}
+
+	/** @return number of sessions being served right now. */
+	public int getActiveSessions() {
+		return sessions.getActive();
+	}
+
+	/**
+	 * @return number of accepted connections waiting for a session of the
+	 *         daemon or of their service.
+	 */
+	public int getQueuedSessions() {
+		int n = pending.get();
+		synchronized (queue) {
+			n += queue.size();
+		}
+		for (DaemonService s : services)
+			n += s.getQueuedSessions();
+		return n;
+	}
+
+	/**
+	 * @return number of connections refused since the daemon was created,
+	 *         because the queue was full or they waited too long.
+	 */
+	public long getRejectedConnections() {
+		long n = refused.get() + sessions.getRejected();
+		for (DaemonService s : services)
+			n += s.getRejectedSessions();
+		return n;
+	}
+
 	/**
 	 * Set the resolver used to locate a repository by name.
 	 *
@@ -284,6 +444,16 @@ public synchronized void start() throws IOException {
 				myAddress != null ? myAddress.getPort() : 0, BACKLOG,
 				myAddress != null ? myAddress.getAddress() : null);
 		myAddress = (InetSocketAddress) listenSock.getLocalSocketAddress();
+		listenSocket = listenSock;
+		// Wake up regularly to refuse connections that waited too long.
+		listenSock.setSoTimeout(EXPIRE_INTERVAL);
+
+		if (executor != null)
+			activeExecutor = executor;
+		else {
+			defaultExecutor = newDefaultExecutor();
+			activeExecutor = defaultExecutor;
+		}
 
 		run = true;
 		acceptThread = new Thread(processors, "Git-Daemon-Accept") { //$NON-NLS-1$
@@ -296,6 +466,7 @@ public void run() {
 					} catch (IOException e) {
 						break;
 					}
+					expireQueued();
 				}
 
 				try {
@@ -317,12 +488,42 @@ public synchronized boolean isRunning() {
 		return run;
 	}
 
-	/** Stop this daemon. */
+	/**
+	 * Stop this daemon.
+	 * <p>
+	 * Sessions already running are still served. Connections still waiting
+	 * in the queue are refused when the default executor was used.
+	 */
 	public synchronized void stop() {
 		if (acceptThread != null) {
 			run = false;
 			acceptThread.interrupt();
+			try {
+				// Closing is the only way to wake up a blocked accept.
+				listenSocket.close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			}
 		}
+		if (defaultExecutor != null) {
+			defaultExecutor.shutdown();
+			defaultExecutor = null;
+		}
+	}
+
+	private ExecutorService newDefaultExecutor() {
+		ThreadFactory factory = new ThreadFactory() {
+			private final AtomicInteger cnt = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				return new Thread(processors, r, "Git-Daemon-Client-" //$NON-NLS-1$
+						+ cnt.incrementAndGet());
+			}
+		};
+		// Sessions beyond the limit wait in our own queue, where the queue
+		// timeout applies, so the pool itself must not queue tasks.
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60,
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), factory);
 	}
 
 	private void startClient(final Socket s) {
@@ -332,30 +533,119 @@ private void startClient(final Socket s) {
 		if (peer instanceof InetSocketAddress)
 			dc.setRemoteAddress(((InetSocketAddress) peer).getAddress());
 
-		new Thread(processors, "Git-Daemon-Client " + peer.toString()) { //$NON-NLS-1$
-			public void run() {
-				try {
-					dc.execute(s);
-				} catch (ServiceNotEnabledException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (ServiceNotAuthorizedException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (IOException e) {
-					// Ignore unexpected IO exceptions from clients
-				} finally {
-					try {
-						s.getInputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
-					}
-					try {
-						s.getOutputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
-					}
+		int wait = queueTimeout;
+		dc.setQueueDeadline(0 < wait ? System.currentTimeMillis() + wait
+				* 1000L : 0);
+
+		synchronized (queue) {
+			// A free session goes to the oldest waiting connection first.
+			if (queue.isEmpty() && sessions.tryAcquire()) {
+				dispatch(new QueuedClient(dc, s));
+				return;
+			}
+			if (maxQueued <= 0 || getQueuedSessions() < maxQueued) {
+				queue.add(new QueuedClient(dc, s));
+				return;
+			}
+		}
+		refuse(s);
+	}
+
+	/** Start waiting connections while sessions are free. */
+	private void startQueued() {
+		final List<QueuedClient> ready = new ArrayList<QueuedClient>();
+		synchronized (queue) {
+			while (!queue.isEmpty() && sessions.tryAcquire())
+				ready.add(queue.removeFirst());
+		}
+		for (QueuedClient c : ready)
+			dispatch(c);
+	}
+
+	private void expireQueued() {
+		final List<QueuedClient> expired = new ArrayList<QueuedClient>();
+		final long now = System.currentTimeMillis();
+		synchronized (queue) {
+			for (Iterator<QueuedClient> i = queue.iterator(); i.hasNext();) {
+				QueuedClient c = i.next();
+				long deadline = c.client.getQueueDeadline();
+				if (deadline != 0 && deadline <= now) {
+					i.remove();
+					expired.add(c);
+				}
+			}
+		}
+		for (QueuedClient c : expired)
+			refuse(c.socket);
+	}
+
+	/** Hand a connection, which already holds a session, to the executor. */
+	private void dispatch(final QueuedClient c) {
+		pending.incrementAndGet();
+		try {
+			activeExecutor.execute(new Runnable() {
+				public void run() {
+					pending.decrementAndGet();
+					serve(c.client, c.socket);
 				}
+			});
+		} catch (RejectedExecutionException e) {
+			pending.decrementAndGet();
+			sessions.release();
+			refuse(c.socket);
+		}
+	}
+
+	private void refuse(Socket s) {
+		refused.incrementAndGet();
+		try {
+			try {
+				sendBusy(s.getOutputStream());
+			} finally {
+				s.close();
+			}
+		} catch (IOException e) {
+			// Ignore errors, the client is gone anyway.
+		}
+	}
+
+	/**
+	 * Tell a client waiting for a reference advertisement to come back later.
+	 *
+	 * @param out
+	 *            stream to the client.
+	 * @throws IOException
+	 *             the message could not be sent.
+	 */
+	static void sendBusy(OutputStream out) throws IOException {
+		PacketLineOut pckOut = new PacketLineOut(out);
+		pckOut.writeString("ERR " + JGitText.get().daemonTooBusy + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		out.flush();
+	}
+
+	private void serve(final DaemonClient dc, final Socket s) {
+		try {
+			dc.execute(s);
+		} catch (ServiceNotEnabledException e) {
+			// Ignored. Client cannot use this repository.
+		} catch (ServiceNotAuthorizedException e) {
+			// Ignored. Client cannot use this repository.
+		} catch (IOException e) {
+			// Ignore unexpected IO exceptions from clients
+		} finally {
+			sessions.release();
+			startQueued();
+			try {
+				s.getInputStream().close();
+			} catch (IOException e) {
+				// Ignore close exceptions
 			}
-		}.start();
+			try {
+				s.getOutputStream().close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			}
+		}
 	}
 
 	synchronized DaemonService matchService(final String cmd) {
@@ -394,4 +684,15 @@ Repository openRepository(DaemonClient client, String name)
 			return null;
 		}
 	}
+
+	private static class QueuedClient {
+		final DaemonClient client;
+
+		final Socket socket;
+
+		QueuedClient(DaemonClient client, Socket socket) {
+			this.client = client;
+			this.socket = socket;
+		}
+	}
 }
@@ -49,6 +49,9 @@
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 
 import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
 import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
@@ -64,6 +67,10 @@ public class DaemonClient {
 
 	private OutputStream rawOut;
 
+	private Collection<String> extraParameters = Collections.emptyList();
+
+	private long queueDeadline;
+
 	DaemonClient(final Daemon d) {
 		daemon = d;
 	}
@@ -72,6 +79,15 @@ void setRemoteAddress(final InetAddress ia) {
 		peer = ia;
 	}
 
+	/** @return time to stop waiting for a free session; 0 for never. */
+	long getQueueDeadline() {
+		return queueDeadline;
+	}
+
+	void setQueueDeadline(final long deadline) {
+		queueDeadline = deadline;
+	}
+
 	/** @return the daemon which spawned this client. */
 	public Daemon getDaemon() {
 		return daemon;
@@ -92,6 +108,14 @@ public OutputStream getOutputStream() {
 		return rawOut;
 	}
 
+	/**
+	 * @return extra parameters sent by the client after the host on its
+	 *         request line, such as {@code version=2}; empty if none.
+	 */
+	public Collection<String> getExtraParameters() {
+		return extraParameters;
+	}
+
 	void execute(final Socket sock) throws IOException,
 			ServiceNotEnabledException, ServiceNotAuthorizedException {
 		rawIn = new BufferedInputStream(sock.getInputStream());
@@ -104,8 +128,10 @@ void execute(final Socket sock) throws IOException,
 		if (nul >= 0) {
 			// Newer clients hide a "host" header behind this byte.
 			// Currently we don't use it for anything, so we ignore
-			// this portion of the command.
+			// this portion of the command. Extra parameters, such
+			// as the protocol version, follow a second NUL byte.
 			//
+			extraParameters = parseExtraParameters(cmd.substring(nul + 1));
 			cmd = cmd.substring(0, nul);
 		}
 
@@ -113,6 +139,28 @@ void execute(final Socket sock) throws IOException,
 		if (srv == null)
 			return;
 		sock.setSoTimeout(0);
-		srv.execute(this, cmd);
+		if (!srv.acquireSession(queueDeadline)) {
+			Daemon.sendBusy(rawOut);
+			return;
+		}
+		try {
+			srv.execute(this, cmd);
+		} finally {
+			srv.releaseSession();
+		}
+	}
+
+	private static Collection<String> parseExtraParameters(String headers) {
+		// The host header (if any) ends with NUL, an empty header then
+		// separates it from the NUL terminated extra parameters.
+		Collection<String> params = new ArrayList<String>();
+		boolean extra = false;
+		for (String p : headers.split("\0")) { //$NON-NLS-1$
+			if (p.length() == 0)
+				extra = true;
+			else if (extra)
+				params.add(p);
+		}
+		return params;
 	}
 }
@@ -62,6 +62,8 @@ public abstract class DaemonService {
 
 	private boolean overridable;
 
+	private final SessionLimiter sessions = new SessionLimiter();
+
 	DaemonService(final String cmdName, final String cfgName) {
 		command = cmdName.startsWith("git-") ? cmdName : "git-" + cmdName; //$NON-NLS-1$ //$NON-NLS-2$
 		configKey = new SectionParser<ServiceConfig>() {
@@ -108,6 +110,49 @@ public void setOverridable(final boolean on) {
 		overridable = on;
 	}
 
+	/** @return maximum number of concurrent sessions; 0 if unlimited. */
+	public int getMaxSessions() {
+		return sessions.getMax();
+	}
+
+	/**
+	 * Set the maximum number of sessions of this service served at once.
+	 * <p>
+	 * Requests beyond the limit wait, within the queue timeout of the daemon,
+	 * for a running session to end. A waiting request holds on to the
+	 * daemon-wide session it was admitted with, so the limit should be below
+	 * {@link Daemon#getMaxSessions()} to leave room for the other services.
+	 *
+	 * @param n
+	 *            maximum number of concurrent sessions; 0 for no limit.
+	 */
+	public void setMaxSessions(int n) {
+		sessions.setMax(n);
+	}
+
+	/** @return number of sessions of this service being served right now. */
+	public int getActiveSessions() {
+		return sessions.getActive();
+	}
+
+	/** @return number of requests waiting for a session of this service. */
+	public int getQueuedSessions() {
+		return sessions.getWaiting();
+	}
+
+	/** @return number of requests that gave up waiting for a session. */
+	public long getRejectedSessions() {
+		return sessions.getRejected();
+	}
+
+	boolean acquireSession(long deadline) {
+		return sessions.acquire(deadline);
+	}
+
+	void releaseSession() {
+		sessions.release();
+	}
+
 	/** @return name of the command requested by clients. */
 	public String getCommandName() {
 		return command;
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Shallow boundaries computed by {@link UploadPack}, by tip commit and depth.
+ * <p>
+ * Clients fetching with a fixed depth, such as build servers cloning with
+ * {@code --depth 1}, ask for the boundary of the same tips over and over. The
+ * history below a commit never changes, so the boundary found for a commit
+ * and a depth stays valid for as long as the commit exists, and entries need
+ * not be dropped when refs are updated.
+ * <p>
+ * The cache is bounded by the number of commits its entries name. Entries are
+ * evicted least recently used first.
+ */
+public class DepthBoundaryCache {
+	private static final RepositoryCacheMap<DepthBoundaryCache> caches = new RepositoryCacheMap<DepthBoundaryCache>(
+			RepositoryCacheMap.DEFAULT_MAX_REPOSITORIES) {
+		@Override
+		DepthBoundaryCache create(Repository db) {
+			return new DepthBoundaryCache(maxCommits(db));
+		}
+	};
+
+	/**
+	 * Get the cache configured for a repository.
+	 * <p>
+	 * The cache is enabled by setting {@code uploadpack.depthCacheSize} to the
+	 * number of commits it may name. Repositories opened more than once share
+	 * the same cache; only the caches of the most recently used repositories
+	 * are kept.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @return the cache; null if the repository has no cache configured.
+	 */
+	public static DepthBoundaryCache get(Repository db) {
+		File dir = db.getDirectory();
+		if (dir == null)
+			return null;
+		int size = maxCommits(db);
+		if (size <= 0)
+			return null;
+
+		DepthBoundaryCache cache = caches.get(db);
+		cache.setMaxCommits(size);
+		return cache;
+	}
+
+	private static int maxCommits(Repository db) {
+		return db.getConfig().getInt("uploadpack", "depthcachesize", 0); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private final Map<Key, Boundary> entries = new LinkedHashMap<Key, Boundary>(
+			16, 0.75f, true);
+
+	private int maxCommits;
+
+	private int commits;
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param maxCommits
+	 *            number of commits the cached boundaries may name in total.
+	 */
+	public DepthBoundaryCache(int maxCommits) {
+		this.maxCommits = maxCommits;
+	}
+
+	/**
+	 * Set the number of commits the cached boundaries may name in total.
+	 *
+	 * @param maxCommits
+	 *            the new limit.
+	 */
+	public synchronized void setMaxCommits(int maxCommits) {
+		this.maxCommits = maxCommits;
+		evict();
+	}
+
+	/** Drop all cached boundaries. */
+	public synchronized void invalidate() {
+		entries.clear();
+		commits = 0;
+	}
+
+	synchronized Boundary lookup(AnyObjectId tip, int depth) {
+		return entries.get(new Key(tip, depth));
+	}
+
+	synchronized void put(AnyObjectId tip, int depth, Boundary b) {
+		if (b.size() > maxCommits)
+			return;
+		Boundary old = entries.put(new Key(tip.copy(), depth), b);
+		if (old != null)
+			commits -= old.size();
+		commits += b.size();
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Boundary> i = entries.values().iterator();
+		while (commits > maxCommits && i.hasNext()) {
+			commits -= i.next().size();
+			i.remove();
+		}
+	}
+
+	private static final class Key {
+		final AnyObjectId tip;
+
+		final int depth;
+
+		Key(AnyObjectId tip, int depth) {
+			this.tip = tip;
+			this.depth = depth;
+		}
+
+		@Override
+		public int hashCode() {
+			return tip.hashCode() * 31 + depth;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return depth == k.depth && AnyObjectId.equals(tip, k.tip);
+			}
+			return false;
+		}
+	}
+
+	/** The shallow boundary below one tip commit. */
+	static class Boundary {
+		/** Commits above the boundary, sent with their parents. */
+		final List<ObjectId> interior;
+
+		/** Commits at the boundary, recorded as shallow by the client. */
+		final List<ObjectId> shallow;
+
+		Boundary(Collection<ObjectId> interior, Collection<ObjectId> shallow) {
+			this.interior = Collections.unmodifiableList(Arrays
+					.asList(interior.toArray(new ObjectId[interior.size()])));
+			this.shallow = Collections.unmodifiableList(Arrays
+					.asList(shallow.toArray(new ObjectId[shallow.size()])));
+		}
+
+		int size() {
+			return interior.size() + shallow.size();
+		}
+	}
+}
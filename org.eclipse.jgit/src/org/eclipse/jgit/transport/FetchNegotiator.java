@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Chooses the "have" lines a client sends while negotiating a fetch.
+ * <p>
+ * A negotiator is created for a single fetch and is told about the local
+ * starting points with {@link #addTip(RevCommit)} and about the commits the
+ * remote advertised with {@link #knownCommon(RevCommit)}. The connection then
+ * repeatedly asks {@link #next()} for a commit to offer, and reports each
+ * commit acknowledged by the remote through {@link #ack(RevCommit)}.
+ * <p>
+ * Implementations share the {@link RevWalk} of the connection, so they must
+ * use their own {@link org.eclipse.jgit.revwalk.RevFlag}s to remember state
+ * on the commits.
+ */
+public abstract class FetchNegotiator {
+	/** Negotiation algorithms understood by {@link #create(Algorithm, RevWalk)}. */
+	public static enum Algorithm {
+		/** Offer every local commit, newest first. */
+		CONSECUTIVE,
+
+		/**
+		 * Offer commits with exponentially growing gaps along each line of
+		 * history, trading a larger pack for far fewer round trips.
+		 */
+		SKIPPING,
+
+		/** Offer nothing, asking the remote for everything that was wanted. */
+		NOOP;
+	}
+
+	/**
+	 * Create a negotiator for one fetch.
+	 *
+	 * @param algorithm
+	 *            the algorithm to use.
+	 * @param walk
+	 *            the walk the commits passed to the negotiator come from.
+	 * @return a new negotiator.
+	 */
+	public static FetchNegotiator create(Algorithm algorithm, RevWalk walk) {
+		switch (algorithm) {
+		case SKIPPING:
+			return new SkippingFetchNegotiator(walk);
+		case NOOP:
+			return new FetchNegotiator(walk) {
+				@Override
+				public void addTip(RevCommit c) {
+					// Nothing is ever offered.
+				}
+
+				@Override
+				public void knownCommon(RevCommit c) {
+					// Nothing is ever offered.
+				}
+
+				@Override
+				public RevCommit next() {
+					return null;
+				}
+
+				@Override
+				public boolean ack(RevCommit c) {
+					return false;
+				}
+			};
+		case CONSECUTIVE:
+		default:
+			return new ConsecutiveFetchNegotiator(walk);
+		}
+	}
+
+	/** The walk the commits handled by this negotiator come from. */
+	protected final RevWalk walk;
+
+	/**
+	 * Initialize a negotiator.
+	 *
+	 * @param walk
+	 *            the walk the commits passed to the negotiator come from.
+	 */
+	protected FetchNegotiator(RevWalk walk) {
+		this.walk = walk;
+	}
+
+	/**
+	 * Add a local commit to start negotiating from.
+	 *
+	 * @param c
+	 *            a commit reachable from a local reference.
+	 * @throws IOException
+	 *             the commit could not be parsed.
+	 */
+	public abstract void addTip(RevCommit c) throws IOException;
+
+	/**
+	 * Note a commit the remote advertised and that is available locally.
+	 * <p>
+	 * The remote certainly has the commit and everything it depends on, so
+	 * none of its ancestors needs to be offered.
+	 *
+	 * @param c
+	 *            the advertised commit.
+	 * @throws IOException
+	 *             the commit could not be parsed.
+	 */
+	public abstract void knownCommon(RevCommit c) throws IOException;
+
+	/**
+	 * Select the next commit to offer as a "have".
+	 *
+	 * @return the next commit to offer; null if there is nothing left worth
+	 *         offering.
+	 * @throws IOException
+	 *             a commit could not be parsed.
+	 */
+	public abstract RevCommit next() throws IOException;
+
+	/**
+	 * Record that the remote acknowledged a commit.
+	 *
+	 * @param c
+	 *            the commit the remote has.
+	 * @return true if the commit was not already known to be common.
+	 * @throws IOException
+	 *             a commit could not be parsed.
+	 */
+	public abstract boolean ack(RevCommit c) throws IOException;
+}
@@ -70,6 +70,7 @@
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.BatchingProgressMonitor;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
@@ -118,9 +119,12 @@ void execute(final ProgressMonitor monitor, final FetchResult result)
 		packLocks.clear();
 		localRefs = null;
 
+		final boolean suspended = PromisorRemote.begin();
 		try {
 			executeImp(monitor, result);
 		} finally {
+			if (suspended)
+				PromisorRemote.end();
 			try {
 			for (final PackLock lock : packLocks)
 				lock.unlock();
@@ -133,7 +137,7 @@ void execute(final ProgressMonitor monitor, final FetchResult result)
 	private void executeImp(final ProgressMonitor monitor,
 			final FetchResult result) throws NotSupportedException,
 			TransportException {
-		conn = transport.openFetch();
+		conn = transport.openFetch(toFetch);
 		try {
 			result.setAdvertisedRefs(transport.getURI(), conn.getRefsMap());
 			final Set<Ref> matched = new HashSet<Ref>();
@@ -155,6 +159,9 @@ private void executeImp(final ProgressMonitor monitor,
 			else if (tagopt == TagOpt.FETCH_TAGS)
 				expandFetchTags();
 
+			if (!askFor.isEmpty() && transport.isUseBundleURIs())
+				fetchBundles(monitor);
+
 			final boolean includedTags;
 			if (!askFor.isEmpty() && !askForIsComplete()) {
 				fetchObjects(monitor);
@@ -254,6 +261,52 @@ private void fetchObjects(final ProgressMonitor monitor)
 					JGitText.get().peerDidNotSupplyACompleteObjectGraph);
 	}
 
+	private void fetchBundles(final ProgressMonitor monitor)
+			throws TransportException {
+		if (!(conn instanceof BasePackFetchConnection))
+			return;
+		for (URIish u : ((BasePackFetchConnection) conn).getBundleURIs()) {
+			if (!isBundleURI(u))
+				continue;
+			try {
+				final Transport tn = Transport.open(transport.local, u);
+				tn.setResumableFetch(transport.isResumableFetch());
+				try {
+					final FetchConnection bundle = tn.openFetch();
+					try {
+						bundle.fetch(monitor, bundle.getRefs(),
+								Collections.<ObjectId> emptySet());
+						for (final Ref r : bundle.getRefs())
+							have.add(r.getObjectId());
+					} finally {
+						packLocks.addAll(bundle.getPackLocks());
+						bundle.close();
+					}
+				} finally {
+					tn.close();
+				}
+			} catch (NotSupportedException e) {
+				// Bundles only save work on the server; anything
+				// they did not provide is negotiated as usual.
+			} catch (TransportException e) {
+				// Likewise, a stale or broken bundle is skipped.
+			}
+		}
+	}
+
+	/**
+	 * Accept only bundles served over HTTP. The list comes from the remote,
+	 * which must not be able to make us read local paths, connect to other
+	 * services or fetch whole repositories.
+	 */
+	private static boolean isBundleURI(URIish u) {
+		final String scheme = u.getScheme();
+		final String path = u.getPath();
+		return ("http".equals(scheme) || "https".equals(scheme)) //$NON-NLS-1$ //$NON-NLS-2$
+				&& u.getHost() != null
+				&& path != null && path.endsWith(".bundle"); //$NON-NLS-1$
+	}
+
 	private void closeConnection(final FetchResult result) {
 		if (conn != null) {
 			conn.close();
@@ -267,7 +320,7 @@ private void reopenConnection() throws NotSupportedException,
 		if (conn != null)
 			return;
 
-		conn = transport.openFetch();
+		conn = transport.openFetch(toFetch);
 
 		// Since we opened a new connection we cannot be certain
 		// that the system we connected to has the same exact set
@@ -344,7 +397,14 @@ private boolean askForIsComplete() throws TransportException {
 					ow.markStart(ow.parseAny(want));
 				for (final Ref ref : localRefs().values())
 					ow.markUninteresting(ow.parseAny(ref.getObjectId()));
-				ow.checkConnectivity();
+				if (isPartial()) {
+					// Trees and blobs may have been filtered out on purpose,
+					// and would be fetched lazily if we tried to walk them.
+					while (ow.next() != null) {
+						// Only the commits have to be present.
+					}
+				} else
+					ow.checkConnectivity();
 			} finally {
 				ow.release();
 			}
@@ -356,6 +416,13 @@ private boolean askForIsComplete() throws TransportException {
 		}
 	}
 
+	private boolean isPartial() {
+		return transport.getFilterSpec() != null
+				|| transport.local.getConfig().getString(
+						ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+						ConfigConstants.CONFIG_KEY_PARTIALCLONE) != null;
+	}
+
 	private void expandWildcard(final RefSpec spec, final Set<Ref> matched)
 			throws TransportException {
 		for (final Ref src : conn.getRefs()) {
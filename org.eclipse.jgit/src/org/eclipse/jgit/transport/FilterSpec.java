@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.internal.JGitText;
+
+/**
+ * Object filter requested by a partial clone.
+ * <p>
+ * A filter asks {@link UploadPack} to omit objects the client does not need
+ * right away from the pack. Objects the client explicitly wants are always
+ * sent. The supported filters are:
+ * <ul>
+ * <li>{@code blob:none}: omit all blobs.</li>
+ * <li>{@code blob:limit=<n>[kmg]}: omit blobs of at least {@code n} bytes.</li>
+ * <li>{@code tree:<depth>}: omit trees and blobs at least {@code depth}
+ * levels below the root tree. {@code tree:0} omits all trees and blobs.</li>
+ * </ul>
+ */
+public final class FilterSpec {
+	/**
+	 * Parse a filter specification.
+	 *
+	 * @param spec
+	 *            the filter, as sent on a {@code filter} line.
+	 * @return the filter.
+	 * @throws IllegalArgumentException
+	 *             the filter is malformed or not supported.
+	 */
+	public static FilterSpec fromString(String spec)
+			throws IllegalArgumentException {
+		try {
+			if (spec.equals("blob:none")) //$NON-NLS-1$
+				return new FilterSpec(spec, 0, -1);
+			if (spec.startsWith("blob:limit=")) //$NON-NLS-1$
+				return new FilterSpec(spec, parseSize(spec.substring(11)), -1);
+			if (spec.startsWith("tree:")) { //$NON-NLS-1$
+				long depth = Long.parseLong(spec.substring(5));
+				if (0 <= depth)
+					return new FilterSpec(spec, -1, depth);
+			}
+		} catch (NumberFormatException notNumber) {
+			// Fall through, the filter is invalid.
+		}
+		throw new IllegalArgumentException(MessageFormat.format(
+				JGitText.get().invalidFilter, spec));
+	}
+
+	private static long parseSize(String s) {
+		long unit = 1;
+		int last = s.length() - 1;
+		char c = last >= 0 ? Character.toLowerCase(s.charAt(last)) : 0;
+		if (c == 'k')
+			unit = 1024;
+		else if (c == 'm')
+			unit = 1024 * 1024;
+		else if (c == 'g')
+			unit = 1024 * 1024 * 1024;
+		if (unit != 1)
+			s = s.substring(0, last);
+		long n = Long.parseLong(s);
+		if (n < 0)
+			throw new NumberFormatException(s);
+		return n * unit;
+	}
+
+	private final String spec;
+
+	private final long blobLimit;
+
+	private final long treeDepthLimit;
+
+	private FilterSpec(String spec, long blobLimit, long treeDepthLimit) {
+		this.spec = spec;
+		this.blobLimit = blobLimit;
+		this.treeDepthLimit = treeDepthLimit;
+	}
+
+	/**
+	 * @return blobs of this size or larger are omitted; 0 if all blobs are
+	 *         omitted, -1 if blobs are not filtered by size.
+	 */
+	public long getBlobLimit() {
+		return blobLimit;
+	}
+
+	/**
+	 * @return trees and blobs at this depth or deeper are omitted, the root
+	 *         tree being at depth 0; -1 if objects are not filtered by depth.
+	 */
+	public long getTreeDepthLimit() {
+		return treeDepthLimit;
+	}
+
+	@Override
+	public int hashCode() {
+		return spec.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof FilterSpec
+				&& spec.equals(((FilterSpec) other).spec);
+	}
+
+	/** @return the filter as sent on a {@code filter} line. */
+	@Override
+	public String toString() {
+		return spec;
+	}
+}
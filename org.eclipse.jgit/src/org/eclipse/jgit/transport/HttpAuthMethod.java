@@ -48,7 +48,6 @@
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -58,6 +57,7 @@
 import java.util.Map;
 import java.util.Random;
 
+import org.eclipse.jgit.transport.http.HttpConnection;
 import org.eclipse.jgit.util.Base64;
 
 /**
@@ -77,7 +77,7 @@ abstract class HttpAuthMethod {
 	 *            the connection that failed.
 	 * @return new authentication method to try.
 	 */
-	static HttpAuthMethod scanResponse(HttpURLConnection conn) {
+	static HttpAuthMethod scanResponse(HttpConnection conn) {
 		String hdr = conn.getHeaderField(HDR_WWW_AUTHENTICATE);
 		if (hdr == null || hdr.length() == 0)
 			return NONE;
@@ -147,7 +147,7 @@ boolean authorize(URIish uri, CredentialsProvider credentialsProvider) {
 	 * @param conn
 	 * @throws IOException
 	 */
-	abstract void configureRequest(HttpURLConnection conn) throws IOException;
+	abstract void configureRequest(HttpConnection conn) throws IOException;
 
 	/** Performs no user authentication. */
 	private static class None extends HttpAuthMethod {
@@ -157,7 +157,7 @@ void authorize(String user, String pass) {
 		}
 
 		@Override
-		void configureRequest(HttpURLConnection conn) throws IOException {
+		void configureRequest(HttpConnection conn) throws IOException {
 			// Do nothing when no authentication is enabled.
 		}
 	}
@@ -177,7 +177,7 @@ void authorize(final String username, final String password) {
 		}
 
 		@Override
-		void configureRequest(final HttpURLConnection conn) throws IOException {
+		void configureRequest(final HttpConnection conn) throws IOException {
 			String ident = user + ":" + pass; //$NON-NLS-1$
 			String enc = Base64.encodeBytes(ident.getBytes("UTF-8")); //$NON-NLS-1$
 			conn.setRequestProperty(HDR_AUTHORIZATION, NAME + " " + enc); //$NON-NLS-1$
@@ -217,7 +217,7 @@ void authorize(final String username, final String password) {
 
 		@SuppressWarnings("boxing")
 		@Override
-		void configureRequest(final HttpURLConnection conn) throws IOException {
+		void configureRequest(final HttpConnection conn) throws IOException {
 			final Map<String, String> r = new LinkedHashMap<String, String>();
 
 			final String realm = params.get("realm"); //$NON-NLS-1$
@@ -46,12 +46,38 @@
 package org.eclipse.jgit.transport;
 
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+import org.eclipse.jgit.transport.http.JDKHttpConnectionFactory;
 
 /**
  * The base class for transports that use HTTP as underlying protocol. This class
  * allows customizing HTTP connection settings.
  */
 public abstract class HttpTransport extends Transport {
+	/** The factory used to create new HTTP connections. */
+	protected static volatile HttpConnectionFactory connectionFactory = new JDKHttpConnectionFactory();
+
+	/**
+	 * @return the {@link HttpConnectionFactory} used to create new connections
+	 */
+	public static HttpConnectionFactory getConnectionFactory() {
+		return connectionFactory;
+	}
+
+	/**
+	 * Set the {@link HttpConnectionFactory} to be used to create new
+	 * connections.
+	 * <p>
+	 * The factory decides whether and how connections are kept alive and
+	 * reused between requests. It applies to transports opened afterwards.
+	 *
+	 * @param cf
+	 *            the factory to use.
+	 */
+	public static void setConnectionFactory(HttpConnectionFactory cf) {
+		connectionFactory = cf;
+	}
+
 	/**
 	 * Create a new transport instance.
 	 *
@@ -54,8 +54,15 @@
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
@@ -77,14 +84,110 @@
  * The factory does not provide UI behavior. Override the method
  * {@link #configure(org.eclipse.jgit.transport.OpenSshConfig.Host, Session)}
  * to supply appropriate {@link UserInfo} to the session.
+ * <p>
+ * Connected sessions can be kept for reuse by setting
+ * {@link #setSessionIdleTimeout(int)}. A later request for the same
+ * destination then opens a new exec channel on the existing session instead
+ * of repeating the key exchange and authentication. Sessions are shared only
+ * between requests with the same user, host, port, identity file, password
+ * and {@link CredentialsProvider} instance; subclasses whose
+ * {@link #configure(org.eclipse.jgit.transport.OpenSshConfig.Host, Session)}
+ * or {@link #getJSch(org.eclipse.jgit.transport.OpenSshConfig.Host, FS)}
+ * authenticate the same destination differently per request must not enable
+ * reuse.
  */
 public abstract class JschConfigSessionFactory extends SshSessionFactory {
+	private static ScheduledThreadPoolExecutor idleQueue;
+
 	private final Map<String, JSch> byIdentityFile = new HashMap<String, JSch>();
 
+	private final Map<SessionKey, List<CachedSession>> sessions = new HashMap<SessionKey, List<CachedSession>>();
+
 	private JSch defaultJSch;
 
 	private OpenSshConfig config;
 
+	private int idleTimeout;
+
+	private int maxChannels = 10;
+
+	private long sessionsOpened;
+
+	private long sessionsReused;
+
+	private long sessionsClosed;
+
+	/**
+	 * @return seconds an unused session is kept connected for reuse. 0, the
+	 *         default, if sessions are disconnected as soon as they are
+	 *         released.
+	 */
+	public synchronized int getSessionIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Set how long an unused session is kept connected for reuse.
+	 *
+	 * While a session is kept, its reader thread is a daemon thread.
+	 *
+	 * @param seconds
+	 *            seconds to keep an idle session open. 0 disables session
+	 *            reuse and disconnects sessions that are currently idle.
+	 */
+	public synchronized void setSessionIdleTimeout(int seconds) {
+		idleTimeout = Math.max(0, seconds);
+		if (idleTimeout == 0)
+			closeIdleSessions();
+	}
+
+	/** @return maximum number of transports sharing one session. */
+	public synchronized int getMaxChannelsPerSession() {
+		return maxChannels;
+	}
+
+	/**
+	 * Set the maximum number of transports sharing one session.
+	 * <p>
+	 * Servers limit the number of channels open on a single connection
+	 * (OpenSSH's {@code MaxSessions} defaults to 10). Once a cached session
+	 * has this many users a new session is opened for the next request.
+	 *
+	 * @param channels
+	 *            maximum number of concurrent users of a session.
+	 */
+	public synchronized void setMaxChannelsPerSession(int channels) {
+		maxChannels = Math.max(1, channels);
+	}
+
+	/** @return number of sessions connected by this factory. */
+	public synchronized long getSessionsOpened() {
+		return sessionsOpened;
+	}
+
+	/** @return number of requests served by an already connected session. */
+	public synchronized long getSessionsReused() {
+		return sessionsReused;
+	}
+
+	/** @return number of cached sessions disconnected by this factory. */
+	public synchronized long getSessionsClosed() {
+		return sessionsClosed;
+	}
+
+	/** @return number of sessions currently held in the cache. */
+	public synchronized int getCachedSessions() {
+		int cnt = 0;
+		for (List<CachedSession> list : sessions.values())
+			cnt += list.size();
+		return cnt;
+	}
+
+	/** Disconnect every cached session that is not currently in use. */
+	public synchronized void closeIdleSessions() {
+		closeIdleSessions(Long.MAX_VALUE);
+	}
+
 	@Override
 	public synchronized RemoteSession getSession(URIish uri,
 			CredentialsProvider credentialsProvider, FS fs, int tms)
@@ -106,16 +209,28 @@ public synchronized RemoteSession getSession(URIish uri,
 			if (user == null)
 				user = hc.getUser();
 
+			SessionKey cacheKey = new SessionKey(user, host, port,
+					hc.getIdentityFile(), pass, credentialsProvider);
+			if (idleTimeout > 0) {
+				closeIdleSessions(System.currentTimeMillis()
+						- idleTimeout * 1000L);
+				CachedSession cs = reuse(cacheKey);
+				if (cs != null) {
+					sessionsReused++;
+					return new SharedSession(cs, uri);
+				}
+			}
+
 			Session session = createSession(credentialsProvider, fs, user,
 					pass, host, port, hc);
 
 			int retries = 0;
-			while (!session.isConnected() && retries < 3) {
+			while (!isConnected(session) && retries < 3) {
 				try {
 					retries++;
-					session.connect(tms);
+					connect(session, tms);
 				} catch (JSchException e) {
-					session.disconnect();
+					disconnect(session);
 					session = null;
 					// if authentication failed maybe credentials changed at the
 					// remote end therefore reset credentials and retry
@@ -131,7 +246,18 @@ public synchronized RemoteSession getSession(URIish uri,
 				}
 			}
 
-			return new JschSession(session, uri);
+			sessionsOpened++;
+			if (idleTimeout <= 0)
+				return new JschSession(session, uri);
+
+			CachedSession cs = new CachedSession(cacheKey, session);
+			List<CachedSession> list = sessions.get(cacheKey);
+			if (list == null) {
+				list = new ArrayList<CachedSession>(2);
+				sessions.put(cacheKey, list);
+			}
+			list.add(cs);
+			return new SharedSession(cs, uri);
 
 		} catch (JSchException je) {
 			final Throwable c = je.getCause();
@@ -164,9 +290,116 @@ private Session createSession(CredentialsProvider credentialsProvider,
 					credentialsProvider));
 		}
 		configure(hc, session);
+		if (idleTimeout > 0) {
+			// A cached session may outlive its last user for the idle
+			// timeout; its reader thread must not keep the JVM alive.
+			session.setDaemonThread(true);
+		}
 		return session;
 	}
 
+	private CachedSession reuse(SessionKey key) {
+		List<CachedSession> list = sessions.get(key);
+		if (list == null)
+			return null;
+		for (Iterator<CachedSession> i = list.iterator(); i.hasNext();) {
+			CachedSession cs = i.next();
+			if (!isConnected(cs.session)) {
+				if (cs.users == 0) {
+					i.remove();
+					sessionsClosed++;
+				}
+				continue;
+			}
+			if (cs.users < maxChannels) {
+				cs.users++;
+				return cs;
+			}
+		}
+		if (list.isEmpty())
+			sessions.remove(key);
+		return null;
+	}
+
+	private synchronized void release(CachedSession cs) {
+		if (--cs.users > 0)
+			return;
+		cs.idleSince = System.currentTimeMillis();
+		if (idleTimeout <= 0 || !isConnected(cs.session)) {
+			close(cs);
+			return;
+		}
+		getIdleQueue().schedule(new Runnable() {
+			public void run() {
+				synchronized (JschConfigSessionFactory.this) {
+					closeIdleSessions(System.currentTimeMillis()
+							- idleTimeout * 1000L);
+				}
+			}
+		}, idleTimeout, TimeUnit.SECONDS);
+	}
+
+	private void closeIdleSessions(long idleBefore) {
+		for (Iterator<List<CachedSession>> i = sessions.values().iterator(); i
+				.hasNext();) {
+			List<CachedSession> list = i.next();
+			for (Iterator<CachedSession> j = list.iterator(); j.hasNext();) {
+				CachedSession cs = j.next();
+				if (cs.users == 0
+						&& (cs.idleSince <= idleBefore || !isConnected(cs.session))) {
+					j.remove();
+					disconnect(cs);
+				}
+			}
+			if (list.isEmpty())
+				i.remove();
+		}
+	}
+
+	private void close(CachedSession cs) {
+		List<CachedSession> list = sessions.get(cs.key);
+		if (list != null && list.remove(cs) && list.isEmpty())
+			sessions.remove(cs.key);
+		disconnect(cs);
+	}
+
+	private void disconnect(CachedSession cs) {
+		if (isConnected(cs.session))
+			disconnect(cs.session);
+		sessionsClosed++;
+	}
+
+	void connect(Session session, int tms) throws JSchException {
+		session.connect(tms);
+	}
+
+	boolean isConnected(Session session) {
+		return session.isConnected();
+	}
+
+	void disconnect(Session session) {
+		session.disconnect();
+	}
+
+	private static synchronized ScheduledThreadPoolExecutor getIdleQueue() {
+		if (idleQueue == null) {
+			idleQueue = new ScheduledThreadPoolExecutor(1,
+					new ThreadFactory() {
+						private final ThreadFactory baseFactory = Executors
+								.defaultThreadFactory();
+
+						public Thread newThread(Runnable taskBody) {
+							Thread thr = baseFactory.newThread(taskBody);
+							thr.setName("JGit-SshSessionReaper"); //$NON-NLS-1$
+							thr.setDaemon(true);
+							return thr;
+						}
+					});
+			idleQueue.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		}
+		return idleQueue;
+	}
+
 	/**
 	 * Create a new remote session for the requested address.
 	 *
@@ -291,4 +524,88 @@ private static void loadIdentity(final JSch sch, final File priv) {
 			}
 		}
 	}
+
+	/** Destination and credentials a cached session was authenticated with. */
+	private static class SessionKey {
+		private final String user;
+
+		private final String host;
+
+		private final int port;
+
+		private final File identityFile;
+
+		private final String pass;
+
+		private final CredentialsProvider credentialsProvider;
+
+		SessionKey(String user, String host, int port, File identityFile,
+				String pass, CredentialsProvider credentialsProvider) {
+			this.user = user;
+			this.host = host;
+			this.port = port;
+			this.identityFile = identityFile != null ? identityFile
+					.getAbsoluteFile() : null;
+			this.pass = pass;
+			this.credentialsProvider = credentialsProvider;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((user != null ? user.hashCode() : 0) * 31
+					+ (host != null ? host.hashCode() : 0)) * 31 + port;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SessionKey))
+				return false;
+			SessionKey k = (SessionKey) o;
+			return port == k.port && equals(user, k.user)
+					&& equals(host, k.host)
+					&& equals(identityFile, k.identityFile)
+					&& equals(pass, k.pass)
+					&& credentialsProvider == k.credentialsProvider;
+		}
+
+		private static boolean equals(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	private static class CachedSession {
+		final SessionKey key;
+
+		final Session session;
+
+		int users = 1;
+
+		long idleSince;
+
+		CachedSession(SessionKey key, Session session) {
+			this.key = key;
+			this.session = session;
+		}
+	}
+
+	/** A lease on a cached session; disconnecting returns it to the cache. */
+	private class SharedSession extends JschSession {
+		private CachedSession cached;
+
+		SharedSession(CachedSession cs, URIish uri) {
+			super(cs.session, uri);
+			cached = cs;
+		}
+
+		@Override
+		public void disconnect() {
+			CachedSession cs;
+			synchronized (this) {
+				cs = cached;
+				cached = null;
+			}
+			if (cs != null)
+				release(cs);
+		}
+	}
 }
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.errors.LockFailedException;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.ObjectDirectory;
+import org.eclipse.jgit.storage.file.PackFile;
+import org.eclipse.jgit.storage.file.PackIndex;
+import org.eclipse.jgit.storage.file.PackLock;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.io.SafeBufferedOutputStream;
+
+/**
+ * Fetch connection copying objects directly between two local repositories.
+ * <p>
+ * Instead of running UploadPack against a {@link PackParser}, which encodes
+ * and then decodes every object, whole pack files of the source are copied
+ * into the destination when it has none of their objects and every object in
+ * them is reachable from the wanted refs. Objects still missing afterwards,
+ * such as loose objects of the source or objects of packs shared with refs
+ * that were not asked for, are written as one new pack reusing their stored
+ * representation where possible. The received
+ * data is not parsed again, so this connection is only used when fetched
+ * objects need not be checked.
+ */
+class LocalCopyFetchConnection extends BaseFetchConnection {
+	private final URIish uri;
+
+	private final Repository local;
+
+	private final FileRepository src;
+
+	private final List<PackLock> packLocks = new ArrayList<PackLock>(4);
+
+	private String lockMessage;
+
+	LocalCopyFetchConnection(Transport transport, File remoteGitDir)
+			throws TransportException {
+		uri = transport.getURI();
+		local = transport.local;
+		try {
+			src = new FileRepository(remoteGitDir);
+		} catch (IOException err) {
+			throw new TransportException(uri, JGitText.get().notAGitDirectory);
+		}
+
+		final Map<String, Ref> avail = new TreeMap<String, Ref>();
+		for (Ref r : src.getAllRefs().values()) {
+			if (r.getObjectId() == null)
+				continue;
+			r = src.peel(r);
+			final String name = r.getName();
+			final ObjectId id = r.getObjectId();
+			if (r.getPeeledObjectId() != null)
+				avail.put(name, new ObjectIdRef.PeeledTag(Ref.Storage.NETWORK,
+						name, id, r.getPeeledObjectId()));
+			else
+				avail.put(name, new ObjectIdRef.PeeledNonTag(
+						Ref.Storage.NETWORK, name, id));
+		}
+		available(avail);
+	}
+
+	public boolean didFetchTestConnectivity() {
+		return true;
+	}
+
+	public void setPackLockMessage(final String message) {
+		lockMessage = message;
+	}
+
+	public Collection<PackLock> getPackLocks() {
+		return packLocks;
+	}
+
+	@Override
+	protected void doFetch(final ProgressMonitor monitor,
+			final Collection<Ref> want, final Set<ObjectId> have)
+			throws TransportException {
+		try {
+			final ObjectDirectory dst = (ObjectDirectory) local
+					.getObjectDatabase();
+			final ObjectIdSubclassMap<RevObject> wanted = findWanted(want,
+					have);
+			for (PackFile pack : src.getObjectDatabase().getPacks()) {
+				if (canCopy(dst, pack, wanted))
+					copyPack(dst, pack);
+			}
+			writeMissing(monitor, dst, wanted);
+		} catch (IOException err) {
+			throw new TransportException(uri, err.getMessage(), err);
+		}
+	}
+
+	private ObjectIdSubclassMap<RevObject> findWanted(Collection<Ref> want,
+			Set<ObjectId> have) throws IOException {
+		final ObjectIdSubclassMap<RevObject> wanted = new ObjectIdSubclassMap<RevObject>();
+		final ObjectWalk ow = new ObjectWalk(src);
+		try {
+			for (Ref r : want)
+				ow.markStart(ow.parseAny(r.getObjectId()));
+			for (ObjectId id : have)
+				markUninteresting(ow, id);
+			for (Ref r : local.getAllRefs().values()) {
+				if (r.getObjectId() != null)
+					markUninteresting(ow, r.getObjectId());
+			}
+
+			RevObject o;
+			while ((o = ow.next()) != null)
+				wanted.add(o);
+			while ((o = ow.nextObject()) != null)
+				wanted.add(o);
+		} finally {
+			ow.release();
+		}
+		return wanted;
+	}
+
+	/**
+	 * A pack may be copied only if the destination has none of its objects
+	 * and all of them were asked for; otherwise the copy would give the
+	 * destination objects of refs it did not fetch.
+	 */
+	private static boolean canCopy(ObjectDirectory dst, PackFile pack,
+			ObjectIdSubclassMap<RevObject> wanted) throws IOException {
+		if (new File(packDir(dst), pack.getPackFile().getName()).exists())
+			return false;
+		for (PackIndex.MutableEntry e : pack) {
+			final ObjectId id = e.toObjectId();
+			if (!wanted.contains(id) || dst.has(id))
+				return false;
+		}
+		return true;
+	}
+
+	private void copyPack(ObjectDirectory dst, PackFile pack)
+			throws IOException {
+		final File dir = packDir(dst);
+		FileUtils.mkdirs(dir, true);
+		final File tmpPack = File.createTempFile("local_", ".pack_tmp", dir); //$NON-NLS-1$ //$NON-NLS-2$
+		final File tmpIdx = new File(dir, tmpPack.getName() + ".idx_tmp"); //$NON-NLS-1$
+		try {
+			final File srcPack = pack.getPackFile();
+			final String base = srcPack.getName().substring(0,
+					srcPack.getName().length() - 5);
+			copy(srcPack, tmpPack);
+			copy(new File(srcPack.getParentFile(), base + ".idx"), tmpIdx); //$NON-NLS-1$
+			install(dst, tmpPack, tmpIdx, new File(dir, base + ".pack"), //$NON-NLS-1$
+					new File(dir, base + ".idx")); //$NON-NLS-1$
+		} finally {
+			delete(tmpPack);
+			delete(tmpIdx);
+		}
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		final FileChannel in = new FileInputStream(from).getChannel();
+		try {
+			final FileChannel out = new FileOutputStream(to).getChannel();
+			try {
+				final long size = in.size();
+				long pos = 0;
+				while (pos < size)
+					pos += in.transferTo(pos, size - pos, out);
+				out.force(true);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void writeMissing(ProgressMonitor monitor, ObjectDirectory dst,
+			ObjectIdSubclassMap<RevObject> wanted) throws IOException {
+		final List<RevObject> missing = new ArrayList<RevObject>();
+		for (RevObject o : wanted) {
+			if (!dst.has(o))
+				missing.add(o);
+		}
+		if (missing.isEmpty())
+			return;
+
+		final PackWriter pw = new PackWriter(new PackConfig(local),
+				src.newObjectReader());
+		final File dir = packDir(dst);
+		FileUtils.mkdirs(dir, true);
+		final File tmpPack = File.createTempFile("local_", ".pack_tmp", dir); //$NON-NLS-1$ //$NON-NLS-2$
+		final File tmpIdx = new File(dir, tmpPack.getName() + ".idx_tmp"); //$NON-NLS-1$
+		try {
+			pw.preparePack(missing.iterator());
+			OutputStream out = new SafeBufferedOutputStream(
+					new FileOutputStream(tmpPack));
+			try {
+				pw.writePack(monitor, monitor, out);
+			} finally {
+				out.close();
+			}
+			out = new SafeBufferedOutputStream(new FileOutputStream(tmpIdx));
+			try {
+				pw.writeIndex(out);
+			} finally {
+				out.close();
+			}
+
+			final String name = "pack-" + pw.computeName().name(); //$NON-NLS-1$
+			install(dst, tmpPack, tmpIdx, new File(dir, name + ".pack"), //$NON-NLS-1$
+					new File(dir, name + ".idx")); //$NON-NLS-1$
+		} finally {
+			pw.release();
+			delete(tmpPack);
+			delete(tmpIdx);
+		}
+	}
+
+	private void markUninteresting(ObjectWalk ow, ObjectId id)
+			throws IOException {
+		if (src.hasObject(id))
+			ow.markUninteresting(ow.parseAny(id));
+	}
+
+	private void install(ObjectDirectory dst, File tmpPack, File tmpIdx,
+			File finalPack, File finalIdx) throws IOException {
+		if (finalPack.exists())
+			return;
+		tmpPack.setReadOnly();
+		tmpIdx.setReadOnly();
+
+		final PackLock keep = new PackLock(finalPack, local.getFS());
+		if (lockMessage != null && !keep.lock(lockMessage))
+			throw new LockFailedException(finalPack, MessageFormat.format(
+					JGitText.get().cannotLockPackIn, finalPack));
+		if (!tmpPack.renameTo(finalPack)) {
+			keep.unlock();
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotMovePackTo, finalPack));
+		}
+		if (!tmpIdx.renameTo(finalIdx)) {
+			keep.unlock();
+			delete(finalPack);
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotMoveIndexTo, finalIdx));
+		}
+		dst.openPack(finalPack);
+		if (lockMessage != null)
+			packLocks.add(keep);
+	}
+
+	private static File packDir(ObjectDirectory db) {
+		return new File(db.getDirectory(), "pack"); //$NON-NLS-1$
+	}
+
+	private static void delete(File f) {
+		if (f.exists() && !f.delete())
+			f.deleteOnExit();
+	}
+
+	@Override
+	public void close() {
+		src.close();
+	}
+}
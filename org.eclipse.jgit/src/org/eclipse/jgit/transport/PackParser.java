@@ -54,7 +54,14 @@
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -78,6 +85,7 @@
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ObjectStream;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
 import org.eclipse.jgit.storage.file.PackLock;
 import org.eclipse.jgit.storage.pack.BinaryDelta;
 import org.eclipse.jgit.util.BlockList;
@@ -184,6 +192,24 @@ public static enum Source {
 	/** Git object size limit */
 	private long maxObjectSizeLimit;
 
+	/** Number of threads used to resolve deltas. */
+	private int resolveThreads = 1;
+
+	/** Whether the object list may be dropped once it was copied. */
+	private boolean releaseObjects;
+
+	/** Guards the delta maps and subclass events while resolving. */
+	private final Object resolveLock = new Object();
+
+	/** Number of buffers each pipeline stage may hold; 0 disables it. */
+	private int pipelineDepth;
+
+	/** Counters of the pipeline stages, if the last parse used them. */
+	private PipelineStatistics pipelineStats;
+
+	/** Stage archiving the stream, while the input is being read. */
+	private PackPipeline.StoreStage storeStage;
+
 	/**
 	 * Initialize a pack parser.
 	 *
@@ -367,6 +393,62 @@ public void setMaxObjectSizeLimit(long limit) {
 		maxObjectSizeLimit = limit;
 	}
 
+	/** @return number of threads used to resolve deltas. */
+	public int getResolveThreads() {
+		return resolveThreads;
+	}
+
+	/**
+	 * Set the number of threads used to resolve deltas.
+	 * <p>
+	 * When more than one thread is requested, and the implementation can
+	 * supply independent readers through {@link #openDatabaseReader()}, the
+	 * delta chains hanging off each base object in the pack are resolved
+	 * concurrently. Each thread inflates, applies and hashes its own chains.
+	 * Otherwise deltas are resolved on the calling thread.
+	 *
+	 * @param threads
+	 *            number of threads to use. If &lt;= 0 the number of available
+	 *            processors for this JVM is used.
+	 */
+	public void setResolveThreads(int threads) {
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		resolveThreads = threads;
+	}
+
+	/** @return number of buffers each pipeline stage may hold. */
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	/**
+	 * Overlap reading, parsing and storing of the incoming stream.
+	 * <p>
+	 * When enabled, {@link #onStoreStream(byte[], int, int)} and the pack
+	 * checksum are computed on a background thread, leaving the calling thread
+	 * to inflate and hash objects. If the stream is known to end with the pack
+	 * (see {@link #setCheckEofAfterPackFooter(boolean)}) and no data is
+	 * expected after the footer, a second background thread also reads the
+	 * input ahead of the parser. Each stage holds at most {@code depth}
+	 * buffers of 8 KiB.
+	 *
+	 * @param depth
+	 *            number of buffers per stage. 0 (the default) parses the
+	 *            stream on the calling thread only.
+	 */
+	public void setPipelineDepth(int depth) {
+		pipelineDepth = Math.max(0, depth);
+	}
+
+	/**
+	 * @return counters describing the stages of the last pipelined parse; null
+	 *         if the parse was not pipelined.
+	 */
+	public PipelineStatistics getPipelineStatistics() {
+		return pipelineStats;
+	}
+
 	/**
 	 * Get the number of objects in the stream.
 	 * <p>
@@ -395,6 +477,48 @@ public PackedObjectInfo getObject(int nth) {
 		return entries[nth];
 	}
 
+	/** @return true if the object list may be dropped after parsing. */
+	public boolean isReleaseObjects() {
+		return releaseObjects;
+	}
+
+	/**
+	 * Allow the object list to be dropped once the implementation copied it.
+	 * <p>
+	 * Implementations that index the pack from another structure can then
+	 * let each entry be collected as soon as it was copied. Callers enabling
+	 * this must not use {@link #getObject(int)} or
+	 * {@link #getSortedObjectList(Comparator)} after parsing. Off by default.
+	 *
+	 * @param release
+	 *            true to allow the object list to be dropped.
+	 */
+	public void setReleaseObjects(boolean release) {
+		releaseObjects = release;
+	}
+
+	/**
+	 * Get the information about an object and forget it.
+	 * <p>
+	 * Subclasses copying the object list into another structure may call this
+	 * to let each entry be collected once it was copied, instead of holding
+	 * both copies at once. The entry is only forgotten if
+	 * {@link #setReleaseObjects(boolean)} allowed it; afterwards
+	 * {@link #getObject(int)} returns null for the object.
+	 * {@link #getObjectCount()} is not affected.
+	 *
+	 * @param nth
+	 *            index of the object in the stream. Must be between 0 and
+	 *            {@link #getObjectCount()}-1.
+	 * @return the object information.
+	 */
+	protected PackedObjectInfo releaseObject(int nth) {
+		final PackedObjectInfo oe = entries[nth];
+		if (releaseObjects)
+			entries[nth] = null;
+		return oe;
+	}
+
 	/**
 	 * Get all of the objects, sorted by their name.
 	 * <p>
@@ -456,7 +580,18 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 
 		if (receiving == resolving)
 			receiving.start(2 /* tasks */);
+		PackPipeline.ReadStage readStage = null;
 		try {
+			if (0 < pipelineDepth) {
+				pipelineStats = new PipelineStatistics();
+				if (checkEofAfterPackFooter && !expectDataAfterPackFooter) {
+					readStage = new PackPipeline.ReadStage(in, pipelineDepth,
+							buf.length, pipelineStats);
+					in = readStage;
+				}
+				storeStage = new PackPipeline.StoreStage(this, pipelineDepth,
+						buf.length, pipelineStats);
+			}
 			readPackHeader();
 
 			entries = new PackedObjectInfo[(int) objectCount];
@@ -511,6 +646,13 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 			baseById = null;
 			baseByPos = null;
 		} finally {
+			if (readStage != null)
+				readStage.close();
+			if (storeStage != null) {
+				storeStage.abort();
+				storeStage = null;
+			}
+
 			try {
 				if (readCurs != null)
 					readCurs.release();
@@ -529,6 +671,9 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 
 	private void resolveDeltas(final ProgressMonitor progress)
 			throws IOException {
+		if (1 < resolveThreads && resolveDeltasInParallel(progress))
+			return;
+
 		final int last = entryCount;
 		for (int i = 0; i < last; i++) {
 			resolveDeltas(entries[i], progress);
@@ -620,6 +765,85 @@ private void resolveDeltas(DeltaVisit visit, final int type,
 		} while (visit != null);
 	}
 
+	private boolean resolveDeltasInParallel(final ProgressMonitor progress)
+			throws IOException {
+		List<DatabaseReader> readers = new ArrayList<DatabaseReader>(
+				resolveThreads);
+		try {
+			DatabaseReader r = openDatabaseReader();
+			if (r == null)
+				return false;
+			readers.add(r);
+
+			final List<DeltaRoot> roots = new ArrayList<DeltaRoot>();
+			final int last = entryCount;
+			for (int i = 0; i < last; i++) {
+				UnresolvedDelta children = firstChildOf(entries[i]);
+				if (children != null)
+					roots.add(new DeltaRoot(entries[i], children));
+			}
+			if (roots.isEmpty())
+				return true;
+
+			int threads = Math.min(resolveThreads, roots.size());
+			while (readers.size() < threads)
+				readers.add(openDatabaseReader());
+
+			ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(
+					progress);
+			AtomicInteger nextRoot = new AtomicInteger();
+			List<DeltaResolver> tasks = new ArrayList<DeltaResolver>(threads);
+			for (DatabaseReader dr : readers)
+				tasks.add(new DeltaResolver(dr, roots, nextRoot, pm));
+			readers.clear(); // Each task closes its own reader.
+			pm.startWorkers(tasks.size());
+
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<Object>> futures = new ArrayList<Future<Object>>(
+						tasks.size());
+				for (DeltaResolver task : tasks)
+					futures.add(pool.submit(task));
+
+				try {
+					pm.waitForCompletion();
+					for (Future<Object> f : futures)
+						f.get();
+				} catch (InterruptedException e) {
+					for (Future<Object> f : futures)
+						f.cancel(true);
+					throw new IOException(
+							JGitText.get().downloadCancelledDuringIndexing);
+				} catch (ExecutionException e) {
+					Throwable err = e.getCause();
+					if (err instanceof IOException)
+						throw (IOException) err;
+					if (err instanceof RuntimeException)
+						throw (RuntimeException) err;
+					if (err instanceof Error)
+						throw (Error) err;
+					IOException fail = new IOException(err.getMessage());
+					fail.initCause(err);
+					throw fail;
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+
+			// Record results in the same order a serial resolution would.
+			for (DeltaRoot root : roots)
+				for (PackedObjectInfo oe : root.resolved)
+					addObjectAndTrack(oe);
+			if (progress.isCancelled())
+				throw new IOException(
+						JGitText.get().downloadCancelledDuringIndexing);
+			return true;
+		} finally {
+			for (DatabaseReader r : readers)
+				r.close();
+		}
+	}
+
 	private final void checkIfTooLarge(int typeCode, long size)
 			throws IOException {
 		if (0 < maxObjectSizeLimit && maxObjectSizeLimit < size)
@@ -836,6 +1060,10 @@ private void readPackHeader() throws IOException {
 
 	private void readPackFooter() throws IOException {
 		sync();
+		if (storeStage != null) {
+			storeStage.finish();
+			storeStage = null;
+		}
 		final byte[] actHash = packDigest.digest();
 
 		final int c = fill(Source.INPUT, 20);
@@ -994,9 +1222,17 @@ private void whole(final long pos, final int type, final long sz)
 
 	private void verifySafeObject(final AnyObjectId id, final int type,
 			final byte[] data) throws IOException {
+		verifySafeObject(readCurs, id, type, data);
+	}
+
+	private void verifySafeObject(final ObjectReader or,
+			final AnyObjectId id, final int type, final byte[] data)
+			throws IOException {
 		if (objCheck != null) {
 			try {
-				objCheck.check(type, data);
+				synchronized (objCheck) {
+					objCheck.check(type, data);
+				}
 			} catch (CorruptObjectException e) {
 				throw new IOException(MessageFormat.format(
 						JGitText.get().invalidObject, Constants
@@ -1005,7 +1241,7 @@ private void verifySafeObject(final AnyObjectId id, final int type,
 		}
 
 		try {
-			final ObjectLoader ldr = readCurs.open(id, type);
+			final ObjectLoader ldr = or.open(id, type);
 			final byte[] existingData = ldr.getCachedBytes(data.length);
 			if (!Arrays.equals(data, existingData)) {
 				throw new IOException(MessageFormat.format(
@@ -1125,8 +1361,10 @@ private int fill(final Source src, final int need) throws IOException {
 
 	// Store consumed bytes in {@link #buf} up to {@link #bOffset}.
 	private void sync() throws IOException {
-		packDigest.update(buf, 0, bOffset);
-		onStoreStream(buf, 0, bOffset);
+		if (storeStage != null)
+			storeStage.store(buf, 0, bOffset);
+		else
+			storeStream(buf, 0, bOffset);
 		if (expectDataAfterPackFooter) {
 			if (bAvail > 0) {
 				in.reset();
@@ -1140,11 +1378,39 @@ private void sync() throws IOException {
 		bOffset = 0;
 	}
 
+	void storeStream(byte[] raw, int pos, int len) throws IOException {
+		packDigest.update(raw, pos, len);
+		onStoreStream(raw, pos, len);
+	}
+
 	/** @return a temporary byte array for use by the caller. */
 	protected byte[] buffer() {
 		return tempBuffer;
 	}
 
+	/**
+	 * Open an independent reader over the pack data already stored.
+	 * <p>
+	 * Invoked only when more than one resolve thread was configured with
+	 * {@link #setResolveThreads(int)}, after the entire stream was stored with
+	 * {@link #onStoreStream(byte[], int, int)}. Each reader is used by one
+	 * thread at a time. Implementations that return a reader must compute the
+	 * CRC-32 given to {@link PackedObjectInfo#setCRC(int)} and
+	 * {@link UnresolvedDelta#setCRC(int)} over the object's header and deflated
+	 * data, as the standard pack index does, and must tolerate
+	 * {@link #newInfo(AnyObjectId, UnresolvedDelta, ObjectId)} and
+	 * {@link #onInflatedObjectData(PackedObjectInfo, int, byte[])} being
+	 * called from resolver threads. Calls to those two methods are serialized.
+	 *
+	 * @return a new reader; null if the implementation cannot read its stored
+	 *         data concurrently, in which case deltas are resolved serially.
+	 * @throws IOException
+	 *             the stored data cannot be opened.
+	 */
+	protected DatabaseReader openDatabaseReader() throws IOException {
+		return null;
+	}
+
 	/**
 	 * Construct a PackedObjectInfo instance for this parser.
 	 *
@@ -1178,6 +1444,11 @@ protected PackedObjectInfo newInfo(AnyObjectId id, UnresolvedDelta delta,
 	 * The only component of the pack not supplied to this method is the last 20
 	 * bytes of the pack that comprise the trailing SHA-1 checksum. Those are
 	 * passed to {@link #onPackFooter(byte[])}.
+	 * <p>
+	 * If {@link #setPipelineDepth(int)} is enabled this method is invoked on a
+	 * background thread, concurrently with the other stream events. Calls are
+	 * still made in stream order, and all of them complete before
+	 * {@link #onPackFooter(byte[])}.
 	 *
 	 * @param raw
 	 *            buffer to copy data out of.
@@ -1486,6 +1757,331 @@ private InputStream inflate(final Source src, final long inflatedSize)
 		return inflater;
 	}
 
+	/** Counters describing the stages of a pipelined parse. */
+	public static class PipelineStatistics {
+		// Each counter has a single writing thread, but is read by others.
+
+		volatile long readBytes;
+
+		volatile long readNanos;
+
+		volatile long readWaitNanos;
+
+		volatile long storeBytes;
+
+		volatile long storeNanos;
+
+		volatile long storeWaitNanos;
+
+		/** @return bytes read from the input by the read stage. */
+		public long getReadBytes() {
+			return readBytes;
+		}
+
+		/** @return milliseconds the read stage spent reading the input. */
+		public long getReadTime() {
+			return readNanos / 1000000;
+		}
+
+		/** @return milliseconds the parser spent waiting for input. */
+		public long getReadWaitTime() {
+			return readWaitNanos / 1000000;
+		}
+
+		/** @return bytes archived by the store stage. */
+		public long getStoreBytes() {
+			return storeBytes;
+		}
+
+		/** @return milliseconds the store stage spent archiving the stream. */
+		public long getStoreTime() {
+			return storeNanos / 1000000;
+		}
+
+		/** @return milliseconds the parser spent waiting for store buffers. */
+		public long getStoreWaitTime() {
+			return storeWaitNanos / 1000000;
+		}
+	}
+
+	/** Random access to pack data stored by the parser. */
+	protected static abstract class DatabaseReader {
+		/**
+		 * Read stored pack data.
+		 *
+		 * @param position
+		 *            offset within the pack stream to start reading from.
+		 * @param dst
+		 *            buffer to receive the data.
+		 * @param pos
+		 *            first position within {@code dst} to fill.
+		 * @param cnt
+		 *            maximum number of bytes to read.
+		 * @return number of bytes read; -1 if {@code position} is at the end
+		 *         of the stored data.
+		 * @throws IOException
+		 *             the data cannot be read.
+		 */
+		public abstract int read(long position, byte[] dst, int pos, int cnt)
+				throws IOException;
+
+		/**
+		 * Release resources held by this reader.
+		 *
+		 * @throws IOException
+		 *             the reader cannot be closed.
+		 */
+		public abstract void close() throws IOException;
+	}
+
+	/** A base object and the deltas that depend on it. */
+	private static class DeltaRoot {
+		final PackedObjectInfo base;
+
+		final UnresolvedDelta children;
+
+		List<PackedObjectInfo> resolved;
+
+		DeltaRoot(PackedObjectInfo base, UnresolvedDelta children) {
+			this.base = base;
+			this.children = children;
+		}
+	}
+
+	/** Resolves whole delta trees on a worker thread. */
+	private class DeltaResolver implements Callable<Object> {
+		private final DatabaseReader db;
+
+		private final List<DeltaRoot> roots;
+
+		private final AtomicInteger nextRoot;
+
+		private final ThreadSafeProgressMonitor pm;
+
+		private final byte[] rbuf = new byte[BUFFER_SIZE];
+
+		private final byte[] skip = new byte[1];
+
+		private final CRC32 crc = new CRC32();
+
+		private final MessageDigest md = Constants.newMessageDigest();
+
+		private final MutableObjectId idBuf = new MutableObjectId();
+
+		private final ObjectTypeAndSize info = new ObjectTypeAndSize();
+
+		private long rpos;
+
+		private int rptr;
+
+		private int ravail;
+
+		DeltaResolver(DatabaseReader db, List<DeltaRoot> roots,
+				AtomicInteger nextRoot, ThreadSafeProgressMonitor pm) {
+			this.db = db;
+			this.roots = roots;
+			this.nextRoot = nextRoot;
+			this.pm = pm;
+		}
+
+		public Object call() throws IOException {
+			Inflater inf = InflaterCache.get();
+			ObjectReader or = objectDatabase.newReader();
+			try {
+				int i;
+				while ((i = nextRoot.getAndIncrement()) < roots.size()) {
+					if (pm.isCancelled())
+						throw new IOException(
+								JGitText.get().downloadCancelledDuringIndexing);
+					DeltaRoot root = roots.get(i);
+					root.resolved = resolve(inf, or, root);
+				}
+				return null;
+			} finally {
+				InflaterCache.release(inf);
+				or.release();
+				db.close();
+				pm.endWorker();
+			}
+		}
+
+		private List<PackedObjectInfo> resolve(Inflater inf, ObjectReader or,
+				DeltaRoot root) throws IOException {
+			List<PackedObjectInfo> resolved = new ArrayList<PackedObjectInfo>();
+			PackedObjectInfo oe = root.base;
+			DeltaVisit visit = new DeltaVisit();
+			visit.nextChild = root.children;
+
+			readHeader(oe.getOffset());
+			switch (info.type) {
+			case Constants.OBJ_COMMIT:
+			case Constants.OBJ_TREE:
+			case Constants.OBJ_BLOB:
+			case Constants.OBJ_TAG:
+				visit.data = inflate(inf, info.size);
+				visit.id = oe;
+				break;
+			default:
+				throw new IOException(MessageFormat.format(
+						JGitText.get().unknownObjectType,
+						Integer.valueOf(info.type)));
+			}
+			if (oe.getCRC() != (int) crc.getValue())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().corruptionDetectedReReadingAt,
+						Long.valueOf(oe.getOffset())));
+
+			final int type = info.type;
+			visit = visit.next();
+			do {
+				pm.update(1);
+				readHeader(visit.delta.position);
+				switch (info.type) {
+				case Constants.OBJ_OFS_DELTA:
+				case Constants.OBJ_REF_DELTA:
+					break;
+				default:
+					throw new IOException(MessageFormat.format(
+							JGitText.get().unknownObjectType,
+							Integer.valueOf(info.type)));
+				}
+
+				byte[] delta = inflate(inf, info.size);
+				checkIfTooLarge(type, BinaryDelta.getResultSize(delta));
+				visit.data = BinaryDelta.apply(visit.parent.data, delta);
+				delta = null;
+
+				if (visit.delta.crc != (int) crc.getValue())
+					throw new IOException(MessageFormat.format(
+							JGitText.get().corruptionDetectedReReadingAt,
+							Long.valueOf(visit.delta.position)));
+
+				md.update(Constants.encodedTypeString(type));
+				md.update((byte) ' ');
+				md.update(Constants.encodeASCII(visit.data.length));
+				md.update((byte) 0);
+				md.update(visit.data);
+				idBuf.fromRaw(md.digest(), 0);
+
+				verifySafeObject(or, idBuf, type, visit.data);
+
+				synchronized (resolveLock) {
+					oe = newInfo(idBuf, visit.delta, visit.parent.id);
+					oe.setOffset(visit.delta.position);
+					onInflatedObjectData(oe, type, visit.data);
+					visit.nextChild = firstChildOf(oe);
+				}
+				resolved.add(oe);
+				visit.id = oe;
+				visit = visit.next();
+			} while (visit != null);
+			return resolved;
+		}
+
+		private void readHeader(long position) throws IOException {
+			rpos = position;
+			rptr = 0;
+			ravail = 0;
+			crc.reset();
+
+			int c = readByte();
+			info.type = (c >> 4) & 7;
+			long sz = c & 15;
+			int shift = 4;
+			while ((c & 0x80) != 0) {
+				c = readByte();
+				sz += ((long) (c & 0x7f)) << shift;
+				shift += 7;
+			}
+			info.size = sz;
+
+			switch (info.type) {
+			case Constants.OBJ_OFS_DELTA:
+				do {
+					c = readByte();
+				} while ((c & 128) != 0);
+				break;
+			case Constants.OBJ_REF_DELTA:
+				for (int i = 0; i < Constants.OBJECT_ID_LENGTH; i++)
+					readByte();
+				break;
+			default:
+				break;
+			}
+		}
+
+		private int readByte() throws IOException {
+			if (ravail == 0)
+				fill();
+			int c = rbuf[rptr++] & 0xff;
+			ravail--;
+			crc.update(c);
+			return c;
+		}
+
+		private void fill() throws IOException {
+			int n = db.read(rpos, rbuf, 0, rbuf.length);
+			if (n <= 0)
+				throw new EOFException(JGitText.get().packfileIsTruncated);
+			rpos += n;
+			rptr = 0;
+			ravail = n;
+		}
+
+		private byte[] inflate(Inflater inf, long size) throws IOException {
+			final byte[] dst = new byte[(int) size];
+			int n = 0;
+			inf.reset();
+			if (0 < ravail)
+				inf.setInput(rbuf, rptr, ravail);
+			try {
+				for (;;) {
+					int r;
+					if (n < dst.length)
+						r = inf.inflate(dst, n, dst.length - n);
+					else
+						r = inf.inflate(skip, 0, 1);
+					if (r != 0) {
+						if (dst.length <= n)
+							throw wrongLength();
+						n += r;
+					} else if (inf.finished()) {
+						break;
+					} else if (inf.needsInput()) {
+						if (0 < ravail) {
+							crc.update(rbuf, rptr, ravail);
+							ravail = 0;
+						}
+						fill();
+						inf.setInput(rbuf, rptr, ravail);
+					} else {
+						throw new CorruptObjectException(MessageFormat.format(
+								JGitText.get().packfileCorruptionDetected,
+								JGitText.get().unknownZlibError));
+					}
+				}
+			} catch (DataFormatException dfe) {
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().packfileCorruptionDetected,
+						dfe.getMessage()));
+			}
+			if (n != dst.length)
+				throw wrongLength();
+
+			int used = ravail - inf.getRemaining();
+			crc.update(rbuf, rptr, used);
+			rptr += used;
+			ravail -= used;
+			return dst;
+		}
+
+		private CorruptObjectException wrongLength() {
+			return new CorruptObjectException(MessageFormat.format(
+					JGitText.get().packfileCorruptionDetected,
+					JGitText.get().wrongDecompressedLength));
+		}
+	}
+
 	private static class DeltaChain extends ObjectIdOwnerMap.Entry {
 		UnresolvedDelta head;
 
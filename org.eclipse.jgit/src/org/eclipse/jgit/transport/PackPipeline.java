@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.eclipse.jgit.transport.PackParser.PipelineStatistics;
+
+/**
+ * Background stages that let {@link PackParser} overlap its work.
+ * <p>
+ * The read stage pulls the raw stream into a bounded ring of buffers, so the
+ * network keeps flowing while objects are inflated and hashed. The store stage
+ * computes the pack checksum and archives the stream on its own thread. Each
+ * stage holds at most {@code depth} buffers, bounding memory use.
+ */
+class PackPipeline {
+	private static final int END = -1;
+
+	private static final int FAILED = -2;
+
+	private static class Chunk {
+		final byte[] buf;
+
+		int len;
+
+		Chunk(int size) {
+			buf = new byte[size];
+		}
+
+		Chunk(int size, int len) {
+			this(size);
+			this.len = len;
+		}
+	}
+
+	private static BlockingQueue<Chunk> newPool(int depth, int size) {
+		BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(depth);
+		for (int i = 0; i < depth; i++)
+			free.add(new Chunk(size));
+		return free;
+	}
+
+	private static IOException interrupted(InterruptedException e) {
+		InterruptedIOException err = new InterruptedIOException();
+		err.initCause(e);
+		return err;
+	}
+
+	private static IOException rethrow(Throwable err) throws IOException {
+		if (err instanceof IOException)
+			throw (IOException) err;
+		if (err instanceof RuntimeException)
+			throw (RuntimeException) err;
+		if (err instanceof Error)
+			throw (Error) err;
+		IOException fail = new IOException(err.getMessage());
+		fail.initCause(err);
+		throw fail;
+	}
+
+	/** Reads the source stream ahead of the parser. */
+	static class ReadStage extends InputStream implements Runnable {
+		private final InputStream src;
+
+		private final BlockingQueue<Chunk> free;
+
+		private final BlockingQueue<Chunk> full;
+
+		private final PipelineStatistics stats;
+
+		private final Thread thread;
+
+		private volatile Throwable error;
+
+		private Chunk cur;
+
+		private int ptr;
+
+		ReadStage(InputStream src, int depth, int size, PipelineStatistics stats) {
+			this.src = src;
+			this.free = newPool(depth, size);
+			this.full = new ArrayBlockingQueue<Chunk>(depth + 1);
+			this.stats = stats;
+			this.thread = new Thread(this, "JGit-PackParser-Read"); //$NON-NLS-1$
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		public void run() {
+			try {
+				for (;;) {
+					Chunk c = free.take();
+					long start = System.nanoTime();
+					int n = src.read(c.buf, 0, c.buf.length);
+					stats.readNanos += System.nanoTime() - start;
+					if (n < 0) {
+						c.len = END;
+						full.put(c);
+						return;
+					}
+					stats.readBytes += n;
+					c.len = n;
+					full.put(c);
+				}
+			} catch (InterruptedException e) {
+				// Parser gave up on the stream; stop reading.
+			} catch (Throwable e) {
+				// Any failure must reach the parser, or it waits forever.
+				// The queue has room for one chunk beyond the pool.
+				error = e;
+				full.add(new Chunk(0, FAILED));
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n == 1 ? b[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] dst, int off, int len) throws IOException {
+			if (cur == null) {
+				long start = System.nanoTime();
+				try {
+					cur = full.take();
+				} catch (InterruptedException e) {
+					throw interrupted(e);
+				}
+				stats.readWaitNanos += System.nanoTime() - start;
+				ptr = 0;
+			}
+			if (cur.len == END)
+				return -1;
+			if (cur.len == FAILED)
+				throw rethrow(error);
+
+			int n = Math.min(len, cur.len - ptr);
+			System.arraycopy(cur.buf, ptr, dst, off, n);
+			ptr += n;
+			if (ptr == cur.len) {
+				free.add(cur);
+				cur = null;
+			}
+			return n;
+		}
+
+		@Override
+		public void close() {
+			thread.interrupt();
+		}
+	}
+
+	/** Archives the stream and computes its checksum off the parser thread. */
+	static class StoreStage implements Runnable {
+		private final PackParser parser;
+
+		private final BlockingQueue<Chunk> free;
+
+		private final BlockingQueue<Chunk> full;
+
+		private final PipelineStatistics stats;
+
+		private final Thread thread;
+
+		private volatile Throwable error;
+
+		StoreStage(PackParser parser, int depth, int size,
+				PipelineStatistics stats) {
+			this.parser = parser;
+			this.free = newPool(depth, size);
+			this.full = new ArrayBlockingQueue<Chunk>(depth + 1);
+			this.stats = stats;
+			this.thread = new Thread(this, "JGit-PackParser-Store"); //$NON-NLS-1$
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		public void run() {
+			try {
+				for (;;) {
+					Chunk c = full.take();
+					if (c.len == END)
+						return;
+					if (error == null) {
+						long start = System.nanoTime();
+						try {
+							parser.storeStream(c.buf, 0, c.len);
+						} catch (Throwable e) {
+							error = e;
+						}
+						stats.storeNanos += System.nanoTime() - start;
+						stats.storeBytes += c.len;
+					}
+					free.add(c);
+				}
+			} catch (InterruptedException e) {
+				// Parser was aborted; nothing more will be stored.
+			}
+		}
+
+		void store(byte[] raw, int pos, int len) throws IOException {
+			checkError();
+			while (0 < len) {
+				long start = System.nanoTime();
+				Chunk c;
+				try {
+					c = free.take();
+				} catch (InterruptedException e) {
+					throw interrupted(e);
+				}
+				stats.storeWaitNanos += System.nanoTime() - start;
+
+				int n = Math.min(len, c.buf.length);
+				System.arraycopy(raw, pos, c.buf, 0, n);
+				c.len = n;
+				full.add(c);
+				pos += n;
+				len -= n;
+			}
+		}
+
+		void finish() throws IOException {
+			try {
+				full.put(new Chunk(0, END));
+				thread.join();
+			} catch (InterruptedException e) {
+				thread.interrupt();
+				throw interrupted(e);
+			}
+			checkError();
+		}
+
+		void abort() {
+			thread.interrupt();
+		}
+
+		private void checkError() throws IOException {
+			Throwable err = error;
+			if (err != null)
+				throw rethrow(err);
+		}
+	}
+}
@@ -70,6 +70,15 @@ public class PacketLineIn {
 	/** Magic return from {@link #readString()} when a flush packet is found. */
 	public static final String END = new StringBuilder(0).toString(); 	/* must not string pool */
 
+	/**
+	 * Magic return from {@link #readStringOrDelim()} when a delim packet is
+	 * found.
+	 * <p>
+	 * Delimiter packets ("0001") separate sections of a protocol v2 request
+	 * or response, such as the capability list from the command arguments.
+	 */
+	public static final String DELIM = new String(""); /* must not string pool */ //$NON-NLS-1$
+
 	static enum AckNackResult {
 		/** NAK */
 		NAK,
@@ -83,9 +92,23 @@ static enum AckNackResult {
 		ACK_READY;
 	}
 
+	private static final byte[] NAK = Constants.encodeASCII("NAK"); //$NON-NLS-1$
+
+	private static final byte[] ACK = Constants.encodeASCII("ACK "); //$NON-NLS-1$
+
+	private static final byte[] ACK_CONTINUE = Constants.encodeASCII(" continue"); //$NON-NLS-1$
+
+	private static final byte[] ACK_COMMON = Constants.encodeASCII(" common"); //$NON-NLS-1$
+
+	private static final byte[] ACK_READY = Constants.encodeASCII(" ready"); //$NON-NLS-1$
+
+	private static final byte[] ERR = Constants.encodeASCII("ERR "); //$NON-NLS-1$
+
 	private final InputStream in;
 
-	private final byte[] lineBuffer;
+	private byte[] lineBuffer;
+
+	private int lineLength;
 
 	/**
 	 * Create a new packet line reader.
@@ -99,27 +122,126 @@ public PacketLineIn(final InputStream i) {
 	}
 
 	AckNackResult readACK(final MutableObjectId returnedId) throws IOException {
-		final String line = readString();
-		if (line.length() == 0)
+		final int len = readLine();
+		if (len <= 0)
 			throw new PackProtocolException(JGitText.get().expectedACKNAKFoundEOF);
-		if ("NAK".equals(line)) //$NON-NLS-1$
+		if (lineEquals(NAK))
 			return AckNackResult.NAK;
-		if (line.startsWith("ACK ")) { //$NON-NLS-1$
-			returnedId.fromString(line.substring(4, 44));
-			if (line.length() == 44)
+		if (lineStartsWith(ACK) && len >= 44) {
+			returnedId.fromString(lineBuffer, 4);
+			if (len == 44)
 				return AckNackResult.ACK;
-
-			final String arg = line.substring(44);
-			if (arg.equals(" continue")) //$NON-NLS-1$
+			if (regionEquals(44, ACK_CONTINUE))
 				return AckNackResult.ACK_CONTINUE;
-			else if (arg.equals(" common")) //$NON-NLS-1$
+			else if (regionEquals(44, ACK_COMMON))
 				return AckNackResult.ACK_COMMON;
-			else if (arg.equals(" ready")) //$NON-NLS-1$
+			else if (regionEquals(44, ACK_READY))
 				return AckNackResult.ACK_READY;
 		}
-		if (line.startsWith("ERR ")) //$NON-NLS-1$
-			throw new PackProtocolException(line.substring(4));
-		throw new PackProtocolException(MessageFormat.format(JGitText.get().expectedACKNAKGot, line));
+		if (lineStartsWith(ERR))
+			throw new PackProtocolException(RawParseUtils.decode(
+					Constants.CHARSET, lineBuffer, 4, len));
+		throw new PackProtocolException(MessageFormat.format(
+				JGitText.get().expectedACKNAKGot, getLineString()));
+	}
+
+	/**
+	 * Read a single packet into the line buffer.
+	 * <p>
+	 * Unlike {@link #readString()} the packet is not decoded: it is left in
+	 * the buffer returned by {@link #getLineBuffer()} until the next packet is
+	 * read. The buffer is reused for every packet, so reading a stream of
+	 * packets does not allocate memory. If the packet ends with an LF, it is
+	 * not counted in its length.
+	 *
+	 * @return length of the packet in the line buffer; -1 if the packet was
+	 *         the magic flush packet.
+	 * @throws IOException
+	 *             the stream cannot be read.
+	 */
+	public int readLine() throws IOException {
+		int len = readLength();
+		if (len == 0) {
+			lineLength = 0;
+			return -1;
+		}
+
+		len -= 4; // length header (4 bytes)
+		IO.readFully(in, buffer(len), 0, len);
+		if (len > 0 && lineBuffer[len - 1] == '\n')
+			len--;
+		lineLength = len;
+		return len;
+	}
+
+	/**
+	 * Get the buffer holding the packet last read by {@link #readLine()}.
+	 * <p>
+	 * The buffer may be replaced by a larger one when a longer packet is
+	 * read, callers should not keep it across calls to {@link #readLine()}.
+	 *
+	 * @return the line buffer. The packet starts at position 0.
+	 */
+	public byte[] getLineBuffer() {
+		return lineBuffer;
+	}
+
+	/**
+	 * Test if the packet last read by {@link #readLine()} starts with a
+	 * prefix.
+	 *
+	 * @param prefix
+	 *            the expected prefix, usually encoded with
+	 *            {@link Constants#encodeASCII(String)}.
+	 * @return true if the packet starts with {@code prefix}.
+	 */
+	public boolean lineStartsWith(byte[] prefix) {
+		if (lineLength < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (lineBuffer[i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Test if the packet last read by {@link #readLine()} is equal to a string.
+	 *
+	 * @param str
+	 *            the expected packet, usually encoded with
+	 *            {@link Constants#encodeASCII(String)}.
+	 * @return true if the packet is equal to {@code str}.
+	 */
+	public boolean lineEquals(byte[] str) {
+		return regionEquals(0, str);
+	}
+
+	/**
+	 * Decode the packet last read by {@link #readLine()}.
+	 *
+	 * @return the packet as a string, for example to report it in an error.
+	 */
+	public String getLineString() {
+		return RawParseUtils.decode(Constants.CHARSET, lineBuffer, 0,
+				lineLength);
+	}
+
+	private boolean regionEquals(int ptr, byte[] str) {
+		if (lineLength - ptr != str.length)
+			return false;
+		for (int i = 0; i < str.length; i++) {
+			if (lineBuffer[ptr + i] != str[i])
+				return false;
+		}
+		return true;
+	}
+
+	private byte[] buffer(int len) {
+		if (lineBuffer.length < len)
+			lineBuffer = new byte[Math.max(len,
+					Math.min(2 * lineBuffer.length, 0xffff))];
+		return lineBuffer;
 	}
 
 	/**
@@ -135,20 +257,37 @@ else if (arg.equals(" ready")) //$NON-NLS-1$
 	 *             the stream cannot be read.
 	 */
 	public String readString() throws IOException {
-		int len = readLength();
+		return readString(false);
+	}
+
+	/**
+	 * Read a single UTF-8 encoded string packet, accepting delimiters.
+	 * <p>
+	 * Behaves like {@link #readString()}, but also recognizes the "0001"
+	 * delimiter packet used by protocol v2, which the original protocol
+	 * rejects as an invalid header.
+	 *
+	 * @return the string. {@link #END} if the string was the magic flush
+	 *         packet, {@link #DELIM} if it was the delimiter packet.
+	 * @throws IOException
+	 *             the stream cannot be read.
+	 */
+	public String readStringOrDelim() throws IOException {
+		return readString(true);
+	}
+
+	private String readString(boolean allowDelim) throws IOException {
+		int len = readLength(allowDelim);
 		if (len == 0)
 			return END;
+		if (len == 1)
+			return DELIM;
 
 		len -= 4; // length header (4 bytes)
 		if (len == 0)
 			return ""; //$NON-NLS-1$
 
-		byte[] raw;
-		if (len <= lineBuffer.length)
-			raw = lineBuffer;
-		else
-			raw = new byte[len];
-
+		byte[] raw = buffer(len);
 		IO.readFully(in, raw, 0, len);
 		if (raw[len - 1] == '\n')
 			len--;
@@ -172,20 +311,21 @@ public String readStringRaw() throws IOException {
 
 		len -= 4; // length header (4 bytes)
 
-		byte[] raw;
-		if (len <= lineBuffer.length)
-			raw = lineBuffer;
-		else
-			raw = new byte[len];
-
+		byte[] raw = buffer(len);
 		IO.readFully(in, raw, 0, len);
 		return RawParseUtils.decode(Constants.CHARSET, raw, 0, len);
 	}
 
 	int readLength() throws IOException {
+		return readLength(false);
+	}
+
+	private int readLength(boolean allowDelim) throws IOException {
 		IO.readFully(in, lineBuffer, 0, 4);
 		try {
 			final int len = RawParseUtils.parseHexInt16(lineBuffer, 0);
+			if (len == 1 && allowDelim)
+				return len;
 			if (len != 0 && len < 4)
 				throw new ArrayIndexOutOfBoundsException();
 			return len;
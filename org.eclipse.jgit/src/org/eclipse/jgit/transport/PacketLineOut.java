@@ -48,6 +48,7 @@
 import java.io.IOException;
 import java.io.OutputStream;
 
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 
 /**
@@ -67,6 +68,8 @@ public class PacketLineOut {
 
 	private boolean flushOnEnd;
 
+	private byte[] idbuffer;
+
 	/**
 	 * Create a new packet line writer.
 	 *
@@ -119,6 +122,74 @@ public void writePacket(final byte[] packet) throws IOException {
 		out.write(packet);
 	}
 
+	/**
+	 * Write a binary packet from a region of a buffer.
+	 *
+	 * @param buf
+	 *            buffer holding the packet.
+	 * @param pos
+	 *            position of the packet within {@code buf}.
+	 * @param len
+	 *            length of the packet.
+	 * @throws IOException
+	 *             the packet could not be written, the stream is corrupted as
+	 *             the packet may have been only partially written.
+	 */
+	public void writePacket(byte[] buf, int pos, int len) throws IOException {
+		formatLength(len + 4);
+		out.write(lenbuffer, 0, 4);
+		out.write(buf, pos, len);
+	}
+
+	/**
+	 * Write a packet naming an object, such as {@code "have <id>\n"}.
+	 * <p>
+	 * The packet is formatted in a buffer reused by later calls, so unlike
+	 * {@link #writeString(String)} this does not allocate memory.
+	 *
+	 * @param prefix
+	 *            ASCII text written before the object name, usually encoded
+	 *            once with {@link Constants#encodeASCII(String)}.
+	 * @param id
+	 *            the object to name.
+	 * @param suffix
+	 *            ASCII text written after the object name, typically ending
+	 *            with an LF.
+	 * @throws IOException
+	 *             the packet could not be written, the stream is corrupted as
+	 *             the packet may have been only partially written.
+	 */
+	public void writeId(byte[] prefix, AnyObjectId id, byte[] suffix)
+			throws IOException {
+		int len = 4 + prefix.length + Constants.OBJECT_ID_STRING_LENGTH
+				+ suffix.length;
+		if (idbuffer == null || idbuffer.length < len)
+			idbuffer = new byte[Math.max(len, 64)];
+		byte[] b = idbuffer;
+		formatLength(b, len);
+		System.arraycopy(prefix, 0, b, 4, prefix.length);
+		id.copyTo(b, 4 + prefix.length);
+		System.arraycopy(suffix, 0, b, len - suffix.length, suffix.length);
+		out.write(b, 0, len);
+	}
+
+	/**
+	 * Write packets already framed with their length.
+	 *
+	 * @param buf
+	 *            buffer holding one or more complete packets.
+	 * @param off
+	 *            position of the first packet within {@code buf}.
+	 * @param len
+	 *            number of bytes to write.
+	 * @throws IOException
+	 *             the packets could not be written, the stream is corrupted
+	 *             as they may have been only partially written.
+	 */
+	void writeEncoded(byte[] buf, int off, int len) throws IOException {
+		out.write(buf, off, len);
+	}
+
 	/**
 	 * Write a packet end marker, sometimes referred to as a flush command.
 	 * <p>
@@ -139,6 +210,20 @@ public void end() throws IOException {
 			flush();
 	}
 
+	/**
+	 * Write a delimiter packet, used by protocol v2 to separate sections.
+	 * <p>
+	 * Unlike {@link #end()} this never flushes the underlying stream, as a
+	 * delimiter is always followed by more data from the same message.
+	 *
+	 * @throws IOException
+	 *             the delimiter could not be written.
+	 */
+	public void writeDelim() throws IOException {
+		formatLength(1);
+		out.write(lenbuffer, 0, 4);
+	}
+
 	/**
 	 * Flush the underlying OutputStream.
 	 * <p>
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.LockFile;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Checkpoint of a static file being downloaded into a repository.
+ * <p>
+ * The bytes received so far are appended to
+ * {@code GIT_DIR/partial/<name>.data}, where {@code name} is derived from the
+ * URL. {@code <name>.state} records the URL, the server's validator for the
+ * file (its ETag or Last-Modified date) and its total length. A later
+ * attempt replays the saved bytes and asks the server only for the rest. It
+ * sends the validator in an {@code If-Range} header, so a file that changed
+ * on the server is downloaded again from the start.
+ * <p>
+ * The checkpoint is locked while a download uses it, so two fetches of the
+ * same URL never append to the same file.
+ */
+class PartialDownload {
+	private static final String DIR = "partial"; //$NON-NLS-1$
+
+	/**
+	 * Locate the checkpoint for a URL.
+	 *
+	 * @param db
+	 *            repository receiving the download.
+	 * @param url
+	 *            location of the file.
+	 * @return the checkpoint, locked for the caller until {@link #release()};
+	 *         null if the repository is not stored in a local directory, or
+	 *         if another download holds the checkpoint.
+	 */
+	static PartialDownload open(Repository db, String url) {
+		if (db == null || db.getDirectory() == null)
+			return null;
+		String name = ObjectId.fromRaw(
+				Constants.newMessageDigest().digest(Constants.encode(url)))
+				.name();
+		File dir = new File(db.getDirectory(), DIR);
+		File state = new File(dir, name + ".state"); //$NON-NLS-1$
+		LockFile lock = new LockFile(state, db.getFS());
+		try {
+			if (!lock.lock())
+				return null;
+		} catch (IOException err) {
+			return null;
+		}
+		return new PartialDownload(url, new File(dir, name + ".data"), //$NON-NLS-1$
+				state, lock);
+	}
+
+	private final String url;
+
+	private final File data;
+
+	private final File state;
+
+	private final LockFile lock;
+
+	private String validator;
+
+	private long length;
+
+	private PartialDownload(String url, File data, File state, LockFile lock) {
+		this.url = url;
+		this.data = data;
+		this.state = state;
+		this.lock = lock;
+	}
+
+	/**
+	 * Load a checkpoint left by an earlier attempt.
+	 *
+	 * @return number of bytes already received; 0 if there is no usable
+	 *         checkpoint.
+	 */
+	long load() {
+		validator = null;
+		length = 0;
+		List<String> lines;
+		try {
+			lines = IO.readLines(RawParseUtils.decode(IO.readFully(state)));
+		} catch (FileNotFoundException noCheckpoint) {
+			return 0;
+		} catch (IOException err) {
+			delete();
+			return 0;
+		}
+		if (lines.size() < 3 || !url.equals(lines.get(0))) {
+			delete();
+			return 0;
+		}
+		try {
+			length = Long.parseLong(lines.get(2));
+		} catch (NumberFormatException err) {
+			delete();
+			return 0;
+		}
+		validator = lines.get(1);
+		long have = data.length();
+		if (have <= 0 || length <= have) {
+			delete();
+			return 0;
+		}
+		return have;
+	}
+
+	/** @return validator to send in {@code If-Range}. */
+	String getValidator() {
+		return validator;
+	}
+
+	/** @return total length of the file, as reported by the server. */
+	long getLength() {
+		return length;
+	}
+
+	/**
+	 * Start a new checkpoint, discarding any saved data.
+	 *
+	 * @param v
+	 *            the server's validator for the file.
+	 * @param len
+	 *            total length of the file.
+	 * @return stream to append received bytes to.
+	 * @throws IOException
+	 *             the checkpoint cannot be written.
+	 */
+	OutputStream begin(String v, long len) throws IOException {
+		delete();
+		FileUtils.mkdirs(state.getParentFile(), true);
+		validator = v;
+		length = len;
+		OutputStream out = new FileOutputStream(state);
+		try {
+			out.write(Constants.encode(url + "\n" + v + "\n" + len + "\n")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		} finally {
+			out.close();
+		}
+		return new FileOutputStream(data);
+	}
+
+	/**
+	 * @return the bytes saved by an earlier attempt.
+	 * @throws IOException
+	 *             the checkpoint cannot be read.
+	 */
+	InputStream replay() throws IOException {
+		return new FileInputStream(data);
+	}
+
+	/**
+	 * @return stream to append further received bytes to.
+	 * @throws IOException
+	 *             the checkpoint cannot be written.
+	 */
+	OutputStream append() throws IOException {
+		return new FileOutputStream(data, true);
+	}
+
+	/** Remove the checkpoint. */
+	void delete() {
+		state.delete();
+		data.delete();
+		deleteEmptyDir();
+	}
+
+	/** Unlock the checkpoint, leaving any saved data for a later attempt. */
+	void release() {
+		lock.unlock();
+		deleteEmptyDir();
+	}
+
+	private void deleteEmptyDir() {
+		File dir = state.getParentFile();
+		String[] rest = dir.list();
+		if (rest != null && rest.length == 0)
+			dir.delete();
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Collections;
+
+import org.eclipse.jgit.errors.NotSupportedException;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.PackLock;
+
+/**
+ * Fetches objects a partial clone left out.
+ * <p>
+ * A repository cloned with a {@link FilterSpec} names the remote that promised
+ * to supply the missing objects in {@code extensions.partialclone}. When the
+ * object database cannot find an object it asks the promisor remote for it,
+ * one object per request, and then looks again.
+ */
+public class PromisorRemote {
+	/** Set while this thread is fetching, to avoid fetching recursively. */
+	private static final ThreadLocal<Boolean> fetching = new ThreadLocal<Boolean>();
+
+	private final Repository db;
+
+	/**
+	 * Create a promisor for a repository.
+	 *
+	 * @param db
+	 *            the repository missing objects are fetched into.
+	 */
+	public PromisorRemote(Repository db) {
+		this.db = db;
+	}
+
+	/** @return name of the promisor remote, or null if not a partial clone. */
+	public String getRemoteName() {
+		return db.getConfig().getString(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PARTIALCLONE);
+	}
+
+	/**
+	 * Fetch a single missing object from the promisor remote.
+	 *
+	 * @param id
+	 *            the object to fetch.
+	 * @return true if the object was requested from the remote; false if the
+	 *         repository is not a partial clone, or this thread is already
+	 *         fetching.
+	 * @throws IOException
+	 *             the remote could not be contacted or did not send the
+	 *             object.
+	 */
+	public boolean fetch(AnyObjectId id) throws IOException {
+		final String remote = getRemoteName();
+		if (remote == null || !begin())
+			return false;
+
+		try {
+			final Transport tn = open(remote);
+			try {
+				// The wanted object must come back even if it would
+				// normally be filtered out, and whole: a delta base may
+				// be another object that was filtered out, and fetching
+				// it recursively is suppressed.
+				tn.setFilterSpec(null);
+				tn.setFetchThin(false);
+				final FetchConnection conn = tn.openFetch();
+				if (conn instanceof BasePackFetchConnection)
+					((BasePackFetchConnection) conn).setSendHaves(false);
+				try {
+					final Ref want = new ObjectIdRef.Unpeeled(
+							Ref.Storage.NETWORK, id.name(), id.copy());
+					conn.fetch(NullProgressMonitor.INSTANCE,
+							Collections.singleton(want),
+							Collections.<ObjectId> emptySet());
+					for (PackLock lock : conn.getPackLocks())
+						lock.unlock();
+				} finally {
+					conn.close();
+				}
+			} finally {
+				tn.close();
+			}
+			return true;
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Suspend lazy fetching while this thread runs a fetch.
+	 * <p>
+	 * The fetch itself looks for objects it has yet to download, and must not
+	 * start another fetch for each of them.
+	 *
+	 * @return true if the caller must call {@link #end()}; false if this
+	 *         thread was already fetching.
+	 */
+	static boolean begin() {
+		if (fetching.get() != null)
+			return false;
+		fetching.set(Boolean.TRUE);
+		return true;
+	}
+
+	/** Resume lazy fetching after {@link #begin()}. */
+	static void end() {
+		fetching.remove();
+	}
+
+	private Transport open(String remote) throws IOException {
+		try {
+			return Transport.open(db, remote);
+		} catch (NotSupportedException e) {
+			throw new TransportException(e.getMessage(), e);
+		} catch (URISyntaxException e) {
+			throw new TransportException(e.getMessage(), e);
+		}
+	}
+}
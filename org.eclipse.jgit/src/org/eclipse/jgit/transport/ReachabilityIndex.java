@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Commits and tags known to be reachable from a set of tips.
+ * <p>
+ * {@link BaseReceivePack} uses the index to check the connectivity of a
+ * received pack without marking every advertised ref as uninteresting: only
+ * the commits of the pack are walked, and the commits they build upon are
+ * looked up here.
+ * <p>
+ * The index is kept for the tips it was last brought up to date with. When
+ * the tips change it only visits commits it does not know yet, which after a
+ * fast-forward are just the newly pushed ones. If a tip disappears and is not
+ * reachable from the new commits, for example after a branch was deleted or
+ * rewound, the index is rebuilt from scratch so that it never vouches for an
+ * object no longer reachable from the tips.
+ * <p>
+ * The index holds the name of every reachable commit, so it needs memory in
+ * proportion to the size of the history.
+ */
+public class ReachabilityIndex {
+	private static final ConcurrentMap<File, ReachabilityIndex> indexes = new ConcurrentHashMap<File, ReachabilityIndex>();
+
+	/**
+	 * Get the index configured for a repository.
+	 * <p>
+	 * The index is enabled by setting {@code receive.reachabilityIndex} to
+	 * true. It is held in memory and shared by all instances of a repository
+	 * opened from the same directory.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @return the index; null if the repository has no index configured.
+	 */
+	public static ReachabilityIndex get(Repository db) {
+		File dir = db.getDirectory();
+		if (dir == null
+				|| !db.getConfig().getBoolean("receive", //$NON-NLS-1$
+						"reachabilityindex", false)) //$NON-NLS-1$
+			return null;
+
+		ReachabilityIndex idx = indexes.get(dir);
+		if (idx == null) {
+			idx = new ReachabilityIndex();
+			ReachabilityIndex other = indexes.putIfAbsent(dir, idx);
+			if (other != null)
+				idx = other;
+		}
+		return idx;
+	}
+
+	private Set<ObjectId> tips;
+
+	private ObjectIdSubclassMap<ObjectId> reachable;
+
+	/** Create an empty index. */
+	public ReachabilityIndex() {
+		tips = new HashSet<ObjectId>();
+		reachable = new ObjectIdSubclassMap<ObjectId>();
+	}
+
+	/**
+	 * Test if objects are reachable from a set of tips.
+	 * <p>
+	 * The index is first brought up to date with {@code newTips}. Only commits
+	 * and annotated tags are indexed, trees and blobs are never reported as
+	 * reachable.
+	 *
+	 * @param reader
+	 *            reader to parse commits and tags with.
+	 * @param newTips
+	 *            objects the reachability is relative to, usually the
+	 *            objects advertised to a client.
+	 * @param ids
+	 *            objects to test.
+	 * @return true if every object in {@code ids} is reachable from
+	 *         {@code newTips}.
+	 * @throws IOException
+	 *             a commit or tag could not be read.
+	 */
+	public synchronized boolean containsAll(ObjectReader reader,
+			Set<ObjectId> newTips, Collection<? extends AnyObjectId> ids)
+			throws IOException {
+		update(reader, newTips);
+		for (AnyObjectId id : ids) {
+			if (!reachable.contains(id))
+				return false;
+		}
+		return true;
+	}
+
+	/** @return number of commits and tags in the index. */
+	public synchronized int size() {
+		return reachable.size();
+	}
+
+	private void update(ObjectReader reader, Set<ObjectId> newTips)
+			throws IOException {
+		if (tips.equals(newTips))
+			return;
+
+		RevWalk rw = new RevWalk(reader);
+		rw.setRetainBody(false);
+		List<ObjectId> added = new ArrayList<ObjectId>();
+		for (ObjectId id : newTips) {
+			if (!tips.contains(id))
+				added.add(id);
+		}
+		ObjectIdSubclassMap<ObjectId> hit = walk(rw, added);
+
+		for (ObjectId id : tips) {
+			if (!newTips.contains(id) && reachable.contains(id)
+					&& !hit.contains(id)) {
+				// A tip went away and nothing that replaced it leads
+				// to it, the index may be too generous now.
+				reachable = new ObjectIdSubclassMap<ObjectId>();
+				rw.reset();
+				walk(rw, newTips);
+				break;
+			}
+		}
+		tips = new HashSet<ObjectId>(newTips);
+	}
+
+	/**
+	 * Add the commits and tags reachable from {@code start}.
+	 *
+	 * @return the already indexed objects the walk stopped at.
+	 */
+	private ObjectIdSubclassMap<ObjectId> walk(RevWalk rw,
+			Collection<ObjectId> start) throws IOException {
+		ObjectIdSubclassMap<ObjectId> hit = new ObjectIdSubclassMap<ObjectId>();
+		List<RevObject> todo = new ArrayList<RevObject>();
+		for (ObjectId id : start) {
+			try {
+				todo.add(rw.parseAny(id));
+			} catch (MissingObjectException notHere) {
+				// Advertised but not available, it leads nowhere.
+			}
+		}
+
+		while (!todo.isEmpty()) {
+			RevObject o = todo.remove(todo.size() - 1);
+			if (reachable.contains(o)) {
+				hit.addIfAbsent(o.copy());
+				continue;
+			}
+
+			if (o instanceof RevTag) {
+				reachable.add(o.copy());
+				todo.add(rw.parseAny(((RevTag) o).getObject()));
+			} else if (o instanceof RevCommit) {
+				RevCommit c = (RevCommit) o;
+				rw.parseHeaders(c);
+				reachable.add(c.copy());
+				for (RevCommit p : c.getParents())
+					todo.add(p);
+			}
+		}
+		return hit;
+	}
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Encoded ref advertisements, reused by {@link RefAdvertiser}.
+ * <p>
+ * Formatting an advertisement peels every tag and encodes one pkt-line per
+ * ref, which for repositories with many refs costs more than the rest of a
+ * no-op fetch. The cache keeps the pkt-lines of the last advertisement made
+ * with each set of capabilities, and writes them with a single copy when the
+ * same refs are advertised again.
+ * <p>
+ * Caches returned by {@link #get(Repository)} count the
+ * {@link RefsChangedEvent}s of their repository. An advertisement checked
+ * against the refs read through one repository instance is reused without
+ * sorting or comparing the refs again while no event was fired since, and
+ * the same number of refs with the same names is advertised. Otherwise the
+ * refs are compared with those the cached advertisement was built from. When
+ * they differ, only the lines of refs that were added or now point at
+ * another object are encoded; the peeled value of unchanged refs is reused.
+ * The comparison is still needed because the event is not fired for the
+ * first scan of a repository instance, and refs may be filtered differently
+ * for each request.
+ */
+public class RefAdvertisementCache {
+	private static final RepositoryCacheMap<RefAdvertisementCache> caches = new RepositoryCacheMap<RefAdvertisementCache>(
+			RepositoryCacheMap.DEFAULT_MAX_REPOSITORIES) {
+		@Override
+		RefAdvertisementCache create(Repository db) {
+			return new RefAdvertisementCache(true);
+		}
+	};
+
+	static {
+		Repository.getGlobalListenerList().addRefsChangedListener(
+				new RefsChangedListener() {
+					public void onRefsChanged(RefsChangedEvent event) {
+						RefAdvertisementCache cache = caches.peek(event
+								.getRepository());
+						if (cache != null)
+							cache.version.incrementAndGet();
+					}
+				});
+	}
+
+	/**
+	 * Get the cache configured for a repository.
+	 * <p>
+	 * The cache is enabled by setting {@code transfer.advertisementCache} to
+	 * true. It is held in memory and shared by all instances of a repository
+	 * opened from the same directory. Only the caches of the most recently
+	 * used repositories are kept.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @return the cache; null if the repository has no cache configured.
+	 */
+	public static RefAdvertisementCache get(Repository db) {
+		File dir = db.getDirectory();
+		if (dir == null
+				|| !db.getConfig().getBoolean("transfer", //$NON-NLS-1$
+						"advertisementcache", false)) //$NON-NLS-1$
+			return null;
+
+		return caches.get(db);
+	}
+
+	/**
+	 * Get the version of a cache, to be read before the refs to advertise.
+	 *
+	 * @param cache
+	 *            the cache; may be null.
+	 * @return the number of times refs changed; -1 if the cache is null or
+	 *         does not track ref changes.
+	 */
+	static long version(RefAdvertisementCache cache) {
+		return cache != null && cache.tracked ? cache.version.get() : -1;
+	}
+
+	private final Map<String, Entry> advertisements = new HashMap<String, Entry>();
+
+	private final boolean tracked;
+
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Create a cache.
+	 * <p>
+	 * The cache is not notified of ref changes and compares the refs with its
+	 * advertisements every time they are used.
+	 */
+	public RefAdvertisementCache() {
+		this(false);
+	}
+
+	private RefAdvertisementCache(boolean tracked) {
+		this.tracked = tracked;
+	}
+
+	/**
+	 * Get the advertisement of refs, if they were advertised unchanged.
+	 * <p>
+	 * Neither sorts nor compares the refs; it only checks that no ref changed
+	 * since the advertisement was last checked against refs read through
+	 * the same repository instance.
+	 *
+	 * @param db
+	 *            repository the refs were read from.
+	 * @param refs
+	 *            refs to advertise.
+	 * @param refsVersion
+	 *            {@link #version(RefAdvertisementCache)} from before the
+	 *            refs were read.
+	 * @param derefTags
+	 *            true to include the peeled value of tags.
+	 * @param capabilities
+	 *            capabilities sent on the first line.
+	 * @return the advertisement; null if the refs must be compared.
+	 */
+	Advertisement lookup(Repository db, Map<String, Ref> refs,
+			long refsVersion, boolean derefTags, Collection<String> capabilities) {
+		if (db == null || refsVersion < 0 || refsVersion != version.get())
+			return null;
+
+		Entry e;
+		synchronized (this) {
+			e = advertisements.get(key(derefTags, caps(capabilities)));
+		}
+		if (e != null && e.version == refsVersion && e.db.get() == db
+				&& e.count == refs.size() && e.names == names(refs))
+			return e.adv;
+		return null;
+	}
+
+	/**
+	 * Get the advertisement of refs, comparing them with the cached one.
+	 *
+	 * @param db
+	 *            repository the refs were read from.
+	 * @param refs
+	 *            refs to advertise.
+	 * @param sorted
+	 *            values of {@code refs}, sorted by name.
+	 * @param refsVersion
+	 *            {@link #version(RefAdvertisementCache)} from before the
+	 *            refs were read.
+	 * @param derefTags
+	 *            true to include the peeled value of tags.
+	 * @param capabilities
+	 *            capabilities sent on the first line.
+	 * @return the advertisement.
+	 */
+	Advertisement get(Repository db, Map<String, Ref> refs,
+			Iterable<Ref> sorted, long refsVersion, boolean derefTags,
+			Collection<String> capabilities) {
+		Advertisement adv = get(db, sorted, derefTags, capabilities);
+		if (db != null && 0 <= refsVersion) {
+			Entry e = new Entry(adv, refsVersion, db, refs.size(), names(refs));
+			String key = key(derefTags, caps(capabilities));
+			synchronized (this) {
+				Entry cur = advertisements.get(key);
+				if (cur != null && cur.adv == adv)
+					advertisements.put(key, e);
+			}
+		}
+		return adv;
+	}
+
+	/**
+	 * Get the advertisement of a set of refs.
+	 *
+	 * @param db
+	 *            repository to peel tags with; null to not peel refs which are
+	 *            not already peeled.
+	 * @param refs
+	 *            refs to advertise, sorted by name.
+	 * @param derefTags
+	 *            true to include the peeled value of tags.
+	 * @param capabilities
+	 *            capabilities sent on the first line.
+	 * @return the advertisement.
+	 */
+	Advertisement get(Repository db, Iterable<Ref> refs, boolean derefTags,
+			Collection<String> capabilities) {
+		String caps = caps(capabilities);
+		String key = key(derefTags, caps);
+
+		Entry e;
+		synchronized (this) {
+			e = advertisements.get(key);
+		}
+		Advertisement old = e != null ? e.adv : null;
+		Advertisement adv = build(db, refs, derefTags, caps, old);
+		if (adv != old) {
+			synchronized (this) {
+				advertisements.put(key, new Entry(adv, -1, null, 0, 0));
+			}
+		}
+		return adv;
+	}
+
+	/** Drop all cached advertisements. */
+	public synchronized void invalidate() {
+		advertisements.clear();
+	}
+
+	private static String caps(Collection<String> capabilities) {
+		if (capabilities.isEmpty())
+			return ""; //$NON-NLS-1$
+		StringBuilder caps = new StringBuilder();
+		caps.append('\0');
+		for (String c : capabilities)
+			caps.append(' ').append(c);
+		caps.append(' ');
+		return caps.toString();
+	}
+
+	private static String key(boolean derefTags, String caps) {
+		return (derefTags ? "^" : "") + caps; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static int names(Map<String, Ref> refs) {
+		int h = 0;
+		for (String name : refs.keySet())
+			h += name.hashCode();
+		return h;
+	}
+
+	private static Advertisement build(Repository db, Iterable<Ref> refs,
+			boolean derefTags, String caps, Advertisement old) {
+		Line[] prior = old != null ? old.lines : new Line[0];
+		List<Line> lines = new ArrayList<Line>(prior.length);
+		boolean same = old != null;
+		int p = 0;
+		for (Ref ref : refs) {
+			ObjectId id = ref.getObjectId();
+			if (id == null)
+				continue;
+
+			String name = ref.getName();
+			Line line = null;
+			while (p < prior.length && prior[p].name.compareTo(name) < 0) {
+				same = false;
+				p++;
+			}
+			if (p < prior.length && prior[p].name.equals(name)) {
+				if (prior[p].id.equals(id))
+					line = prior[p];
+				p++;
+			}
+			if (line == null) {
+				same = false;
+				line = new Line(name, id, peel(db, ref, derefTags));
+			}
+			lines.add(line);
+		}
+		if (same && p == prior.length)
+			return old;
+		return new Advertisement(lines.toArray(new Line[lines.size()]), caps);
+	}
+
+	private static ObjectId peel(Repository db, Ref ref, boolean derefTags) {
+		if (!derefTags)
+			return null;
+		if (!ref.isPeeled()) {
+			if (db == null)
+				return null;
+			ref = db.peel(ref);
+		}
+		return ref.getPeeledObjectId();
+	}
+
+	private static byte[] encode(ObjectId id, String rest) {
+		byte[] raw = Constants.encode(rest);
+		int len = 4 + Constants.OBJECT_ID_STRING_LENGTH + 1 + raw.length;
+		byte[] buf = new byte[len];
+		PacketLineOut.formatLength(buf, len);
+		id.copyTo(buf, 4);
+		buf[4 + Constants.OBJECT_ID_STRING_LENGTH] = ' ';
+		System.arraycopy(raw, 0, buf, len - raw.length, raw.length);
+		return buf;
+	}
+
+	/** An advertisement and the refs it was last checked against. */
+	private static class Entry {
+		final Advertisement adv;
+
+		/** Version the refs were read at; -1 if not known. */
+		final long version;
+
+		final WeakReference<Repository> db;
+
+		final int count;
+
+		final int names;
+
+		Entry(Advertisement adv, long version, Repository db, int count,
+				int names) {
+			this.adv = adv;
+			this.version = version;
+			this.db = new WeakReference<Repository>(db);
+			this.count = count;
+			this.names = names;
+		}
+	}
+
+	/** An encoded advertisement. */
+	static class Advertisement {
+		final Line[] lines;
+
+		/** The pkt-lines of all refs, not followed by a flush-pkt. */
+		final byte[] data;
+
+		/** Objects named by the advertisement, including peeled tags. */
+		final Set<ObjectId> ids;
+
+		Advertisement(Line[] lines, String caps) {
+			this.lines = lines;
+
+			int len = 0;
+			Set<ObjectId> s = new HashSet<ObjectId>();
+			for (int i = 0; i < lines.length; i++) {
+				Line l = lines[i];
+				len += l.pkt.length;
+				s.add(l.id);
+				if (l.peeled != null)
+					s.add(l.peeled);
+			}
+			ids = Collections.unmodifiableSet(s);
+
+			if (lines.length == 0) {
+				data = new byte[0];
+				return;
+			}
+
+			// Only the first line carries the capabilities.
+			Line first = lines[0];
+			byte[] head = encode(first.id, first.name + caps + '\n');
+			data = new byte[len - first.main + head.length];
+			System.arraycopy(head, 0, data, 0, head.length);
+			int ptr = head.length;
+			for (int i = 0; i < lines.length; i++) {
+				byte[] pkt = lines[i].pkt;
+				int skip = i == 0 ? first.main : 0;
+				System.arraycopy(pkt, skip, data, ptr, pkt.length - skip);
+				ptr += pkt.length - skip;
+			}
+		}
+	}
+
+	/** The pkt-lines advertising one ref. */
+	static class Line {
+		final String name;
+
+		final ObjectId id;
+
+		final ObjectId peeled;
+
+		/** The line of the ref followed by the line of its peeled value. */
+		final byte[] pkt;
+
+		/** Length of the line of the ref within {@link #pkt}. */
+		final int main;
+
+		Line(String name, ObjectId id, ObjectId peeled) {
+			this.name = name;
+			this.id = id;
+			this.peeled = peeled;
+
+			byte[] line = encode(id, name + '\n');
+			main = line.length;
+			if (peeled != null) {
+				byte[] p = encode(peeled, name + "^{}\n"); //$NON-NLS-1$
+				pkt = new byte[line.length + p.length];
+				System.arraycopy(line, 0, pkt, 0, line.length);
+				System.arraycopy(p, 0, pkt, line.length, p.length);
+			} else
+				pkt = line;
+		}
+	}
+}
@@ -44,6 +44,7 @@
 package org.eclipse.jgit.transport;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -56,6 +57,7 @@
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefComparator;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.eclipse.jgit.util.RefMap;
 
 /** Support for the start of {@link UploadPack} and {@link ReceivePack}. */
@@ -79,6 +81,12 @@ protected void writeOne(final CharSequence line) throws IOException {
 			pckOut.writeString(line.toString());
 		}
 
+		@Override
+		protected void writeEncoded(byte[] buf, int off, int len)
+				throws IOException {
+			pckOut.writeEncoded(buf, off, len);
+		}
+
 		@Override
 		protected void end() throws IOException {
 			pckOut.end();
@@ -95,6 +103,14 @@ protected void end() throws IOException {
 
 	private Repository repository;
 
+	private RefAdvertisementCache cache;
+
+	/** Version of {@link #cache} from before the refs were read. */
+	private long cacheVersion = -1;
+
+	/** Objects advertised from {@link #cache}, if it was used. */
+	private Set<ObjectId> cachedSent = Collections.emptySet();
+
 	private boolean derefTags;
 
 	private boolean first = true;
@@ -109,6 +125,34 @@ public void init(Repository src) {
 		repository = src;
 	}
 
+	/**
+	 * Set the cache to reuse encoded advertisements from.
+	 * <p>
+	 * The cache is only used by {@link #send(Map)} when it is invoked before
+	 * anything else was advertised.
+	 *
+	 * @param cache
+	 *            the cache; null to always format the advertisement.
+	 */
+	public void setCache(RefAdvertisementCache cache) {
+		setCache(cache, -1);
+	}
+
+	/**
+	 * Set the cache to reuse encoded advertisements from.
+	 *
+	 * @param cache
+	 *            the cache; null to always format the advertisement.
+	 * @param version
+	 *            version of the cache read before the refs to advertise, see
+	 *            {@link RefAdvertisementCache#version(RefAdvertisementCache)};
+	 *            -1 to always compare the refs with the cache.
+	 */
+	void setCache(RefAdvertisementCache cache, long version) {
+		this.cache = cache;
+		this.cacheVersion = version;
+	}
+
 	/**
 	 * Toggle tag peeling.
 	 * <p>
@@ -158,6 +202,20 @@ public void advertiseCapability(String name) {
 	 *             advertisement record.
 	 */
 	public Set<ObjectId> send(Map<String, Ref> refs) throws IOException {
+		if (cache != null && first && sent.isEmpty()) {
+			RefAdvertisementCache.Advertisement adv = cache.lookup(repository,
+					refs, cacheVersion, derefTags, capablities);
+			if (adv == null)
+				adv = cache.get(repository, refs, getSortedRefs(refs),
+						cacheVersion, derefTags, capablities);
+			if (adv.data.length > 0) {
+				writeEncoded(adv.data, 0, adv.data.length);
+				first = false;
+			}
+			cachedSent = adv.ids;
+			return cachedSent;
+		}
+
 		for (Ref ref : getSortedRefs(refs)) {
 			if (ref.getObjectId() == null)
 				continue;
@@ -211,7 +269,7 @@ public boolean isEmpty() {
 
 	private void advertiseAnyOnce(AnyObjectId obj, final String refName)
 			throws IOException {
-		if (!sent.contains(obj))
+		if (!sent.contains(obj) && !cachedSent.contains(obj))
 			advertiseAny(obj, refName);
 	}
 
@@ -269,6 +327,33 @@ public void advertiseId(final AnyObjectId id, final String refName)
 	 */
 	protected abstract void writeOne(CharSequence line) throws IOException;
 
+	/**
+	 * Write advertisement lines already encoded as pkt-lines.
+	 * <p>
+	 * The default implementation decodes the lines and passes each one to
+	 * {@link #writeOne(CharSequence)}. Advertisers writing pkt-lines should
+	 * copy the buffer as is.
+	 *
+	 * @param buf
+	 *            buffer holding one or more complete pkt-lines.
+	 * @param off
+	 *            position of the first pkt-line within {@code buf}.
+	 * @param len
+	 *            number of bytes to write.
+	 * @throws IOException
+	 *             the underlying output stream failed to write out an
+	 *             advertisement record.
+	 */
+	protected void writeEncoded(byte[] buf, int off, int len)
+			throws IOException {
+		int end = off + len;
+		while (off < end) {
+			int n = RawParseUtils.parseHexInt16(buf, off);
+			writeOne(RawParseUtils.decode(buf, off + 4, off + n));
+			off += n;
+		}
+	}
+
 	/**
 	 * Mark the end of the advertisements.
 	 *
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Per-repository caches shared by all instances of a repository.
+ * <p>
+ * Caches are keyed by the repository directory, so that repositories opened
+ * more than once use the same cache. At most a fixed number of repositories
+ * is remembered; the cache of the least recently used one is dropped when
+ * another repository needs a cache, so a server serving many repositories
+ * does not hold on to all of them.
+ *
+ * @param <V>
+ *            type of the cache kept for each repository.
+ */
+abstract class RepositoryCacheMap<V> {
+	/** Number of repositories remembered by default. */
+	static final int DEFAULT_MAX_REPOSITORIES = 64;
+
+	private final Map<File, V> caches;
+
+	/**
+	 * @param maxRepositories
+	 *            number of repositories to remember caches for.
+	 */
+	RepositoryCacheMap(final int maxRepositories) {
+		caches = new LinkedHashMap<File, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<File, V> eldest) {
+				return size() > maxRepositories;
+			}
+		};
+	}
+
+	/**
+	 * Get the cache of a repository, creating it if necessary.
+	 *
+	 * @param db
+	 *            the repository; must have a directory.
+	 * @return the cache of the repository.
+	 */
+	synchronized V get(Repository db) {
+		File dir = db.getDirectory();
+		V cache = caches.get(dir);
+		if (cache == null) {
+			cache = create(db);
+			caches.put(dir, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Get the cache of a repository, if one is remembered.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @return the cache of the repository; null if there is none.
+	 */
+	synchronized V peek(Repository db) {
+		File dir = db.getDirectory();
+		return dir != null ? caches.get(dir) : null;
+	}
+
+	/** @return number of repositories caches are remembered for. */
+	synchronized int size() {
+		return caches.size();
+	}
+
+	/**
+	 * Create the cache of a repository.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @return the new cache.
+	 */
+	abstract V create(Repository db);
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of concurrent sessions, queueing the excess.
+ * <p>
+ * Waiting sessions are woken in the order they started to wait. The limit may
+ * be changed at any time, a lower limit is applied as running sessions end.
+ */
+class SessionLimiter {
+	private final ReentrantLock lock = new ReentrantLock(true);
+
+	private final Condition available = lock.newCondition();
+
+	private int max;
+
+	private int active;
+
+	private int waiting;
+
+	private long rejected;
+
+	/** @return maximum number of concurrent sessions; 0 if unlimited. */
+	int getMax() {
+		lock.lock();
+		try {
+			return max;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param n
+	 *            maximum number of concurrent sessions; 0 for no limit.
+	 */
+	void setMax(int n) {
+		lock.lock();
+		try {
+			max = Math.max(0, n);
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Start a session, waiting for a running one to end if necessary.
+	 *
+	 * @param deadline
+	 *            time, in milliseconds since the epoch, after which to stop
+	 *            waiting; 0 to wait as long as it takes.
+	 * @return true if the session may start and must later call
+	 *         {@link #release()}; false if it was rejected.
+	 */
+	boolean acquire(long deadline) {
+		lock.lock();
+		try {
+			if (0 < max && max <= active) {
+				waiting++;
+				try {
+					while (0 < max && max <= active) {
+						if (deadline == 0) {
+							available.await();
+							continue;
+						}
+						long wait = deadline - System.currentTimeMillis();
+						if (wait <= 0) {
+							reject();
+							return false;
+						}
+						available.await(wait, TimeUnit.MILLISECONDS);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					reject();
+					return false;
+				} finally {
+					waiting--;
+				}
+			}
+			active++;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Start a session only if one is free right now.
+	 *
+	 * @return true if the session may start and must later call
+	 *         {@link #release()}; false if the limit is reached.
+	 */
+	boolean tryAcquire() {
+		lock.lock();
+		try {
+			if (0 < waiting || (0 < max && max <= active))
+				return false;
+			active++;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void reject() {
+		rejected++;
+		// We may have been signaled just before giving up, pass that on.
+		if (max == 0 || active < max)
+			available.signal();
+	}
+
+	/** End a session started by {@link #acquire(long)}. */
+	void release() {
+		lock.lock();
+		try {
+			active--;
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return number of sessions currently running. */
+	int getActive() {
+		lock.lock();
+		try {
+			return active;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return number of sessions waiting to start. */
+	int getWaiting() {
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return number of sessions that gave up waiting. */
+	long getRejected() {
+		lock.lock();
+		try {
+			return rejected;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Offers commits with exponentially growing gaps along each line of history.
+ * <p>
+ * Commits are visited newest first as with the consecutive negotiator, but
+ * each commit carries a count of ancestors to skip before the next one is
+ * offered. Every offered commit makes its parents skip one and a half times
+ * as many commits as it skipped itself, so a history of {@code n} commits the
+ * remote does not know is covered with roughly {@code log(n)} haves. The price
+ * is a coarser common boundary, and thereby a somewhat larger pack, whenever
+ * the remote does know some of the commits that were skipped.
+ * <p>
+ * Once a commit is acknowledged it and all its visited ancestors are marked
+ * common and are never offered again.
+ */
+class SkippingFetchNegotiator extends FetchNegotiator {
+	private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			int at = a.commit.getCommitTime();
+			int bt = b.commit.getCommitTime();
+			return at < bt ? 1 : (at == bt ? 0 : -1);
+		}
+	};
+
+	/** Marks a commit known to both sides of the connection. */
+	private final RevFlag COMMON;
+
+	/** Marks a commit the remote advertised. */
+	private final RevFlag ADVERTISED;
+
+	/** Marks a commit that has an entry in {@link #queue}. */
+	private final RevFlag SEEN;
+
+	/** Marks a commit whose entry was already removed from {@link #queue}. */
+	private final RevFlag POPPED;
+
+	private final PriorityQueue<Entry> queue;
+
+	private final Map<RevCommit, Entry> entries;
+
+	/** Number of entries in {@link #queue} that are not known common. */
+	private int nonCommon;
+
+	SkippingFetchNegotiator(RevWalk walk) {
+		super(walk);
+		COMMON = walk.newFlag("NEGOTIATION_COMMON"); //$NON-NLS-1$
+		ADVERTISED = walk.newFlag("NEGOTIATION_ADVERTISED"); //$NON-NLS-1$
+		SEEN = walk.newFlag("NEGOTIATION_SEEN"); //$NON-NLS-1$
+		POPPED = walk.newFlag("NEGOTIATION_POPPED"); //$NON-NLS-1$
+		queue = new PriorityQueue<Entry>(64, NEWEST_FIRST);
+		entries = new HashMap<RevCommit, Entry>();
+	}
+
+	@Override
+	public void addTip(RevCommit c) throws IOException {
+		if (!c.has(SEEN))
+			push(c);
+	}
+
+	@Override
+	public void knownCommon(RevCommit c) {
+		c.add(ADVERTISED);
+	}
+
+	@Override
+	public RevCommit next() throws IOException {
+		for (;;) {
+			if (queue.isEmpty() || nonCommon == 0)
+				return null;
+
+			final Entry e = queue.remove();
+			final RevCommit c = e.commit;
+			entries.remove(c);
+			c.add(POPPED);
+			final boolean common = c.has(COMMON);
+			if (!common)
+				nonCommon--;
+
+			boolean parentPushed = false;
+			for (RevCommit p : c.getParents())
+				parentPushed |= pushParent(e, p);
+
+			// Advertised commits are always offered, the remote does not
+			// know yet that we have them. So are root commits, and commits
+			// whose parents were already popped due to clock skew.
+			if (!common && (e.ttl == 0 || c.has(ADVERTISED) || !parentPushed))
+				return c;
+		}
+	}
+
+	@Override
+	public boolean ack(RevCommit c) throws IOException {
+		final boolean known = c.has(COMMON);
+		markCommon(c);
+		return !known;
+	}
+
+	private Entry push(RevCommit c) throws IOException {
+		walk.parseHeaders(c);
+		c.add(SEEN);
+		final Entry e = new Entry(c);
+		queue.add(e);
+		entries.put(c, e);
+		if (!c.has(COMMON))
+			nonCommon++;
+		return e;
+	}
+
+	private boolean pushParent(Entry child, RevCommit p) throws IOException {
+		final Entry e;
+		if (p.has(SEEN)) {
+			if (p.has(POPPED)) {
+				// Already handled because of clock skew, pretend the
+				// parent does not exist.
+				return false;
+			}
+			e = entries.get(p);
+		} else
+			e = push(p);
+
+		final RevCommit c = child.commit;
+		if (c.has(COMMON) || c.has(ADVERTISED))
+			markCommon(p);
+		else {
+			final int originalTtl;
+			final int ttl;
+			if (child.ttl > 0) {
+				originalTtl = child.originalTtl;
+				ttl = child.ttl - 1;
+			} else {
+				originalTtl = child.originalTtl * 3 / 2 + 1;
+				ttl = originalTtl;
+			}
+			if (e.originalTtl < originalTtl) {
+				e.originalTtl = originalTtl;
+				e.ttl = ttl;
+			}
+		}
+		return true;
+	}
+
+	private void markCommon(RevCommit start) {
+		if (start.has(COMMON))
+			return;
+		final List<RevCommit> todo = new ArrayList<RevCommit>();
+		start.add(COMMON);
+		todo.add(start);
+		while (!todo.isEmpty()) {
+			final RevCommit c = todo.remove(todo.size() - 1);
+			if (c.has(SEEN) && !c.has(POPPED))
+				nonCommon--;
+			if (c.getParents() == null)
+				continue;
+			for (RevCommit p : c.getParents()) {
+				if (p.has(SEEN) && !p.has(COMMON)) {
+					p.add(COMMON);
+					todo.add(p);
+				}
+			}
+		}
+	}
+
+	private static class Entry {
+		final RevCommit commit;
+
+		/** Length of the gap this line of history is currently skipping. */
+		int originalTtl;
+
+		/** Remaining commits to skip before offering one again. */
+		int ttl;
+
+		Entry(RevCommit commit) {
+			this.commit = commit;
+		}
+	}
+}
@@ -59,8 +59,23 @@ public TransferConfig parse(final Config cfg) {
 
 	private final boolean fsckObjects;
 
+	private final int resolveThreads;
+
+	private final int pipelineDepth;
+
+	private final int protocolVersion;
+
+	private final boolean bundleURI;
+
+	private final boolean resumableFetch;
+
 	private TransferConfig(final Config rc) {
 		fsckObjects = rc.getBoolean("receive", "fsckobjects", false); //$NON-NLS-1$ //$NON-NLS-2$
+		resolveThreads = rc.getInt("transfer", "resolvethreads", 1); //$NON-NLS-1$ //$NON-NLS-2$
+		pipelineDepth = rc.getInt("transfer", "pipelinedepth", 0); //$NON-NLS-1$ //$NON-NLS-2$
+		protocolVersion = rc.getInt("protocol", "version", 0); //$NON-NLS-1$ //$NON-NLS-2$
+		bundleURI = rc.getBoolean("transfer", "bundleuri", false); //$NON-NLS-1$ //$NON-NLS-2$
+		resumableFetch = rc.getBoolean("transfer", "resumablefetch", false); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
 	/**
@@ -69,4 +84,45 @@ private TransferConfig(final Config rc) {
 	public boolean isFsckObjects() {
 		return fsckObjects;
 	}
+
+	/**
+	 * @return number of threads used to resolve deltas in received packs; 0
+	 *         means one per available processor.
+	 */
+	public int getResolveThreads() {
+		return resolveThreads;
+	}
+
+	/**
+	 * @return number of buffers each stage of a pipelined pack parse may hold;
+	 *         0 parses received packs on a single thread.
+	 */
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	/**
+	 * @return wire protocol version clients should request when fetching; 2
+	 *         asks the server for protocol v2, anything else uses the
+	 *         original protocol.
+	 */
+	public int getProtocolVersion() {
+		return protocolVersion;
+	}
+
+	/**
+	 * @return true if fetch should first download the bundles a protocol v2
+	 *         server offers.
+	 */
+	public boolean isBundleURI() {
+		return bundleURI;
+	}
+
+	/**
+	 * @return true if interrupted downloads of static files, such as
+	 *         bundles, should be kept on disk and resumed by the next fetch.
+	 */
+	public boolean isResumableFetch() {
+		return resumableFetch;
+	}
 }
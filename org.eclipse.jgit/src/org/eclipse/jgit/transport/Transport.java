@@ -70,6 +70,7 @@
 import org.eclipse.jgit.errors.NotSupportedException;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ProgressMonitor;
@@ -722,6 +723,9 @@ private static String findTrackingRefName(final String remoteName,
 	/** Should fetch request thin-pack if remote repository can produce it. */
 	private boolean fetchThin = DEFAULT_FETCH_THIN;
 
+	/** Objects fetch should ask the remote to omit, if any. */
+	private FilterSpec filterSpec;
+
 	/** Name of the receive pack program, if it must be executed. */
 	private String optionReceivePack = RemoteConfig.DEFAULT_RECEIVE_PACK;
 
@@ -731,12 +735,21 @@ private static String findTrackingRefName(final String remoteName,
 	/** Should push produce thin-pack when sending objects to remote repository. */
 	private boolean pushThin = DEFAULT_PUSH_THIN;
 
+	/** Should the remote repository apply all ref updates or none of them. */
+	private boolean pushAtomic;
+
 	/** Should push just check for operation result, not really push. */
 	private boolean dryRun;
 
 	/** Should an incoming (fetch) transfer validate objects? */
 	private boolean checkFetchedObjects;
 
+	/** Should fetch download bundles offered by the server first? */
+	private boolean useBundleURIs;
+
+	/** Should interrupted bundle downloads be resumed by a later fetch? */
+	private boolean resumableFetch;
+
 	/** Should refs no longer on the source be pruned from the destination? */
 	private boolean removeDeletedRefs;
 
@@ -765,6 +778,8 @@ protected Transport(final Repository local, final URIish uri) {
 		this.local = local;
 		this.uri = uri;
 		this.checkFetchedObjects = tc.isFsckObjects();
+		this.useBundleURIs = tc.isBundleURI();
+		this.resumableFetch = tc.isResumableFetch();
 		this.credentialsProvider = CredentialsProvider.getDefault();
 	}
 
@@ -856,6 +871,73 @@ public void setFetchThin(final boolean fetchThin) {
 		this.fetchThin = fetchThin;
 	}
 
+	/** @return the filter of a partial fetch; null to fetch all objects. */
+	public FilterSpec getFilterSpec() {
+		return filterSpec;
+	}
+
+	/**
+	 * Ask the remote to omit objects from fetched packs.
+	 * <p>
+	 * The filter is only sent to servers advertising the {@code filter}
+	 * capability; other servers send all objects. Objects omitted by the
+	 * filter are fetched on demand from the promisor remote named by
+	 * {@code extensions.partialClone}, see {@link PromisorRemote}.
+	 *
+	 * @param filter
+	 *            the filter; null to fetch all objects.
+	 */
+	public void setFilterSpec(FilterSpec filter) {
+		filterSpec = filter;
+	}
+
+	/**
+	 * @return true if fetch first downloads the bundles offered by the
+	 *         server.
+	 */
+	public boolean isUseBundleURIs() {
+		return useBundleURIs;
+	}
+
+	/**
+	 * Download pre-generated bundles before negotiating a fetch.
+	 * <p>
+	 * Protocol v2 servers may offer bundles served as static files. Their
+	 * objects are downloaded first, and only the remainder is negotiated.
+	 * Bundles which cannot be read are skipped. By default this is set by
+	 * {@code transfer.bundleURI}.
+	 *
+	 * @param use
+	 *            true to download offered bundles.
+	 */
+	public void setUseBundleURIs(boolean use) {
+		useBundleURIs = use;
+	}
+
+	/**
+	 * @return true if an interrupted bundle download is kept to be resumed by
+	 *         a later fetch.
+	 */
+	public boolean isResumableFetch() {
+		return resumableFetch;
+	}
+
+	/**
+	 * Keep interrupted bundle downloads so a later fetch can resume them.
+	 * <p>
+	 * Bytes received from a bundle served as a static file are saved under
+	 * the local repository's directory as they arrive. If the connection
+	 * cannot be reestablished, the next fetch of the same URL replays them
+	 * and asks the server for the remainder with a range request. By default
+	 * this is set by {@code transfer.resumableFetch}.
+	 *
+	 * @param resumable
+	 *            true to keep interrupted downloads.
+	 */
+	public void setResumableFetch(boolean resumable) {
+		resumableFetch = resumable;
+	}
+
 	/**
 	 * @return true if fetch will verify received objects are formatted
 	 *         correctly. Validating objects requires more CPU time on the
@@ -922,6 +1004,25 @@ public void setPushThin(final boolean pushThin) {
 		this.pushThin = pushThin;
 	}
 
+	/**
+	 * @return true if push requires the remote repository to apply all ref
+	 *         updates or none of them.
+	 */
+	public boolean isPushAtomic() {
+		return pushAtomic;
+	}
+
+	/**
+	 * Require the remote repository to apply all ref updates of a push, or
+	 * none of them. Pushing fails if the remote repository cannot do so.
+	 *
+	 * @param atomic
+	 *            true to push atomically.
+	 */
+	public void setPushAtomic(final boolean atomic) {
+		this.pushAtomic = atomic;
+	}
+
 	/**
 	 * @return true if destination refs should be removed if they no longer
 	 *         exist at the source repository.
@@ -959,6 +1060,12 @@ public void applyConfig(final RemoteConfig cfg) {
 		fetch = cfg.getFetchRefSpecs();
 		push = cfg.getPushRefSpecs();
 		timeout = cfg.getTimeout();
+
+		String filter = local.getConfig().getString(
+				ConfigConstants.CONFIG_REMOTE_SECTION, cfg.getName(),
+				ConfigConstants.CONFIG_KEY_PARTIALCLONEFILTER);
+		if (filter != null)
+			setFilterSpec(FilterSpec.fromString(filter));
 	}
 
 	/**
@@ -1197,6 +1304,29 @@ public Collection<RemoteRefUpdate> findRemoteRefUpdatesFor(
 	public abstract FetchConnection openFetch() throws NotSupportedException,
 			TransportException;
 
+	/**
+	 * Begins a new connection for fetching the given references.
+	 * <p>
+	 * Transports speaking a protocol which lets the client limit the reference
+	 * advertisement request only the references matching {@code refSpecs},
+	 * along with {@code HEAD} and, unless tags are disabled, the tags. The
+	 * connection may therefore not know about other references. The default
+	 * implementation ignores the specifications and lists everything.
+	 *
+	 * @param refSpecs
+	 *            specifications of the references the caller will fetch; empty
+	 *            to list all references of the remote repository.
+	 * @return a fresh connection to fetch from the remote repository.
+	 * @throws NotSupportedException
+	 *             the implementation does not support fetching.
+	 * @throws TransportException
+	 *             the remote connection could not be established.
+	 */
+	public FetchConnection openFetch(Collection<RefSpec> refSpecs)
+			throws NotSupportedException, TransportException {
+		return openFetch();
+	}
+
 	/**
 	 * Begins a new connection for pushing into the remote repository.
 	 *
@@ -93,6 +93,12 @@
  * <p>
  * Concurrent pushing over this transport is not supported. Multiple concurrent
  * push operations may cause confusion in the repository state.
+ * <p>
+ * Fetch downloads several objects at once. The number of simultaneous
+ * downloads is set by the <code>fetch.threads</code> property of the
+ * connection properties file (see {@link AmazonS3#AmazonS3(Properties)}),
+ * and defaults to 8. Likewise push writes up to <code>push.threads</code>
+ * files (default 4) at once, relying on S3 to only show complete objects.
  *
  * @see WalkFetchConnection
  * @see WalkPushConnection
@@ -130,6 +136,12 @@ public Transport open(URIish uri, Repository local, String remoteName)
 	/** Bucket the remote repository is stored in. */
 	private final String bucket;
 
+	/** Number of files a fetch may download at once. */
+	private final int fetchThreads;
+
+	/** Number of files a push may write at once. */
+	private final int pushThreads;
+
 	/**
 	 * Key prefix which all objects related to the repository start with.
 	 * <p>
@@ -147,8 +159,13 @@ public Transport open(URIish uri, Repository local, String remoteName)
 			throws NotSupportedException {
 		super(local, uri);
 
-		s3 = new AmazonS3(loadProperties());
+		final Properties props = loadProperties();
+		s3 = new AmazonS3(props);
 		bucket = uri.getHost();
+		fetchThreads = Integer.parseInt(props.getProperty(
+				"fetch.threads", "8")); //$NON-NLS-1$ //$NON-NLS-2$
+		pushThreads = Integer.parseInt(props.getProperty(
+				"push.threads", "4")); //$NON-NLS-1$ //$NON-NLS-2$
 
 		String p = uri.getPath();
 		if (p.startsWith("/")) //$NON-NLS-1$
@@ -252,6 +269,16 @@ WalkRemoteObjectDatabase openAlternate(final String location)
 			return new DatabaseS3(bucketName, resolveKey(location));
 		}
 
+		@Override
+		int getMaxParallelDownloads() {
+			return fetchThreads;
+		}
+
+		@Override
+		int getMaxParallelUploads() {
+			return pushThreads;
+		}
+
 		@Override
 		Collection<String> getPackNames() throws IOException {
 			final HashSet<String> have = new HashSet<String>();
@@ -54,6 +54,7 @@
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
@@ -108,7 +109,13 @@ public Transport open(URIish uri, Repository local, String remoteName)
 
 	@Override
 	public FetchConnection openFetch() throws TransportException {
-		return new TcpFetchConnection();
+		return new TcpFetchConnection(Collections.<RefSpec> emptyList());
+	}
+
+	@Override
+	public FetchConnection openFetch(Collection<RefSpec> refSpecs)
+			throws TransportException {
+		return new TcpFetchConnection(refSpecs);
 	}
 
 	@Override
@@ -158,6 +165,15 @@ void service(final String name, final PacketLineOut pckOut)
 			cmd.append(uri.getPort());
 		}
 		cmd.append('\0');
+		if ("git-upload-pack".equals(name) //$NON-NLS-1$
+				&& local.getConfig().get(TransferConfig.KEY)
+						.getProtocolVersion() == 2) {
+			// Servers which do not understand extra parameters
+			// ignore everything after the second NUL.
+			cmd.append('\0');
+			cmd.append(BasePackFetchConnection.VERSION_2_REQUEST);
+			cmd.append('\0');
+		}
 		pckOut.writeString(cmd.toString());
 		pckOut.flush();
 	}
@@ -165,8 +181,10 @@ void service(final String name, final PacketLineOut pckOut)
 	class TcpFetchConnection extends BasePackFetchConnection {
 		private Socket sock;
 
-		TcpFetchConnection() throws TransportException {
+		TcpFetchConnection(Collection<RefSpec> refSpecs)
+				throws TransportException {
 			super(TransportGitAnon.this);
+			setRefSpecs(refSpecs);
 			sock = openConnection();
 			try {
 				InputStream sIn = sock.getInputStream();
@@ -48,8 +48,15 @@
 import static org.eclipse.jgit.util.HttpSupport.HDR_ACCEPT;
 import static org.eclipse.jgit.util.HttpSupport.HDR_ACCEPT_ENCODING;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_ENCODING;
+import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_LENGTH;
+import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_RANGE;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_TYPE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_ETAG;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
+import static org.eclipse.jgit.util.HttpSupport.HDR_IF_RANGE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_LAST_MODIFIED;
 import static org.eclipse.jgit.util.HttpSupport.HDR_PRAGMA;
+import static org.eclipse.jgit.util.HttpSupport.HDR_RANGE;
 import static org.eclipse.jgit.util.HttpSupport.HDR_USER_AGENT;
 import static org.eclipse.jgit.util.HttpSupport.METHOD_GET;
 import static org.eclipse.jgit.util.HttpSupport.METHOD_POST;
@@ -61,12 +68,10 @@
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.URL;
-import java.net.URLConnection;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
@@ -83,8 +88,6 @@
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
@@ -103,6 +106,7 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.SymbolicRef;
 import org.eclipse.jgit.storage.file.RefDirectory;
+import org.eclipse.jgit.transport.http.HttpConnection;
 import org.eclipse.jgit.util.HttpSupport;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.RawParseUtils;
@@ -132,6 +136,11 @@ public class TransportHttp extends HttpTransport implements WalkTransport,
 
 	private static final String SVC_RECEIVE_PACK = "git-receive-pack"; //$NON-NLS-1$
 
+	private static final String BUNDLE_SUFFIX = ".bundle"; //$NON-NLS-1$
+
+	/** Times a broken bundle download is resumed before giving up. */
+	private static final int MAX_BUNDLE_RESUMES = 3;
+
 	private static final String userAgent = computeUserAgent();
 
 	static final TransportProtocol PROTO_HTTP = new TransportProtocol() {
@@ -224,9 +233,12 @@ private static class HttpConfig {
 
 		final boolean sslVerify;
 
+		final int maxParallelDownloads;
+
 		HttpConfig(final Config rc) {
 			postBuffer = rc.getInt("http", "postbuffer", 1 * 1024 * 1024); //$NON-NLS-1$  //$NON-NLS-2$
 			sslVerify = rc.getBoolean("http", "sslVerify", true); //$NON-NLS-1$ //$NON-NLS-2$
+			maxParallelDownloads = rc.getInt("http", "maxParallelDownloads", 4); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 
 		private HttpConfig() {
@@ -300,14 +312,33 @@ public void setUseSmartHttp(final boolean on) {
 	@Override
 	public FetchConnection openFetch() throws TransportException,
 			NotSupportedException {
+		return openFetch(Collections.<RefSpec> emptyList());
+	}
+
+	@Override
+	public FetchConnection openFetch(Collection<RefSpec> refSpecs)
+			throws TransportException, NotSupportedException {
 		final String service = SVC_UPLOAD_PACK;
+		if (uri.getPath() != null && uri.getPath().endsWith(BUNDLE_SUFFIX)) {
+			final String url = uri.toString();
+			final PartialDownload partial = isResumableFetch() ? PartialDownload
+					.open(local, url) : null;
+			try {
+				return new BundleFetchConnection(this, new BundleStream(
+						new URL(url), partial));
+			} catch (IOException err) {
+				if (partial != null)
+					partial.release();
+				throw new TransportException(uri, err.getMessage(), err);
+			}
+		}
 		try {
-			final HttpURLConnection c = connect(service);
+			final HttpConnection c = connect(service);
 			final InputStream in = openInputStream(c);
 			try {
 				if (isSmartHttp(c, service)) {
 					readSmartHeaders(in, service);
-					return new SmartHttpFetchConnection(in);
+					return new SmartHttpFetchConnection(in, refSpecs);
 
 				} else {
 					// Assume this server doesn't support smart HTTP fetch
@@ -343,10 +374,10 @@ private FetchConnection newDumbConnection(InputStream in)
 			// is not there) download HEAD by itself as a loose file and do
 			// the resolution by hand.
 			//
-			HttpURLConnection conn = httpOpen(new URL(baseUrl, Constants.HEAD));
+			HttpConnection conn = httpOpen(new URL(baseUrl, Constants.HEAD));
 			int status = HttpSupport.response(conn);
 			switch (status) {
-			case HttpURLConnection.HTTP_OK: {
+			case HttpConnection.HTTP_OK: {
 				br = toBufferedReader(openInputStream(conn));
 				try {
 					String line = br.readLine();
@@ -368,7 +399,8 @@ private FetchConnection newDumbConnection(InputStream in)
 				break;
 			}
 
-			case HttpURLConnection.HTTP_NOT_FOUND:
+			case HttpConnection.HTTP_NOT_FOUND:
+				discard(conn);
 				break;
 
 			default:
@@ -392,7 +424,7 @@ public PushConnection openPush() throws NotSupportedException,
 			TransportException {
 		final String service = SVC_RECEIVE_PACK;
 		try {
-			final HttpURLConnection c = connect(service);
+			final HttpConnection c = connect(service);
 			final InputStream in = openInputStream(c);
 			try {
 				if (isSmartHttp(c, service)) {
@@ -421,10 +453,10 @@ public PushConnection openPush() throws NotSupportedException,
 
 	@Override
 	public void close() {
-		// No explicit connections are maintained.
+		// Persistent connections are managed by the connection factory.
 	}
 
-	private HttpURLConnection connect(final String service)
+	private HttpConnection connect(final String service)
 			throws TransportException, NotSupportedException {
 		final URL u;
 		try {
@@ -449,23 +481,26 @@ private HttpURLConnection connect(final String service)
 		try {
 			int authAttempts = 1;
 			for (;;) {
-				final HttpURLConnection conn = httpOpen(u);
+				final HttpConnection conn = httpOpen(u);
 				if (useSmartHttp) {
 					String exp = "application/x-" + service + "-advertisement"; //$NON-NLS-1$ //$NON-NLS-2$
 					conn.setRequestProperty(HDR_ACCEPT, exp + ", */*"); //$NON-NLS-1$
+					if (isProtocolV2Requested(service))
+						conn.setRequestProperty(HDR_GIT_PROTOCOL,
+								BasePackFetchConnection.VERSION_2_REQUEST);
 				} else {
 					conn.setRequestProperty(HDR_ACCEPT, "*/*"); //$NON-NLS-1$
 				}
 				final int status = HttpSupport.response(conn);
 				switch (status) {
-				case HttpURLConnection.HTTP_OK:
+				case HttpConnection.HTTP_OK:
 					return conn;
 
-				case HttpURLConnection.HTTP_NOT_FOUND:
+				case HttpConnection.HTTP_NOT_FOUND:
 					throw new NoRemoteRepositoryException(uri,
 							MessageFormat.format(JGitText.get().uriNotFound, u));
 
-				case HttpURLConnection.HTTP_UNAUTHORIZED:
+				case HttpConnection.HTTP_UNAUTHORIZED:
 					authMethod = HttpAuthMethod.scanResponse(conn);
 					if (authMethod == HttpAuthMethod.NONE)
 						throw new TransportException(uri, MessageFormat.format(
@@ -477,9 +512,10 @@ private HttpURLConnection connect(final String service)
 								JGitText.get().notAuthorized);
 					}
 					authAttempts++;
+					discard(conn);
 					continue;
 
-				case HttpURLConnection.HTTP_FORBIDDEN:
+				case HttpConnection.HTTP_FORBIDDEN:
 					throw new TransportException(uri, MessageFormat.format(
 							JGitText.get().serviceNotPermitted, service));
 
@@ -497,13 +533,19 @@ private HttpURLConnection connect(final String service)
 		}
 	}
 
-	final HttpURLConnection httpOpen(URL u) throws IOException {
+	private boolean isProtocolV2Requested(String service) {
+		return SVC_UPLOAD_PACK.equals(service) && local != null
+				&& local.getConfig().get(TransferConfig.KEY)
+						.getProtocolVersion() == 2;
+	}
+
+	final HttpConnection httpOpen(URL u) throws IOException {
 		return httpOpen(METHOD_GET, u);
 	}
 
-	final HttpURLConnection httpOpen(String method, URL u) throws IOException {
+	final HttpConnection httpOpen(String method, URL u) throws IOException {
 		final Proxy proxy = HttpSupport.proxyFor(proxySelector, u);
-		HttpURLConnection conn = (HttpURLConnection) u.openConnection(proxy);
+		HttpConnection conn = getConnectionFactory().create(u, proxy);
 
 		if (!http.sslVerify && "https".equals(u.getProtocol())) { //$NON-NLS-1$
 			disableSslVerify(conn);
@@ -520,18 +562,19 @@ final HttpURLConnection httpOpen(String method, URL u) throws IOException {
 			conn.setConnectTimeout(effTimeOut);
 			conn.setReadTimeout(effTimeOut);
 		}
-		authMethod.configureRequest(conn);
+		// Dumb transport downloads may open connections from several
+		// threads, but authentication methods are not thread-safe.
+		synchronized (this) {
+			authMethod.configureRequest(conn);
+		}
 		return conn;
 	}
 
-	private void disableSslVerify(URLConnection conn)
+	private void disableSslVerify(HttpConnection conn)
 			throws IOException {
 		final TrustManager[] trustAllCerts = new TrustManager[] { new DummyX509TrustManager() };
 		try {
-			SSLContext ctx = SSLContext.getInstance("SSL"); //$NON-NLS-1$
-			ctx.init(null, trustAllCerts, null);
-			final HttpsURLConnection sslConn = (HttpsURLConnection) conn;
-			sslConn.setSSLSocketFactory(ctx.getSocketFactory());
+			conn.configure(null, trustAllCerts, null);
 		} catch (KeyManagementException e) {
 			throw new IOException(e.getMessage());
 		} catch (NoSuchAlgorithmException e) {
@@ -539,7 +582,7 @@ private void disableSslVerify(URLConnection conn)
 		}
 	}
 
-	final InputStream openInputStream(HttpURLConnection conn)
+	final InputStream openInputStream(HttpConnection conn)
 			throws IOException {
 		InputStream input = conn.getInputStream();
 		if (ENCODING_GZIP.equals(conn.getHeaderField(HDR_CONTENT_ENCODING)))
@@ -547,12 +590,39 @@ final InputStream openInputStream(HttpURLConnection conn)
 		return input;
 	}
 
+	/**
+	 * Read and close the body of an unsuccessful response.
+	 * <p>
+	 * Consuming the body allows the persistent connection the response arrived
+	 * on to be reused for a later request, instead of being closed.
+	 *
+	 * @param conn
+	 *            connection whose response is not needed.
+	 */
+	static void discard(HttpConnection conn) {
+		InputStream in = conn.getErrorStream();
+		if (in == null)
+			return;
+		try {
+			try {
+				byte[] buf = new byte[1024];
+				while (in.read(buf) > 0) {
+					// Discard the body.
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException err) {
+			// The connection will not be reused.
+		}
+	}
+
 	IOException wrongContentType(String expType, String actType) {
 		final String why = MessageFormat.format(JGitText.get().expectedReceivedContentType, expType, actType);
 		return new TransportException(uri, why);
 	}
 
-	private boolean isSmartHttp(final HttpURLConnection c, final String service) {
+	private boolean isSmartHttp(final HttpConnection c, final String service) {
 		final String expType = "application/x-" + service + "-advertisement"; //$NON-NLS-1$ //$NON-NLS-2$
 		final String actType = c.getContentType();
 		return expType.equals(actType);
@@ -598,6 +668,11 @@ URIish getURI() {
 			return new URIish(objectsUrl);
 		}
 
+		@Override
+		int getMaxParallelDownloads() {
+			return http.maxParallelDownloads;
+		}
+
 		@Override
 		Collection<WalkRemoteObjectDatabase> getAlternates() throws IOException {
 			try {
@@ -648,18 +723,21 @@ Collection<String> getPackNames() throws IOException {
 		FileStream open(final String path) throws IOException {
 			final URL base = objectsUrl;
 			final URL u = new URL(base, path);
-			final HttpURLConnection c = httpOpen(u);
-			switch (HttpSupport.response(c)) {
-			case HttpURLConnection.HTTP_OK:
+			final HttpConnection c = httpOpen(u);
+			final int status = HttpSupport.response(c);
+			switch (status) {
+			case HttpConnection.HTTP_OK:
 				final InputStream in = openInputStream(c);
 				final int len = c.getContentLength();
 				return new FileStream(in, len);
-			case HttpURLConnection.HTTP_NOT_FOUND:
+			case HttpConnection.HTTP_NOT_FOUND:
+				discard(c);
 				throw new FileNotFoundException(u.toString());
 			default:
+				final String msg = c.getResponseMessage();
+				discard(c);
 				throw new IOException(u.toString() + ": " //$NON-NLS-1$
-						+ HttpSupport.response(c) + " " //$NON-NLS-1$
-						+ c.getResponseMessage());
+						+ status + " " + msg); //$NON-NLS-1$
 			}
 		}
 
@@ -716,23 +794,32 @@ private PackProtocolException duplicateAdvertisement(final String n) {
 
 		@Override
 		void close() {
-			// We do not maintain persistent connections.
+			// Persistent connections are managed by the connection factory.
 		}
 	}
 
 	class SmartHttpFetchConnection extends BasePackFetchConnection {
 		private MultiRequestService svc;
 
-		SmartHttpFetchConnection(final InputStream advertisement)
-				throws TransportException {
+		SmartHttpFetchConnection(final InputStream advertisement,
+				final Collection<RefSpec> refSpecs) throws TransportException {
 			super(TransportHttp.this);
 			statelessRPC = true;
 
 			init(advertisement, DisabledOutputStream.INSTANCE);
 			outNeedsEnd = false;
+			setRefSpecs(refSpecs);
 			readAdvertisedRefs();
 		}
 
+		@Override
+		protected void beginCommand() {
+			MultiRequestService ls = new MultiRequestService(SVC_UPLOAD_PACK);
+			ls.finalRequest = true;
+			init(ls.getInputStream(), ls.getOutputStream());
+			outNeedsEnd = false;
+		}
+
 		@Override
 		protected void doFetch(final ProgressMonitor monitor,
 				final Collection<Ref> want, final Set<ObjectId> have)
@@ -772,6 +859,221 @@ protected void doPush(final ProgressMonitor monitor,
 		}
 	}
 
+	/**
+	 * Downloads a bundle file, such as one offered by a server's bundle-uri
+	 * command.
+	 * <p>
+	 * If the connection breaks before the end of the file the download is
+	 * resumed with a range request, so large bundles are not fetched again
+	 * from the start. With a {@link PartialDownload} the received bytes are
+	 * also saved on disk, and are kept if the download cannot be resumed so
+	 * that the next fetch continues where this one stopped.
+	 */
+	class BundleStream extends InputStream {
+		private final URL url;
+
+		private final PartialDownload partial;
+
+		private InputStream in;
+
+		private InputStream replay;
+
+		private OutputStream checkpoint;
+
+		/** ETag or Last-Modified of the file, sent in If-Range. */
+		private String validator;
+
+		/** Total length of the file; -1 if the server did not say. */
+		private long length = -1;
+
+		private long pos;
+
+		private boolean started;
+
+		private int resumes;
+
+		private boolean keep;
+
+		BundleStream(URL url, PartialDownload partial) throws IOException {
+			this.url = url;
+			this.partial = partial;
+			if (partial != null && 0 < (pos = partial.load())) {
+				validator = partial.getValidator();
+				length = partial.getLength();
+			}
+			in = open();
+		}
+
+		private InputStream open() throws IOException {
+			final HttpConnection c = httpOpen(url);
+			// Offsets must count bytes of the file, not of a compressed
+			// encoding of it. Bundles are compressed already.
+			c.setRequestProperty(HDR_ACCEPT_ENCODING, "identity"); //$NON-NLS-1$
+			if (0 < pos) {
+				c.setRequestProperty(HDR_RANGE, "bytes=" + pos + "-"); //$NON-NLS-1$ //$NON-NLS-2$
+				if (validator != null)
+					c.setRequestProperty(HDR_IF_RANGE, validator);
+			}
+			final int status = HttpSupport.response(c);
+			if (status == HttpConnection.HTTP_PARTIAL && 0 < pos
+					&& isRemainder(c)) {
+				if (!started && checkpoint == null) {
+					// First request after an earlier attempt stopped; the
+					// saved prefix is read back before the response body.
+					replay = partial.replay();
+					checkpoint = partial.append();
+				}
+				return c.getInputStream();
+			}
+			if (status == HttpConnection.HTTP_OK && (pos == 0 || !started)) {
+				pos = 0;
+				validator = c.getHeaderField(HDR_ETAG);
+				if (validator == null)
+					validator = c.getHeaderField(HDR_LAST_MODIFIED);
+				length = contentLength(c);
+				startCheckpoint();
+				return c.getInputStream();
+			}
+			final String msg = c.getResponseMessage();
+			discard(c);
+			if (!started && 0 < pos && status < 500) {
+				// The saved prefix no longer applies; start over.
+				partial.delete();
+				pos = 0;
+				validator = null;
+				length = -1;
+				return open();
+			}
+			throw new IOException(url.toString() + ": " //$NON-NLS-1$
+					+ status + " " + msg); //$NON-NLS-1$
+		}
+
+		private boolean isRemainder(HttpConnection c) {
+			// Content-Range: bytes <first>-<last>/<length>
+			final String range = c.getHeaderField(HDR_CONTENT_RANGE);
+			if (range == null)
+				return false;
+			final int sp = range.indexOf(' ');
+			final int dash = range.indexOf('-', sp + 1);
+			final int slash = range.indexOf('/', dash + 1);
+			if (sp < 0 || dash < 0 || slash < 0)
+				return false;
+			try {
+				if (Long.parseLong(range.substring(sp + 1, dash)) != pos)
+					return false;
+				return length < 0
+						|| Long.parseLong(range.substring(slash + 1)) == length;
+			} catch (NumberFormatException badRange) {
+				return false;
+			}
+		}
+
+		private long contentLength(HttpConnection c) {
+			final String len = c.getHeaderField(HDR_CONTENT_LENGTH);
+			if (len == null)
+				return -1;
+			try {
+				return Long.parseLong(len);
+			} catch (NumberFormatException err) {
+				return -1;
+			}
+		}
+
+		private void startCheckpoint() {
+			closeCheckpoint();
+			if (partial == null)
+				return;
+			partial.delete();
+			if (validator == null || length < 0)
+				return; // Cannot tell if the file changes; don't save it.
+			try {
+				checkpoint = partial.begin(validator, length);
+			} catch (IOException err) {
+				// Download without a checkpoint.
+				partial.delete();
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			started = true;
+			if (replay != null) {
+				final int n = replay.read(b, off, len);
+				if (0 < n)
+					return n;
+				replay.close();
+				replay = null;
+			}
+			for (;;) {
+				try {
+					final int n = in.read(b, off, len);
+					if (0 < n) {
+						pos += n;
+						save(b, off, n);
+					}
+					return n;
+				} catch (IOException err) {
+					if (MAX_BUNDLE_RESUMES <= resumes++) {
+						// The server may be back later; keep what we have.
+						keep = checkpoint != null;
+						throw err;
+					}
+					try {
+						in.close();
+					} catch (IOException broken) {
+						// The stream is abandoned either way.
+					}
+					in = open();
+				}
+			}
+		}
+
+		private void save(byte[] b, int off, int n) {
+			if (checkpoint == null)
+				return;
+			try {
+				checkpoint.write(b, off, n);
+			} catch (IOException err) {
+				// Out of space is not a reason to fail the download.
+				closeCheckpoint();
+				partial.delete();
+			}
+		}
+
+		private void closeCheckpoint() {
+			if (checkpoint != null) {
+				try {
+					checkpoint.close();
+				} catch (IOException err) {
+					// Any bytes lost are requested again on resume.
+				}
+				checkpoint = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				if (replay != null)
+					replay.close();
+				in.close();
+			} finally {
+				closeCheckpoint();
+				if (partial != null) {
+					if (!keep)
+						partial.delete();
+					partial.release();
+				}
+			}
+		}
+	}
+
 	/** Basic service for sending and receiving HTTP requests. */
 	abstract class Service {
 		protected final String serviceName;
@@ -780,7 +1082,7 @@ abstract class Service {
 
 		protected final String responseType;
 
-		protected HttpURLConnection conn;
+		protected HttpConnection conn;
 
 		protected HttpOutputStream out;
 
@@ -804,6 +1106,9 @@ void openStream() throws IOException {
 			conn.setDoOutput(true);
 			conn.setRequestProperty(HDR_CONTENT_TYPE, requestType);
 			conn.setRequestProperty(HDR_ACCEPT, responseType);
+			if (isProtocolV2Requested(serviceName))
+				conn.setRequestProperty(HDR_GIT_PROTOCOL,
+						BasePackFetchConnection.VERSION_2_REQUEST);
 		}
 
 		void sendRequest() throws IOException {
@@ -835,9 +1140,10 @@ void sendRequest() throws IOException {
 
 		void openResponse() throws IOException {
 			final int status = HttpSupport.response(conn);
-			if (status != HttpURLConnection.HTTP_OK) {
-				throw new TransportException(uri, status + " " //$NON-NLS-1$
-						+ conn.getResponseMessage());
+			if (status != HttpConnection.HTTP_OK) {
+				final String msg = conn.getResponseMessage();
+				discard(conn);
+				throw new TransportException(uri, status + " " + msg); //$NON-NLS-1$
 			}
 
 			final String contentType = conn.getContentType();
@@ -65,6 +65,7 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.ObjectDirectory;
 import org.eclipse.jgit.util.io.MessageWriter;
 import org.eclipse.jgit.util.io.SafeBufferedOutputStream;
 import org.eclipse.jgit.util.io.StreamCopyThread;
@@ -80,6 +81,12 @@
  * calling thread and the helper thread. This is a pure-Java implementation
  * which does not require forking an external process.
  * <p>
+ * Fetching into a file based repository skips UploadPack altogether, unless
+ * received objects must be checked, a filter is set, or
+ * {@code transfer.localCopy} is false. Packs of the source are then copied
+ * as they are, and only the objects they do not cover are written into a new
+ * pack.
+ * <p>
  * However, during {@link #openFetch()}, if the Transport has configured
  * {@link Transport#getOptionUploadPack()} to be anything other than
  * <code>"git-upload-pack"</code> or <code>"git upload-pack"</code>, this
@@ -150,11 +157,30 @@ ReceivePack createReceivePack(final Repository dst) {
 	@Override
 	public FetchConnection openFetch() throws TransportException {
 		final String up = getOptionUploadPack();
-		if ("git-upload-pack".equals(up) || "git upload-pack".equals(up)) //$NON-NLS-1$ //$NON-NLS-2$
+		if ("git-upload-pack".equals(up) || "git upload-pack".equals(up)) { //$NON-NLS-1$ //$NON-NLS-2$
+			if (canCopyLocally())
+				return new LocalCopyFetchConnection(this, remoteGitDir);
 			return new InternalLocalFetchConnection();
+		}
 		return new ForkLocalFetchConnection();
 	}
 
+	/**
+	 * Check whether objects may be copied without running UploadPack.
+	 * <p>
+	 * Copying skips the pack parser, so it cannot check received objects, and
+	 * it cannot filter objects for a partial clone. Both repositories must
+	 * use the file based object storage.
+	 *
+	 * @return true if {@link LocalCopyFetchConnection} may be used.
+	 */
+	boolean canCopyLocally() {
+		return local.getObjectDatabase() instanceof ObjectDirectory
+				&& getFilterSpec() == null
+				&& !isCheckFetchedObjects()
+				&& local.getConfig().getBoolean("transfer", "localcopy", true); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	@Override
 	public PushConnection openPush() throws NotSupportedException,
 			TransportException {
@@ -45,6 +45,7 @@
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -126,8 +127,13 @@ public Transport open(URIish uri, Repository local, String remoteName)
 		}
 	};
 
+	/** Number of files a fetch may download at once. */
+	private final int maxParallelDownloads;
+
 	TransportSftp(final Repository local, final URIish uri) {
 		super(local, uri);
+		maxParallelDownloads = local.getConfig().getInt("sftp", //$NON-NLS-1$
+				"maxParallelDownloads", 4); //$NON-NLS-1$
 	}
 
 	@Override
@@ -165,6 +171,17 @@ class SftpObjectDB extends WalkRemoteObjectDatabase {
 
 		private ChannelSftp ftp;
 
+		/**
+		 * Channels used by {@link #open(String)} for parallel downloads.
+		 * <p>
+		 * A ChannelSftp is not thread-safe, so each concurrent download
+		 * borrows its own channel of the same session.
+		 */
+		private final List<ChannelSftp> readers = new ArrayList<ChannelSftp>();
+
+		/** Members of {@link #readers} not currently in use. */
+		private final List<ChannelSftp> idleReaders = new ArrayList<ChannelSftp>();
+
 		SftpObjectDB(String path) throws TransportException {
 			if (path.startsWith("/~")) //$NON-NLS-1$
 				path = path.substring(1);
@@ -259,11 +276,74 @@ public int compare(final String o1, final String o2) {
 			return packs;
 		}
 
+		@Override
+		int getMaxParallelDownloads() {
+			return maxParallelDownloads;
+		}
+
 		@Override
 		FileStream open(final String path) throws IOException {
+			if (maxParallelDownloads <= 1)
+				return open(ftp, path);
+
+			final ChannelSftp reader = borrowReader();
+			boolean borrowed = true;
+			try {
+				final FileStream s = open(reader, path);
+				final FileStream r = new FileStream(new FilterInputStream(s.in) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							returnReader(reader);
+						}
+					}
+				}, s.length);
+				borrowed = false;
+				return r;
+			} finally {
+				if (borrowed)
+					returnReader(reader);
+			}
+		}
+
+		private ChannelSftp borrowReader() throws TransportException {
+			synchronized (readers) {
+				if (!idleReaders.isEmpty())
+					return idleReaders.remove(idleReaders.size() - 1);
+			}
+
+			final ChannelSftp c = newSftp();
 			try {
-				final SftpATTRS a = ftp.lstat(path);
-				return new FileStream(ftp.get(path), a.getSize());
+				c.cd(objectsPath);
+			} catch (SftpException je) {
+				c.disconnect();
+				throw new TransportException("Can't enter " + objectsPath
+						+ ": " + je.getMessage(), je);
+			}
+			synchronized (readers) {
+				readers.add(c);
+			}
+			return c;
+		}
+
+		private void returnReader(final ChannelSftp c) {
+			synchronized (readers) {
+				if (readers.contains(c) && !idleReaders.contains(c)) {
+					if (c.isConnected())
+						idleReaders.add(c);
+					else
+						readers.remove(c);
+				}
+			}
+		}
+
+		private FileStream open(final ChannelSftp channel, final String path)
+				throws IOException {
+			try {
+				final SftpATTRS a = channel.lstat(path);
+				return new FileStream(channel.get(path), a.getSize());
 			} catch (SftpException je) {
 				if (je.id == ChannelSftp.SSH_FX_NO_SUCH_FILE)
 					throw new FileNotFoundException(path);
@@ -451,6 +531,14 @@ private Storage loose(final Ref r) {
 
 		@Override
 		void close() {
+			synchronized (readers) {
+				for (final ChannelSftp c : readers) {
+					if (c.isConnected())
+						c.disconnect();
+				}
+				readers.clear();
+				idleReaders.clear();
+			}
 			if (ftp != null) {
 				try {
 					if (ftp.isConnected())
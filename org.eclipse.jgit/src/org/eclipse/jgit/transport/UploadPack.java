@@ -49,22 +49,27 @@
 import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.PackProtocolException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.AsyncRevObjectQueue;
 import org.eclipse.jgit.revwalk.DepthWalk;
@@ -108,6 +113,46 @@ public class UploadPack {
 
 	static final String OPTION_SHALLOW = BasePackFetchConnection.OPTION_SHALLOW;
 
+	static final String OPTION_FILTER = BasePackFetchConnection.OPTION_FILTER;
+
+	static final String OPTION_DEEPEN_SINCE = BasePackFetchConnection.OPTION_DEEPEN_SINCE;
+
+	static final String OPTION_DEEPEN_NOT = BasePackFetchConnection.OPTION_DEEPEN_NOT;
+
+	static final String VERSION_2_REQUEST = BasePackFetchConnection.VERSION_2_REQUEST;
+
+	static final String COMMAND_LS_REFS = BasePackFetchConnection.COMMAND_LS_REFS;
+
+	static final String COMMAND_FETCH = BasePackFetchConnection.COMMAND_FETCH;
+
+	static final String COMMAND_BUNDLE_URI = BasePackFetchConnection.COMMAND_BUNDLE_URI;
+
+	private static final byte[] WANT_ = Constants.encodeASCII("want "); //$NON-NLS-1$
+
+	private static final byte[] HAVE_ = Constants.encodeASCII("have "); //$NON-NLS-1$
+
+	private static final byte[] DONE = Constants.encodeASCII("done"); //$NON-NLS-1$
+
+	private static final byte[] DEEPEN_ = Constants.encodeASCII("deepen "); //$NON-NLS-1$
+
+	private static final byte[] DEEPEN_SINCE_ = Constants.encodeASCII("deepen-since "); //$NON-NLS-1$
+
+	private static final byte[] DEEPEN_NOT_ = Constants.encodeASCII("deepen-not "); //$NON-NLS-1$
+
+	private static final byte[] SHALLOW_ = Constants.encodeASCII("shallow "); //$NON-NLS-1$
+
+	private static final byte[] FILTER_ = Constants.encodeASCII("filter "); //$NON-NLS-1$
+
+	private static final byte[] ACK_ = Constants.encodeASCII("ACK "); //$NON-NLS-1$
+
+	private static final byte[] LF = Constants.encodeASCII("\n"); //$NON-NLS-1$
+
+	private static final byte[] CONTINUE_LF = Constants.encodeASCII(" continue\n"); //$NON-NLS-1$
+
+	private static final byte[] COMMON_LF = Constants.encodeASCII(" common\n"); //$NON-NLS-1$
+
+	private static final byte[] READY_LF = Constants.encodeASCII(" ready\n"); //$NON-NLS-1$
+
 	/** Policy the server uses to validate client requests */
 	public static enum RequestPolicy {
 		/** Client may only ask for objects the server advertised a reference for. */
@@ -225,6 +270,24 @@ public Set<String> getOptions() {
 	/** Desired depth from the client on a shallow request. */
 	private int depth;
 
+	/** Oldest commit time the client wants on a shallow request, in seconds. */
+	private int deepenSince;
+
+	/** Refs whose history the client does not want on a shallow request. */
+	private final List<String> deepenNots = new ArrayList<String>();
+
+	/** Commits cutting history for deepen-since and deepen-not. */
+	private Set<ObjectId> shallowCommits;
+
+	/** True if clients may ask for a partial clone. */
+	private boolean allowFilter;
+
+	/** Objects the client asked to omit from the pack, if any. */
+	private FilterSpec filterSpec;
+
+	/** Pre-generated bundles offered to protocol v2 clients, by id. */
+	private Map<String, String> bundleURIs = Collections.emptyMap();
+
 	/** Commit time of the oldest common commit, in seconds. */
 	private int oldestTime;
 
@@ -260,6 +323,24 @@ public Set<String> getOptions() {
 
 	private UploadPackLogger logger = UploadPackLogger.NULL;
 
+	/** Cache of packs sent for clones, if enabled. */
+	private UploadPackCache packCache;
+
+	/** Cache of encoded ref advertisements, if enabled. */
+	private RefAdvertisementCache advertisementCache;
+
+	/** Version of {@link #advertisementCache} before refs were read. */
+	private long advertisementVersion;
+
+	/** Cache of shallow boundaries by tip and depth, if enabled. */
+	private DepthBoundaryCache depthCache;
+
+	/** Extra parameters the client sent with its request. */
+	private Set<String> extraParameters = Collections.emptySet();
+
+	/** True once the client sent "done" in a protocol v2 fetch. */
+	private boolean peerDone;
+
 	/**
 	 * Create a new pack upload for an open repository.
 	 *
@@ -282,6 +363,110 @@ public UploadPack(final Repository copyFrom) {
 		SAVE.add(PEER_HAS);
 		SAVE.add(COMMON);
 		SAVE.add(SATISFIED);
+
+		packCache = UploadPackCache.get(db);
+		advertisementCache = RefAdvertisementCache.get(db);
+		advertisementVersion = RefAdvertisementCache
+				.version(advertisementCache);
+		depthCache = DepthBoundaryCache.get(db);
+
+		Config rc = db.getConfig();
+		allowFilter = rc.getBoolean("uploadpack", "allowfilter", false); //$NON-NLS-1$ //$NON-NLS-2$
+		if (rc.getBoolean("uploadpack", "allowanysha1inwant", false)) //$NON-NLS-1$ //$NON-NLS-2$
+			requestPolicy = RequestPolicy.ANY;
+		if (rc.getBoolean("uploadpack", "advertisebundleuris", false)) { //$NON-NLS-1$ //$NON-NLS-2$
+			Map<String, String> uris = new LinkedHashMap<String, String>();
+			for (String id : rc.getSubsections("bundle")) { //$NON-NLS-1$
+				String uri = rc.getString("bundle", id, "uri"); //$NON-NLS-1$ //$NON-NLS-2$
+				if (uri != null)
+					uris.put(id, uri);
+			}
+			setBundleURIs(uris);
+		}
+	}
+
+	/** @return the cache of packs sent for clones; null if disabled. */
+	public UploadPackCache getPackCache() {
+		return packCache;
+	}
+
+	/**
+	 * Set the cache used to answer identical clone requests.
+	 * <p>
+	 * By default the cache configured for the repository by
+	 * {@code uploadpack.packCacheSize} is used, see
+	 * {@link UploadPackCache#get(Repository)}.
+	 *
+	 * @param cache
+	 *            the cache; null to always generate packs.
+	 */
+	public void setPackCache(UploadPackCache cache) {
+		packCache = cache;
+	}
+
+	/** @return the cache of encoded ref advertisements; null if disabled. */
+	public RefAdvertisementCache getAdvertisementCache() {
+		return advertisementCache;
+	}
+
+	/**
+	 * Set the cache to reuse encoded ref advertisements from.
+	 * <p>
+	 * By default the cache configured for the repository by
+	 * {@code transfer.advertisementCache} is used, see
+	 * {@link RefAdvertisementCache#get(Repository)}.
+	 *
+	 * @param cache
+	 *            the cache; null to always format the advertisement.
+	 */
+	public void setAdvertisementCache(RefAdvertisementCache cache) {
+		advertisementCache = cache;
+		// Refs already read may predate the version of the new cache.
+		advertisementVersion = refs == null ? RefAdvertisementCache
+				.version(cache) : -1;
+	}
+
+	/** @return the cache of shallow boundaries; null if disabled. */
+	public DepthBoundaryCache getDepthCache() {
+		return depthCache;
+	}
+
+	/**
+	 * Set the cache to reuse the shallow boundaries of tip commits from.
+	 * <p>
+	 * By default the cache configured for the repository by
+	 * {@code uploadpack.depthCacheSize} is used, see
+	 * {@link DepthBoundaryCache#get(Repository)}.
+	 *
+	 * @param cache
+	 *            the cache; null to always walk the history of the wants.
+	 */
+	public void setDepthCache(DepthBoundaryCache cache) {
+		depthCache = cache;
+	}
+
+	/**
+	 * Set the extra parameters the client sent alongside its request.
+	 * <p>
+	 * Daemons pass the parameters following the host on the git:// request
+	 * line, smart HTTP servlets the colon separated {@code Git-Protocol}
+	 * header. A {@code version=2} parameter selects protocol v2, where the
+	 * client lists only the references it is interested in through the
+	 * {@code ls-refs} command instead of receiving every reference.
+	 *
+	 * @param params
+	 *            the parameters; null or empty for none.
+	 */
+	public void setExtraParameters(Collection<String> params) {
+		if (params == null || params.isEmpty())
+			extraParameters = Collections.emptySet();
+		else
+			extraParameters = new HashSet<String>(params);
+	}
+
+	/** @return true if the client requested protocol v2. */
+	public boolean isProtocolV2() {
+		return extraParameters.contains(VERSION_2_REQUEST);
 	}
 
 	/** @return the repository this upload is reading from. */
@@ -382,6 +567,55 @@ public void setRequestPolicy(RequestPolicy policy) {
 		requestPolicy = policy != null ? policy : RequestPolicy.ADVERTISED;
 	}
 
+	/** @return true if clients may ask for objects to be filtered. */
+	public boolean isAllowFilter() {
+		return allowFilter;
+	}
+
+	/**
+	 * Allow clients to request a partial clone.
+	 * <p>
+	 * By default this is set by {@code uploadpack.allowFilter}. Clients of a
+	 * partial clone later fetch the objects they miss one by one, which
+	 * requires {@link RequestPolicy#ANY}; it is set by
+	 * {@code uploadpack.allowAnySHA1InWant}.
+	 *
+	 * @param allow
+	 *            true to advertise the {@code filter} capability and honor
+	 *            the {@link FilterSpec} sent by clients.
+	 */
+	public void setAllowFilter(boolean allow) {
+		allowFilter = allow;
+	}
+
+	/** @return bundles offered to clients, keyed by bundle id. */
+	public Map<String, String> getBundleURIs() {
+		return bundleURIs;
+	}
+
+	/**
+	 * Offer pre-generated bundles to protocol v2 clients.
+	 * <p>
+	 * Clients download the bundles, for example from static HTTP storage,
+	 * before negotiating the remainder of the fetch. This moves the bulk of a
+	 * clone away from this process. Bundles may be written by
+	 * {@link BundleWriter} on a schedule; they need not contain the current
+	 * refs. By default the bundles are read from {@code bundle.<id>.uri}
+	 * when {@code uploadpack.advertiseBundleURIs} is true.
+	 *
+	 * @param uris
+	 *            bundle URIs keyed by bundle id; empty to offer none.
+	 */
+	public void setBundleURIs(Map<String, String> uris) {
+		bundleURIs = Collections.unmodifiableMap(
+				new LinkedHashMap<String, String>(uris));
+	}
+
+	/** @return the filter requested by the client; null if none. */
+	public FilterSpec getFilterSpec() {
+		return filterSpec;
+	}
+
 	/** @return the hook used while advertising the refs to the client */
 	public AdvertiseRefsHook getAdvertiseRefsHook() {
 		return advertiseRefsHook;
@@ -518,7 +752,10 @@ public void upload(final InputStream input, final OutputStream output,
 
 			pckIn = new PacketLineIn(rawIn);
 			pckOut = new PacketLineOut(rawOut);
-			service();
+			if (isProtocolV2())
+				serviceV2();
+			else
+				service();
 		} finally {
 			walk.release();
 			if (timer != null) {
@@ -551,15 +788,6 @@ private Map<String, Ref> getAdvertisedOrDefaultRefs() {
 	private void service() throws IOException {
 		if (biDirectionalPipe)
 			sendAdvertisedRefs(new PacketLineOutRefAdvertiser(pckOut));
-		else if (requestPolicy == RequestPolicy.ANY)
-			advertised = Collections.emptySet();
-		else {
-			advertised = new HashSet<ObjectId>();
-			for (Ref ref : getAdvertisedOrDefaultRefs().values()) {
-				if (ref.getObjectId() != null)
-					advertised.add(ref.getObjectId());
-			}
-		}
 
 		boolean sendPack;
 		try {
@@ -578,8 +806,10 @@ else if (requestPolicy == RequestPolicy.ANY)
 			else
 				multiAck = MultiAck.OFF;
 
-			if (depth != 0)
-				processShallow();
+			if (isShallow()) {
+				processShallow(wantIds);
+				pckOut.end();
+			}
 			sendPack = negotiate();
 		} catch (PackProtocolException err) {
 			reportErrorDuringNegotiate(err.getMessage());
@@ -611,6 +841,298 @@ else if (requestPolicy == RequestPolicy.ANY)
 			sendPack();
 	}
 
+	/** @return ids the client may ask for; computed once per request. */
+	private Set<ObjectId> getAdvertisedIds() {
+		if (advertised != null)
+			return advertised;
+		if (requestPolicy == RequestPolicy.ANY)
+			advertised = Collections.emptySet();
+		else {
+			Set<ObjectId> ids = new HashSet<ObjectId>();
+			for (Ref ref : getAdvertisedOrDefaultRefs().values()) {
+				if (ref.getObjectId() != null)
+					ids.add(ref.getObjectId());
+			}
+			advertised = ids;
+		}
+		return advertised;
+	}
+
+	private void serviceV2() throws IOException {
+		if (biDirectionalPipe)
+			sendAdvertisedRefs(new PacketLineOutRefAdvertiser(pckOut));
+
+		for (;;) {
+			String line;
+			try {
+				line = pckIn.readString();
+			} catch (EOFException eof) {
+				// The client is allowed to hang up between commands.
+				return;
+			}
+			if (line == PacketLineIn.END)
+				return;
+			if (!line.startsWith("command=")) //$NON-NLS-1$
+				throw new PackProtocolException(MessageFormat.format(
+						JGitText.get().expectedGot, "command=", line)); //$NON-NLS-1$
+
+			String command = line.substring(8);
+			List<String> args = readArgumentsV2();
+			if (COMMAND_LS_REFS.equals(command))
+				lsRefsV2(args);
+			else if (COMMAND_FETCH.equals(command))
+				fetchV2(args);
+			else if (COMMAND_BUNDLE_URI.equals(command)
+					&& !bundleURIs.isEmpty())
+				bundleUriV2();
+			else {
+				String msg = MessageFormat.format(
+						JGitText.get().unsupportedProtocolCommand, command);
+				reportErrorDuringNegotiate(msg);
+				throw new PackProtocolException(msg);
+			}
+
+			if (!biDirectionalPipe)
+				return;
+		}
+	}
+
+	private List<String> readArgumentsV2() throws IOException {
+		// Capabilities of the request precede the delimiter. None of
+		// them change the behavior of this implementation.
+		String line = pckIn.readStringOrDelim();
+		while (line != PacketLineIn.DELIM && line != PacketLineIn.END)
+			line = pckIn.readStringOrDelim();
+
+		List<String> args = new ArrayList<String>();
+		if (line == PacketLineIn.DELIM) {
+			while ((line = pckIn.readString()) != PacketLineIn.END)
+				args.add(line);
+		}
+		return args;
+	}
+
+	private void lsRefsV2(List<String> args) throws IOException {
+		boolean symrefs = false;
+		boolean peel = false;
+		List<String> prefixes = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.equals("symrefs")) //$NON-NLS-1$
+				symrefs = true;
+			else if (arg.equals("peel")) //$NON-NLS-1$
+				peel = true;
+			else if (arg.startsWith("ref-prefix ")) //$NON-NLS-1$
+				prefixes.add(arg.substring(11));
+			else {
+				String msg = MessageFormat.format(JGitText.get().expectedGot,
+						"ref-prefix", arg); //$NON-NLS-1$
+				reportErrorDuringNegotiate(msg);
+				throw new PackProtocolException(msg);
+			}
+		}
+
+		try {
+			advertiseRefsHook.advertiseRefs(this);
+		} catch (ServiceMayNotContinueException fail) {
+			if (fail.getMessage() != null) {
+				pckOut.writeString("ERR " + fail.getMessage() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+				fail.setOutput();
+			}
+			throw fail;
+		}
+
+		StringBuilder line = new StringBuilder(100);
+		for (Ref ref : getRefsByPrefix(prefixes)) {
+			ObjectId id = ref.getObjectId();
+			if (id == null)
+				continue;
+
+			line.setLength(0);
+			line.append(id.name());
+			line.append(' ');
+			line.append(ref.getName());
+			if (symrefs && ref.isSymbolic()) {
+				line.append(" symref-target:"); //$NON-NLS-1$
+				line.append(ref.getTarget().getName());
+			}
+			if (peel) {
+				if (!ref.isPeeled())
+					ref = db.peel(ref);
+				if (ref.getPeeledObjectId() != null) {
+					line.append(" peeled:"); //$NON-NLS-1$
+					line.append(ref.getPeeledObjectId().name());
+				}
+			}
+			line.append('\n');
+			pckOut.writeString(line.toString());
+		}
+		pckOut.end();
+	}
+
+	private void bundleUriV2() throws IOException {
+		pckOut.writeString("bundle.version=1\n"); //$NON-NLS-1$
+		pckOut.writeString("bundle.mode=all\n"); //$NON-NLS-1$
+		for (Map.Entry<String, String> e : bundleURIs.entrySet())
+			pckOut.writeString("bundle." + e.getKey() + ".uri=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ e.getValue() + '\n');
+		pckOut.end();
+	}
+
+	/**
+	 * Find the references a protocol v2 client asked for.
+	 * <p>
+	 * Unless the advertise hook or the ref filter need to see the entire
+	 * namespace, only the directories holding the requested prefixes are read,
+	 * so the cost of listing is proportional to the references requested.
+	 */
+	private Collection<Ref> getRefsByPrefix(List<String> prefixes)
+			throws IOException {
+		if (prefixes.isEmpty())
+			return getAdvertisedOrDefaultRefs().values();
+
+		Map<String, Ref> r = new TreeMap<String, Ref>();
+		if (refs != null || refFilter != RefFilter.DEFAULT) {
+			for (Ref ref : getAdvertisedOrDefaultRefs().values()) {
+				if (startsWithAny(ref.getName(), prefixes))
+					r.put(ref.getName(), ref);
+			}
+			return r.values();
+		}
+
+		RefDatabase refdb = db.getRefDatabase();
+		for (String prefix : prefixes) {
+			if (Constants.HEAD.startsWith(prefix)) {
+				Ref head = refdb.getRef(Constants.HEAD);
+				if (head != null)
+					r.put(head.getName(), head);
+			}
+
+			int s = prefix.lastIndexOf('/');
+			if (s < 0 && !Constants.R_REFS.startsWith(prefix))
+				continue;
+			for (Ref ref : refdb.getRefs(prefix.substring(0, s + 1)).values()) {
+				if (ref.getName().startsWith(prefix))
+					r.put(ref.getName(), ref);
+			}
+		}
+		return r.values();
+	}
+
+	private static boolean startsWithAny(String name, List<String> prefixes) {
+		for (String prefix : prefixes) {
+			if (name.startsWith(prefix))
+				return true;
+		}
+		return false;
+	}
+
+	private void fetchV2(List<String> args) throws IOException {
+		resetFetchState();
+		options = new HashSet<String>();
+		options.add(OPTION_SIDE_BAND_64K);
+
+		List<ObjectId> peerHas = new ArrayList<ObjectId>();
+		try {
+			for (String line : args) {
+				if (line.startsWith("want ") && line.length() == 45) //$NON-NLS-1$
+					wantIds.add(ObjectId.fromString(line.substring(5)));
+				else if (line.startsWith("have ") && line.length() == 45) //$NON-NLS-1$
+					peerHas.add(ObjectId.fromString(line.substring(5)));
+				else if (line.equals("done")) //$NON-NLS-1$
+					peerDone = true;
+				else if (line.startsWith("deepen ")) //$NON-NLS-1$
+					depth = Integer.parseInt(line.substring(7));
+				else if (line.startsWith("deepen-since ")) //$NON-NLS-1$
+					deepenSince = Integer.parseInt(line.substring(13));
+				else if (line.startsWith("deepen-not ")) //$NON-NLS-1$
+					deepenNots.add(line.substring(11));
+				else if (line.startsWith("shallow ")) //$NON-NLS-1$
+					clientShallowCommits.add(ObjectId.fromString(line.substring(8)));
+				else if (line.startsWith("filter ")) //$NON-NLS-1$
+					parseFilter(line);
+				else if (line.equals(OPTION_THIN_PACK)
+						|| line.equals(OPTION_OFS_DELTA)
+						|| line.equals(OPTION_INCLUDE_TAG)
+						|| line.equals(OPTION_NO_PROGRESS))
+					options.add(line);
+				else
+					throw new PackProtocolException(MessageFormat.format(
+							JGitText.get().expectedGot, "want", line)); //$NON-NLS-1$
+			}
+
+			if (wantIds.isEmpty()) {
+				preUploadHook.onBeginNegotiateRound(this, wantIds, 0);
+				preUploadHook.onEndNegotiateRound(this, wantIds, 0, 0, false);
+				pckOut.end();
+				return;
+			}
+			// Wants are consumed as they are parsed, keep a copy to
+			// compute the shallow boundary from.
+			Set<ObjectId> wants = isShallow()
+					? new HashSet<ObjectId>(wantIds)
+					: Collections.<ObjectId> emptySet();
+
+			if (!peerDone)
+				pckOut.writeString("acknowledgments\n"); //$NON-NLS-1$
+			ObjectId last = processHaveLines(peerHas, null);
+			if (!peerDone) {
+				if (last == null)
+					pckOut.writeString("NAK\n"); //$NON-NLS-1$
+				if (!okToGiveUp()) {
+					pckOut.end();
+					return;
+				}
+				pckOut.writeString("ready\n"); //$NON-NLS-1$
+				pckOut.writeDelim();
+			}
+
+			if (isShallow()) {
+				pckOut.writeString("shallow-info\n"); //$NON-NLS-1$
+				processShallow(wants);
+				pckOut.writeDelim();
+			}
+			pckOut.writeString("packfile\n"); //$NON-NLS-1$
+		} catch (PackProtocolException err) {
+			reportErrorDuringNegotiate(err.getMessage());
+			throw err;
+		}
+		sendPack();
+	}
+
+	/**
+	 * Forget what an earlier fetch command of this connection negotiated.
+	 * The advertised ids are kept, they are computed once per request.
+	 */
+	private void resetFetchState() {
+		multiAck = MultiAck.OFF;
+		peerDone = false;
+		filterSpec = null;
+		wantIds.clear();
+		wantAll.clear();
+		commonBase.clear();
+		clientShallowCommits.clear();
+		unshallowCommits.clear();
+		depth = 0;
+		deepenSince = 0;
+		deepenNots.clear();
+		shallowCommits = null;
+		oldestTime = 0;
+		okToGiveUp = null;
+		sentReady = false;
+		walk.reset();
+	}
+
+	private void parseFilter(String line) throws PackProtocolException {
+		if (!allowFilter)
+			throw new PackProtocolException(MessageFormat.format(
+					JGitText.get().expectedGot, "want", line)); //$NON-NLS-1$
+		try {
+			filterSpec = FilterSpec.fromString(line.substring(7));
+		} catch (IllegalArgumentException invalid) {
+			throw new PackProtocolException(invalid.getMessage());
+		}
+	}
+
 	private void reportErrorDuringNegotiate(String msg) {
 		try {
 			pckOut.writeString("ERR " + msg + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
@@ -619,37 +1141,150 @@ private void reportErrorDuringNegotiate(String msg) {
 		}
 	}
 
-	private void processShallow() throws IOException {
-		DepthWalk.RevWalk depthWalk =
-			new DepthWalk.RevWalk(walk.getObjectReader(), depth);
+	private boolean isShallow() {
+		return depth != 0 || deepenSince != 0 || !deepenNots.isEmpty();
+	}
+
+	private void processShallow(Set<ObjectId> wants) throws IOException {
+		if (depth != 0 && (deepenSince != 0 || !deepenNots.isEmpty()))
+			throw new PackProtocolException(
+					JGitText.get().cannotCombineDeepenWithDeepenSince);
+
+		// Commits the client gets with all of their parents, and those it
+		// gets without parents and records as shallow.
+		Set<ObjectId> interior = new HashSet<ObjectId>();
+		Set<ObjectId> boundary = new HashSet<ObjectId>();
+		if (depth != 0)
+			findDepthBoundary(wants, interior, boundary);
+		else {
+			findDeepenBoundary(wants, interior, boundary);
+			shallowCommits = boundary;
+		}
+
+		for (ObjectId id : boundary) {
+			// Commits at the boundary which aren't already shallow in
+			// the client need to be marked as such
+			if (!clientShallowCommits.contains(id))
+				pckOut.writeString("shallow " + id.name()); //$NON-NLS-1$
+		}
+		for (ObjectId id : interior) {
+			// Commits not on the boundary which are shallow in the client
+			// need to become unshallowed
+			if (clientShallowCommits.contains(id)) {
+				unshallowCommits.add(id);
+				pckOut.writeString("unshallow " + id.name()); //$NON-NLS-1$
+			}
+		}
+	}
 
-		// Find all the commits which will be shallow
-		for (ObjectId o : wantIds) {
+	private void findDepthBoundary(Set<ObjectId> wants,
+			Set<ObjectId> interior, Set<ObjectId> boundary) throws IOException {
+		List<RevCommit> roots = new ArrayList<RevCommit>(wants.size());
+		for (ObjectId o : wants) {
 			try {
-				depthWalk.markRoot(depthWalk.parseCommit(o));
+				roots.add(walk.parseCommit(o));
 			} catch (IncorrectObjectTypeException notCommit) {
 				// Ignore non-commits in this loop.
 			}
 		}
 
+		if (depthCache == null) {
+			DepthBoundaryCache.Boundary b = walkDepth(roots);
+			interior.addAll(b.interior);
+			boundary.addAll(b.shallow);
+			return;
+		}
+
+		// The depth of a commit is its shortest distance to any of the
+		// roots, so the boundary of all roots can be assembled from the
+		// boundary of each, which does not change once found.
+		for (RevCommit root : roots) {
+			DepthBoundaryCache.Boundary b = depthCache.lookup(root, depth);
+			if (b == null) {
+				b = walkDepth(Collections.singletonList(root));
+				depthCache.put(root, depth, b);
+			}
+			interior.addAll(b.interior);
+			boundary.addAll(b.shallow);
+		}
+		boundary.removeAll(interior);
+	}
+
+	private DepthBoundaryCache.Boundary walkDepth(List<RevCommit> roots)
+			throws IOException {
+		DepthWalk.RevWalk depthWalk =
+			new DepthWalk.RevWalk(walk.getObjectReader(), depth);
+		for (RevCommit root : roots)
+			depthWalk.markRoot(depthWalk.parseCommit(root));
+
+		List<ObjectId> interior = new ArrayList<ObjectId>();
+		List<ObjectId> shallow = new ArrayList<ObjectId>();
 		RevCommit o;
 		while ((o = depthWalk.next()) != null) {
 			DepthWalk.Commit c = (DepthWalk.Commit) o;
+			if (c.getDepth() == depth)
+				shallow.add(c.copy());
+			else
+				interior.add(c.copy());
+		}
+		return new DepthBoundaryCache.Boundary(interior, shallow);
+	}
 
-			// Commits at the boundary which aren't already shallow in
-			// the client need to be marked as such
-			if (c.getDepth() == depth && !clientShallowCommits.contains(c))
-				pckOut.writeString("shallow " + o.name()); //$NON-NLS-1$
-
-			// Commits not on the boundary which are shallow in the client
-			// need to become unshallowed
-			if (c.getDepth() < depth && clientShallowCommits.contains(c)) {
-				unshallowCommits.add(c.copy());
-				pckOut.writeString("unshallow " + c.name()); //$NON-NLS-1$
+	private void findDeepenBoundary(Set<ObjectId> wants,
+			Set<ObjectId> interior, Set<ObjectId> boundary) throws IOException {
+		// Use a reader of our own, so the walk can be released.
+		RevWalk rw = new RevWalk(db);
+		try {
+			rw.setRetainBody(false);
+			for (ObjectId o : wants) {
+				try {
+					rw.markStart(rw.parseCommit(o));
+				} catch (IncorrectObjectTypeException notCommit) {
+					// Ignore non-commits in this loop.
+				}
+			}
+			for (String name : deepenNots) {
+				Ref ref = db.getRef(name);
+				if (ref == null || ref.getObjectId() == null)
+					throw new PackProtocolException(MessageFormat.format(
+							JGitText.get().invalidDeepenNot, name));
+				try {
+					rw.markUninteresting(rw.parseCommit(ref.getObjectId()));
+				} catch (IncorrectObjectTypeException notCommit) {
+					// Only the history of commits is cut.
+				}
 			}
+			if (deepenSince != 0)
+				rw.setRevFilter(CommitTimeRevFilter.after(deepenSince * 1000L));
+
+			RevFlag included = rw.newFlag("INCLUDED"); //$NON-NLS-1$
+			List<RevCommit> commits = new ArrayList<RevCommit>();
+			RevCommit c;
+			while ((c = rw.next()) != null) {
+				c.add(included);
+				commits.add(c);
+			}
+			if (commits.isEmpty())
+				throw new PackProtocolException(
+						JGitText.get().noCommitsSelectedForShallow);
+
+			// A commit is shallow if the client does not get all of its parents.
+			for (RevCommit cmit : commits) {
+				boolean cut = false;
+				for (RevCommit p : cmit.getParents()) {
+					if (!p.has(included)) {
+						cut = true;
+						break;
+					}
+				}
+				if (cut)
+					boundary.add(cmit.copy());
+				else
+					interior.add(cmit.copy());
+			}
+		} finally {
+			rw.release();
 		}
-
-		pckOut.end();
 	}
 
 	/**
@@ -674,6 +1309,17 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 			throw fail;
 		}
 
+		if (isProtocolV2()) {
+			adv.writeOne(BasePackFetchConnection.VERSION_2 + '\n');
+			adv.writeOne(COMMAND_LS_REFS + '\n');
+			adv.writeOne(COMMAND_FETCH + '=' + OPTION_SHALLOW
+					+ (allowFilter ? " " + OPTION_FILTER : "") + '\n'); //$NON-NLS-1$ //$NON-NLS-2$
+			if (!bundleURIs.isEmpty())
+				adv.writeOne(COMMAND_BUNDLE_URI + '\n');
+			adv.end();
+			return;
+		}
+
 		adv.init(db);
 		adv.advertiseCapability(OPTION_INCLUDE_TAG);
 		adv.advertiseCapability(OPTION_MULTI_ACK_DETAILED);
@@ -684,9 +1330,14 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 		adv.advertiseCapability(OPTION_THIN_PACK);
 		adv.advertiseCapability(OPTION_NO_PROGRESS);
 		adv.advertiseCapability(OPTION_SHALLOW);
+		adv.advertiseCapability(OPTION_DEEPEN_SINCE);
+		adv.advertiseCapability(OPTION_DEEPEN_NOT);
+		if (allowFilter)
+			adv.advertiseCapability(OPTION_FILTER);
 		if (!biDirectionalPipe)
 			adv.advertiseCapability(OPTION_NO_DONE);
 		adv.setDerefTags(true);
+		adv.setCache(advertisementCache, advertisementVersion);
 		advertised = adv.send(getAdvertisedOrDefaultRefs());
 		adv.end();
 	}
@@ -694,38 +1345,55 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 	private void recvWants() throws IOException {
 		boolean isFirst = true;
 		for (;;) {
-			String line;
+			int len;
 			try {
-				line = pckIn.readString();
+				len = pckIn.readLine();
 			} catch (EOFException eof) {
 				if (isFirst)
 					break;
 				throw eof;
 			}
 
-			if (line == PacketLineIn.END)
+			if (len < 0)
 				break;
 
-			if (line.startsWith("deepen ")) { //$NON-NLS-1$
-				depth = Integer.parseInt(line.substring(7));
+			byte[] line = pckIn.getLineBuffer();
+			if (pckIn.lineStartsWith(DEEPEN_)) {
+				depth = Integer.parseInt(pckIn.getLineString().substring(7));
 				continue;
 			}
 
-			if (line.startsWith("shallow ")) { //$NON-NLS-1$
-				clientShallowCommits.add(ObjectId.fromString(line.substring(8)));
+			if (pckIn.lineStartsWith(DEEPEN_SINCE_)) {
+				deepenSince = Integer.parseInt(pckIn.getLineString()
+						.substring(13));
 				continue;
 			}
 
-			if (!line.startsWith("want ") || line.length() < 45) //$NON-NLS-1$
-				throw new PackProtocolException(MessageFormat.format(JGitText.get().expectedGot, "want", line)); //$NON-NLS-1$
+			if (pckIn.lineStartsWith(DEEPEN_NOT_)) {
+				deepenNots.add(pckIn.getLineString().substring(11));
+				continue;
+			}
+
+			if (pckIn.lineStartsWith(FILTER_)) {
+				parseFilter(pckIn.getLineString());
+				continue;
+			}
 
-			if (isFirst && line.length() > 45) {
-				final FirstLine firstLine = new FirstLine(line);
-				options = firstLine.getOptions();
-				line = firstLine.getLine();
+			if (pckIn.lineStartsWith(SHALLOW_) && len == 48) {
+				clientShallowCommits.add(ObjectId.fromString(line, 8));
+				continue;
 			}
 
-			wantIds.add(ObjectId.fromString(line.substring(5)));
+			if (!pckIn.lineStartsWith(WANT_) || len < 45
+					|| (!isFirst && len > 45))
+				throw new PackProtocolException(MessageFormat.format(
+						JGitText.get().expectedGot, "want", //$NON-NLS-1$
+						pckIn.getLineString()));
+
+			if (isFirst && len > 45)
+				options = new FirstLine(pckIn.getLineString()).getOptions();
+
+			wantIds.add(ObjectId.fromString(line, 5));
 			isFirst = false;
 		}
 	}
@@ -736,48 +1404,50 @@ private boolean negotiate() throws IOException {
 		ObjectId last = ObjectId.zeroId();
 		List<ObjectId> peerHas = new ArrayList<ObjectId>(64);
 		for (;;) {
-			String line;
+			int len;
 			try {
-				line = pckIn.readString();
+				len = pckIn.readLine();
 			} catch (EOFException eof) {
 				// EOF on stateless RPC (aka smart HTTP) and non-shallow request
 				// means the client asked for the updated shallow/unshallow data,
 				// disconnected, and will try another request with actual want/have.
 				// Don't report the EOF here, its a bug in the protocol that the client
 				// just disconnects without sending an END.
-				if (!biDirectionalPipe && depth > 0)
+				if (!biDirectionalPipe && isShallow())
 					return false;
 				throw eof;
 			}
 
-			if (line == PacketLineIn.END) {
+			if (len < 0) {
 				last = processHaveLines(peerHas, last);
 				if (commonBase.isEmpty() || multiAck != MultiAck.OFF)
 					pckOut.writeString("NAK\n"); //$NON-NLS-1$
 				if (noDone && sentReady) {
-					pckOut.writeString("ACK " + last.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					pckOut.writeId(ACK_, last, LF);
 					return true;
 				}
 				if (!biDirectionalPipe)
 					return false;
 				pckOut.flush();
 
-			} else if (line.startsWith("have ") && line.length() == 45) { //$NON-NLS-1$
-				peerHas.add(ObjectId.fromString(line.substring(5)));
+			} else if (len == 45 && pckIn.lineStartsWith(HAVE_)) {
+				peerHas.add(ObjectId.fromString(pckIn.getLineBuffer(), 5));
 
-			} else if (line.equals("done")) { //$NON-NLS-1$
+			} else if (pckIn.lineEquals(DONE)) {
 				last = processHaveLines(peerHas, last);
 
 				if (commonBase.isEmpty())
 					pckOut.writeString("NAK\n"); //$NON-NLS-1$
 
 				else if (multiAck != MultiAck.OFF)
-					pckOut.writeString("ACK " + last.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					pckOut.writeId(ACK_, last, LF);
 
 				return true;
 
 			} else {
-				throw new PackProtocolException(MessageFormat.format(JGitText.get().expectedGot, "have", line)); //$NON-NLS-1$
+				throw new PackProtocolException(MessageFormat.format(
+						JGitText.get().expectedGot, "have", //$NON-NLS-1$
+						pckIn.getLineString()));
 			}
 		}
 	}
@@ -785,8 +1455,11 @@ else if (multiAck != MultiAck.OFF)
 	private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 			throws IOException {
 		preUploadHook.onBeginNegotiateRound(this, wantIds, peerHas.size());
-		if (peerHas.isEmpty())
+		if (peerHas.isEmpty() && !(isProtocolV2() && wantAll.isEmpty())) {
+			// A protocol v2 request must parse and validate the wants
+			// even when it carries no haves.
 			return last;
+		}
 
 		List<ObjectId> toParse = peerHas;
 		HashSet<ObjectId> peerHasSet = null;
@@ -827,7 +1500,8 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 				// list wasn't parsed earlier, and was done in this batch.
 				//
 				if (wantIds.remove(obj)) {
-					if (!advertised.contains(obj) && requestPolicy != RequestPolicy.ANY) {
+					if (requestPolicy != RequestPolicy.ANY
+							&& !getAdvertisedIds().contains(obj)) {
 						if (notAdvertisedWants == null)
 							notAdvertisedWants = new HashSet<RevObject>();
 						notAdvertisedWants.add(obj);
@@ -872,18 +1546,26 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 					((RevCommit) obj).carry(PEER_HAS);
 				addCommonBase(obj);
 
+				if (isProtocolV2()) {
+					// Protocol v2 acknowledges every common object, but
+					// only while the client is still negotiating.
+					if (!peerDone)
+						pckOut.writeId(ACK_, obj, LF);
+					continue;
+				}
+
 				// If both sides have the same object; let the client know.
 				//
 				switch (multiAck) {
 				case OFF:
 					if (commonBase.size() == 1)
-						pckOut.writeString("ACK " + obj.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+						pckOut.writeId(ACK_, obj, LF);
 					break;
 				case CONTINUE:
-					pckOut.writeString("ACK " + obj.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					pckOut.writeId(ACK_, obj, CONTINUE_LF);
 					break;
 				case DETAILED:
-					pckOut.writeString("ACK " + obj.name() + " common\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					pckOut.writeId(ACK_, obj, COMMON_LF);
 					break;
 				}
 			}
@@ -927,10 +1609,10 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 						case OFF:
 							break;
 						case CONTINUE:
-							pckOut.writeString("ACK " + id.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
+							pckOut.writeId(ACK_, id, CONTINUE_LF);
 							break;
 						case DETAILED:
-							pckOut.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
+							pckOut.writeId(ACK_, id, READY_LF);
 							sentReady = true;
 							break;
 						}
@@ -943,7 +1625,7 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 		if (multiAck == MultiAck.DETAILED && !didOkToGiveUp && okToGiveUp()) {
 			ObjectId id = peerHas.get(peerHas.size() - 1);
 			sentReady = true;
-			pckOut.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			pckOut.writeId(ACK_, id, READY_LF);
 			sentReady = true;
 		}
 
@@ -969,7 +1651,7 @@ private void checkNotAdvertisedWants(Set<RevObject> notAdvertisedWants)
 			walk.markStart((RevCommit) o);
 		}
 
-		for (ObjectId id : advertised) {
+		for (ObjectId id : getAdvertisedIds()) {
 			try {
 				walk.markUninteresting(walk.parseCommit(id));
 			} catch (IncorrectObjectTypeException notCommit) {
@@ -1131,16 +1813,34 @@ private void sendPack(final boolean sideband) throws IOException {
 			throw noPack;
 		}
 
+		String cacheKey = null;
+		if (packCache != null && commonBase.isEmpty() && !isShallow()
+				&& clientShallowCommits.isEmpty() && refs != null) {
+			// Negotiation moves the parsed wants from wantIds to wantAll.
+			cacheKey = UploadPackCache.key(wantAll.isEmpty() ? wantIds
+					: wantAll, packOptions(), refs);
+			if (sendCachedPack(cacheKey, packOut)) {
+				if (sideband)
+					pckOut.end();
+				return;
+			}
+		}
+
 		PackConfig cfg = packConfig;
 		if (cfg == null)
 			cfg = new PackConfig(db);
 		final PackWriter pw = new PackWriter(cfg, walk.getObjectReader());
+		UploadPackCache.Insertion cacheIns = null;
 		try {
+			if (cacheKey != null)
+				packOut = cacheIns = packCache.insert(cacheKey, packOut);
+
 			pw.setUseCachedPacks(true);
 			pw.setReuseDeltaCommits(true);
 			pw.setDeltaBaseAsOffset(options.contains(OPTION_OFS_DELTA));
 			pw.setThin(options.contains(OPTION_THIN_PACK));
 			pw.setReuseValidatingObjects(false);
+			pw.setFilterSpec(filterSpec);
 
 			if (commonBase.isEmpty() && refs != null) {
 				Set<ObjectId> tagTargets = new HashSet<ObjectId>();
@@ -1153,10 +1853,16 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 						tagTargets.add(ref.getObjectId());
 				}
 				pw.setTagTargets(tagTargets);
+
+				Ref head = refs.get(Constants.HEAD);
+				if (head != null)
+					pw.setLocalityTip(head.getObjectId());
 			}
 
 			if (depth > 0)
 				pw.setShallowPack(depth, unshallowCommits);
+			else if (shallowCommits != null)
+				pw.setShallowPack(shallowCommits, unshallowCommits);
 
 			RevWalk rw = walk;
 			if (wantAll.isEmpty()) {
@@ -1198,6 +1904,8 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 
 			pw.writePack(pm, NullProgressMonitor.INSTANCE, packOut);
 			statistics = pw.getStatistics();
+			if (cacheIns != null)
+				cacheIns.commit();
 
 			if (msgOut != null) {
 				String msg = pw.getStatistics().getMessage() + '\n';
@@ -1206,6 +1914,8 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 			}
 
 		} finally {
+			if (cacheIns != null)
+				cacheIns.abort();
 			pw.release();
 		}
 
@@ -1215,4 +1925,34 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 		if (statistics != null)
 			logger.onPackStatistics(statistics);
 	}
+
+	private List<String> packOptions() {
+		List<String> r = new ArrayList<String>(3);
+		if (options.contains(OPTION_OFS_DELTA))
+			r.add(OPTION_OFS_DELTA);
+		if (options.contains(OPTION_THIN_PACK))
+			r.add(OPTION_THIN_PACK);
+		if (options.contains(OPTION_INCLUDE_TAG))
+			r.add(OPTION_INCLUDE_TAG);
+		if (filterSpec != null)
+			r.add(OPTION_FILTER + ' ' + filterSpec);
+		return r;
+	}
+
+	private boolean sendCachedPack(String key, OutputStream packOut)
+			throws IOException {
+		InputStream in = packCache.open(key);
+		if (in == null)
+			return false;
+		try {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				packOut.write(buf, 0, n);
+			packOut.flush();
+		} finally {
+			in.close();
+		}
+		return true;
+	}
 }
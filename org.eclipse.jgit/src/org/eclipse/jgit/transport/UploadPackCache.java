@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2013, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Bounded on-disk cache of packs sent by {@link UploadPack} for clones.
+ * <p>
+ * A clone has no common base with the server, so its pack depends only on the
+ * objects the client wants, the capabilities that shape the pack and the refs
+ * the server advertised. Responses to identical clone requests can therefore
+ * be streamed from the pack generated for the first one, skipping the object
+ * walk and delta search.
+ * <p>
+ * Entries are evicted least recently used first once the cache exceeds its
+ * size limit, and all entries of a repository are dropped when a
+ * {@link RefsChangedEvent} is seen for it. The advertised refs are also part
+ * of the key, so an entry is never matched after a ref update that was not
+ * seen by this process.
+ */
+public class UploadPackCache {
+	private static final String SUFFIX = ".pack"; //$NON-NLS-1$
+
+	private static final RepositoryCacheMap<UploadPackCache> caches = new RepositoryCacheMap<UploadPackCache>(
+			RepositoryCacheMap.DEFAULT_MAX_REPOSITORIES) {
+		@Override
+		UploadPackCache create(Repository db) {
+			return new UploadPackCache(new File(db.getDirectory(),
+					"packcache"), maxBytes(db)); //$NON-NLS-1$
+		}
+	};
+
+	static {
+		Repository.getGlobalListenerList().addRefsChangedListener(
+				new RefsChangedListener() {
+					public void onRefsChanged(RefsChangedEvent event) {
+						UploadPackCache cache = caches.peek(event
+								.getRepository());
+						if (cache != null)
+							cache.invalidate();
+					}
+				});
+	}
+
+	/**
+	 * Get the cache configured for a repository.
+	 * <p>
+	 * The cache is enabled by setting {@code uploadpack.packCacheSize} to the
+	 * number of bytes it may use. Entries are stored in {@code packcache}
+	 * below the repository directory. Repositories opened more than once share
+	 * the same cache object while the repository is among the most recently
+	 * used ones; the packs on disk are picked up again afterwards.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @return the cache; null if the repository has no cache configured.
+	 */
+	public static UploadPackCache get(Repository db) {
+		File dir = db.getDirectory();
+		if (dir == null)
+			return null;
+		long size = maxBytes(db);
+		if (size <= 0)
+			return null;
+
+		UploadPackCache cache = caches.get(db);
+		cache.setMaxBytes(size);
+		return cache;
+	}
+
+	private static long maxBytes(Repository db) {
+		return db.getConfig().getLong("uploadpack", "packcachesize", 0); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Compute the key of a clone request.
+	 *
+	 * @param wants
+	 *            objects requested by the client.
+	 * @param options
+	 *            capabilities that change the content of the pack.
+	 * @param refs
+	 *            refs advertised to the client.
+	 * @return key of the request, suitable for {@link #open(String)}.
+	 */
+	public static String key(Collection<? extends AnyObjectId> wants,
+			Collection<String> options, Map<String, Ref> refs) {
+		MessageDigest md = Constants.newMessageDigest();
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+
+		List<ObjectId> w = new ArrayList<ObjectId>(wants.size());
+		for (AnyObjectId id : wants)
+			w.add(id.copy());
+		Collections.sort(w);
+		for (ObjectId id : w) {
+			id.copyRawTo(raw, 0);
+			md.update(raw);
+		}
+
+		md.update((byte) 0);
+		String[] opts = options.toArray(new String[options.size()]);
+		Arrays.sort(opts);
+		for (String o : opts) {
+			md.update(Constants.encode(o));
+			md.update((byte) 0);
+		}
+
+		md.update((byte) 0);
+		for (Ref r : new TreeMap<String, Ref>(refs).values()) {
+			md.update(Constants.encode(r.getName()));
+			md.update((byte) 0);
+			if (r.getObjectId() != null) {
+				r.getObjectId().copyRawTo(raw, 0);
+				md.update(raw);
+			}
+		}
+		return ObjectId.fromRaw(md.digest()).name();
+	}
+
+	private final File directory;
+
+	private volatile long maxBytes;
+
+	/** Cached entries and their size, least recently used first. */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(
+			16, 0.75f, true);
+
+	private long totalBytes;
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param directory
+	 *            directory holding the cached packs. Packs already present in
+	 *            it are reused.
+	 * @param maxBytes
+	 *            maximum number of bytes the cached packs may use.
+	 */
+	public UploadPackCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		File[] files = directory.listFiles();
+		if (files != null) {
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File a, File b) {
+					return Long.signum(a.lastModified() - b.lastModified());
+				}
+			});
+			for (File f : files) {
+				String name = f.getName();
+				if (name.endsWith(SUFFIX)) {
+					name = name.substring(0, name.length() - SUFFIX.length());
+					entries.put(name, Long.valueOf(f.length()));
+					totalBytes += f.length();
+				} else
+					f.delete();
+			}
+		}
+	}
+
+	/** @return maximum number of bytes the cached packs may use. */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @param maxBytes
+	 *            maximum number of bytes the cached packs may use.
+	 */
+	public void setMaxBytes(long maxBytes) {
+		if (this.maxBytes != maxBytes) {
+			this.maxBytes = maxBytes;
+			evict();
+		}
+	}
+
+	/** @return number of bytes used by the cached packs. */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Open a cached pack.
+	 *
+	 * @param key
+	 *            key of the request, from
+	 *            {@link #key(Collection, Collection, Map)}.
+	 * @return stream of the pack; null if no pack is cached for the key.
+	 */
+	public InputStream open(String key) {
+		synchronized (this) {
+			if (entries.get(key) == null)
+				return null;
+		}
+		try {
+			return new FileInputStream(file(key));
+		} catch (FileNotFoundException gone) {
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Begin caching a pack while it is sent to a client.
+	 *
+	 * @param key
+	 *            key of the request, from
+	 *            {@link #key(Collection, Collection, Map)}.
+	 * @param dst
+	 *            stream the pack is sent to.
+	 * @return stream to write the pack to. It copies the pack into
+	 *         {@code dst}, and adds it to the cache once
+	 *         {@link Insertion#commit()} is called.
+	 * @throws IOException
+	 *             the cache directory cannot be written.
+	 */
+	public Insertion insert(String key, OutputStream dst) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()
+				&& !directory.isDirectory())
+			throw new IOException(directory.getPath());
+		File tmp = File.createTempFile("incoming_", ".tmp", directory); //$NON-NLS-1$ //$NON-NLS-2$
+		return new Insertion(key, dst, tmp);
+	}
+
+	/** Remove all cached packs. */
+	public void invalidate() {
+		List<String> keys;
+		synchronized (this) {
+			keys = new ArrayList<String>(entries.keySet());
+		}
+		for (String key : keys)
+			remove(key);
+	}
+
+	private File file(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	private void remove(String key) {
+		synchronized (this) {
+			Long sz = entries.remove(key);
+			if (sz == null)
+				return;
+			totalBytes -= sz.longValue();
+		}
+		file(key).delete();
+	}
+
+	private void add(String key, File tmp) {
+		long sz = tmp.length();
+		synchronized (this) {
+			if (maxBytes < sz || entries.containsKey(key)
+					|| !tmp.renameTo(file(key))) {
+				tmp.delete();
+				return;
+			}
+			entries.put(key, Long.valueOf(sz));
+			totalBytes += sz;
+		}
+		evict();
+	}
+
+	private void evict() {
+		for (;;) {
+			String key;
+			synchronized (this) {
+				if (totalBytes <= maxBytes)
+					return;
+				Iterator<String> i = entries.keySet().iterator();
+				if (!i.hasNext())
+					return;
+				key = i.next();
+			}
+			remove(key);
+		}
+	}
+
+	/** A pack being written to a client and to the cache. */
+	public class Insertion extends OutputStream {
+		private final String key;
+
+		private final OutputStream dst;
+
+		private final File tmp;
+
+		private OutputStream out;
+
+		private long size;
+
+		Insertion(String key, OutputStream dst, File tmp)
+				throws FileNotFoundException {
+			this.key = key;
+			this.dst = dst;
+			this.tmp = tmp;
+			this.out = new FileOutputStream(tmp);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			dst.write(b);
+			if (out != null && keep(1))
+				out.write(b);
+		}
+
+		@Override
+		public void write(byte[] buf, int pos, int cnt) throws IOException {
+			dst.write(buf, pos, cnt);
+			if (out != null && keep(cnt))
+				out.write(buf, pos, cnt);
+		}
+
+		private boolean keep(int cnt) {
+			size += cnt;
+			if (size <= maxBytes)
+				return true;
+			abort(); // Too large to ever be cached.
+			return false;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			dst.flush();
+		}
+
+		/**
+		 * Add the pack to the cache; it was completely written.
+		 *
+		 * @throws IOException
+		 *             the cached copy could not be completed.
+		 */
+		public void commit() throws IOException {
+			if (out == null)
+				return;
+			try {
+				out.close();
+			} catch (IOException err) {
+				abort();
+				throw err;
+			}
+			out = null;
+			add(key, tmp);
+		}
+
+		/** Discard the cached copy of the pack, unless it was committed. */
+		public void abort() {
+			if (out == null)
+				return;
+			try {
+				out.close();
+			} catch (IOException ignored) {
+				// The file is deleted anyway.
+			}
+			out = null;
+			tmp.delete();
+		}
+	}
+}
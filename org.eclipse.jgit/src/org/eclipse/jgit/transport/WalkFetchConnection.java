@@ -48,6 +48,7 @@
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -57,6 +58,13 @@
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.errors.CompoundException;
 import org.eclipse.jgit.errors.CorruptObjectException;
@@ -67,6 +75,7 @@
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectChecker;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
@@ -107,10 +116,19 @@
  * Instead it delegates the transfer to a {@link WalkRemoteObjectDatabase},
  * which knows how to read individual files from the remote repository and
  * supply the data as a standard Java InputStream.
+ * <p>
+ * If the remote database permits parallel downloads, loose objects are
+ * downloaded by background threads as soon as a parsed tree, commit or tag
+ * names them, and pack indexes are downloaded as soon as the pack is listed.
+ * Verification and insertion of every object still happen on the fetching
+ * thread, in work queue order.
  *
  * @see WalkRemoteObjectDatabase
  */
 class WalkFetchConnection extends BaseFetchConnection {
+	/** Number of loose objects prefetched for each download thread. */
+	private static final int PREFETCH_PER_THREAD = 4;
+
 	/** The repository this transport fetches into, or pushes out of. */
 	private final Repository local;
 
@@ -142,6 +160,9 @@ class WalkFetchConnection extends BaseFetchConnection {
 	/** Commits that have already entered {@link #localCommitQueue}. */
 	private final RevFlag LOCALLY_SEEN;
 
+	/** Objects that have already been considered for prefetching. */
+	private final RevFlag PREFETCH_SEEN;
+
 	/** Commits already reachable from all local refs. */
 	private final DateRevQueue localCommitQueue;
 
@@ -187,6 +208,15 @@ class WalkFetchConnection extends BaseFetchConnection {
 	/** Inserter to read objects from {@link #local}. */
 	private final ObjectReader reader;
 
+	/** Loose objects being downloaded ahead of {@link #workQueue}. */
+	private final HashMap<ObjectId, Prefetch> prefetches;
+
+	/** Threads downloading ahead of the work queue; null until needed. */
+	private ExecutorService prefetchPool;
+
+	/** Maximum size of {@link #prefetches}. */
+	private int prefetchWindow;
+
 	WalkFetchConnection(final WalkTransport t, final WalkRemoteObjectDatabase w) {
 		Transport wt = (Transport)t;
 		local = wt.local;
@@ -207,6 +237,7 @@ class WalkFetchConnection extends BaseFetchConnection {
 		noAlternatesYet.add(w);
 
 		fetchErrors = new HashMap<ObjectId, List<Throwable>>();
+		prefetches = new HashMap<ObjectId, Prefetch>();
 		packLocks = new ArrayList<PackLock>(4);
 
 		revWalk = new RevWalk(reader);
@@ -215,6 +246,7 @@ class WalkFetchConnection extends BaseFetchConnection {
 		COMPLETE = revWalk.newFlag("COMPLETE"); //$NON-NLS-1$
 		IN_WORK_QUEUE = revWalk.newFlag("IN_WORK_QUEUE"); //$NON-NLS-1$
 		LOCALLY_SEEN = revWalk.newFlag("LOCALLY_SEEN"); //$NON-NLS-1$
+		PREFETCH_SEEN = revWalk.newFlag("PREFETCH_SEEN"); //$NON-NLS-1$
 
 		localCommitQueue = new DateRevQueue();
 		workQueue = new LinkedList<ObjectId>();
@@ -233,6 +265,7 @@ protected void doFetch(final ProgressMonitor monitor,
 
 		while (!monitor.isCancelled() && !workQueue.isEmpty()) {
 			final ObjectId id = workQueue.removeFirst();
+			prefetch();
 			if (!(id instanceof RevObject) || !((RevObject) id).has(COMPLETE))
 				downloadObject(monitor, id);
 			process(id);
@@ -249,6 +282,11 @@ public void setPackLockMessage(final String message) {
 
 	@Override
 	public void close() {
+		if (prefetchPool != null) {
+			prefetchPool.shutdownNow();
+			prefetchPool = null;
+		}
+		prefetches.clear();
 		inserter.release();
 		reader.release();
 		for (final RemotePack p : unfetchedPacks) {
@@ -282,6 +320,12 @@ private void queueWants(final Collection<Ref> want)
 	}
 
 	private void process(final ObjectId id) throws TransportException {
+		// A prefetch not consumed by now will not be needed, as the
+		// object was found locally or in a pack.
+		final Prefetch prefetched = prefetches.remove(id);
+		if (prefetched != null)
+			prefetched.data.cancel(true);
+
 		final RevObject obj;
 		try {
 			if (id instanceof RevObject) {
@@ -372,18 +416,24 @@ private void processCommit(final RevObject obj) throws TransportException {
 		obj.add(COMPLETE);
 	}
 
-	private void processTag(final RevObject obj) {
+	private void processTag(final RevObject obj) throws TransportException {
 		final RevTag tag = (RevTag) obj;
 		needs(tag.getObject());
 		obj.add(COMPLETE);
 	}
 
-	private void needs(final RevObject obj) {
+	private void needs(final RevObject obj) throws TransportException {
 		if (obj.has(COMPLETE))
 			return;
 		if (!obj.has(IN_WORK_QUEUE)) {
 			obj.add(IN_WORK_QUEUE);
 			workQueue.add(obj);
+
+			if (prefetches.size() < prefetchWindow) {
+				final WalkRemoteObjectDatabase remote = prefetchRemote();
+				if (remote != null)
+					prefetch(obj, remote);
+			}
 		}
 	}
 
@@ -403,10 +453,7 @@ private void downloadObject(final ProgressMonitor pm, final AnyObjectId id)
 			// Search for a loose object over all alternates, starting
 			// from the one we last successfully located an object through.
 			//
-			final String idStr = id.name();
-			final String subdir = idStr.substring(0, 2);
-			final String file = idStr.substring(2);
-			final String looseName = subdir + "/" + file; //$NON-NLS-1$
+			final String looseName = looseName(id);
 
 			for (int i = lastRemoteIdx; i < remotes.size(); i++) {
 				if (downloadLooseObject(id, looseName, remotes.get(i))) {
@@ -444,6 +491,7 @@ private void downloadObject(final ProgressMonitor pm, final AnyObjectId id)
 					if (packsConsidered.add(packName))
 						unfetchedPacks.add(new RemotePack(wrr, packName));
 				}
+				prefetchIndexes(wrr);
 				if (downloadPackedObject(pm, id))
 					return;
 			}
@@ -584,11 +632,18 @@ private Iterator<ObjectId> swapFetchQueue() {
 		return r;
 	}
 
+	private static String looseName(final AnyObjectId id) {
+		final String idStr = id.name();
+		final String subdir = idStr.substring(0, 2);
+		final String file = idStr.substring(2);
+		return subdir + "/" + file; //$NON-NLS-1$
+	}
+
 	private boolean downloadLooseObject(final AnyObjectId id,
 			final String looseName, final WalkRemoteObjectDatabase remote)
 			throws TransportException {
 		try {
-			final byte[] compressed = remote.open(looseName).toArray();
+			final byte[] compressed = openLooseObject(id, looseName, remote);
 			verifyAndInsertLooseObject(id, compressed);
 			return true;
 		} catch (FileNotFoundException e) {
@@ -602,6 +657,146 @@ private boolean downloadLooseObject(final AnyObjectId id,
 		}
 	}
 
+	private byte[] openLooseObject(final AnyObjectId id,
+			final String looseName, final WalkRemoteObjectDatabase remote)
+			throws IOException {
+		final Prefetch p = prefetches.remove(id);
+		if (p != null) {
+			if (p.remote != remote) {
+				p.data.cancel(true);
+			} else {
+				try {
+					return p.data.get();
+				} catch (InterruptedException e) {
+					final InterruptedIOException err;
+					err = new InterruptedIOException(id.name());
+					err.initCause(e);
+					throw err;
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof FileNotFoundException)
+						throw (FileNotFoundException) e.getCause();
+					// Any other failure is retried below, which reports
+					// the error if it was not transient.
+				}
+			}
+		}
+		return remote.open(looseName).toArray();
+	}
+
+	/**
+	 * Start background downloads of loose objects near the front of the work
+	 * queue, topping up what {@link #needs(RevObject)} started.
+	 *
+	 * @throws TransportException
+	 *             the local repository cannot be read.
+	 */
+	private void prefetch() throws TransportException {
+		final WalkRemoteObjectDatabase remote = prefetchRemote();
+		if (remote == null)
+			return;
+
+		final Iterator<ObjectId> itr = workQueue.iterator();
+		for (int n = 0; n < prefetchWindow && itr.hasNext(); n++) {
+			if (prefetchWindow <= prefetches.size())
+				return;
+			prefetch(itr.next(), remote);
+		}
+	}
+
+	/**
+	 * Start a background download of a loose object.
+	 * <p>
+	 * Objects already present locally, or listed by a pack index that has
+	 * been read, are skipped as {@link #downloadObject(ProgressMonitor,
+	 * AnyObjectId)} would not download them either.
+	 *
+	 * @param id
+	 *            object in the work queue.
+	 * @param remote
+	 *            database to download the object from.
+	 * @throws TransportException
+	 *             the local repository cannot be read.
+	 */
+	private void prefetch(final ObjectId id,
+			final WalkRemoteObjectDatabase remote) throws TransportException {
+		if (id instanceof RevObject) {
+			final RevObject obj = (RevObject) id;
+			if (obj.has(PREFETCH_SEEN))
+				return;
+			obj.add(PREFETCH_SEEN);
+			if (obj.has(COMPLETE))
+				return;
+		} else if (prefetches.containsKey(id))
+			return;
+		if (alreadyHave(id) || inReadPackIndex(id))
+			return;
+
+		final String looseName = looseName(id);
+		final Future<byte[]> data = prefetchPool.submit(new Callable<byte[]>() {
+			public byte[] call() throws IOException {
+				return remote.open(looseName).toArray();
+			}
+		});
+		prefetches.put(id.copy(), new Prefetch(remote, data));
+	}
+
+	/**
+	 * @return the database loose objects are prefetched from, or null if it
+	 *         does not permit parallel downloads.
+	 */
+	private WalkRemoteObjectDatabase prefetchRemote() {
+		final WalkRemoteObjectDatabase remote = remotes.get(lastRemoteIdx);
+		if (remote.getMaxParallelDownloads() <= 1)
+			return null;
+		startPrefetchPool(remote);
+		return remote;
+	}
+
+	private void startPrefetchPool(final WalkRemoteObjectDatabase remote) {
+		if (prefetchPool == null) {
+			final int threads = remote.getMaxParallelDownloads();
+			prefetchPool = newPrefetchPool(threads);
+			prefetchWindow = PREFETCH_PER_THREAD * threads;
+		}
+	}
+
+	/**
+	 * Start background downloads of the indexes of packs just listed.
+	 *
+	 * @param remote
+	 *            database whose packs were listed.
+	 */
+	private void prefetchIndexes(final WalkRemoteObjectDatabase remote) {
+		if (remote.getMaxParallelDownloads() <= 1)
+			return;
+		startPrefetchPool(remote);
+		for (final RemotePack pack : unfetchedPacks) {
+			if (pack.connection == remote)
+				pack.prefetchIndex();
+		}
+	}
+
+	private boolean inReadPackIndex(final AnyObjectId id) {
+		for (final RemotePack pack : unfetchedPacks) {
+			if (pack.index != null && pack.index.hasObject(id))
+				return true;
+		}
+		return false;
+	}
+
+	private static ExecutorService newPrefetchPool(final int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger cnt = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, "JGit-WalkFetch-" //$NON-NLS-1$
+						+ cnt.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
 	private void verifyAndInsertLooseObject(final AnyObjectId id,
 			final byte[] compressed) throws IOException {
 		final ObjectLoader uol;
@@ -777,6 +972,17 @@ private void recordError(final AnyObjectId id, final Throwable what) {
 		errors.add(what);
 	}
 
+	private static class Prefetch {
+		final WalkRemoteObjectDatabase remote;
+
+		final Future<byte[]> data;
+
+		Prefetch(final WalkRemoteObjectDatabase remote, final Future<byte[]> data) {
+			this.remote = remote;
+			this.data = data;
+		}
+	}
+
 	private class RemotePack {
 		final WalkRemoteObjectDatabase connection;
 
@@ -788,6 +994,9 @@ private class RemotePack {
 
 		PackIndex index;
 
+		/** Background download of {@link #tmpIdx}, or null. */
+		Future<Void> idxDownload;
+
 		RemotePack(final WalkRemoteObjectDatabase c, final String pn) {
 			connection = c;
 			packName = pn;
@@ -806,27 +1015,103 @@ private class RemotePack {
 			}
 		}
 
+		void prefetchIndex() {
+			if (index != null || idxDownload != null)
+				return;
+			try {
+				if (tmpIdx == null)
+					tmpIdx = File.createTempFile("jgit-walk-", ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
+				else if (tmpIdx.isFile())
+					return;
+			} catch (IOException err) {
+				// openIndex will try again and report the failure.
+				return;
+			}
+
+			final File dst = tmpIdx;
+			idxDownload = prefetchPool.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					// Download under another name, so that a partial file
+					// is never mistaken for a complete index.
+					final File part = new File(dst.getPath() + ".part"); //$NON-NLS-1$
+					try {
+						downloadIndex(NullProgressMonitor.INSTANCE, part);
+						// createTempFile made an empty dst, and renameTo
+						// does not replace existing files on all platforms.
+						if (dst.exists())
+							FileUtils.delete(dst);
+						if (!part.renameTo(dst))
+							throw new IOException(MessageFormat.format(
+									JGitText.get().renameFileFailed, part, dst));
+					} finally {
+						if (part.exists())
+							FileUtils.delete(part);
+					}
+					return null;
+				}
+			});
+		}
+
 		void openIndex(final ProgressMonitor pm) throws IOException {
 			if (index != null)
 				return;
-			if (tmpIdx == null)
-				tmpIdx = File.createTempFile("jgit-walk-", ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
-			else if (tmpIdx.isFile()) {
-				try {
-					index = PackIndex.open(tmpIdx);
+			if (idxDownload != null) {
+				awaitIndex();
+			} else {
+				if (tmpIdx == null)
+					tmpIdx = File.createTempFile("jgit-walk-", ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
+				else if (tmpIdx.isFile()) {
+					try {
+						index = PackIndex.open(tmpIdx);
+						return;
+					} catch (FileNotFoundException err) {
+						// Fall through and get the file.
+					}
+				}
+
+				downloadIndex(pm, tmpIdx);
+				if (pm.isCancelled()) {
+					FileUtils.delete(tmpIdx);
 					return;
-				} catch (FileNotFoundException err) {
-					// Fall through and get the file.
 				}
 			}
 
+			try {
+				index = PackIndex.open(tmpIdx);
+			} catch (IOException e) {
+				FileUtils.delete(tmpIdx);
+				throw e;
+			}
+		}
+
+		private void awaitIndex() throws IOException {
+			final Future<Void> f = idxDownload;
+			idxDownload = null;
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				final InterruptedIOException err;
+				err = new InterruptedIOException(idxName);
+				err.initCause(e);
+				throw err;
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				final IOException err = new IOException(idxName);
+				err.initCause(e.getCause());
+				throw err;
+			}
+		}
+
+		private void downloadIndex(final ProgressMonitor pm, final File dst)
+				throws IOException {
 			final WalkRemoteObjectDatabase.FileStream s;
 			s = connection.open("pack/" + idxName); //$NON-NLS-1$
 			pm.beginTask("Get " + idxName.substring(0, 12) + "..idx", //$NON-NLS-1$ //$NON-NLS-2$
 					s.length < 0 ? ProgressMonitor.UNKNOWN
 							: (int) (s.length / 1024));
 			try {
-				final FileOutputStream fos = new FileOutputStream(tmpIdx);
+				final FileOutputStream fos = new FileOutputStream(dst);
 				try {
 					final byte[] buf = new byte[2048];
 					int cnt;
@@ -838,24 +1123,12 @@ else if (tmpIdx.isFile()) {
 					fos.close();
 				}
 			} catch (IOException err) {
-				FileUtils.delete(tmpIdx);
+				FileUtils.delete(dst);
 				throw err;
 			} finally {
 				s.in.close();
 			}
 			pm.endTask();
-
-			if (pm.isCancelled()) {
-				FileUtils.delete(tmpIdx);
-				return;
-			}
-
-			try {
-				index = PackIndex.open(tmpIdx);
-			} catch (IOException e) {
-				FileUtils.delete(tmpIdx);
-				throw e;
-			}
 		}
 
 		void downloadPack(final ProgressMonitor monitor) throws IOException {
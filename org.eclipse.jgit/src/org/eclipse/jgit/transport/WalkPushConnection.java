@@ -46,6 +46,7 @@
 import static org.eclipse.jgit.transport.WalkRemoteObjectDatabase.ROOT_DIR;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -55,11 +56,19 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.ProgressMonitor;
@@ -167,8 +176,7 @@ public void push(final ProgressMonitor monitor,
 		//
 		if (!updates.isEmpty())
 			sendpack(updates, monitor);
-		for (final RemoteRefUpdate u : updates)
-			updateCommand(u);
+		updateCommands(updates);
 
 		// Is this a new repository? If so we should create additional
 		// metadata files so it is properly initialized during the push.
@@ -258,19 +266,41 @@ private void sendpack(final List<RemoteRefUpdate> updates,
 			//
 			final String wt = "Put " + base.substring(0, 12); //$NON-NLS-1$
 			OutputStream os = dest.writeFile(pathPack, monitor, wt + "..pack"); //$NON-NLS-1$
+			Future<Void> packDone = null;
 			try {
 				os = new SafeBufferedOutputStream(os);
 				writer.writePack(monitor, monitor, os);
+				if (1 < dest.getMaxParallelUploads()) {
+					// Files become visible only once complete, so the
+					// upload of the pack can finish while the index is
+					// sent. Only the pack upload reports progress.
+					//
+					packDone = closeInBackground(os);
+				}
 			} finally {
-				os.close();
+				if (packDone == null)
+					os.close();
 			}
 
-			os = dest.writeFile(pathIdx, monitor, wt + "..idx"); //$NON-NLS-1$
+			final ProgressMonitor idxMonitor = packDone != null
+					? NullProgressMonitor.INSTANCE : monitor;
+			boolean idxDone = false;
 			try {
-				os = new SafeBufferedOutputStream(os);
-				writer.writeIndex(os);
+				os = dest.writeFile(pathIdx, idxMonitor, wt + "..idx"); //$NON-NLS-1$
+				try {
+					os = new SafeBufferedOutputStream(os);
+					writer.writeIndex(os);
+				} finally {
+					os.close();
+				}
+				idxDone = true;
 			} finally {
-				os.close();
+				if (packDone != null) {
+					if (idxDone)
+						await(packDone);
+					else
+						awaitQuietly(packDone);
+				}
 			}
 
 			// Record the pack at the start of the pack info list. This
@@ -292,6 +322,62 @@ private void sendpack(final List<RemoteRefUpdate> updates,
 		}
 	}
 
+	private static Future<Void> closeInBackground(final OutputStream os) {
+		final ExecutorService pool = newUploadPool(1);
+		try {
+			return pool.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					os.close();
+					return null;
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void awaitQuietly(final Future<?> f) {
+		// The caller is already failing; report its error, not this one.
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Ignored in favor of the first failure.
+		}
+	}
+
+	private static <T> T await(final Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			final InterruptedIOException err = new InterruptedIOException();
+			err.initCause(e);
+			throw err;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			final IOException err = new IOException(e.getCause().getMessage());
+			err.initCause(e.getCause());
+			throw err;
+		}
+	}
+
+	private static ExecutorService newUploadPool(final int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger cnt = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, "JGit-WalkPush-" //$NON-NLS-1$
+						+ cnt.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
 	private void safeDelete(final String path) {
 		if (path != null) {
 			try {
@@ -334,18 +420,60 @@ private void deleteCommand(final RemoteRefUpdate u) {
 		}
 	}
 
+	private void updateCommands(final List<RemoteRefUpdate> updates) {
+		final int threads = Math.min(dest.getMaxParallelUploads(),
+				updates.size());
+		if (threads <= 1) {
+			for (final RemoteRefUpdate u : updates)
+				updateCommand(u);
+			return;
+		}
+
+		// Each loose ref is a file of its own, so they can all be
+		// written at once. Results are applied on this thread.
+		//
+		final ExecutorService pool = newUploadPool(threads);
+		try {
+			final List<Future<Void>> writes = new ArrayList<Future<Void>>();
+			for (final RemoteRefUpdate u : updates) {
+				writes.add(pool.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						dest.writeRef(u.getRemoteName(), u.getNewObjectId());
+						return null;
+					}
+				}));
+			}
+			for (int i = 0; i < updates.size(); i++) {
+				final RemoteRefUpdate u = updates.get(i);
+				try {
+					await(writes.get(i));
+					updated(u);
+				} catch (IOException e) {
+					u.setStatus(Status.REJECTED_OTHER_REASON);
+					u.setMessage(e.getMessage());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
 	private void updateCommand(final RemoteRefUpdate u) {
 		try {
 			dest.writeRef(u.getRemoteName(), u.getNewObjectId());
-			newRefs.put(u.getRemoteName(), new ObjectIdRef.Unpeeled(
-					Storage.LOOSE, u.getRemoteName(), u.getNewObjectId()));
-			u.setStatus(Status.OK);
+			updated(u);
 		} catch (IOException e) {
 			u.setStatus(Status.REJECTED_OTHER_REASON);
 			u.setMessage(e.getMessage());
 		}
 	}
 
+	private void updated(final RemoteRefUpdate u) {
+		newRefs.put(u.getRemoteName(), new ObjectIdRef.Unpeeled(
+				Storage.LOOSE, u.getRemoteName(), u.getNewObjectId()));
+		u.setStatus(Status.OK);
+	}
+
 	private boolean isNewRepository() {
 		return getRefsMap().isEmpty() && packNames != null
 				&& packNames.isEmpty();
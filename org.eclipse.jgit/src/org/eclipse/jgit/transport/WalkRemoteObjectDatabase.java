@@ -172,6 +172,35 @@ abstract FileStream open(String path) throws FileNotFoundException,
 	abstract WalkRemoteObjectDatabase openAlternate(String location)
 			throws IOException;
 
+	/**
+	 * Get the number of files that may be downloaded at once.
+	 * <p>
+	 * When more than 1 is returned, {@link #open(String)} may be invoked
+	 * concurrently by that many threads, and the streams it returns are read
+	 * from those threads.
+	 *
+	 * @return maximum number of concurrent {@link #open(String)} calls. The
+	 *         default implementation returns 1.
+	 */
+	int getMaxParallelDownloads() {
+		return 1;
+	}
+
+	/**
+	 * Get the number of files that may be written at once.
+	 * <p>
+	 * When more than 1 is returned, the <code>writeFile</code> methods may be
+	 * invoked concurrently by that many threads, so files may complete in any
+	 * order. Such databases must only make a file visible to readers once it
+	 * has been completely written.
+	 *
+	 * @return maximum number of files written concurrently. The default
+	 *         implementation returns 1.
+	 */
+	int getMaxParallelUploads() {
+		return 1;
+	}
+
 	/**
 	 * Close any resources used by this connection.
 	 * <p>
@@ -47,6 +47,7 @@
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 
 /**
  * Random access list that allocates entries in blocks.
@@ -67,7 +68,7 @@
  * @param <T>
  *            type of list element.
  */
-public class BlockList<T> extends AbstractList<T> {
+public class BlockList<T> extends AbstractList<T> implements RandomAccess {
 	private static final int BLOCK_BITS = 10;
 
 	static final int BLOCK_SIZE = 1 << BLOCK_BITS;
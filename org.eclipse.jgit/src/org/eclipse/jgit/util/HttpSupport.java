@@ -56,6 +56,7 @@
 import java.text.MessageFormat;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.transport.http.HttpConnection;
 
 /** Extra utilities to support usage of HTTP. */
 public class HttpSupport {
@@ -131,6 +132,9 @@ public class HttpSupport {
 	/** The {@code WWW-Authenticate} header. */
 	public static final String HDR_WWW_AUTHENTICATE = "WWW-Authenticate"; //$NON-NLS-1$
 
+	/** The {@code Git-Protocol} header, carrying extra request parameters. */
+	public static final String HDR_GIT_PROTOCOL = "Git-Protocol"; //$NON-NLS-1$
+
 	/**
 	 * URL encode a value string into an output buffer.
 	 *
@@ -175,6 +179,32 @@ public static int response(final HttpURLConnection c) throws IOException {
 		}
 	}
 
+	/**
+	 * Get the HTTP response code from the request.
+	 * <p>
+	 * Roughly the same as <code>c.getResponseCode()</code> but the
+	 * ConnectException is translated to be more understandable.
+	 *
+	 * @param c
+	 *            connection the code should be obtained from.
+	 * @return r HTTP status code, usually 200 to indicate success. See
+	 *         {@link HttpConnection} for other defined constants.
+	 * @throws IOException
+	 *             communications error prevented obtaining the response code.
+	 */
+	public static int response(final HttpConnection c) throws IOException {
+		try {
+			return c.getResponseCode();
+		} catch (ConnectException ce) {
+			final String host = c.getURL().getHost();
+			// The standard J2SE error message is not very useful.
+			//
+			if ("Connection timed out: connect".equals(ce.getMessage()))
+				throw new ConnectException(MessageFormat.format(JGitText.get().connectionTimeOut, host));
+			throw new ConnectException(ce.getMessage() + " " + host); //$NON-NLS-1$
+		}
+	}
+
 	/**
 	 * Determine the proxy server (if any) needed to obtain a URL.
 	 *